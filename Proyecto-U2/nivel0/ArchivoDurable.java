@@ -0,0 +1,123 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Escritura de archivos de estado que sobrevive a una caída a mitad de
+ * camino: el contenido va a un temporal con fsync, se renombra de forma
+ * atómica sobre el original y se sincroniza el directorio para que el
+ * renombre también quede en disco. La primera línea ("#crc32 ...") cubre
+ * el resto del archivo, así que uno dañado o truncado se detecta al leerlo
+ * en vez de cargarse a medias (va al principio y no al final porque un
+ * truncado se llevaría justo esa línea).
+ *
+ * Si el contenido no cambió desde la última escritura o lectura no se
+ * reescribe nada, así el guardado periódico no toca el disco en vano.
+ */
+class ArchivoDurable {
+    private static final String PREFIJO_CRC = "#crc32 ";
+    private static final Map<String, Long> ultimoCrc = new ConcurrentHashMap<>();
+
+    private ArchivoDurable() {}
+
+    /** Reemplaza el archivo por estas líneas. Devuelve false si ya tenía ese contenido. */
+    static synchronized boolean escribir(File archivo, List<String> lineas) throws IOException {
+        byte[] contenido = unir(lineas);
+        long crc = crc(contenido);
+        String clave = archivo.getAbsolutePath();
+        if (archivo.exists()) {
+            if (!ultimoCrc.containsKey(clave)) {
+                try {
+                    leer(archivo);
+                } catch (IOException e) {
+                    // Dañado o ilegible: se reescribe
+                }
+            }
+            Long previo = ultimoCrc.get(clave);
+            if (previo != null && previo == crc) {
+                return false;
+            }
+        }
+
+        File directorio = archivo.getAbsoluteFile().getParentFile();
+        directorio.mkdirs();
+        File temporal = new File(directorio, archivo.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporal)) {
+            fos.write((PREFIJO_CRC + Long.toHexString(crc) + "\n").getBytes(StandardCharsets.UTF_8));
+            fos.write(contenido);
+            fos.getFD().sync();
+        }
+        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel canal = FileChannel.open(directorio.toPath(), StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Hay sistemas de archivos que no permiten abrir un directorio; el renombre ya es atómico
+        }
+        ultimoCrc.put(clave, crc);
+        return true;
+    }
+
+    /**
+     * Líneas del archivo sin la de control. Un archivo anterior a este
+     * formato (sin "#crc32") se acepta tal cual; uno cuyo CRC no coincide
+     * lanza IOException.
+     */
+    static List<String> leer(File archivo) throws IOException {
+        byte[] bytes = Files.readAllBytes(archivo.toPath());
+        int finPrimera = 0;
+        while (finPrimera < bytes.length && bytes[finPrimera] != '\n') {
+            finPrimera++;
+        }
+        String primera = new String(bytes, 0, finPrimera, StandardCharsets.UTF_8);
+        if (!primera.startsWith(PREFIJO_CRC)) {
+            return lineas(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        int inicio = Math.min(finPrimera + 1, bytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, inicio, bytes.length - inicio);
+        long esperado;
+        try {
+            esperado = Long.parseLong(primera.substring(PREFIJO_CRC.length()).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Línea de control inválida en " + archivo);
+        }
+        if (crc.getValue() != esperado) {
+            throw new IOException("Archivo dañado (CRC no coincide): " + archivo);
+        }
+        ultimoCrc.put(archivo.getAbsolutePath(), esperado);
+        return lineas(new String(bytes, inicio, bytes.length - inicio, StandardCharsets.UTF_8));
+    }
+
+    private static List<String> lineas(String texto) {
+        List<String> lineas = new ArrayList<>();
+        for (String linea : texto.split("\r?\n")) {
+            if (!linea.isEmpty()) {
+                lineas.add(linea);
+            }
+        }
+        return lineas;
+    }
+
+    private static byte[] unir(List<String> lineas) {
+        StringBuilder sb = new StringBuilder();
+        for (String linea : lineas) {
+            sb.append(linea).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long crc(byte[] contenido) {
+        CRC32 crc = new CRC32();
+        crc.update(contenido);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,538 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ * Estanques repartidos por combustible: cada tipo lo atiende su primario,
+ * que replica cada operación en su seguidor de forma síncrona antes de
+ * responder ("REPLICAR tipo seq nivel" → "REPLICADO tipo seq"). Cada nodo
+ * tiene su propio bloqueo por tipo, así que la capacidad crece con los nodos.
+ *
+ * Sin contacto entre primario y seguidor ambos pueden seguir vendiendo,
+ * pero cada uno solo la mitad del nivel acordado en la última réplica
+ * (reserva de failover): aunque el seguidor se promueva por una partición
+ * y no por una caída, la suma de lo vendido a ambos lados nunca supera lo
+ * que había y el estanque no queda bajo cero. Lo repuesto sin réplica
+ * amplía la cuota del lado que lo repuso.
+ *
+ * Con ESTANQUE_PERDIDO_MS > 0, un lado que pasa ese tiempo sin contacto da
+ * al otro por perdido y toma como cuota todo su nivel actual. Solo es seguro
+ * si el otro de verdad cayó: en una partición larga ambos lados venderían
+ * el estanque completo.
+ *
+ * El seguidor se promueve tras ESTANQUE_LEASE_MS sin latidos del primario.
+ * Al volver, el primario pide "RECONCILIAR tipo", el seguidor deja de
+ * atender y responde "ESTADO tipo seq nivelAcordado deltaSolo"; el primario
+ * suma lo que vendió cada lado y replica el nivel fusionado con una
+ * secuencia nueva, tras lo cual vuelve la operación normal.
+ *
+ * Cada cambio de estado de un tipo va al diario como una línea absoluta:
+ * tipo|seq|nivel|acordado|soloExtraido|deltaSolo|promovido|inciertoSeq|inciertoAplicado|inciertoDelta|baseCuota|parPerdido
+ */
+class ClusterEstanque {
+    enum Modo { NORMAL, SOLO, SEGUIDOR, PROMOVIDO, AJENO }
+
+    enum Estado { OK, RECHAZADO, MOVER }
+
+    record Resultado(Estado estado, double nivel, String detalle) {}
+
+    /**
+     * Réplica sin confirmación: el seguidor pudo o no aplicar la secuencia
+     * {@code seq}. Se resuelve al reconciliar según la secuencia que informe.
+     */
+    record Incierto(long seq, boolean aplicadoLocal, double deltaSeguidorIncluido) {}
+
+    static class Tanque {
+        final String tipo;
+        final String primario;
+        final String seguidor;
+        Modo modo;
+        double nivel;
+        long seq;
+        /** Nivel en la última secuencia confirmada por ambos lados. */
+        double acordado;
+        /** Lo que este lado puede vender sin réplica desde el último acuerdo (o desde dar al par por perdido). */
+        double baseCuota;
+        /** Vendido menos repuesto sin réplica. */
+        double soloExtraido;
+        double deltaSolo;
+        boolean promovido;
+        boolean parPerdido;
+        Incierto incierto;
+        volatile long ultimoContacto = System.currentTimeMillis();
+
+        Tanque(String tipo, String primario, String seguidor, double nivel) {
+            this.tipo = tipo;
+            this.primario = primario;
+            this.seguidor = seguidor;
+            this.nivel = nivel;
+            this.acordado = nivel;
+            this.baseCuota = nivel / 2;
+        }
+
+        /** Lo que aún puede venderse sin réplica: la base de la cuota menos lo ya vendido (neto) así. */
+        double cuotaSolo() {
+            // Sin ninguna réplica aún no hay acuerdo del que tomar la mitad
+            if (seguidor != null && seq == 0) {
+                return 0;
+            }
+            return Math.max(0, baseCuota - soloExtraido);
+        }
+
+        /** Nivel confirmado por ambos lados: cada uno vuelve a tener la mitad como cuota sin réplica. */
+        void acordar(long seq, double nivel) {
+            this.seq = seq;
+            this.nivel = nivel;
+            this.acordado = nivel;
+            this.baseCuota = nivel / 2;
+            this.soloExtraido = 0;
+            this.deltaSolo = 0;
+            this.parPerdido = false;
+        }
+
+        /** El par dado por perdido respondió: hasta el próximo acuerdo no se vende sin réplica. */
+        void recuperarPar() {
+            if (parPerdido) {
+                parPerdido = false;
+                baseCuota = soloExtraido;
+            }
+        }
+
+        String linea() {
+            return tipo + "|" + seq + "|" + nivel + "|" + acordado + "|" + soloExtraido + "|" + deltaSolo + "|"
+                + (promovido ? 1 : 0) + "|" + (incierto == null ? 0 : incierto.seq()) + "|"
+                + (incierto != null && incierto.aplicadoLocal() ? 1 : 0) + "|" + (incierto == null ? 0 : incierto.deltaSeguidorIncluido())
+                + "|" + baseCuota + "|" + (parPerdido ? 1 : 0);
+        }
+
+        /** IllegalArgumentException si la línea no tiene el formato del diario. */
+        void cargar(String linea) {
+            String[] p = linea.split("\\|");
+            if (p.length < 10) {
+                throw new IllegalArgumentException("Línea de diario inválida para " + tipo + ": " + linea);
+            }
+            seq = Long.parseLong(p[1]);
+            nivel = Double.parseDouble(p[2]);
+            acordado = Double.parseDouble(p[3]);
+            soloExtraido = Double.parseDouble(p[4]);
+            deltaSolo = Double.parseDouble(p[5]);
+            promovido = p[6].equals("1");
+            long inciertoSeq = Long.parseLong(p[7]);
+            incierto = inciertoSeq == 0 ? null : new Incierto(inciertoSeq, p[8].equals("1"), Double.parseDouble(p[9]));
+            // Los diarios anteriores no traen la base: era siempre la mitad de lo acordado
+            baseCuota = p.length > 10 ? Double.parseDouble(p[10]) : acordado / 2;
+            parPerdido = p.length > 11 && p[11].equals("1");
+        }
+    }
+
+    private static final long LATIDO_MS = 500;
+    private static final int TIMEOUT_RED_MS = 1000;
+    private static final long LEASE_MS = Long.parseLong(System.getenv().getOrDefault("ESTANQUE_LEASE_MS", "3000"));
+    /** 0 = nunca se da al par por perdido. */
+    private static final long PERDIDO_MS = Long.parseLong(System.getenv().getOrDefault("ESTANQUE_PERDIDO_MS", "0"));
+
+    private final Estanque estanque;
+    private final TopologiaEstanque topologia;
+    private final String yo;
+    private final DiarioEstanque diario;
+    private final Map<String, Tanque> tanques = new LinkedHashMap<>();
+
+    ClusterEstanque(Estanque estanque, TopologiaEstanque topologia, String yo, DiarioEstanque diario) {
+        if (!topologia.getNodos().contains(yo)) {
+            throw new IllegalArgumentException("El nodo " + yo + " no está en la lista del cluster " + topologia.getNodos());
+        }
+        this.estanque = estanque;
+        this.topologia = topologia;
+        this.yo = yo;
+        this.diario = diario;
+        Map<String, String> ultimas = diario.ultimas();
+        for (String tipo : TopologiaEstanque.TIPOS) {
+            Tanque t = new Tanque(tipo, topologia.primario(tipo), topologia.seguidor(tipo), estanque.getNivel(tipo));
+            if (ultimas.containsKey(tipo)) {
+                t.cargar(ultimas.get(tipo));
+            }
+            if (yo.equals(t.primario)) {
+                // Tras arrancar, el primario vende con cuota hasta reconciliar con su seguidor
+                t.modo = t.seguidor == null ? Modo.NORMAL : Modo.SOLO;
+            } else if (yo.equals(t.seguidor)) {
+                t.modo = t.promovido ? Modo.PROMOVIDO : Modo.SEGUIDOR;
+            } else {
+                t.modo = Modo.AJENO;
+            }
+            estanque.fijarNivel(tipo, t.nivel);
+            tanques.put(tipo, t);
+        }
+    }
+
+    void iniciar() {
+        if (topologia.getNodos().size() < 2) {
+            return;
+        }
+        hilo("Estanque-Cluster", this::escuchar);
+        hilo("Estanque-Latidos", this::vigilar);
+        StringBuilder reparto = new StringBuilder();
+        for (Tanque t : tanques.values()) {
+            reparto.append(' ').append(t.tipo).append('=').append(t.modo.name().toLowerCase(Locale.ROOT));
+        }
+        System.out.println("[CLUSTER] Nodo " + yo + " de " + topologia.getNodos().size() + ":" + reparto);
+    }
+
+    private static void hilo(String nombre, Runnable cuerpo) {
+        Thread t = new Thread(cuerpo, nombre);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void compactar() throws IOException {
+        diario.compactar();
+    }
+
+    /** Modo de cada tipo en este nodo, para mostrar el estado. */
+    Map<String, Modo> modos() {
+        Map<String, Modo> modos = new LinkedHashMap<>();
+        for (Tanque t : tanques.values()) {
+            synchronized (t) {
+                modos.put(t.tipo, t.modo);
+            }
+        }
+        return modos;
+    }
+
+    // ===================== Operaciones de clientes =====================
+
+    Resultado extraer(String tipo, double litros) {
+        return operar(tipo, -litros);
+    }
+
+    Resultado reponer(String tipo, double litros) {
+        return operar(tipo, litros);
+    }
+
+    Resultado consultar(String tipo) {
+        Tanque t = tanques.get(tipo);
+        if (t == null) {
+            return new Resultado(Estado.RECHAZADO, 0, "Tipo de combustible inválido");
+        }
+        synchronized (t) {
+            if (!atiende(t)) {
+                return mover(t);
+            }
+            return new Resultado(Estado.OK, t.nivel, null);
+        }
+    }
+
+    private static boolean atiende(Tanque t) {
+        return t.modo == Modo.NORMAL || t.modo == Modo.SOLO || t.modo == Modo.PROMOVIDO;
+    }
+
+    private static Resultado mover(Tanque t) {
+        return new Resultado(Estado.MOVER, 0, TopologiaEstanque.direccionClientes(t.primario));
+    }
+
+    private Resultado operar(String tipo, double delta) {
+        Tanque t = tanques.get(tipo);
+        if (t == null) {
+            return new Resultado(Estado.RECHAZADO, 0, "Tipo de combustible inválido");
+        }
+        synchronized (t) {
+            if (!atiende(t)) {
+                return mover(t);
+            }
+            if (t.nivel + delta < 0) {
+                return new Resultado(Estado.RECHAZADO, t.nivel, "No hay suficiente combustible");
+            }
+            try {
+                if (t.modo == Modo.NORMAL) {
+                    if (t.seguidor == null) {
+                        t.seq++;
+                        t.nivel += delta;
+                        t.acordado = t.nivel;
+                        registrar(t);
+                        return new Resultado(Estado.OK, t.nivel, null);
+                    }
+                    long seq = t.seq + 1;
+                    double nuevo = t.nivel + delta;
+                    String[] r = solicitar(t.seguidor, tipo, "REPLICAR " + tipo + " " + seq + " " + nuevo);
+                    if (r != null && r[0].equals("REPLICADO")) {
+                        t.acordar(seq, nuevo);
+                        t.ultimoContacto = System.currentTimeMillis();
+                        registrar(t);
+                        return new Resultado(Estado.OK, t.nivel, null);
+                    }
+                    // Sin confirmación no se sabe si el seguidor aplicó la operación
+                    t.modo = Modo.SOLO;
+                    System.out.println("[CLUSTER] Seguidor " + t.seguidor + " no confirmó " + tipo + ", operando con reserva de failover");
+                    boolean aplicar = delta > 0 || -delta <= t.cuotaSolo();
+                    t.incierto = new Incierto(seq, aplicar, 0);
+                    if (!aplicar) {
+                        registrar(t);
+                        return new Resultado(Estado.RECHAZADO, t.nivel, "Réplica no disponible; disponible sin réplica: " + t.cuotaSolo() + " litros");
+                    }
+                } else if (delta < 0 && -delta > t.cuotaSolo()) {
+                    return new Resultado(Estado.RECHAZADO, t.nivel, "Réplica no disponible; disponible sin réplica: " + t.cuotaSolo() + " litros");
+                }
+                t.nivel += delta;
+                t.deltaSolo += delta;
+                // Una reposición descuenta: lo repuesto de este lado se puede vender de este lado
+                t.soloExtraido -= delta;
+                registrar(t);
+                return new Resultado(Estado.OK, t.nivel, null);
+            } catch (IOException e) {
+                System.err.println("[ERROR] No se pudo registrar " + tipo + " en el diario: " + e.getMessage());
+                return new Resultado(Estado.RECHAZADO, t.nivel, "Error de persistencia");
+            }
+        }
+    }
+
+    /** Con el bloqueo del tanque tomado: diario primero, luego el nivel visible. */
+    private void registrar(Tanque t) throws IOException {
+        diario.anexar(t.tipo, t.linea());
+        estanque.fijarNivel(t.tipo, t.nivel);
+    }
+
+    // ===================== Latidos, promoción y reconciliación =====================
+
+    private void vigilar() {
+        while (true) {
+            try {
+                Thread.sleep(LATIDO_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Tanque t : tanques.values()) {
+                try {
+                    if (yo.equals(t.primario)) {
+                        latir(t);
+                    } else if (yo.equals(t.seguidor)) {
+                        promoverSiHaceFalta(t);
+                    }
+                } catch (IOException e) {
+                    System.err.println("[ERROR] No se pudo registrar " + t.tipo + " en el diario: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void latir(Tanque t) throws IOException {
+        synchronized (t) {
+            if (t.modo == Modo.SOLO) {
+                reconciliar(t);
+                if (t.modo == Modo.SOLO) {
+                    declararPerdidoSiHaceFalta(t);
+                }
+                return;
+            }
+            String[] r = solicitar(t.seguidor, t.tipo, "LATIDO " + t.tipo + " " + t.seq);
+            if (r != null && r[0].equals("VIVO")) {
+                t.ultimoContacto = System.currentTimeMillis();
+            } else {
+                t.modo = Modo.SOLO;
+                System.out.println("[CLUSTER] Sin latido de " + t.seguidor + " para " + t.tipo + ", operando con reserva de failover");
+            }
+        }
+    }
+
+    /**
+     * Suma lo vendido por cada lado desde el último acuerdo. El seguidor
+     * informa su secuencia: si tiene la réplica incierta, su nivel base ya
+     * la incluye; si no, su delta aún puede contener una fusión anterior
+     * que este nodo ya había sumado.
+     */
+    private void reconciliar(Tanque t) throws IOException {
+        String[] r = solicitar(t.seguidor, t.tipo, "RECONCILIAR " + t.tipo);
+        if (r == null || !r[0].equals("ESTADO") || r.length != 5) {
+            return;
+        }
+        long seqSeguidor = Long.parseLong(r[2]);
+        double baseSeguidor = Double.parseDouble(r[3]);
+        double deltaSeguidor = Double.parseDouble(r[4]);
+        t.recuperarPar();
+
+        double fusion;
+        if (t.incierto != null && seqSeguidor == t.incierto.seq()) {
+            fusion = t.nivel + deltaSeguidor + (t.incierto.aplicadoLocal() ? 0 : baseSeguidor - t.acordado);
+        } else if (seqSeguidor > t.seq) {
+            // Este nodo perdió estado: manda lo que tenga el seguidor más lo vendido aquí desde entonces
+            System.out.println("[CLUSTER] " + t.tipo + ": el seguidor va en secuencia " + seqSeguidor + " y este nodo en " + t.seq);
+            fusion = baseSeguidor + deltaSeguidor + t.deltaSolo;
+        } else {
+            fusion = t.nivel + deltaSeguidor - (t.incierto != null ? t.incierto.deltaSeguidorIncluido() : 0);
+        }
+        fusion = Math.max(0, fusion);
+
+        long seq = Math.max(t.seq, seqSeguidor) + 1;
+        String[] confirmacion = solicitar(t.seguidor, t.tipo, "REPLICAR " + t.tipo + " " + seq + " " + fusion);
+        if (confirmacion != null && confirmacion[0].equals("REPLICADO")) {
+            t.acordar(seq, fusion);
+            t.incierto = null;
+            t.modo = Modo.NORMAL;
+            t.ultimoContacto = System.currentTimeMillis();
+            registrar(t);
+            System.out.println("[CLUSTER] " + t.tipo + " reconciliado con " + t.seguidor + ": " + fusion + " litros (secuencia " + seq + ")");
+        } else {
+            // La fusión queda aplicada aquí; si el seguidor no la recibió, su delta ya está sumado
+            t.nivel = fusion;
+            t.incierto = new Incierto(seq, true, deltaSeguidor);
+            registrar(t);
+        }
+    }
+
+    private void promoverSiHaceFalta(Tanque t) throws IOException {
+        synchronized (t) {
+            if (t.modo == Modo.PROMOVIDO) {
+                declararPerdidoSiHaceFalta(t);
+                return;
+            }
+            // Un seguidor que nunca recibió una réplica no tiene un nivel confiable que vender
+            if (t.modo != Modo.SEGUIDOR || t.seq == 0 || System.currentTimeMillis() - t.ultimoContacto < LEASE_MS) {
+                return;
+            }
+            t.modo = Modo.PROMOVIDO;
+            t.promovido = true;
+            registrar(t);
+            System.out.println("[CLUSTER] Primario " + t.primario + " sin latidos: este nodo atiende " + t.tipo
+                + " con reserva de " + t.cuotaSolo() + " litros");
+        }
+    }
+
+    /**
+     * Tras ESTANQUE_PERDIDO_MS sin contacto este lado toma todo su nivel como
+     * cuota. Lo vendido y repuesto desde el último acuerdo sigue en deltaSolo,
+     * así que si el par vuelve la reconciliación suma igual.
+     */
+    private void declararPerdidoSiHaceFalta(Tanque t) throws IOException {
+        if (PERDIDO_MS <= 0 || t.parPerdido || System.currentTimeMillis() - t.ultimoContacto < PERDIDO_MS) {
+            return;
+        }
+        t.parPerdido = true;
+        t.baseCuota = t.nivel;
+        t.soloExtraido = 0;
+        registrar(t);
+        String par = yo.equals(t.primario) ? t.seguidor : t.primario;
+        System.out.println("[CLUSTER] " + par + " sin contacto por " + PERDIDO_MS + " ms: se da por perdido y este nodo vende "
+            + t.tipo + " hasta " + t.nivel + " litros");
+    }
+
+    // ===================== Servidor del cluster (lado seguidor) =====================
+
+    private void escuchar() {
+        int puerto = TopologiaEstanque.puertoCluster(yo);
+        try (ServerSocket servidor = new ServerSocket(puerto)) {
+            System.out.println("[CLUSTER] Escuchando réplicas en puerto " + puerto);
+            while (true) {
+                Socket socket = servidor.accept();
+                hilo("Estanque-Replica", () -> atender(socket));
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error en servidor del cluster: " + e.getMessage());
+        }
+    }
+
+    private void atender(Socket socket) {
+        try (socket;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter salida = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false)) {
+            String linea;
+            while ((linea = entrada.readLine()) != null) {
+                salida.println(responder(linea.trim().split(" ")));
+                salida.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // El primario reconecta por su cuenta
+        }
+    }
+
+    private String responder(String[] partes) throws IOException {
+        Tanque t = partes.length > 1 ? tanques.get(partes[1]) : null;
+        if (t == null || !yo.equals(t.seguidor)) {
+            return "ERROR: Este nodo no replica " + (partes.length > 1 ? partes[1] : "ese tipo");
+        }
+        synchronized (t) {
+            switch (partes[0]) {
+                case "REPLICAR": {
+                    if (t.modo == Modo.PROMOVIDO) {
+                        return "PROMOVIDO " + t.tipo;
+                    }
+                    long seq = Long.parseLong(partes[2]);
+                    if (seq > t.seq) {
+                        t.acordar(seq, Double.parseDouble(partes[3]));
+                        registrar(t);
+                    }
+                    t.ultimoContacto = System.currentTimeMillis();
+                    return "REPLICADO " + t.tipo + " " + seq;
+                }
+                case "LATIDO": {
+                    if (t.modo == Modo.PROMOVIDO) {
+                        return "PROMOVIDO " + t.tipo;
+                    }
+                    if (Long.parseLong(partes[2]) != t.seq) {
+                        return "ATRASADO " + t.tipo + " " + t.seq;
+                    }
+                    t.ultimoContacto = System.currentTimeMillis();
+                    return "VIVO " + t.tipo;
+                }
+                case "RECONCILIAR": {
+                    if (t.modo == Modo.PROMOVIDO) {
+                        System.out.println("[CLUSTER] Primario " + t.primario + " de vuelta: " + t.tipo + " vuelve a él");
+                    }
+                    t.modo = Modo.SEGUIDOR;
+                    t.promovido = false;
+                    t.recuperarPar();
+                    t.ultimoContacto = System.currentTimeMillis();
+                    registrar(t);
+                    return "ESTADO " + t.tipo + " " + t.seq + " " + t.acordado + " " + t.deltaSolo;
+                }
+                default:
+                    return "ERROR: Comando de cluster desconocido";
+            }
+        }
+    }
+
+    // ===================== Conexiones salientes =====================
+
+    private record Conexion(Socket socket, BufferedReader entrada, PrintWriter salida) {}
+
+    /** Una conexión por par y tipo, para que los tipos no se esperen entre sí. */
+    private final Map<String, Conexion> conexiones = new HashMap<>();
+
+    /** Se llama con el bloqueo del tanque tomado, que serializa el uso de su conexión. */
+    private String[] solicitar(String nodo, String tipo, String pedido) {
+        String clave = nodo + "#" + tipo;
+        Conexion conexion;
+        synchronized (conexiones) {
+            conexion = conexiones.get(clave);
+        }
+        try {
+            if (conexion == null) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(TopologiaEstanque.host(nodo), TopologiaEstanque.puertoCluster(nodo)), TIMEOUT_RED_MS);
+                socket.setSoTimeout(TIMEOUT_RED_MS);
+                socket.setTcpNoDelay(true);
+                conexion = new Conexion(socket, new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                    new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false));
+                synchronized (conexiones) {
+                    conexiones.put(clave, conexion);
+                }
+            }
+            conexion.salida().println(pedido);
+            conexion.salida().flush();
+            String respuesta = conexion.entrada().readLine();
+            if (respuesta == null) {
+                throw new EOFException();
+            }
+            return respuesta.split(" ");
+        } catch (IOException | RuntimeException e) {
+            if (conexion != null) {
+                try {
+                    conexion.socket().close();
+                } catch (IOException ignored) {}
+            }
+            synchronized (conexiones) {
+                conexiones.remove(clave);
+            }
+            return null;
+        }
+    }
+}
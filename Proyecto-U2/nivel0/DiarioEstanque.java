@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de operaciones del estanque. Cada cambio anexa, con fsync y antes
+ * de responder, una línea con el estado completo de ese combustible
+ * ("tipo|..."), en lugar de reescribir el archivo de estado entero. Como
+ * cada línea es absoluta, al reproducir gana la última de cada tipo y
+ * compactar es reescribir solo esas últimas líneas.
+ *
+ * Cada línea lleva su CRC32 al final ("...#crc"). Una caída a mitad de un
+ * anexo solo puede dañar la última línea: al cargar se descarta y el archivo
+ * se corta ahí. Una línea dañada antes de la última es corrupción y el
+ * estanque no arranca. Las líneas sin CRC (diarios anteriores) se aceptan.
+ */
+class DiarioEstanque {
+    private static final int MAX_LINEAS = 10_000;
+
+    private final File archivo;
+    private final Map<String, String> ultimas = new TreeMap<>();
+    private FileOutputStream fos;
+    private Writer writer;
+    private int lineas;
+
+    DiarioEstanque(File archivo) throws IOException {
+        this.archivo = archivo;
+        cargar();
+        abrir();
+    }
+
+    private void cargar() throws IOException {
+        if (!archivo.exists()) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(archivo.toPath());
+        int inicio = 0;
+        int numero = 0;
+        while (inicio < bytes.length) {
+            int fin = inicio;
+            while (fin < bytes.length && bytes[fin] != '\n') {
+                fin++;
+            }
+            numero++;
+            String linea = fin == bytes.length ? null : verificar(new String(bytes, inicio, fin - inicio, StandardCharsets.UTF_8).trim());
+            if (linea == null) {
+                if (fin < bytes.length - 1) {
+                    throw new IOException("Diario dañado en la línea " + numero + " de " + archivo);
+                }
+                System.err.println("[WARN] Diario del estanque: se descarta la última línea incompleta ("
+                    + (bytes.length - inicio) + " bytes)");
+                truncar(inicio);
+                break;
+            }
+            if (!linea.isEmpty()) {
+                ultimas.put(linea.substring(0, linea.indexOf('|')), linea);
+                lineas++;
+            }
+            inicio = fin + 1;
+        }
+    }
+
+    /** La línea sin su CRC, o null si no es un registro válido. */
+    private static String verificar(String registro) {
+        if (registro.isEmpty()) {
+            return registro;
+        }
+        String linea = registro;
+        int marca = registro.lastIndexOf('#');
+        if (marca >= 0) {
+            linea = registro.substring(0, marca);
+            try {
+                if (Long.parseLong(registro.substring(marca + 1), 16) != crc(linea)) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return linea.indexOf('|') > 0 ? linea : null;
+    }
+
+    private static long crc(String linea) {
+        CRC32 crc = new CRC32();
+        crc.update(linea.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static String registro(String linea) {
+        return linea + "#" + Long.toHexString(crc(linea)) + "\n";
+    }
+
+    private void truncar(long largo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.WRITE)) {
+            canal.truncate(largo);
+            canal.force(true);
+        }
+    }
+
+    private void abrir() throws IOException {
+        archivo.getAbsoluteFile().getParentFile().mkdirs();
+        fos = new FileOutputStream(archivo, true);
+        writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+    }
+
+    /** Última línea registrada por tipo, para reconstruir el estado al arrancar. */
+    synchronized Map<String, String> ultimas() {
+        return new TreeMap<>(ultimas);
+    }
+
+    synchronized void anexar(String tipo, String linea) throws IOException {
+        long largoPrevio = fos.getChannel().size();
+        try {
+            writer.write(registro(linea));
+            writer.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            // Sin recortar, el próximo anexo quedaría pegado a esta línea a medias
+            try {
+                fos.getChannel().truncate(largoPrevio);
+            } catch (IOException ignorada) {
+            }
+            throw e;
+        }
+        ultimas.put(tipo, linea);
+        if (++lineas > MAX_LINEAS) {
+            compactar();
+        }
+    }
+
+    /** Reemplaza el diario por la última línea de cada tipo. */
+    synchronized void compactar() throws IOException {
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try (FileOutputStream salida = new FileOutputStream(temporal);
+             Writer w = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8))) {
+            for (String linea : ultimas.values()) {
+                w.write(registro(linea));
+            }
+            w.flush();
+            salida.getFD().sync();
+        }
+        writer.close();
+        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // Si el renombre no llegara a disco, los anexos siguientes irían a un archivo que la caída borra
+        try (FileChannel directorio = FileChannel.open(archivo.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+            directorio.force(true);
+        } catch (IOException e) {
+            // Algunos sistemas de archivos no permiten abrir un directorio
+        }
+        lineas = ultimas.size();
+        abrir();
+    }
+}
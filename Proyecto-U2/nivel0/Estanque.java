@@ -1,13 +1,19 @@
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Estanque {
+    private static final String DATA_DIR = System.getenv().getOrDefault("DATA_DIR", "/app/data");
     private Map<String, Double> niveles;
+    private ClusterEstanque cluster;
 
     public Estanque() {
-        this.niveles = new HashMap<>();
+        this.niveles = new ConcurrentHashMap<>();
         niveles.put("93", 1000.0);
         niveles.put("95", 1000.0);
         niveles.put("97", 1000.0);
@@ -15,33 +21,29 @@ public class Estanque {
         niveles.put("Kerosene", 1000.0);
     }     
 
-    public synchronized boolean extraer(String tipo, double litros) {
-        if (niveles.containsKey(tipo) && niveles.get(tipo) >= litros) {
-            niveles.put(tipo, niveles.get(tipo) - litros);
-            return true;
-        }
-        return false;
+    public boolean extraer(String tipo, double litros) {
+        return cluster.extraer(tipo, litros).estado() == ClusterEstanque.Estado.OK;
     }
 
     public void guardarEstado(String rutaArchivo) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(rutaArchivo))) {
-            for (Map.Entry<String, Double> entry : niveles.entrySet()) {
-                writer.write(entry.getKey() + "," + entry.getValue());
-                writer.newLine();
-            }
+        List<String> lineas = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : new TreeMap<>(niveles).entrySet()) {
+            lineas.add(entry.getKey() + "," + entry.getValue());
         }
+        ArchivoDurable.escribir(new File(rutaArchivo), lineas);
     }
 
     public void cargarEstado(String rutaArchivo) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(rutaArchivo))) {
-            String linea;
-            while ((linea = reader.readLine()) != null) {
+        Map<String, Double> cargados = new HashMap<>();
+        try {
+            for (String linea : ArchivoDurable.leer(new File(rutaArchivo))) {
                 String[] partes = linea.split(",");
-                String tipo = partes[0];
-                double cantidad = Double.parseDouble(partes[1]);
-                niveles.put(tipo, cantidad);
+                cargados.put(partes[0], Double.parseDouble(partes[1]));
             }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Línea inválida en " + rutaArchivo, e);
         }
+        niveles.putAll(cargados);
     }
 
     public void mostrarEstado() {
@@ -55,17 +57,34 @@ public class Estanque {
         return niveles.getOrDefault(tipo, 0.0);
     }
 
-    public synchronized boolean reponer(String tipo, double litros) {
-        if (niveles.containsKey(tipo)) {
-            niveles.put(tipo, niveles.get(tipo) + litros);
-            return true;
-        }
-        return false;
+    public boolean reponer(String tipo, double litros) {
+        return cluster.reponer(tipo, litros).estado() == ClusterEstanque.Estado.OK;
+    }
+
+    /** Nivel visible del tipo; lo fija el cluster después de registrar el cambio en el diario. */
+    public synchronized void fijarNivel(String tipo, double litros) {
+        niveles.put(tipo, litros);
+    }
+
+    public ClusterEstanque getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Sin ESTANQUE_NODOS el estanque es un cluster de un solo nodo: primario
+     * de todos los tipos, sin seguidor, y el diario hace de registro local.
+     */
+    private void iniciarCluster(String nodos, String yo, int puerto) throws IOException {
+        TopologiaEstanque topologia = TopologiaEstanque.desdeLista(nodos == null || nodos.isBlank() ? "localhost:" + puerto : nodos);
+        String nodo = yo == null || yo.isBlank() ? topologia.getNodos().get(0) : yo.trim();
+        this.cluster = new ClusterEstanque(this, topologia, nodo, new DiarioEstanque(new File(DATA_DIR, "diario_estanque.log")));
+        this.cluster.iniciar();
     }
 
     private void guardarEstadoAutomatico() {
         try {
-            guardarEstado("/app/data/estado_estanque.txt");
+            guardarEstado(DATA_DIR + "/estado_estanque.txt");
+            cluster.compactar();
         } catch (IOException e) {
             System.err.println("[ERROR] No se pudo guardar el estado: " + e.getMessage());
         }
@@ -73,8 +92,12 @@ public class Estanque {
 
     public static void main(String[] args) {
         Estanque estanque = new Estanque();
-        int puerto = 5000;
-        String archivoEstado = "/app/data/estado_estanque.txt";
+        String nodos = System.getenv("ESTANQUE_NODOS");
+        String yo = System.getenv("ESTANQUE_NODO");
+        int puerto = yo == null || yo.isBlank()
+            ? Integer.parseInt(System.getenv().getOrDefault("PUERTO", "5000"))
+            : TopologiaEstanque.puertoClientes(yo.trim());
+        String archivoEstado = DATA_DIR + "/estado_estanque.txt";
         
         System.out.println("=== SERVIDOR ESTANQUE DE COMBUSTIBLE ===");
         
@@ -90,13 +113,20 @@ public class Estanque {
         } else {
             System.out.println("[INFO] No existe archivo de estado, iniciando con valores por defecto");
             try {
-                new File("/app/data").mkdirs();
+                new File(DATA_DIR).mkdirs();
                 estanque.guardarEstado(archivoEstado);
             } catch (IOException e) {
                 System.err.println("[ADVERTENCIA] No se pudo crear archivo de estado");
             }
         }
         
+        try {
+            estanque.iniciarCluster(nodos, yo, puerto);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[ERROR] No se pudo iniciar el estanque: " + e.getMessage());
+            return;
+        }
+        
         System.out.println("\nEstado actual del estanque:");
         estanque.mostrarEstado();
         System.out.println("\nEscuchando en puerto " + puerto + "...\n");
@@ -144,12 +174,13 @@ class ManejadorCliente implements Runnable {
         this.estanque = estanque;
     }
     
-    private void guardarEstado() {
-        try {
-            estanque.guardarEstado("/app/data/estado_estanque.txt");
-        } catch (IOException e) {
-            System.err.println("[ERROR] No se pudo guardar el estado: " + e.getMessage());
+    /** "MOVER <tipo> host:puerto": el tipo lo atiende otro nodo del cluster. */
+    private static boolean redirigir(PrintWriter salida, String tipo, ClusterEstanque.Resultado resultado) {
+        if (resultado.estado() != ClusterEstanque.Estado.MOVER) {
+            return false;
         }
+        salida.println("MOVER " + tipo + " " + resultado.detalle());
+        return true;
     }
 
     @Override
@@ -192,14 +223,17 @@ class ManejadorCliente implements Runnable {
                                 salida.println("ERROR: La cantidad debe ser positiva");
                                 break;
                             }
-                            if (estanque.extraer(tipoExtraer, litrosExtraer)) {
+                            ClusterEstanque.Resultado extraido = estanque.getCluster().extraer(tipoExtraer, litrosExtraer);
+                            if (redirigir(salida, tipoExtraer, extraido)) {
+                                break;
+                            }
+                            if (extraido.estado() == ClusterEstanque.Estado.OK) {
                                 salida.println("OK: Extraídos " + litrosExtraer + " litros de " + tipoExtraer + 
-                                             ". Nivel actual: " + estanque.getNivel(tipoExtraer) + " litros");
+                                             ". Nivel actual: " + extraido.nivel() + " litros");
                                 System.out.println("[OPERACIÓN] Extraídos " + litrosExtraer + " L de " + tipoExtraer);
-                                guardarEstado();
                             } else {
-                                salida.println("ERROR: No hay suficiente combustible o tipo inválido. Disponible: " + 
-                                             estanque.getNivel(tipoExtraer) + " litros");
+                                salida.println("ERROR: " + extraido.detalle() + ". Disponible: " + 
+                                             extraido.nivel() + " litros");
                             }
                         } catch (NumberFormatException e) {
                             salida.println("ERROR: Los litros deben ser un número válido");
@@ -218,13 +252,16 @@ class ManejadorCliente implements Runnable {
                                 salida.println("ERROR: La cantidad debe ser positiva");
                                 break;
                             }
-                            if (estanque.reponer(tipoReponer, litrosReponer)) {
+                            ClusterEstanque.Resultado repuesto = estanque.getCluster().reponer(tipoReponer, litrosReponer);
+                            if (redirigir(salida, tipoReponer, repuesto)) {
+                                break;
+                            }
+                            if (repuesto.estado() == ClusterEstanque.Estado.OK) {
                                 salida.println("OK: Repuestos " + litrosReponer + " litros de " + tipoReponer + 
-                                             ". Nivel actual: " + estanque.getNivel(tipoReponer) + " litros");
+                                             ". Nivel actual: " + repuesto.nivel() + " litros");
                                 System.out.println("[OPERACIÓN] Repuestos " + litrosReponer + " L de " + tipoReponer);
-                                guardarEstado();
                             } else {
-                                salida.println("ERROR: Tipo de combustible inválido");
+                                salida.println("ERROR: " + repuesto.detalle());
                             }
                         } catch (NumberFormatException e) {
                             salida.println("ERROR: Los litros deben ser un número válido");
@@ -237,8 +274,12 @@ class ManejadorCliente implements Runnable {
                             break;
                         }
                         String tipoConsultar = partes[1];
-                        double nivel = estanque.getNivel(tipoConsultar);
-                        if (nivel > 0) {
+                        ClusterEstanque.Resultado consultado = estanque.getCluster().consultar(tipoConsultar);
+                        if (redirigir(salida, tipoConsultar, consultado)) {
+                            break;
+                        }
+                        double nivel = consultado.nivel();
+                        if (consultado.estado() == ClusterEstanque.Estado.OK && nivel > 0) {
                             salida.println("Nivel de " + tipoConsultar + ": " + nivel + " litros");
                         } else {
                             salida.println("Tipo de combustible no encontrado o nivel en 0");
@@ -246,12 +287,20 @@ class ManejadorCliente implements Runnable {
                         break;
 
                     case "ESTADO":
+                        // Solo se informan los tipos que este nodo atiende o replica; el nivel
+                        // local de los ajenos está viejo, así que van como "tipo: MOVER host:puerto"
+                        Map<String, ClusterEstanque.Modo> modos = estanque.getCluster().modos();
                         salida.println("\n=== ESTADO DEL ESTANQUE ===");
-                        salida.println("93:       " + String.format("%.2f", estanque.getNivel("93")) + " litros");
-                        salida.println("95:       " + String.format("%.2f", estanque.getNivel("95")) + " litros");
-                        salida.println("97:       " + String.format("%.2f", estanque.getNivel("97")) + " litros");
-                        salida.println("Diesel:   " + String.format("%.2f", estanque.getNivel("Diesel")) + " litros");
-                        salida.println("Kerosene: " + String.format("%.2f", estanque.getNivel("Kerosene")) + " litros");
+                        for (String tipoEstado : TopologiaEstanque.TIPOS) {
+                            String etiqueta = String.format("%-10s", tipoEstado + ":");
+                            ClusterEstanque.Resultado ajeno = modos.get(tipoEstado) == ClusterEstanque.Modo.AJENO
+                                ? estanque.getCluster().consultar(tipoEstado) : null;
+                            if (ajeno != null && ajeno.estado() == ClusterEstanque.Estado.MOVER) {
+                                salida.println(etiqueta + "MOVER " + ajeno.detalle());
+                            } else {
+                                salida.println(etiqueta + String.format("%.2f", estanque.getNivel(tipoEstado)) + " litros");
+                            }
+                        }
                         salida.println("============================");
                         break;
 
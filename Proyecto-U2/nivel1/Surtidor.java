@@ -14,6 +14,8 @@ public class Surtidor {
     private Map<String, Combustible> combustibles;
     private Map<String, Double> preciosPendientes;
     private PrintWriter salidaDistribuidor;
+    private long ultimoEpochPrecios = Long.MIN_VALUE;
+    private AgendaPrecios agenda;
 
     public Surtidor(String _id){
         this.id = _id;
@@ -149,29 +151,99 @@ public class Surtidor {
         return false;
     }
     
-    private synchronized void aplicarPreciosPendientes() {
-        if (!preciosPendientes.isEmpty()) {
-            System.out.println("\n[PRECIO] Aplicando " + preciosPendientes.size() + " precio(s) pendiente(s)...");
-            for (Map.Entry<String, Double> entry : preciosPendientes.entrySet()) {
-                String tipo = entry.getKey();
-                double precio = entry.getValue();
-                if (combustibles.containsKey(tipo)) {
-                    combustibles.get(tipo).actualizarPrecio(precio);
-                    System.out.println("[PRECIO] ✓ " + tipo + " actualizado a $" + precio);
+    public synchronized boolean aplicarSnapshotPrecios(long epoch, Map<String, Double> precios) {
+        if (epoch <= ultimoEpochPrecios) {
+            System.out.println("[PRECIO] Snapshot epoch " + epoch + " obsoleto, se ignora");
+            return false;
+        }
+        ultimoEpochPrecios = epoch;
+        
+        Map<String, Double> validos = new HashMap<>();
+        for (Map.Entry<String, Double> entry : precios.entrySet()) {
+            if (combustibles.containsKey(entry.getKey())) {
+                validos.put(entry.getKey(), entry.getValue());
+            }
+        }
+        
+        if (estado) {
+            preciosPendientes.putAll(validos);
+            System.out.println("[PRECIO] Surtidor ocupado vendiendo. " + validos.size() + " precio(s) pendiente(s) (epoch " + epoch + ")");
+            return false;
+        }
+        for (Map.Entry<String, Double> entry : validos.entrySet()) {
+            combustibles.get(entry.getKey()).actualizarPrecio(entry.getValue());
+        }
+        System.out.println("[PRECIO] ✓ " + validos.size() + " precio(s) actualizados (epoch " + epoch + ")");
+        return true;
+    }
+    
+    /**
+     * Carga la agenda de precios programados. Al vencer un programa se aplica
+     * localmente (o queda pendiente si hay una venta en curso), sin esperar
+     * ningún mensaje del distribuidor.
+     */
+    public void iniciarAgenda(String archivoEstado) {
+        File archivo = new File("/app/data/programacion_precios_" + id + ".txt");
+        this.agenda = new AgendaPrecios("surtidor-" + id, archivo, programa -> {
+            if (aplicarPreciosProgramados(programa)) {
+                try {
+                    guardarEstado(archivoEstado);
+                } catch (IOException e) {
+                    System.err.println("[ERROR] No se pudo guardar el estado: " + e.getMessage());
                 }
             }
-            preciosPendientes.clear();
-            System.out.println("[PRECIO] Todos los precios pendientes aplicados\n");
+        });
+    }
+    
+    private synchronized boolean aplicarPreciosProgramados(AgendaPrecios.Programa programa) {
+        Map<String, Double> validos = new HashMap<>();
+        for (Map.Entry<String, Double> entry : programa.precios().entrySet()) {
+            if (combustibles.containsKey(entry.getKey())) {
+                validos.put(entry.getKey(), entry.getValue());
+            }
+        }
+        
+        if (estado) {
+            preciosPendientes.putAll(validos);
+            System.out.println("[PRECIO] Surtidor ocupado vendiendo. Programa " + programa.id() + " pendiente");
+            return false;
+        }
+        for (Map.Entry<String, Double> entry : validos.entrySet()) {
+            combustibles.get(entry.getKey()).actualizarPrecio(entry.getValue());
+        }
+        System.out.println("[PRECIO] ✓ Programa " + programa.id() + " en vigencia: " + validos.size() + " precio(s) actualizados");
+        return true;
+    }
+    
+    private synchronized void reiniciarEpochPrecios() {
+        ultimoEpochPrecios = Long.MIN_VALUE;
+    }
+    
+    /** Devuelve si aplicó alguno: entonces hay que persistir el estado. */
+    private synchronized boolean aplicarPreciosPendientes() {
+        if (preciosPendientes.isEmpty()) {
+            return false;
+        }
+        System.out.println("\n[PRECIO] Aplicando " + preciosPendientes.size() + " precio(s) pendiente(s)...");
+        for (Map.Entry<String, Double> entry : preciosPendientes.entrySet()) {
+            String tipo = entry.getKey();
+            double precio = entry.getValue();
+            if (combustibles.containsKey(tipo)) {
+                combustibles.get(tipo).actualizarPrecio(precio);
+                System.out.println("[PRECIO] ✓ " + tipo + " actualizado a $" + precio);
+            }
         }
+        preciosPendientes.clear();
+        System.out.println("[PRECIO] Todos los precios pendientes aplicados\n");
+        return true;
     }
 
     public void guardarEstado(String rutaArchivo) throws IOException {
         List<String> nuevasLineas = new ArrayList<>();
         File archivo = new File(rutaArchivo);
         if (archivo.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(archivo))) {
-                String linea;
-                while ((linea = reader.readLine()) != null) {
+            try {
+                for (String linea : ArchivoDurable.leer(archivo)) {
                     String lineaId = linea.split(",")[0];
                     if (!lineaId.equals(id)) {
                         try {
@@ -183,6 +255,8 @@ public class Surtidor {
                         }
                     }
                 }
+            } catch (IOException e) {
+                System.err.println("[ADVERTENCIA] " + e.getMessage() + "; se reescribe solo con este surtidor");
             }
         }
 
@@ -190,12 +264,7 @@ public class Surtidor {
             nuevasLineas.add(id + "," + c.getTipo() + "," + c.getLitrosConsumidos() + "," + c.getPrecioActual());
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(rutaArchivo))) {
-            for (String linea : nuevasLineas) {
-                writer.write(linea);
-                writer.newLine();
-            }
-        }
+        ArchivoDurable.escribir(archivo, nuevasLineas);
     }
 
     public void cargarEstado(String rutaArchivo) throws IOException {
@@ -206,10 +275,9 @@ public class Surtidor {
             return;
         }
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(rutaArchivo))) {
-            String linea;
-            boolean encontrado = false;
-            while ((linea = reader.readLine()) != null) {
+        Map<String, Combustible> cargados = new HashMap<>();
+        try {
+            for (String linea : ArchivoDurable.leer(archivo)) {
                 String[] partes = linea.split(",");
                 if (partes.length < 4) continue;
                 
@@ -222,14 +290,15 @@ public class Surtidor {
 
                 if (combustibles.containsKey(tipo)) {
                     int cargas = (int)(litrosConsumidos / 10);
-                    combustibles.put(tipo, new Combustible(tipo, litrosConsumidos, cargas, precio, 0.0));
-                    encontrado = true;
+                    cargados.put(tipo, new Combustible(tipo, litrosConsumidos, cargas, precio, 0.0));
                 }
             }
-            
-            if (!encontrado) {
-                System.out.println("[INFO] No se encontraron datos previos para surtidor " + this.id);
-            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Línea inválida en " + rutaArchivo, e);
+        }
+        combustibles.putAll(cargados);
+        if (cargados.isEmpty()) {
+            System.out.println("[INFO] No se encontraron datos previos para surtidor " + this.id);
         }
     }
 
@@ -263,6 +332,7 @@ public class Surtidor {
                 ) {
                     System.out.println("[DISTRIBUIDOR] ✓ Conectado al distribuidor en " + host + ":" + puerto);
                     this.setSalidaDistribuidor(salida);
+                    this.reiniciarEpochPrecios();
                     String mensaje = entrada.readLine();
                     if (mensaje != null && mensaje.equals("IDENTIFICAR")) {
                         salida.println("ID:" + this.id);
@@ -310,6 +380,58 @@ public class Surtidor {
                                 }
                                 break;
                                 
+                            case "PRECIOS":
+                                if (partes.length >= 2) {
+                                    try {
+                                        long epoch = Long.parseLong(partes[1]);
+                                        Map<String, Double> precios = new HashMap<>();
+                                        for (int i = 2; i < partes.length; i++) {
+                                            String[] par = partes[i].split("=", 2);
+                                            if (par.length == 2) {
+                                                precios.put(par[0], Double.parseDouble(par[1]));
+                                            }
+                                        }
+                                        if (this.aplicarSnapshotPrecios(epoch, precios)) {
+                                            this.guardarEstado(archivoEstado);
+                                            salida.println("OK: Precios epoch " + epoch + " aplicados");
+                                        } else if (this.getEstado()) {
+                                            salida.println("PENDIENTE: Precios epoch " + epoch + " se aplicarán al finalizar venta");
+                                        }
+                                    } catch (NumberFormatException e) {
+                                        salida.println("ERROR: Snapshot de precios inválido");
+                                    } catch (IOException e) {
+                                        salida.println("ERROR: No se pudo guardar el estado");
+                                    }
+                                }
+                                break;
+                                
+                            case "PROGRAMAR":
+                                try {
+                                    AgendaPrecios.Programa programa = AgendaPrecios.Programa.parsear(mensaje);
+                                    if (agenda.programar(programa)) {
+                                        System.out.println("[DISTRIBUIDOR] Programa " + programa.id() + " agendado para " + new Date(programa.efectivo()));
+                                    }
+                                    salida.println("OK: Programa " + programa.id() + " agendado");
+                                } catch (IllegalArgumentException e) {
+                                    salida.println("ERROR: " + e.getMessage());
+                                } catch (IOException e) {
+                                    salida.println("ERROR: No se pudo guardar la agenda");
+                                }
+                                break;
+                                
+                            case "CANCELAR_PROGRAMA":
+                                if (partes.length == 2) {
+                                    try {
+                                        if (agenda.cancelar(partes[1])) {
+                                            System.out.println("[DISTRIBUIDOR] Programa " + partes[1] + " cancelado");
+                                        }
+                                        salida.println("OK: Programa " + partes[1] + " cancelado");
+                                    } catch (IOException e) {
+                                        salida.println("ERROR: No se pudo guardar la agenda");
+                                    }
+                                }
+                                break;
+                                
                             case "ESTADO_SURTIDOR":
                                 StringBuilder estado = new StringBuilder();
                                 estado.append("ESTADO:" + this.id + "|");
@@ -319,6 +441,9 @@ public class Surtidor {
                                           .append(c.getLitrosConsumidos()).append(":")
                                           .append(c.getCargasRealizadas()).append(";");
                                 }
+                                if (partes.length >= 2) {
+                                    estado.append("|REQ:").append(partes[1]);
+                                }
                                 salida.println(estado.toString());
                                 break;
                                 
@@ -364,9 +489,8 @@ public class Surtidor {
         
         File archivo = new File(rutaArchivo);
         if (archivo.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(rutaArchivo))) {
-                String linea;
-                while ((linea = reader.readLine()) != null) {
+            try {
+                for (String linea : ArchivoDurable.leer(archivo)) {
                     String[] partes = linea.split(",");
                     if (partes.length > 0) {
                         String id = partes[0].trim();
@@ -394,8 +518,8 @@ public class Surtidor {
     }
 
     public static void main(String[] args) {
-        String servidorIP = args.length > 0 ? args[0] : "servidor";
-        int puerto = 5000;
+        String servidorIP = System.getenv().getOrDefault("ESTANQUE_HOST", args.length > 0 ? args[0] : "servidor");
+        int puerto = Integer.parseInt(System.getenv().getOrDefault("ESTANQUE_PORT", "5000"));
         String archivoEstado = "/app/data/estado_surtidor.txt";
         String archivoTransacciones = "/app/data/transacciones_pendientes.txt";
         
@@ -428,24 +552,26 @@ public class Surtidor {
         System.out.println("╚══════════════════════════════════════════╝");
         
         surtidor.mostrarEstado();
+        surtidor.iniciarAgenda(archivoEstado);
         
         String distribuidorHost = System.getenv().getOrDefault("DISTRIBUIDOR_HOST", "distribuidor");
         int distribuidorPuerto = Integer.parseInt(System.getenv().getOrDefault("DISTRIBUIDOR_PORT", "6000"));
         System.out.println("\n[DISTRIBUIDOR] Conectando a " + distribuidorHost + ":" + distribuidorPuerto + "...");
         surtidor.conectarADistribuidor(distribuidorHost, distribuidorPuerto, archivoEstado, archivoTransacciones);
 
+        // ESTANQUE_HOST admite la lista de nodos del cluster; cada comando va al que atiende su combustible
+        List<String> nodosEstanque = new ArrayList<>();
+        for (String nodo : servidorIP.split(",")) {
+            if (!nodo.isBlank()) {
+                nodosEstanque.add(nodo.trim().contains(":") ? nodo.trim() : nodo.trim() + ":" + puerto);
+            }
+        }
+
         try (
-            Socket socket = new Socket(servidorIP, puerto);
-            BufferedReader teclado = new BufferedReader(new InputStreamReader(System.in));
-            PrintWriter salida = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+            ClienteEstanque estanque = new ClienteEstanque(new TopologiaEstanque(nodosEstanque));
+            BufferedReader teclado = new BufferedReader(new InputStreamReader(System.in))
         ) {
-            System.out.println("\nConectado al Estanque: " + servidorIP + ":" + puerto + "\n");
-
-            String bienvenida;
-            while ((bienvenida = entrada.readLine()) != null) {
-                if (bienvenida.contains("Tipos:") || bienvenida.contains("Kerosene")) break;
-            }
+            System.out.println("\nEstanque: " + String.join(", ", nodosEstanque) + "\n");
 
             System.out.println(">>> Comandos del Surtidor:");
             System.out.println("  EXTRAER <tipo> <litros>   - Extraer combustible del estanque");
@@ -461,7 +587,6 @@ public class Surtidor {
                 System.out.print(surtidorId + "> ");
                 mensaje = teclado.readLine();
                 if (mensaje == null || mensaje.equalsIgnoreCase("salir")) {
-                    salida.println("SALIR");
                     try {
                         surtidor.guardarEstado(archivoEstado);
                         System.out.println("[INFO] Estado guardado correctamente");
@@ -535,9 +660,18 @@ public class Surtidor {
                     }
                 }
                 
-                salida.println(mensaje);
+                if (comando.equals("ESTADO")) {
+                    estanque.estado().forEach(System.out::println);
+                    continue;
+                }
 
-                String respuesta = entrada.readLine();
+                String respuesta;
+                try {
+                    respuesta = estanque.enviar(mensaje, partes.length > 1 ? partes[1] : TopologiaEstanque.TIPOS.get(0));
+                } catch (IOException e) {
+                    System.out.println("ERROR: " + e.getMessage());
+                    continue;
+                }
                 if (respuesta != null) {
                     System.out.println(respuesta);
 
@@ -571,7 +705,13 @@ public class Surtidor {
                             System.out.println("║  ✓ VENTA COMPLETADA - Surtidor " + surtidorId + "        ║");
                             System.out.println("╚═══════════════════════════════════════════╝\n");
                             
-                            surtidor.aplicarPreciosPendientes();
+                            if (surtidor.aplicarPreciosPendientes()) {
+                                try {
+                                    surtidor.guardarEstado(archivoEstado);
+                                } catch (IOException e) {
+                                    System.err.println("[ERROR] No se pudo guardar el estado: " + e.getMessage());
+                                }
+                            }
                             
                         } catch (InterruptedException ie) {
                             System.err.println("[ERROR] Venta interrumpida");
@@ -581,14 +721,6 @@ public class Surtidor {
                             surtidor.setEstado(false);
                         }
                     }
-                    
-                    if (mensaje.trim().toUpperCase().equals("ESTADO")) {
-                        String linea;
-                        while ((linea = entrada.readLine()) != null) {
-                            System.out.println(linea);
-                            if (linea.contains("====")) break;
-                        }
-                    }
                 }
             }
             
@@ -0,0 +1,201 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Capa mínima de acceso JDBC: una conexión que se restablece sola,
+ * sentencias preparadas cacheadas por SQL y un histograma de latencia
+ * por consulta con nombre. Todas las operaciones se serializan sobre la
+ * única conexión, que es lo que SQLite admite de todos modos.
+ */
+class AccesoDatos implements AutoCloseable {
+
+    interface LectorFilas<T> {
+        T leer(ResultSet rs) throws SQLException;
+    }
+
+    interface Inicializador {
+        void inicializar(Connection conexion) throws SQLException;
+    }
+
+    interface Operacion<T> {
+        T ejecutar() throws SQLException;
+    }
+
+    private static final long ESPERA_RECONEXION_MS = 5000;
+
+    private final String url;
+    private final Inicializador inicializador;
+    private final Map<String, PreparedStatement> sentencias = new HashMap<>();
+    private final Map<String, Histograma> latencias = new ConcurrentHashMap<>();
+    private Connection conexion;
+    private long ultimoIntentoConexion;
+
+    AccesoDatos(String url, Inicializador inicializador) {
+        this.url = url;
+        this.inicializador = inicializador;
+    }
+
+    synchronized boolean isDisponible() {
+        try {
+            obtenerConexion();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    synchronized int actualizar(String nombre, String sql, Object... parametros) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            return conReintento(() -> {
+                PreparedStatement ps = preparar(sql);
+                asignar(ps, parametros);
+                return ps.executeUpdate();
+            });
+        } finally {
+            registrarLatencia(nombre, inicio);
+        }
+    }
+
+    synchronized <T> T consultar(String nombre, String sql, LectorFilas<T> lector, Object... parametros) throws SQLException {
+        long inicio = System.nanoTime();
+        try {
+            return conReintento(() -> {
+                PreparedStatement ps = preparar(sql);
+                asignar(ps, parametros);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return lector.leer(rs);
+                }
+            });
+        } finally {
+            registrarLatencia(nombre, inicio);
+        }
+    }
+
+    synchronized <T> T enTransaccion(String nombre, Operacion<T> operacion) throws SQLException {
+        long inicio = System.nanoTime();
+        Connection c = obtenerConexion();
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try {
+            T resultado = operacion.ejecutar();
+            c.commit();
+            return resultado;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                c.rollback();
+            } catch (SQLException ignored) {}
+            invalidarSiCaida(c);
+            throw e;
+        } finally {
+            try {
+                if (!c.isClosed()) {
+                    c.setAutoCommit(autoCommit);
+                }
+            } catch (SQLException ignored) {}
+            registrarLatencia(nombre, inicio);
+        }
+    }
+
+    private <T> T conReintento(Operacion<T> operacion) throws SQLException {
+        Connection actual = obtenerConexion();
+        boolean dentroDeTransaccion = !actual.getAutoCommit();
+        try {
+            return operacion.ejecutar();
+        } catch (SQLException e) {
+            if (dentroDeTransaccion || !invalidarSiCaida(actual)) {
+                throw e;
+            }
+            System.err.println("[DB] Conexión perdida, reintentando: " + e.getMessage());
+            obtenerConexion();
+            return operacion.ejecutar();
+        }
+    }
+
+    private Connection obtenerConexion() throws SQLException {
+        if (conexion != null) {
+            return conexion;
+        }
+        long ahora = System.currentTimeMillis();
+        if (ahora - ultimoIntentoConexion < ESPERA_RECONEXION_MS) {
+            throw new SQLException("Base de datos no disponible (reintento en curso)");
+        }
+        ultimoIntentoConexion = ahora;
+        Connection nueva = DriverManager.getConnection(url);
+        try {
+            if (inicializador != null) {
+                inicializador.inicializar(nueva);
+            }
+        } catch (SQLException e) {
+            nueva.close();
+            throw e;
+        }
+        conexion = nueva;
+        ultimoIntentoConexion = 0;
+        System.out.println("[DB] ✓ Conexión establecida: " + url);
+        return conexion;
+    }
+
+    private boolean invalidarSiCaida(Connection c) {
+        try {
+            if (c.isValid(1)) {
+                return false;
+            }
+        } catch (SQLException ignored) {}
+        cerrarSentencias();
+        try {
+            c.close();
+        } catch (SQLException ignored) {}
+        if (conexion == c) {
+            conexion = null;
+        }
+        return true;
+    }
+
+    private PreparedStatement preparar(String sql) throws SQLException {
+        PreparedStatement ps = sentencias.get(sql);
+        if (ps == null || ps.isClosed()) {
+            ps = obtenerConexion().prepareStatement(sql);
+            sentencias.put(sql, ps);
+        }
+        return ps;
+    }
+
+    private static void asignar(PreparedStatement ps, Object[] parametros) throws SQLException {
+        for (int i = 0; i < parametros.length; i++) {
+            ps.setObject(i + 1, parametros[i]);
+        }
+    }
+
+    private void registrarLatencia(String nombre, long inicioNanos) {
+        latencias.computeIfAbsent(nombre, k -> new Histograma()).registrar(System.nanoTime() - inicioNanos);
+    }
+
+    Map<String, Histograma> getLatencias() {
+        return new TreeMap<>(latencias);
+    }
+
+    private void cerrarSentencias() {
+        for (PreparedStatement ps : sentencias.values()) {
+            try {
+                ps.close();
+            } catch (SQLException ignored) {}
+        }
+        sentencias.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        cerrarSentencias();
+        if (conexion != null) {
+            try {
+                conexion.close();
+                System.out.println("[DB] Conexión cerrada");
+            } catch (SQLException e) {
+                System.err.println("[ERROR] Error al cerrar base de datos: " + e.getMessage());
+            }
+            conexion = null;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Motor de almacenamiento sin dependencias: segmentos de solo-anexado con
+ * un índice en memoria que contiene el estado materializado (precios y
+ * acumulados por surtidor/combustible).
+ *
+ * Cada registro es [largo:int][crc32:int][payload]. Al arrancar se
+ * reproducen los segmentos en orden. Solo el último (el que estaba activo)
+ * puede tener una cola truncada por un corte, y esa cola se descarta; los
+ * anteriores se cerraron con fsync, así que un registro inválido en ellos
+ * es daño real y el arranque se detiene en vez de perder lo que sigue. La
+ * compactación escribe una foto del índice en un segmento nuevo y borra
+ * los anteriores; los registros de la foto son absolutos, así que
+ * repetirla sobre segmentos viejos no duplica nada.
+ */
+class AlmacenLog implements MotorAlmacen {
+    private static final byte REG_PRECIO = 1;
+    private static final byte REG_VENTA = 2;
+    private static final byte REG_ACUMULADO = 3;
+    private static final byte REG_VERSION = 4;
+
+    private static final long TAMANO_SEGMENTO = 4L * 1024 * 1024;
+    private static final int SEGMENTOS_PARA_COMPACTAR = 4;
+    private static final String PREFIJO = "segmento-";
+    private static final String SUFIJO = ".log";
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final File directorio;
+    private final Map<String, Double> precios = new HashMap<>();
+    private long versionPrecios;
+    private final TreeMap<String, Acumulado> acumulados = new TreeMap<>();
+    private final Map<String, Histograma> latencias = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService mantenimiento;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    private FileChannel activo;
+    private long numeroActivo;
+    private int segmentosCerrados;
+    private boolean pendienteFsync;
+
+    private static final class Acumulado {
+        final String surtidorId;
+        final String tipo;
+        double litros;
+        int cargas;
+        long actualizado;
+
+        Acumulado(String surtidorId, String tipo) {
+            this.surtidorId = surtidorId;
+            this.tipo = tipo;
+        }
+    }
+
+    AlmacenLog(File directorio) throws IOException {
+        this.directorio = directorio;
+        if (!directorio.isDirectory() && !directorio.mkdirs()) {
+            throw new IOException("No se pudo crear " + directorio);
+        }
+        recuperar();
+        abrirSegmento(numeroActivo + 1);
+
+        mantenimiento = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Mantenimiento-AlmacenLog");
+            t.setDaemon(true);
+            return t;
+        });
+        // fsync agrupado: equivalente a synchronous=NORMAL de SQLite
+        mantenimiento.scheduleWithFixedDelay(this::sincronizar, 1, 1, TimeUnit.SECONDS);
+        mantenimiento.scheduleWithFixedDelay(this::compactarSiCorresponde, 30, 30, TimeUnit.SECONDS);
+        System.out.println("[LOG] ✓ Almacén de log en " + directorio + " (" + acumulados.size() + " acumulados, " + precios.size() + " precios)");
+    }
+
+    @Override
+    public String getNombre() {
+        return "log";
+    }
+
+    // ===================== Recuperación =====================
+
+    private void recuperar() throws IOException {
+        File[] temporales = directorio.listFiles((d, n) -> n.endsWith(".tmp"));
+        if (temporales != null) {
+            for (File f : temporales) {
+                f.delete();
+            }
+        }
+        List<Long> segmentos = listarSegmentos();
+        for (int i = 0; i < segmentos.size(); i++) {
+            long numero = segmentos.get(i);
+            reproducir(archivoSegmento(numero), i == segmentos.size() - 1);
+            numeroActivo = numero;
+            segmentosCerrados++;
+        }
+    }
+
+    private void reproducir(File archivo, boolean ultimo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer cabecera = ByteBuffer.allocate(8);
+            long posicion = 0;
+            long tamano = canal.size();
+            while (posicion + 8 <= tamano) {
+                cabecera.clear();
+                canal.read(cabecera, posicion);
+                cabecera.flip();
+                int largo = cabecera.getInt();
+                int suma = cabecera.getInt();
+                if (largo <= 0 || posicion + 8 + largo > tamano) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(largo);
+                canal.read(payload, posicion + 8);
+                crc.reset();
+                crc.update(payload.array(), 0, largo);
+                if ((int) crc.getValue() != suma) {
+                    break;
+                }
+                payload.flip();
+                aplicar(payload);
+                posicion += 8 + largo;
+            }
+            if (posicion < tamano && !ultimo) {
+                throw new IllegalStateException("Segmento " + archivo.getName() + " dañado en el byte " + posicion
+                    + " de " + tamano + "; no es el último, así que no se recorta");
+            }
+            if (posicion < tamano) {
+                System.err.println("[LOG] Cola inválida en " + archivo.getName() + ", truncando " + (tamano - posicion) + " bytes");
+                canal.truncate(posicion);
+                canal.force(true);
+            }
+        }
+    }
+
+    private void aplicar(ByteBuffer payload) {
+        byte tipoRegistro = payload.get();
+        long instante = payload.getLong();
+        switch (tipoRegistro) {
+            case REG_PRECIO -> precios.put(leerTexto(payload), payload.getDouble());
+            case REG_VENTA -> {
+                Acumulado a = acumulado(leerTexto(payload), leerTexto(payload));
+                a.litros += payload.getDouble();
+                a.cargas++;
+                a.actualizado = instante;
+            }
+            case REG_ACUMULADO -> {
+                Acumulado a = acumulado(leerTexto(payload), leerTexto(payload));
+                a.litros = payload.getDouble();
+                a.cargas = payload.getInt();
+                a.actualizado = instante;
+            }
+            case REG_VERSION -> versionPrecios = payload.getLong();
+            default -> throw new IllegalStateException("Registro desconocido: " + tipoRegistro);
+        }
+    }
+
+    private Acumulado acumulado(String surtidorId, String tipo) {
+        return acumulados.computeIfAbsent(surtidorId + '\u0000' + tipo, k -> new Acumulado(surtidorId, tipo));
+    }
+
+    // ===================== Escritura =====================
+
+    @Override
+    public synchronized void guardarPrecios(Map<String, Double> nuevos, long version) throws IOException {
+        long inicio = System.nanoTime();
+        long ahora = System.currentTimeMillis();
+        for (Map.Entry<String, Double> entry : nuevos.entrySet()) {
+            iniciarRegistro(REG_PRECIO, ahora);
+            escribirTexto(entry.getKey());
+            asegurar(8).putDouble(entry.getValue());
+            anexarRegistro();
+            precios.put(entry.getKey(), entry.getValue());
+        }
+        if (version != versionPrecios) {
+            iniciarRegistro(REG_VERSION, ahora);
+            asegurar(8).putLong(version);
+            anexarRegistro();
+            versionPrecios = version;
+        }
+        registrarLatencia("guardar_precios", inicio);
+    }
+
+    @Override
+    public synchronized void registrarTransaccion(String surtidorId, String tipoCombustible, double litros) throws IOException {
+        long inicio = System.nanoTime();
+        long ahora = System.currentTimeMillis();
+        iniciarRegistro(REG_VENTA, ahora);
+        escribirTexto(surtidorId);
+        escribirTexto(tipoCombustible);
+        asegurar(8).putDouble(litros);
+        anexarRegistro();
+
+        Acumulado a = acumulado(surtidorId, tipoCombustible);
+        a.litros += litros;
+        a.cargas++;
+        a.actualizado = ahora;
+        registrarLatencia("registrar_transaccion", inicio);
+    }
+
+    private void iniciarRegistro(byte tipoRegistro, long instante) {
+        buffer.clear();
+        buffer.position(8);
+        buffer.put(tipoRegistro).putLong(instante);
+    }
+
+    private void anexarRegistro() throws IOException {
+        anexarRegistro(activo);
+        pendienteFsync = true;
+        if (activo.size() >= TAMANO_SEGMENTO) {
+            rotar();
+        }
+    }
+
+    private void anexarRegistro(FileChannel canal) throws IOException {
+        int largo = buffer.position() - 8;
+        crc.reset();
+        crc.update(buffer.array(), 8, largo);
+        buffer.putInt(0, largo).putInt(4, (int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    private ByteBuffer asegurar(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer mayor = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            mayor.put(buffer);
+            buffer = mayor;
+        }
+        return buffer;
+    }
+
+    private void escribirTexto(String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        asegurar(2 + bytes.length).putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String leerTexto(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort() & 0xFFFF];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ===================== Segmentos y compactación =====================
+
+    private void abrirSegmento(long numero) throws IOException {
+        activo = FileChannel.open(archivoSegmento(numero).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        numeroActivo = numero;
+    }
+
+    private void rotar() throws IOException {
+        activo.force(true);
+        activo.close();
+        segmentosCerrados++;
+        abrirSegmento(numeroActivo + 1);
+    }
+
+    private synchronized void sincronizar() {
+        if (!pendienteFsync) {
+            return;
+        }
+        try {
+            activo.force(false);
+            pendienteFsync = false;
+        } catch (IOException e) {
+            System.err.println("[LOG] Error en fsync: " + e.getMessage());
+        }
+    }
+
+    private synchronized void compactarSiCorresponde() {
+        if (segmentosCerrados >= SEGMENTOS_PARA_COMPACTAR) {
+            try {
+                compactar();
+            } catch (IOException e) {
+                System.err.println("[LOG] Error al compactar: " + e.getMessage());
+                try {
+                    if (!activo.isOpen()) {
+                        abrirSegmento(numeroActivo + 1);
+                    }
+                } catch (IOException ex) {
+                    System.err.println("[LOG] No se pudo reabrir el segmento activo: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Reemplaza todos los segmentos por una foto del índice. */
+    synchronized void compactar() throws IOException {
+        long inicio = System.nanoTime();
+        rotar();
+        long numeroFoto = numeroActivo;
+        activo.close();
+
+        File temporal = new File(directorio, PREFIJO + numeroFoto + SUFIJO + ".tmp");
+        try (FileChannel foto = FileChannel.open(temporal.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long ahora = System.currentTimeMillis();
+            for (Map.Entry<String, Double> entry : precios.entrySet()) {
+                iniciarRegistro(REG_PRECIO, ahora);
+                escribirTexto(entry.getKey());
+                asegurar(8).putDouble(entry.getValue());
+                anexarRegistro(foto);
+            }
+            iniciarRegistro(REG_VERSION, ahora);
+            asegurar(8).putLong(versionPrecios);
+            anexarRegistro(foto);
+            for (Acumulado a : acumulados.values()) {
+                iniciarRegistro(REG_ACUMULADO, a.actualizado);
+                escribirTexto(a.surtidorId);
+                escribirTexto(a.tipo);
+                asegurar(12).putDouble(a.litros).putInt(a.cargas);
+                anexarRegistro(foto);
+            }
+            foto.force(true);
+        }
+        Files.move(temporal.toPath(), archivoSegmento(numeroFoto).toPath(),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // La foto tiene que estar en el directorio antes de borrar lo que reemplaza
+        sincronizarDirectorio();
+
+        int borrados = 0;
+        for (long numero : listarSegmentos()) {
+            if (numero < numeroFoto && archivoSegmento(numero).delete()) {
+                borrados++;
+            }
+        }
+        sincronizarDirectorio();
+        segmentosCerrados = 1;
+        abrirSegmento(numeroFoto + 1);
+        registrarLatencia("compactar", inicio);
+        System.out.println("[LOG] Compactación: " + borrados + " segmentos reemplazados por una foto de " + acumulados.size() + " acumulados");
+    }
+
+    private void sincronizarDirectorio() throws IOException {
+        try (FileChannel canal = FileChannel.open(directorio.toPath(), StandardOpenOption.READ)) {
+            canal.force(true);
+        }
+    }
+
+    private List<Long> listarSegmentos() {
+        List<Long> numeros = new ArrayList<>();
+        String[] nombres = directorio.list((d, n) -> n.startsWith(PREFIJO) && n.endsWith(SUFIJO));
+        if (nombres != null) {
+            for (String nombre : nombres) {
+                try {
+                    numeros.add(Long.parseLong(nombre.substring(PREFIJO.length(), nombre.length() - SUFIJO.length())));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        Collections.sort(numeros);
+        return numeros;
+    }
+
+    private File archivoSegmento(long numero) {
+        return new File(directorio, String.format("%s%06d%s", PREFIJO, numero, SUFIJO));
+    }
+
+    // ===================== Lecturas (solo índice) =====================
+
+    @Override
+    public synchronized Map<String, Double> cargarPrecios() {
+        return new HashMap<>(precios);
+    }
+
+    @Override
+    public synchronized long cargarVersionPrecios() {
+        return versionPrecios;
+    }
+
+    @Override
+    public synchronized List<Fila> listarTransacciones() {
+        long inicio = System.nanoTime();
+        List<Fila> filas = new ArrayList<>();
+        for (Acumulado a : acumulados.values()) {
+            filas.add(fila(a));
+        }
+        registrarLatencia("listar_transacciones", inicio);
+        return filas;
+    }
+
+    @Override
+    public synchronized List<Fila> resumenSurtidor(String surtidorId) {
+        long inicio = System.nanoTime();
+        List<Fila> filas = new ArrayList<>();
+        for (Acumulado a : acumulados.subMap(surtidorId + '\u0000', surtidorId + '\u0001').values()) {
+            filas.add(fila(a));
+        }
+        registrarLatencia("resumen_surtidor", inicio);
+        return filas;
+    }
+
+    private static Fila fila(Acumulado a) {
+        return new Fila(a.surtidorId, a.tipo, a.litros, a.cargas, FORMATO_FECHA.format(Instant.ofEpochMilli(a.actualizado)));
+    }
+
+    private void registrarLatencia(String nombre, long inicioNanos) {
+        latencias.computeIfAbsent(nombre, k -> new Histograma()).registrar(System.nanoTime() - inicioNanos);
+    }
+
+    @Override
+    public Map<String, Histograma> getLatencias() {
+        return new TreeMap<>(latencias);
+    }
+
+    @Override
+    public synchronized void close() {
+        mantenimiento.shutdownNow();
+        try {
+            activo.force(true);
+            activo.close();
+            System.out.println("[LOG] Almacén cerrado");
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al cerrar almacén de log: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Persistencia de los precios vigentes del distribuidor.
+ */
+interface AlmacenPrecios {
+
+    /** Devuelve los precios guardados; vacío si aún no hay ninguno. */
+    Map<String, Double> cargarPrecios() throws IOException;
+
+    /** Versión del catálogo de la empresa a la que corresponden los precios; 0 si nunca se sincronizó. */
+    long cargarVersionPrecios() throws IOException;
+
+    /** Guarda el lote de precios junto con su versión de catálogo, de forma atómica. */
+    void guardarPrecios(Map<String, Double> precios, long version) throws IOException;
+}
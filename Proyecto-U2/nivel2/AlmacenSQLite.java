@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Motor SQLite embebido (por defecto). Conserva el esquema histórico de
+ * distribuidor.db: tablas transacciones y precios_combustibles.
+ */
+class AlmacenSQLite implements MotorAlmacen {
+    private static final String SQL_CARGAR_PRECIOS = "SELECT tipo_combustible, precio_actual FROM precios_combustibles";
+    private static final String SQL_GUARDAR_PRECIO = """
+        INSERT INTO precios_combustibles (tipo_combustible, precio_actual) VALUES (?, ?)
+        ON CONFLICT(tipo_combustible) DO UPDATE SET
+            precio_actual = excluded.precio_actual,
+            fecha_actualizacion = CURRENT_TIMESTAMP
+    """;
+    private static final String SQL_CARGAR_VERSION = "SELECT valor FROM metadatos WHERE clave = 'version_precios'";
+    private static final String SQL_GUARDAR_VERSION = """
+        INSERT INTO metadatos (clave, valor) VALUES ('version_precios', ?)
+        ON CONFLICT(clave) DO UPDATE SET valor = excluded.valor
+    """;
+    private static final String SQL_REGISTRAR_TRANSACCION = """
+        INSERT INTO transacciones (surtidor_id, tipo_combustible, litros_consumidos, cantidad_cargas) VALUES (?, ?, ?, 1)
+        ON CONFLICT(surtidor_id, tipo_combustible) DO UPDATE SET
+            litros_consumidos = litros_consumidos + excluded.litros_consumidos,
+            cantidad_cargas = cantidad_cargas + 1,
+            fecha_actualizacion = CURRENT_TIMESTAMP
+    """;
+    private static final String SQL_LISTAR_TRANSACCIONES = "SELECT surtidor_id, tipo_combustible, litros_consumidos, cantidad_cargas, fecha_actualizacion FROM transacciones ORDER BY surtidor_id, tipo_combustible";
+    private static final String SQL_RESUMEN_SURTIDOR = "SELECT surtidor_id, tipo_combustible, litros_consumidos, cantidad_cargas, fecha_actualizacion FROM transacciones WHERE surtidor_id = ? ORDER BY tipo_combustible";
+
+    private final AccesoDatos db;
+
+    AlmacenSQLite(File archivo) {
+        archivo.getAbsoluteFile().getParentFile().mkdirs();
+        this.db = new AccesoDatos("jdbc:sqlite:" + archivo.getPath(), AlmacenSQLite::crearEsquema);
+        if (!db.isDisponible()) {
+            System.err.println("[DB ERROR] Base de datos no disponible, se reintentará en cada operación");
+        }
+    }
+
+    private static void crearEsquema(Connection conexion) throws SQLException {
+        String createTransaccionesSQL = """
+            CREATE TABLE IF NOT EXISTS transacciones (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                surtidor_id TEXT NOT NULL,
+                tipo_combustible TEXT NOT NULL,
+                litros_consumidos REAL NOT NULL,
+                cantidad_cargas INTEGER NOT NULL,
+                fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                UNIQUE(surtidor_id, tipo_combustible)
+            )
+        """;
+
+        String createPreciosSQL = """
+            CREATE TABLE IF NOT EXISTS precios_combustibles (
+                tipo_combustible TEXT PRIMARY KEY,
+                precio_actual REAL NOT NULL,
+                fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP)
+        """;
+
+        String createMetadatosSQL = "CREATE TABLE IF NOT EXISTS metadatos (clave TEXT PRIMARY KEY, valor INTEGER NOT NULL)";
+
+        try (Statement stmt = conexion.createStatement()) {
+            // WAL + synchronous=NORMAL: una venta cuesta un append al log, no un fsync de la BD completa
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute(createTransaccionesSQL);
+            stmt.execute(createPreciosSQL);
+            stmt.execute(createMetadatosSQL);
+        }
+    }
+
+    @Override
+    public String getNombre() {
+        return "sqlite";
+    }
+
+    @Override
+    public Map<String, Double> cargarPrecios() throws IOException {
+        try {
+            return db.consultar("cargar_precios", SQL_CARGAR_PRECIOS, rs -> {
+                Map<String, Double> precios = new HashMap<>();
+                while (rs.next()) {
+                    precios.put(rs.getString("tipo_combustible"), rs.getDouble("precio_actual"));
+                }
+                return precios;
+            });
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long cargarVersionPrecios() throws IOException {
+        try {
+            return db.consultar("cargar_version", SQL_CARGAR_VERSION, rs -> rs.next() ? rs.getLong("valor") : 0L);
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void guardarPrecios(Map<String, Double> precios, long version) throws IOException {
+        try {
+            db.enTransaccion("guardar_precios", () -> {
+                for (Map.Entry<String, Double> entry : precios.entrySet()) {
+                    db.actualizar("guardar_precio", SQL_GUARDAR_PRECIO, entry.getKey(), entry.getValue());
+                }
+                db.actualizar("guardar_version", SQL_GUARDAR_VERSION, version);
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void registrarTransaccion(String surtidorId, String tipoCombustible, double litros) throws IOException {
+        try {
+            db.actualizar("registrar_transaccion", SQL_REGISTRAR_TRANSACCION, surtidorId, tipoCombustible, litros);
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Fila> listarTransacciones() throws IOException {
+        try {
+            return db.consultar("listar_transacciones", SQL_LISTAR_TRANSACCIONES, AlmacenSQLite::leerFilas);
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Fila> resumenSurtidor(String surtidorId) throws IOException {
+        try {
+            return db.consultar("resumen_surtidor", SQL_RESUMEN_SURTIDOR, AlmacenSQLite::leerFilas, surtidorId);
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static List<Fila> leerFilas(ResultSet rs) throws SQLException {
+        List<Fila> filas = new ArrayList<>();
+        while (rs.next()) {
+            filas.add(new Fila(
+                rs.getString("surtidor_id"),
+                rs.getString("tipo_combustible"),
+                rs.getDouble("litros_consumidos"),
+                rs.getInt("cantidad_cargas"),
+                rs.getString("fecha_actualizacion")));
+        }
+        return filas;
+    }
+
+    @Override
+    public Map<String, Histograma> getLatencias() {
+        return db.getLatencias();
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+}
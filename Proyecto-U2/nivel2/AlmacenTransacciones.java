@@ -0,0 +1,18 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Acumulado de ventas por surtidor y tipo de combustible.
+ */
+interface AlmacenTransacciones {
+
+    record Fila(String surtidorId, String tipoCombustible, double litros, int cargas, String fecha) {}
+
+    void registrarTransaccion(String surtidorId, String tipoCombustible, double litros) throws IOException;
+
+    /** Todas las filas ordenadas por surtidor y combustible. */
+    List<Fila> listarTransacciones() throws IOException;
+
+    /** Filas de un surtidor ordenadas por combustible. */
+    List<Fila> resumenSurtidor(String surtidorId) throws IOException;
+}
@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Benchmark compartido de los motores de almacenamiento con el perfil de
+ * ingesta del distribuidor: muchas ventas pequeñas, un lote de precios cada
+ * cierto número de ventas y reportes ocasionales.
+ *
+ * Uso: java -cp ".:sqlite-jdbc.jar" BenchmarkAlmacen [ventas] [surtidores] [motores...]
+ */
+public class BenchmarkAlmacen {
+    private static final String[] TIPOS = {"93", "95", "97", "Diesel", "Kerosene"};
+
+    public static void main(String[] args) throws Exception {
+        int ventas = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int surtidores = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        List<String> motores = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : List.of("sqlite", "log");
+
+        System.out.println("=== BENCHMARK DE ALMACENAMIENTO ===");
+        System.out.println("Ventas: " + ventas + " | Surtidores: " + surtidores + "\n");
+
+        for (String motor : motores) {
+            File directorio = Files.createTempDirectory("bench-" + motor).toFile();
+            try {
+                ejecutar(motor, directorio, ventas, surtidores);
+            } catch (ClassNotFoundException e) {
+                System.out.println("[" + motor + "] omitido: driver no disponible (" + e.getMessage() + ")\n");
+            } finally {
+                borrar(directorio);
+            }
+        }
+    }
+
+    private static void ejecutar(String motor, File directorio, int ventas, int surtidores) throws Exception {
+        Random random = new Random(42);
+        double litrosTotales = 0;
+
+        long inicio = System.nanoTime();
+        try (MotorAlmacen almacen = MotorAlmacen.crear(motor, directorio)) {
+            for (int i = 0; i < ventas; i++) {
+                String surtidor = String.valueOf(1 + random.nextInt(surtidores));
+                String tipo = TIPOS[random.nextInt(TIPOS.length)];
+                double litros = 5 + random.nextInt(60);
+                almacen.registrarTransaccion(surtidor, tipo, litros);
+                litrosTotales += litros;
+
+                if (i % 1000 == 0) {
+                    Map<String, Double> precios = new HashMap<>();
+                    for (String t : TIPOS) {
+                        precios.put(t, 900 + random.nextInt(400) / 10.0);
+                    }
+                    almacen.guardarPrecios(precios, i / 1000 + 1);
+                }
+                if (i % 5000 == 4999) {
+                    almacen.listarTransacciones();
+                }
+            }
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+
+            System.out.printf("[%s] %d ventas en %.2f s -> %.0f ventas/s%n", motor, ventas, segundos, ventas / segundos);
+            for (Map.Entry<String, Histograma> entry : almacen.getLatencias().entrySet()) {
+                Histograma h = entry.getValue();
+                System.out.printf("  %-22s N=%-7d prom=%.3f ms p50<=%.3f ms p99<=%.3f ms máx=%.3f ms%n", entry.getKey(),
+                    h.getCuenta(), h.getPromedioMs(), h.percentilMs(50), h.percentilMs(99), h.getMaximoMs());
+            }
+        }
+
+        long inicioRecuperacion = System.nanoTime();
+        try (MotorAlmacen almacen = MotorAlmacen.crear(motor, directorio)) {
+            double recuperados = 0;
+            for (AlmacenTransacciones.Fila fila : almacen.listarTransacciones()) {
+                recuperados += fila.litros();
+            }
+            double ms = (System.nanoTime() - inicioRecuperacion) / 1e6;
+            String verificacion = Math.abs(recuperados - litrosTotales) < 1e-6 ? "OK" : "DIFERENCIA " + (recuperados - litrosTotales);
+            System.out.printf("  reapertura + lectura completa: %.1f ms | litros: %s%n%n", ms, verificacion);
+        }
+    }
+
+    private static void borrar(File archivo) throws IOException {
+        File[] hijos = archivo.listFiles();
+        if (hijos != null) {
+            for (File hijo : hijos) {
+                borrar(hijo);
+            }
+        }
+        Files.deleteIfExists(archivo.toPath());
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ * Conexiones del surtidor al cluster de estanques. Cada comando va al nodo
+ * que atiende su combustible según la topología; un "MOVER tipo host:puerto"
+ * actualiza la ruta y se reintenta. Si el primario no contesta se prueba con
+ * el seguidor, que lo reemplaza cuando se promueve.
+ *
+ * Un EXTRAER que ya se envió no se reintenta si la conexión cae antes de la
+ * respuesta: el resultado queda incierto y se informa como error.
+ */
+class ClienteEstanque implements Closeable {
+    private static final int TIMEOUT_CONEXION_MS = 2000;
+    private static final int MAX_INTENTOS = 12;
+    private static final long ESPERA_REINTENTO_MS = 500;
+
+    private record Conexion(Socket socket, BufferedReader entrada, PrintWriter salida) {}
+
+    private final TopologiaEstanque topologia;
+    private final Map<String, Conexion> conexiones = new HashMap<>();
+    private final Map<String, String> rutas = new HashMap<>();
+
+    ClienteEstanque(TopologiaEstanque topologia) {
+        this.topologia = topologia;
+    }
+
+    /** Envía el comando al nodo que atiende {@code tipo} y devuelve la primera línea de respuesta. */
+    String enviar(String comando, String tipo) throws IOException {
+        String primario = TopologiaEstanque.direccionClientes(topologia.primario(tipo));
+        String seguidor = topologia.seguidor(tipo) == null ? primario : TopologiaEstanque.direccionClientes(topologia.seguidor(tipo));
+        String destino = rutas.getOrDefault(tipo, primario);
+        IOException ultimoError = null;
+        for (int intento = 0; intento < MAX_INTENTOS; intento++) {
+            Conexion conexion;
+            try {
+                conexion = conectar(destino);
+            } catch (IOException e) {
+                ultimoError = e;
+                destino = destino.equals(primario) ? seguidor : primario;
+                esperar(intento);
+                continue;
+            }
+            conexion.salida().println(comando);
+            String respuesta = conexion.entrada().readLine();
+            if (respuesta == null) {
+                cerrar(destino);
+                throw new IOException("El estanque " + destino + " cerró la conexión sin responder");
+            }
+            if (respuesta.startsWith("MOVER ")) {
+                String[] partes = respuesta.split(" ");
+                String nuevo = partes.length > 2 ? partes[2] : primario;
+                // Un seguidor aún no promovido manda al primario caído: se vuelve a él más tarde
+                if (nuevo.equals(destino) || (ultimoError != null && nuevo.equals(primario))) {
+                    esperar(intento);
+                }
+                destino = nuevo;
+                continue;
+            }
+            rutas.put(tipo, destino);
+            return respuesta;
+        }
+        throw new IOException("Ningún estanque atiende " + tipo + (ultimoError != null ? ": " + ultimoError.getMessage() : ""));
+    }
+
+    /** Estado de todos los tipos consultando a cada nodo responsable, en el formato del comando ESTADO. */
+    List<String> estado() {
+        List<String> lineas = new ArrayList<>();
+        lineas.add("");
+        lineas.add("=== ESTADO DEL ESTANQUE ===");
+        for (String tipo : TopologiaEstanque.TIPOS) {
+            String etiqueta = String.format("%-10s", tipo + ":");
+            try {
+                String respuesta = enviar("CONSULTAR " + tipo, tipo);
+                int inicio = respuesta.indexOf(": ");
+                int fin = respuesta.indexOf(" litros");
+                double nivel = inicio >= 0 && fin > inicio ? Double.parseDouble(respuesta.substring(inicio + 2, fin)) : 0;
+                lineas.add(etiqueta + String.format("%.2f", nivel) + " litros");
+            } catch (IOException | NumberFormatException e) {
+                lineas.add(etiqueta + "sin respuesta");
+            }
+        }
+        lineas.add("============================");
+        return lineas;
+    }
+
+    private Conexion conectar(String destino) throws IOException {
+        Conexion conexion = conexiones.get(destino);
+        if (conexion != null && !conexion.socket().isClosed()) {
+            return conexion;
+        }
+        int separador = destino.lastIndexOf(':');
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(destino.substring(0, separador), Integer.parseInt(destino.substring(separador + 1))), TIMEOUT_CONEXION_MS);
+        BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        String bienvenida;
+        while ((bienvenida = entrada.readLine()) != null) {
+            if (bienvenida.contains("Tipos:")) {
+                break;
+            }
+        }
+        conexion = new Conexion(socket, entrada, new PrintWriter(socket.getOutputStream(), true));
+        conexiones.put(destino, conexion);
+        return conexion;
+    }
+
+    private void cerrar(String destino) {
+        Conexion conexion = conexiones.remove(destino);
+        if (conexion != null) {
+            try {
+                conexion.socket().close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static void esperar(int intento) {
+        if (intento == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ESPERA_REINTENTO_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (String destino : new ArrayList<>(conexiones.keySet())) {
+            Conexion conexion = conexiones.get(destino);
+            conexion.salida().println("SALIR");
+            cerrar(destino);
+        }
+    }
+}
@@ -1,90 +1,88 @@
 import java.io.*;
 import java.net.*;
-import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Distribuidor {
     private String nombreDistribuidor;
     private Map<String, SurtidorConectado> surtidores;
+    private Map<String, DistribuidorHijo> hijos;
     private Map<String, Double> preciosCombustibles;
-    private static final int PUERTO_SURTIDORES = 6000;
-    private static final String DB_PATH = "/app/data/distribuidor.db";
-    private Connection dbConnection;
+    private static final int PUERTO_SURTIDORES = Integer.parseInt(System.getenv().getOrDefault("PUERTO_SURTIDORES", "6000"));
+    /** Los distribuidores hijos entran por su propio puerto: en el de surtidores no hay que adivinar quién habla. */
+    private static final int PUERTO_HIJOS = Integer.parseInt(System.getenv().getOrDefault("PUERTO_HIJOS", "6100"));
+    private static final String DATA_DIR = "/app/data";
+    private static final long VENTANA_COALESCENCIA_MS = Long.parseLong(System.getenv().getOrDefault("VENTANA_PRECIOS_MS", "200"));
+    private static final long TIMEOUT_CONSULTA_MS = Long.parseLong(System.getenv().getOrDefault("TIMEOUT_CONSULTA_MS", "3000"));
+    private static final int PUERTO_ADMIN = Integer.parseInt(System.getenv().getOrDefault("ADMIN_PORT", "8060"));
+    private static final long INTERVALO_REPORTE_MS = Long.parseLong(System.getenv().getOrDefault("INTERVALO_REPORTE_MS", "10000"));
+    private static final int TIMEOUT_CONEXION_EMPRESA_MS = 2000;
+    private static final long REINTENTO_CLUSTER_MS = Long.parseLong(System.getenv().getOrDefault("REINTENTO_CLUSTER_MS", "1000"));
+    private static final String ESTANQUE_HOST = System.getenv().getOrDefault("ESTANQUE_HOST", "servidor");
+    private static final int ESTANQUE_PORT = Integer.parseInt(System.getenv().getOrDefault("ESTANQUE_PORT", "5000"));
+    private MotorAlmacen almacen;
+    private AgendaPrecios agenda;
+    private ReportesVentas reportes;
+    private final Object envioEmpresa = new Object();
+    private PrintWriter salidaEmpresa;
+    private final Map<String, Double> preciosModificados = new ConcurrentHashMap<>();
+    private final AtomicBoolean difusionProgramada = new AtomicBoolean(false);
+    private final AtomicLong epochPrecios = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong versionPrecios = new AtomicLong();
+    private final AtomicLong secuenciaConsultas = new AtomicLong();
+    private final Map<Long, ConsultaPendiente> consultasPendientes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Planificador-Distribuidor");
+        t.setDaemon(true);
+        return t;
+    });
     
     public Distribuidor(String nombre) {
         this.nombreDistribuidor = nombre;
-        this.surtidores = new HashMap<>();
-        this.preciosCombustibles = new HashMap<>();
+        this.surtidores = new ConcurrentHashMap<>();
+        this.hijos = new ConcurrentHashMap<>();
+        this.preciosCombustibles = new ConcurrentHashMap<>();
         inicializarBaseDatos();
         inicializarPrecios();
         cargarPrecios();
+        this.agenda = new AgendaPrecios("distribuidor", new File(DATA_DIR, "programacion_precios.txt"), this::activarPrograma);
+        this.reportes = new ReportesVentas(new File(DATA_DIR, "reportes_pendientes.txt"));
+        planificador.scheduleAtFixedRate(this::enviarReporte, INTERVALO_REPORTE_MS, INTERVALO_REPORTE_MS, TimeUnit.MILLISECONDS);
     }
     
     private void inicializarBaseDatos() {
+        String motor = System.getenv().getOrDefault("MOTOR_ALMACEN", "sqlite");
+        File directorio = new File(DATA_DIR);
         try {
-            File dbFile = new File(DB_PATH);
-            File parentDir = dbFile.getParentFile();
-            if (!parentDir.exists()) {
-                parentDir.mkdirs();
-            }
-            
-            Class.forName("org.sqlite.JDBC");
-            dbConnection = DriverManager.getConnection("jdbc:sqlite:" + DB_PATH);
-
-            String createTransaccionesSQL = """
-                CREATE TABLE IF NOT EXISTS transacciones (
-                    id INTEGER PRIMARY KEY AUTOINCREMENT,
-                    surtidor_id TEXT NOT NULL,
-                    tipo_combustible TEXT NOT NULL,
-                    litros_consumidos REAL NOT NULL,
-                    cantidad_cargas INTEGER NOT NULL,
-                    fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                    UNIQUE(surtidor_id, tipo_combustible)
-                )
-            """;
-            
-            String createPreciosSQL = """
-                CREATE TABLE IF NOT EXISTS precios_combustibles (
-                    tipo_combustible TEXT PRIMARY KEY,
-                    precio_actual REAL NOT NULL,
-                    fecha_actualizacion TIMESTAMP DEFAULT CURRENT_TIMESTAMP)
-            """;
-            
-            Statement stmt = dbConnection.createStatement();
-            stmt.execute(createTransaccionesSQL);
-            stmt.execute(createPreciosSQL);
-            
-            String checkPreciosSQL = "SELECT COUNT(*) FROM precios_combustibles";
-            var rs = stmt.executeQuery(checkPreciosSQL);
-            if (rs.next() && rs.getInt(1) == 0) {
-                String insertPreciosSQL = """
-                    INSERT INTO precios_combustibles (tipo_combustible, precio_actual) VALUES
-                    ('93', 100.0),
-                    ('95', 100.0),
-                    ('97', 100.0),
-                    ('Diesel', 100.0),
-                    ('Kerosene', 100.0)
-                """;
-                stmt.execute(insertPreciosSQL);
-                System.out.println("[DB] ✓ Precios por defecto insertados");
-            }
-            rs.close();
-            stmt.close();
-            
-            System.out.println("[DB] ✓ Base de datos inicializada: " + DB_PATH);
-            
+            almacen = MotorAlmacen.crear(motor, directorio);
         } catch (ClassNotFoundException e) {
             System.err.println("[DB ERROR] Driver SQLite no encontrado: " + e.getMessage());
             System.err.println("[DB ERROR] Classpath: " + System.getProperty("java.class.path"));
-            dbConnection = null;
-        } catch (SQLException e) {
-            System.err.println("[DB ERROR] Error al inicializar BD: " + e.getMessage());
-            e.printStackTrace();
-            dbConnection = null;
+            System.err.println("[DB] Usando el almacén de log como alternativa");
+            try {
+                almacen = MotorAlmacen.crear("log", directorio);
+            } catch (Exception ex) {
+                System.err.println("[DB ERROR] No se pudo abrir el almacén de log: " + ex.getMessage());
+            }
+        } catch (IllegalStateException e) {
+            // Datos dañados: seguir sin almacén (o con uno vacío) perdería las ventas ya registradas
+            System.err.println("[DB ERROR] Almacenamiento dañado, el distribuidor no arranca: " + e.getMessage());
+            System.exit(1);
         } catch (Exception e) {
-            System.err.println("[DB ERROR] Error inesperado: " + e.getMessage());
+            System.err.println("[DB ERROR] Error al inicializar almacenamiento: " + e.getMessage());
             e.printStackTrace();
-            dbConnection = null;
+        }
+        
+        if (almacen != null) {
+            System.out.println("[DB] ✓ Almacenamiento inicializado (motor " + almacen.getNombre() + ") en " + DATA_DIR);
         }
     }
     
@@ -97,88 +95,38 @@ public class Distribuidor {
     }
     
     private void cargarPrecios() {
-        if (dbConnection == null) {
+        if (almacen == null) {
             System.err.println("[ERROR] No hay conexión a BD, usando precios por defecto");
             return;
         }
         
         try {
-            String sql = "SELECT tipo_combustible, precio_actual FROM precios_combustibles";
-            Statement stmt = dbConnection.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+            Map<String, Double> guardados = almacen.cargarPrecios();
+            preciosCombustibles.putAll(guardados);
+            versionPrecios.set(almacen.cargarVersionPrecios());
             
-            int count = 0;
-            while (rs.next()) {
-                String tipo = rs.getString("tipo_combustible");
-                double precio = rs.getDouble("precio_actual");
-                preciosCombustibles.put(tipo, precio);
-                count++;
-            }
-            
-            rs.close();
-            stmt.close();
-            
-            System.out.println("[DB] ✓ " + count + " precios cargados desde base de datos");
+            System.out.println("[DB] ✓ " + guardados.size() + " precios cargados desde base de datos (versión de catálogo " + versionPrecios.get() + ")");
             mostrarPrecios();
             
-        } catch (SQLException e) {
+        } catch (IOException e) {
             System.err.println("[ERROR] Error al cargar precios desde BD: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-    
-    private void guardarPrecio(String tipoCombustible, double precio) {
-        if (dbConnection == null) {
-            System.err.println("[ERROR] No hay conexión a BD, no se puede guardar precio");
-            return;
-        }
-        
-        try {
-            String sql = "UPDATE precios_combustibles SET precio_actual = ?, fecha_actualizacion = CURRENT_TIMESTAMP WHERE tipo_combustible = ?";
-            PreparedStatement pstmt = dbConnection.prepareStatement(sql);
-            
-            pstmt.setDouble(1, precio);
-            pstmt.setString(2, tipoCombustible);
-            int rows = pstmt.executeUpdate();
-            pstmt.close();
-            
-            if (rows > 0) {
-                System.out.println("[DB] ✓ Precio de " + tipoCombustible + " actualizado en BD");
-            } else {
-                System.err.println("[DB] ⚠ No se encontró el combustible " + tipoCombustible);
-            }
-            
-        } catch (SQLException e) {
-            System.err.println("[ERROR] Error al guardar precio en BD: " + e.getMessage());
-            e.printStackTrace();
         }
     }
     
-    @SuppressWarnings("unused")
-    private void guardarPrecios() {
-        if (dbConnection == null) {
+    private void guardarPrecios(Map<String, Double> precios) {
+        if (almacen == null) {
             System.err.println("[ERROR] No hay conexión a BD, no se pueden guardar precios");
             return;
         }
         
         try {
-            String sql = "UPDATE precios_combustibles SET precio_actual = ?, fecha_actualizacion = CURRENT_TIMESTAMP WHERE tipo_combustible = ?";
-            PreparedStatement pstmt = dbConnection.prepareStatement(sql);
-            
-            int count = 0;
-            for (Map.Entry<String, Double> entry : preciosCombustibles.entrySet()) {
-                pstmt.setDouble(1, entry.getValue());
-                pstmt.setString(2, entry.getKey());
-                pstmt.executeUpdate();
-                count++;
+            almacen.guardarPrecios(precios, versionPrecios.get());
+            if (!precios.isEmpty()) {
+                System.out.println("[DB] ✓ " + precios.size() + " precios actualizados en base de datos");
             }
             
-            pstmt.close();
-            System.out.println("[DB] ✓ " + count + " precios actualizados en base de datos");
-            
-        } catch (SQLException e) {
+        } catch (IOException e) {
             System.err.println("[ERROR] Error al guardar precios en BD: " + e.getMessage());
-            e.printStackTrace();
         }
     }
     
@@ -192,143 +140,277 @@ public class Distribuidor {
     
     private void enviarPreciosASurtidor(SurtidorConectado surtidor) {
         System.out.println("[SYNC] Enviando precios al surtidor " + surtidor.getId());
+        surtidor.enviarPrecios(mensajePrecios(epochPrecios.get()));
+    }
+    
+    /**
+     * Los surtidores recibieron el mismo programa y lo activan con su propia
+     * agenda, así que aquí solo se actualiza y persiste el precio local.
+     */
+    private void activarPrograma(AgendaPrecios.Programa programa) {
+        Map<String, Double> cambios = new HashMap<>();
+        for (Map.Entry<String, Double> entry : programa.precios().entrySet()) {
+            if (!entry.getValue().equals(preciosCombustibles.put(entry.getKey(), entry.getValue()))) {
+                cambios.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!cambios.isEmpty()) {
+            guardarPrecios(cambios);
+        }
+        System.out.println("[AGENDA] Programa " + programa.id() + " en vigencia: " + programa.precios());
+    }
+    
+    private void recibirPrograma(String mensaje) {
+        try {
+            AgendaPrecios.Programa programa = AgendaPrecios.Programa.parsear(mensaje);
+            if (agenda.programar(programa)) {
+                int enviados = difundirASurtidores(programa.mensaje());
+                difundirAHijos(programa.mensaje());
+                System.out.println("[AGENDA] Programa " + programa.id() + " para " + new Date(programa.efectivo()) + " recibido, reenviado a " + enviados + " surtidores");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo guardar el programa: " + e.getMessage());
+        }
+    }
+    
+    private void cancelarPrograma(String id) {
+        try {
+            if (agenda.cancelar(id)) {
+                difundirASurtidores("CANCELAR_PROGRAMA " + id);
+                difundirAHijos("CANCELAR_PROGRAMA " + id);
+                System.out.println("[AGENDA] Programa " + id + " cancelado por la empresa");
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo guardar la agenda: " + e.getMessage());
+        }
+    }
+    
+    private void enviarProgramasASurtidor(SurtidorConectado surtidor) {
+        for (AgendaPrecios.Programa programa : agenda.pendientes()) {
+            surtidor.enviarComando(programa.mensaje());
+        }
+    }
+    
+    private void mostrarProgramas() {
+        List<AgendaPrecios.Programa> pendientes = agenda.pendientes();
+        if (pendientes.isEmpty()) {
+            return;
+        }
+        System.out.println("=== CAMBIOS PROGRAMADOS ===");
+        for (AgendaPrecios.Programa programa : pendientes) {
+            System.out.println("  " + programa.id() + "  " + new Date(programa.efectivo()) + "  " + programa.precios());
+        }
+        System.out.println("===========================\n");
+    }
+    
+    private String mensajePrecios(long epoch) {
+        StringBuilder mensaje = new StringBuilder("PRECIOS ").append(epoch);
         for (Map.Entry<String, Double> entry : preciosCombustibles.entrySet()) {
-            surtidor.enviarComando("PRECIO " + entry.getKey() + " " + entry.getValue());
+            mensaje.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return mensaje.toString();
+    }
+    
+    /** Mismo criterio que la empresa (CatalogoPrecios.validar): positivo y finito. */
+    private static boolean precioValido(double precio) {
+        return precio > 0 && Double.isFinite(precio);
+    }
+    
+    private boolean aplicarPrecio(String tipo, double precio) {
+        Double anterior = preciosCombustibles.put(tipo, precio);
+        if (anterior != null && anterior == precio) {
+            return false;
+        }
+        preciosModificados.put(tipo, precio);
+        if (difusionProgramada.compareAndSet(false, true)) {
+            planificador.schedule(this::difundirPrecios, VENTANA_COALESCENCIA_MS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+    
+    /**
+     * Aplica precios recibidos de la empresa y adopta su versión de catálogo.
+     * Los que cambian siguen el camino normal (coalescencia + persistencia con
+     * la versión vigente al vaciar); si ninguno cambió se guarda solo la versión.
+     */
+    private void aplicarPreciosEmpresa(Map<String, Double> precios, long version) {
+        int cambiados = 0;
+        for (Map.Entry<String, Double> entry : precios.entrySet()) {
+            if (aplicarPrecio(entry.getKey(), entry.getValue())) {
+                cambiados++;
+            }
+        }
+        versionPrecios.set(version);
+        if (cambiados == 0) {
+            guardarPrecios(Map.of());
+        }
+        System.out.println("[EMPRESA→PRECIOS] Catálogo versión " + version + " (" + cambiados + " precio(s) modificado(s))");
+    }
+    
+    private static Map<String, Double> parsearPrecios(String[] partes, int desde) {
+        Map<String, Double> precios = new LinkedHashMap<>();
+        for (int i = desde; i < partes.length; i++) {
+            String[] kv = partes[i].split("=", 2);
+            if (kv.length == 2) {
+                precios.put(kv[0], Double.parseDouble(kv[1]));
+            }
+        }
+        return precios;
+    }
+    
+    private void difundirPrecios() {
+        difusionProgramada.set(false);
+        Map<String, Double> cambios = new HashMap<>();
+        for (String tipo : new ArrayList<>(preciosModificados.keySet())) {
+            Double precio = preciosModificados.remove(tipo);
+            if (precio != null) {
+                cambios.put(tipo, precio);
+            }
+        }
+        if (cambios.isEmpty()) {
+            return;
+        }
+        
+        guardarPrecios(cambios);
+        long epoch = epochPrecios.incrementAndGet();
+        int enviados = 0;
+        String mensaje = mensajePrecios(epoch);
+        for (SurtidorConectado surtidor : surtidores.values()) {
+            if (surtidor.enviarPrecios(mensaje)) {
+                enviados++;
+            }
+        }
+        
+        if (enviados > 0) {
+            System.out.println("[SYNC] " + cambios.size() + " cambio(s) de precio propagado(s) a " + enviados + " surtidores (epoch " + epoch + ")");
+        } else {
+            System.out.println("[SYNC] Precios guardados (sin surtidores conectados actualmente)");
         }
     }
     
     public void registrarTransaccion(String surtidorId, String tipoCombustible, double litrosConsumidos) {
-        if (dbConnection == null) {
+        acumularVenta(surtidorId, tipoCombustible, litrosConsumidos);
+        if (almacen == null) {
             System.err.println("[ERROR] Base de datos no inicializada. No se puede registrar transacción.");
             return;
         }
         
         try {
-            String selectSQL = "SELECT cantidad_cargas, litros_consumidos FROM transacciones WHERE surtidor_id = ? AND tipo_combustible = ?";
-            PreparedStatement selectStmt = dbConnection.prepareStatement(selectSQL);
-            selectStmt.setString(1, surtidorId);
-            selectStmt.setString(2, tipoCombustible);
-            ResultSet rs = selectStmt.executeQuery();
-            
-            if (rs.next()) {
-                int cantidadCargasActual = rs.getInt("cantidad_cargas");
-                double litrosActuales = rs.getDouble("litros_consumidos");
-                
-                String updateSQL = "UPDATE transacciones SET litros_consumidos = ?, cantidad_cargas = ?, fecha_actualizacion = CURRENT_TIMESTAMP WHERE surtidor_id = ? AND tipo_combustible = ?";
-                PreparedStatement updateStmt = dbConnection.prepareStatement(updateSQL);
-                updateStmt.setDouble(1, litrosActuales + litrosConsumidos);
-                updateStmt.setInt(2, cantidadCargasActual + 1);
-                updateStmt.setString(3, surtidorId);
-                updateStmt.setString(4, tipoCombustible);
-                updateStmt.executeUpdate();
-                updateStmt.close();
-                
-                System.out.println("[DB] Transacción actualizada: Surtidor " + surtidorId + ", " + tipoCombustible + ", +" + litrosConsumidos + "L");
-            } else {
-                String insertSQL = "INSERT INTO transacciones (surtidor_id, tipo_combustible, litros_consumidos, cantidad_cargas) VALUES (?, ?, ?, ?)";
-                PreparedStatement insertStmt = dbConnection.prepareStatement(insertSQL);
-                insertStmt.setString(1, surtidorId);
-                insertStmt.setString(2, tipoCombustible);
-                insertStmt.setDouble(3, litrosConsumidos);
-                insertStmt.setInt(4, 1);
-                insertStmt.executeUpdate();
-                insertStmt.close();
-                
-                System.out.println("[DB] Nueva transacción registrada: Surtidor " + surtidorId + ", " + tipoCombustible + ", " + litrosConsumidos + "L");
-            }
-            
-            rs.close();
-            selectStmt.close();
+            almacen.registrarTransaccion(surtidorId, tipoCombustible, litrosConsumidos);
+            System.out.println("[DB] Transacción registrada: Surtidor " + surtidorId + ", " + tipoCombustible + ", +" + litrosConsumidos + "L");
             
-        } catch (SQLException e) {
+        } catch (IOException e) {
             System.err.println("[ERROR] Error al registrar transacción: " + e.getMessage());
         }
     }
     
+    private void acumularVenta(String surtidorId, String tipoCombustible, double litros) {
+        reportes.registrar(surtidorId, tipoCombustible, litros, litros * preciosCombustibles.getOrDefault(tipoCombustible, 0.0));
+    }
+    
+    /**
+     * Cierra el período de ventas y lo envía a la empresa si hay conexión; si
+     * no, queda pendiente en disco y se reenvía al reconectar. El cierre y el
+     * envío van bajo el mismo monitor para que las secuencias salgan en orden.
+     */
+    private void enviarReporte() {
+        synchronized (envioEmpresa) {
+            try {
+                String mensaje = reportes.cerrarPeriodo();
+                if (mensaje != null && salidaEmpresa != null) {
+                    salidaEmpresa.println(mensaje);
+                }
+                reportes.tomarConfirmacionesHijos().forEach((id, numero) -> {
+                    DistribuidorHijo hijo = hijos.get(id);
+                    if (hijo != null) {
+                        hijo.enviarComando("ACK " + numero);
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("[ERROR] Error al generar reporte de ventas: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void conectarSalidaEmpresa(PrintWriter salida) {
+        synchronized (envioEmpresa) {
+            salidaEmpresa = salida;
+            if (salida != null) {
+                List<String> pendientes = reportes.pendientes();
+                for (String mensaje : pendientes) {
+                    salida.println(mensaje);
+                }
+                if (!pendientes.isEmpty()) {
+                    System.out.println("[REPORTES] " + pendientes.size() + " reporte(s) pendiente(s) reenviado(s) a la empresa");
+                }
+            }
+        }
+    }
+    
     public void mostrarTransacciones() {
-        if (dbConnection == null) {
+        if (almacen == null) {
             System.err.println("\n[ERROR] Base de datos no disponible.");
             System.err.println("No se pueden mostrar transacciones sin conexión a la BD.\n");
             return;
         }
         
         try {
-            String query = "SELECT surtidor_id, tipo_combustible, litros_consumidos, cantidad_cargas, fecha_actualizacion FROM transacciones ORDER BY surtidor_id, tipo_combustible";
-            Statement stmt = dbConnection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
+            List<AlmacenTransacciones.Fila> filas = almacen.listarTransacciones();
             
             System.out.println("\n╔═══════════════════════════════════════════════════════════════════╗");
             System.out.println("║          REPORTE DE TRANSACCIONES - " + nombreDistribuidor + "          ║");
             System.out.println("╚═══════════════════════════════════════════════════════════════════╝");
             
             String surtidorActual = "";
-            boolean hayDatos = false;
             
-            while (rs.next()) {
-                hayDatos = true;
-                String surtidorId = rs.getString("surtidor_id");
-                String tipoCombustible = rs.getString("tipo_combustible");
-                double litros = rs.getDouble("litros_consumidos");
-                int cargas = rs.getInt("cantidad_cargas");
-                String fecha = rs.getString("fecha_actualizacion");
-                
-                if (!surtidorId.equals(surtidorActual)) {
+            for (AlmacenTransacciones.Fila fila : filas) {
+                if (!fila.surtidorId().equals(surtidorActual)) {
                     if (!surtidorActual.isEmpty()) {
                         System.out.println("  " + "─".repeat(65));
                     }
-                    System.out.println("\n  SURTIDOR: " + surtidorId);
-                    surtidorActual = surtidorId;
+                    System.out.println("\n  SURTIDOR: " + fila.surtidorId());
+                    surtidorActual = fila.surtidorId();
                 }
                 
                 System.out.printf("    %-12s | Litros: %10.2f | Cargas: %5d | Última: %s%n", 
-                    tipoCombustible, litros, cargas, fecha);
+                    fila.tipoCombustible(), fila.litros(), fila.cargas(), fila.fecha());
             }
             
-            if (!hayDatos) {
+            if (filas.isEmpty()) {
                 System.out.println("\n  No hay transacciones registradas");
             }
             
             System.out.println("\n" + "═".repeat(70) + "\n");
             
-            rs.close();
-            stmt.close();
-            
-        } catch (SQLException e) {
+        } catch (IOException e) {
             System.err.println("[ERROR] Error al mostrar transacciones: " + e.getMessage());
         }
     }
     
     public void mostrarResumenPorSurtidor(String surtidorId) {
-        if (dbConnection == null) {
+        if (almacen == null) {
             System.err.println("\n[ERROR] Base de datos no disponible.");
             System.err.println("No se puede mostrar resumen sin conexión a la BD.\n");
             return;
         }
         
         try {
-            String query = "SELECT tipo_combustible, litros_consumidos, cantidad_cargas FROM transacciones WHERE surtidor_id = ? ORDER BY tipo_combustible";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
-            stmt.setString(1, surtidorId);
-            ResultSet rs = stmt.executeQuery();
+            List<AlmacenTransacciones.Fila> filas = almacen.resumenSurtidor(surtidorId);
             
             System.out.println("\n=== RESUMEN SURTIDOR " + surtidorId + " ===");
             
             double totalLitros = 0;
             int totalCargas = 0;
-            boolean hayDatos = false;
             
-            while (rs.next()) {
-                hayDatos = true;
-                String tipo = rs.getString("tipo_combustible");
-                double litros = rs.getDouble("litros_consumidos");
-                int cargas = rs.getInt("cantidad_cargas");
-                
-                System.out.printf("  %-12s: %10.2f litros, %5d cargas%n", tipo, litros, cargas);
-                totalLitros += litros;
-                totalCargas += cargas;
+            for (AlmacenTransacciones.Fila fila : filas) {
+                System.out.printf("  %-12s: %10.2f litros, %5d cargas%n", fila.tipoCombustible(), fila.litros(), fila.cargas());
+                totalLitros += fila.litros();
+                totalCargas += fila.cargas();
             }
             
-            if (!hayDatos) {
+            if (filas.isEmpty()) {
                 System.out.println("  No hay datos para este surtidor");
             } else {
                 System.out.println("  " + "─".repeat(40));
@@ -337,55 +419,117 @@ public class Distribuidor {
             
             System.out.println("================================\n");
             
-            rs.close();
-            stmt.close();
-            
-        } catch (SQLException e) {
+        } catch (IOException e) {
             System.err.println("[ERROR] Error al mostrar resumen: " + e.getMessage());
         }
     }
     
-    private void conectarAEmpresa(String host, int puerto) {
+    private void mostrarMetricasBaseDatos() {
+        if (almacen == null) {
+            System.out.println("\nBase de datos no disponible");
+            return;
+        }
+        System.out.println("\n=== LATENCIA DE CONSULTAS (ms) - motor " + almacen.getNombre() + " ===");
+        System.out.printf("  %-22s %8s %9s %9s %9s %9s%n", "Consulta", "N", "Prom", "p50", "p99", "Máx");
+        for (Map.Entry<String, Histograma> entry : almacen.getLatencias().entrySet()) {
+            Histograma h = entry.getValue();
+            System.out.printf("  %-22s %8d %9.3f %9.3f %9.3f %9.3f%n", entry.getKey(), h.getCuenta(),
+                h.getPromedioMs(), h.percentilMs(50), h.percentilMs(99), h.getMaximoMs());
+        }
+        System.out.println("==================================\n");
+    }
+    
+    /**
+     * Con varias empresas (cluster) se recorre la lista: un seguidor responde
+     * "LIDER host:puerto" y se salta directo a ese nodo. Solo tras una vuelta
+     * completa sin éxito se espera antes de reintentar, y en cluster esa
+     * espera es corta para que la conmutación tome segundos.
+     */
+    private void conectarAEmpresa(List<String> destinos, int puertoPorDefecto) {
         new Thread(() -> {
+            int indice = 0;
+            int fallidos = 0;
+            String redireccion = null;
             while (true) {
+                String destino = redireccion != null ? redireccion : destinos.get(indice);
+                redireccion = null;
+                int separador = destino.lastIndexOf(':');
+                String host = separador < 0 ? destino : destino.substring(0, separador);
+                int puerto = separador < 0 ? puertoPorDefecto : Integer.parseInt(destino.substring(separador + 1));
                 try {
-                    Socket socket = new Socket(host, puerto);
+                    Socket socket = new Socket();
+                    socket.connect(new InetSocketAddress(host, puerto), TIMEOUT_CONEXION_EMPRESA_MS);
                     BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                     PrintWriter salida = new PrintWriter(socket.getOutputStream(), true);
                     
                     System.out.println("[EMPRESA] Conectado a " + host + ":" + puerto);
                     
                     String comando = entrada.readLine();
+                    if (comando != null && comando.startsWith("LIDER ")) {
+                        String lider = comando.substring(6).trim();
+                        System.out.println("[EMPRESA] " + host + ":" + puerto + " no es el líder (líder: " + lider + ")");
+                        socket.close();
+                        if (!lider.equals("?")) {
+                            redireccion = lider;
+                            continue;
+                        }
+                        throw new IOException("El cluster aún no tiene líder");
+                    }
+                    fallidos = 0;
                     if ("IDENTIFICAR".equals(comando)) {
                         salida.println("ID:" + nombreDistribuidor);
+                        salida.println("SYNC " + versionPrecios.get());
                         String respuesta = entrada.readLine();
                         System.out.println("[EMPRESA] " + respuesta);
                     }
+                    conectarSalidaEmpresa(salida);
                     
                     String mensaje;
                     while ((mensaje = entrada.readLine()) != null) {
-                        if (mensaje.startsWith("PRECIO ")) {
+                        if (mensaje.startsWith("PING ")) {
+                            salida.println("PONG " + mensaje.substring(5).trim());
+                        } else if (mensaje.startsWith("ACK ")) {
+                            try {
+                                reportes.confirmar(Long.parseLong(mensaje.substring(4).trim()));
+                            } catch (NumberFormatException ignored) {}
+                        } else if (mensaje.startsWith("PRECIOS ") || mensaje.startsWith("PRECIOS_DELTA ")) {
+                            String[] partes = mensaje.split(" ");
+                            try {
+                                if (partes[0].equals("PRECIOS")) {
+                                    aplicarPreciosEmpresa(parsearPrecios(partes, 2), Long.parseLong(partes[1]));
+                                    difundirAHijos(mensaje);
+                                } else {
+                                    long desde = Long.parseLong(partes[1]);
+                                    long hasta = Long.parseLong(partes[2]);
+                                    long local = versionPrecios.get();
+                                    if (desde == local) {
+                                        if (hasta != local) {
+                                            aplicarPreciosEmpresa(parsearPrecios(partes, 3), hasta);
+                                            difundirAHijos(mensaje);
+                                        }
+                                    } else if (hasta > local) {
+                                        System.out.println("[EMPRESA] Delta " + desde + "→" + hasta + " no aplica sobre versión " + local + ", resincronizando");
+                                        salida.println("SYNC " + local);
+                                    }
+                                }
+                            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                                System.err.println("[ERROR] Mensaje de precios inválido recibido de empresa: " + mensaje);
+                            }
+                        } else if (mensaje.startsWith("PROGRAMAR ")) {
+                            recibirPrograma(mensaje);
+                        } else if (mensaje.startsWith("CANCELAR_PROGRAMA ")) {
+                            cancelarPrograma(mensaje.substring(18).trim());
+                        } else if (mensaje.startsWith("PRECIO ")) {
                             String[] partes = mensaje.split(" ");
                             if (partes.length == 3) {
                                 String tipo = partes[1];
                                 try {
                                     double precio = Double.parseDouble(partes[2]);
                                     
-                                    preciosCombustibles.put(tipo, precio);
-                                    guardarPrecio(tipo, precio);
-                                    
-                                    System.out.println("[EMPRESA→PRECIOS] " + tipo + " actualizado a $" + precio);
-                                    
-                                    int surtidoresConectados = surtidores.size();
-                                    for (Map.Entry<String, SurtidorConectado> entry : surtidores.entrySet()) {
-                                        entry.getValue().enviarComando("PRECIO " + tipo + " " + precio);
-                                    }
-                                    
-                                    if (surtidoresConectados > 0) {
-                                        System.out.println("[SYNC] Precio propagado a " + surtidoresConectados + " surtidores conectados");
-                                    } else {
-                                        System.out.println("[SYNC] Precio guardado (sin surtidores conectados actualmente)");
+                                    if (aplicarPrecio(tipo, precio)) {
+                                        System.out.println("[EMPRESA→PRECIOS] " + tipo + " actualizado a $" + precio);
                                     }
+                                    difundirAHijos(mensaje);
                                     
                                 } catch (NumberFormatException e) {
                                     System.err.println("[ERROR] Precio inválido recibido de empresa");
@@ -395,23 +539,35 @@ public class Distribuidor {
                     }
                     
                     System.out.println("[EMPRESA] Conexión cerrada");
+                    conectarSalidaEmpresa(null);
                     socket.close();
                     
-                } catch (IOException e) {
-                    System.err.println("[EMPRESA] Error de conexión: " + e.getMessage());
+                } catch (IOException | NumberFormatException e) {
+                    conectarSalidaEmpresa(null);
+                    System.err.println("[EMPRESA] Error de conexión con " + host + ":" + puerto + ": " + e.getMessage());
+                    fallidos++;
                 }
                 
+                indice = (indice + 1) % destinos.size();
+                if (fallidos == 0 || fallidos % destinos.size() != 0) {
+                    continue;
+                }
                 try {
-                    Thread.sleep(30000);
+                    Thread.sleep(destinos.size() > 1 ? REINTENTO_CLUSTER_MS : 30000);
                 } catch (InterruptedException ignored) {}
             }
         }).start();
     }
     
     public static void main(String[] args) {
-        System.out.print("Ingrese identificador del distribuidor (ej: Distribuidor_Norte): ");
         Scanner sc = new Scanner(System.in);
-        String nombre = sc.nextLine();
+        String nombre = args.length > 0 ? args[0] : System.getenv("NOMBRE_DISTRIBUIDOR");
+        boolean interactivo = System.console() != null;
+        if (nombre == null || nombre.isBlank()) {
+            System.out.print("Ingrese identificador del distribuidor (ej: Distribuidor_Norte): ");
+            nombre = sc.nextLine();
+            interactivo = true;
+        }
         
         Distribuidor distribuidor = new Distribuidor(nombre);
         
@@ -420,12 +576,147 @@ public class Distribuidor {
         System.out.println("╚═══════════════════════════════════════════════╝\n");
         
         new Thread(() -> distribuidor.iniciarServidorSurtidores()).start();
+        new Thread(() -> distribuidor.iniciarServidorHijos()).start();
         
+        // EMPRESA_HOST admite una lista "host[:puerto],..." con los nodos del cluster
         String empresaHost = System.getenv().getOrDefault("EMPRESA_HOST", "empresa");
         int empresaPuerto = Integer.parseInt(System.getenv().getOrDefault("EMPRESA_PORT", "7000"));
-        System.out.println("\n[EMPRESA] Conectando a " + empresaHost + ":" + empresaPuerto + "...");
-        distribuidor.conectarAEmpresa(empresaHost, empresaPuerto);
-        distribuidor.menuPrincipal(sc);
+        List<String> destinos = new ArrayList<>();
+        for (String destino : empresaHost.split(",")) {
+            if (!destino.isBlank()) {
+                destinos.add(destino.trim());
+            }
+        }
+        System.out.println("\n[EMPRESA] Conectando a " + String.join(", ", destinos) + " (puerto por defecto " + empresaPuerto + ")...");
+        distribuidor.conectarAEmpresa(destinos, empresaPuerto);
+        distribuidor.iniciarAdmin();
+        
+        if (interactivo) {
+            distribuidor.menuPrincipal(sc);
+        } else {
+            System.out.println("[ADMIN] Sin consola: administración solo por HTTP en puerto " + PUERTO_ADMIN);
+        }
+    }
+    
+    // ===================== API de administración =====================
+    
+    private void iniciarAdmin() {
+        ServidorAdmin admin;
+        try {
+            admin = new ServidorAdmin(PUERTO_ADMIN);
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo iniciar la API de administración: " + e.getMessage());
+            return;
+        }
+        
+        admin.ruta("GET", "/estado", s -> Map.of(
+            "nombre", nombreDistribuidor,
+            "surtidores", surtidores.size(),
+            "distribuidoresHijos", hijos.size(),
+            "versionPrecios", versionPrecios.get(),
+            "epochPrecios", epochPrecios.get(),
+            "reportesPendientes", reportes.pendientes().size(),
+            "motorAlmacen", almacen == null ? "ninguno" : almacen.getNombre()));
+        admin.ruta("GET", "/surtidores", s -> {
+            List<Map<String, Object>> lista = new ArrayList<>();
+            for (SurtidorConectado surtidor : new TreeMap<>(surtidores).values()) {
+                lista.add(Map.of("id", surtidor.getId(), "pendientes", surtidor.getPendientes(), "descartados", surtidor.getDescartados()));
+            }
+            return lista;
+        });
+        admin.ruta("GET", "/hijos", s -> {
+            List<Map<String, Object>> lista = new ArrayList<>();
+            for (DistribuidorHijo hijo : new TreeMap<>(hijos).values()) {
+                lista.add(Map.of("id", hijo.getId(), "pendientes", hijo.getPendientes(), "descartados", hijo.getDescartados()));
+            }
+            return lista;
+        });
+        admin.ruta("GET", "/surtidores/estado", s -> {
+            String id = s.parametro("id", null);
+            if (id == null) {
+                return consultarTodos(TIMEOUT_CONSULTA_MS).join();
+            }
+            if (!surtidores.containsKey(id)) {
+                throw new NoSuchElementException("Surtidor " + id + " no conectado");
+            }
+            try {
+                return consultarEstado(id, TIMEOUT_CONSULTA_MS).join();
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause() instanceof TimeoutException
+                    ? "El surtidor " + id + " no respondió en " + TIMEOUT_CONSULTA_MS + " ms"
+                    : e.getCause().getMessage());
+            }
+        });
+        admin.ruta("GET", "/precios", s -> Map.of("version", versionPrecios.get(), "precios", new TreeMap<>(preciosCombustibles)));
+        admin.ruta("POST", "/precios", s -> {
+            // Se valida todo el lote antes de aplicar: o entran todos o ninguno
+            Map<String, Double> precios = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : s.jsonObjeto().entrySet()) {
+                if (!preciosCombustibles.containsKey(entry.getKey())) {
+                    throw new IllegalArgumentException("Tipo de combustible no válido: " + entry.getKey());
+                }
+                if (!(entry.getValue() instanceof Number n) || !precioValido(n.doubleValue())) {
+                    throw new IllegalArgumentException("Precio inválido para " + entry.getKey() + " (debe ser mayor que 0)");
+                }
+                precios.put(entry.getKey(), n.doubleValue());
+            }
+            List<String> modificados = new ArrayList<>();
+            for (Map.Entry<String, Double> entry : precios.entrySet()) {
+                if (aplicarPrecio(entry.getKey(), entry.getValue())) {
+                    modificados.add(entry.getKey());
+                }
+            }
+            return Map.of("modificados", modificados, "surtidores", surtidores.size());
+        });
+        admin.ruta("GET", "/programas", s -> agenda.pendientes());
+        admin.ruta("POST", "/estanque", s -> Map.of("respuesta", comandoEstanque(s.requerido("comando"))));
+        admin.ruta("GET", "/transacciones", s -> {
+            if (almacen == null) {
+                throw new IOException("Base de datos no disponible");
+            }
+            String surtidor = s.parametro("surtidor", null);
+            return surtidor == null ? almacen.listarTransacciones() : almacen.resumenSurtidor(surtidor);
+        });
+        admin.ruta("POST", "/transacciones", this::adminRegistrarTransacciones);
+        admin.ruta("GET", "/metricas/bd", s -> {
+            Map<String, Object> metricas = new TreeMap<>();
+            if (almacen != null) {
+                for (Map.Entry<String, Histograma> entry : almacen.getLatencias().entrySet()) {
+                    Histograma h = entry.getValue();
+                    metricas.put(entry.getKey(), Map.of("n", h.getCuenta(), "promedioMs", h.getPromedioMs(),
+                        "p50Ms", h.percentilMs(50), "p99Ms", h.percentilMs(99), "maximoMs", h.getMaximoMs()));
+                }
+            }
+            return metricas;
+        });
+        admin.iniciar();
+    }
+    
+    /** Carga masiva: [{"surtidor": "1", "tipo": "93", "litros": 20}, ...] o un solo objeto. */
+    @SuppressWarnings("unchecked")
+    private Object adminRegistrarTransacciones(ServidorAdmin.Solicitud solicitud) throws IOException {
+        if (almacen == null) {
+            throw new IOException("Base de datos no disponible");
+        }
+        Object cuerpo = solicitud.json();
+        List<Object> elementos = cuerpo instanceof List ? (List<Object>) cuerpo : List.of(cuerpo);
+        int registradas = 0;
+        for (Object elemento : elementos) {
+            if (!(elemento instanceof Map)) {
+                throw new IllegalArgumentException("Cada transacción debe ser un objeto JSON");
+            }
+            Map<String, Object> datos = (Map<String, Object>) elemento;
+            Object surtidor = datos.get("surtidor");
+            Object tipo = datos.get("tipo");
+            if (surtidor == null || tipo == null || !(datos.get("litros") instanceof Number litros)) {
+                throw new IllegalArgumentException("Se requieren 'surtidor', 'tipo' y 'litros' numérico");
+            }
+            String idSurtidor = surtidor instanceof Number n ? String.valueOf(n.longValue()) : surtidor.toString();
+            almacen.registrarTransaccion(idSurtidor, tipo.toString(), litros.doubleValue());
+            acumularVenta(idSurtidor, tipo.toString(), litros.doubleValue());
+            registradas++;
+        }
+        return Map.of("registradas", registradas);
     }
     
     private void iniciarServidorSurtidores() {
@@ -443,14 +734,209 @@ public class Distribuidor {
         }
     }
     
-    public synchronized void registrarSurtidor(String id, SurtidorConectado surtidor) {
-        surtidores.put(id, surtidor);
+    private void iniciarServidorHijos() {
+        try (ServerSocket servidor = new ServerSocket(PUERTO_HIJOS)) {
+            System.out.println("[SERVIDOR] Escuchando distribuidores hijos en puerto " + PUERTO_HIJOS);
+            
+            while (true) {
+                Socket socket = servidor.accept();
+                System.out.println("[CONEXIÓN] Nuevo distribuidor hijo desde: " + socket.getInetAddress());
+                
+                new Thread(new ManejadorHijo(socket, this)).start();
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error en servidor de distribuidores hijos: " + e.getMessage());
+        }
+    }
+    
+    public void registrarSurtidor(String id, SurtidorConectado surtidor) {
+        SurtidorConectado anterior = surtidores.put(id, surtidor);
+        if (anterior != null && anterior != surtidor) {
+            anterior.cerrar();
+        }
         System.out.println("[REGISTRO] Surtidor " + id + " registrado. Total surtidores: " + surtidores.size());
     }
     
-    public synchronized void desregistrarSurtidor(String id) {
-        surtidores.remove(id);
-        System.out.println("[DESCONEXIÓN] Surtidor " + id + " desconectado. Total surtidores: " + surtidores.size());
+    public void desregistrarSurtidor(String id, SurtidorConectado surtidor) {
+        if (surtidores.remove(id, surtidor)) {
+            surtidor.cerrar();
+            for (ConsultaPendiente consulta : consultasPendientes.values()) {
+                if (consulta.surtidorId().equals(id)) {
+                    consulta.futuro().completeExceptionally(new IOException("Surtidor " + id + " desconectado"));
+                }
+            }
+            System.out.println("[DESCONEXIÓN] Surtidor " + id + " desconectado. Total surtidores: " + surtidores.size());
+        }
+    }
+    
+    public CompletableFuture<SurtidorSnapshot> consultarEstado(String id, long timeoutMs) {
+        SurtidorConectado surtidor = surtidores.get(id);
+        if (surtidor == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Surtidor " + id + " no conectado"));
+        }
+        
+        long solicitud = secuenciaConsultas.incrementAndGet();
+        CompletableFuture<SurtidorSnapshot> futuro = new CompletableFuture<>();
+        consultasPendientes.put(solicitud, new ConsultaPendiente(id, futuro));
+        futuro.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+              .whenComplete((snapshot, error) -> consultasPendientes.remove(solicitud));
+        
+        if (!surtidor.enviarComando("ESTADO_SURTIDOR " + solicitud)) {
+            futuro.completeExceptionally(new IOException("No se pudo enviar la consulta al surtidor " + id));
+        }
+        return futuro;
+    }
+    
+    public CompletableFuture<Map<String, SurtidorSnapshot>> consultarTodos(long timeoutMs) {
+        Map<String, CompletableFuture<SurtidorSnapshot>> consultas = new TreeMap<>();
+        for (String id : surtidores.keySet()) {
+            consultas.put(id, consultarEstado(id, timeoutMs).exceptionally(error -> null));
+        }
+        
+        return CompletableFuture.allOf(consultas.values().toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignorado -> {
+                Map<String, SurtidorSnapshot> resultados = new TreeMap<>();
+                for (Map.Entry<String, CompletableFuture<SurtidorSnapshot>> entry : consultas.entrySet()) {
+                    resultados.put(entry.getKey(), entry.getValue().join());
+                }
+                return resultados;
+            });
+    }
+    
+    private void recibirEstado(String idSurtidor, String mensaje) {
+        SurtidorSnapshot snapshot;
+        try {
+            snapshot = SurtidorSnapshot.parsear(mensaje);
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] Estado inválido de surtidor " + idSurtidor + ": " + mensaje);
+            return;
+        }
+        
+        ConsultaPendiente consulta = null;
+        if (snapshot.solicitud() != null) {
+            // Solo el surtidor consultado puede responder esa solicitud
+            ConsultaPendiente candidata = consultasPendientes.get(snapshot.solicitud());
+            if (candidata != null && candidata.surtidorId().equals(idSurtidor)
+                    && consultasPendientes.remove(snapshot.solicitud(), candidata)) {
+                consulta = candidata;
+            } else if (candidata != null) {
+                System.err.println("[WARN] Surtidor " + idSurtidor + " respondió la solicitud " + snapshot.solicitud()
+                    + " dirigida a " + candidata.surtidorId() + "; se ignora");
+                return;
+            }
+        } else {
+            // Surtidores sin soporte de REQ: se asigna a la consulta más antigua de ese surtidor
+            long menor = Long.MAX_VALUE;
+            for (Map.Entry<Long, ConsultaPendiente> entry : consultasPendientes.entrySet()) {
+                if (entry.getValue().surtidorId().equals(idSurtidor) && entry.getKey() < menor) {
+                    menor = entry.getKey();
+                }
+            }
+            if (menor != Long.MAX_VALUE) {
+                consulta = consultasPendientes.remove(menor);
+            }
+        }
+        
+        if (consulta != null) {
+            consulta.futuro().complete(snapshot);
+        } else {
+            System.out.println("[" + idSurtidor + "] " + mensaje);
+        }
+    }
+    
+    // ===================== Distribuidores hijos =====================
+    
+    /**
+     * Atiende a un distribuidor conectado a este como si fuera la empresa:
+     * recibe la foto de catálogo y los programas, se le reenvían los mensajes
+     * de precios que llegan de arriba y sus reportes se funden en los propios.
+     */
+    private void atenderHijo(String id, Socket socket, BufferedReader entrada, String sync) throws IOException {
+        DistribuidorHijo hijo = new DistribuidorHijo(id, socket);
+        DistribuidorHijo anterior = hijos.put(id, hijo);
+        if (anterior != null) {
+            anterior.cerrar();
+        }
+        System.out.println("[REGISTRO] Distribuidor hijo " + id + " registrado. Total hijos: " + hijos.size());
+        try {
+            sincronizarHijo(hijo, sync.substring(5).trim());
+            for (AgendaPrecios.Programa programa : agenda.pendientes()) {
+                hijo.enviarComando(programa.mensaje());
+            }
+            String mensaje;
+            while ((mensaje = entrada.readLine()) != null) {
+                if (mensaje.equalsIgnoreCase("SALIR")) {
+                    break;
+                }
+                if (mensaje.startsWith("SYNC ")) {
+                    sincronizarHijo(hijo, mensaje.substring(5).trim());
+                } else if (mensaje.startsWith("REPORTE:")) {
+                    recibirReporteHijo(hijo, mensaje);
+                } else if (mensaje.startsWith("PONG ") || mensaje.startsWith("OK:") || mensaje.startsWith("ERROR:")) {
+                    // Respuestas informativas del hijo
+                } else if (!mensaje.trim().isEmpty()) {
+                    System.out.println("[" + id + "] " + mensaje);
+                }
+            }
+        } finally {
+            if (hijos.remove(id, hijo)) {
+                hijo.cerrar();
+                System.out.println("[DESCONEXIÓN] Distribuidor hijo " + id + " desconectado. Total hijos: " + hijos.size());
+            }
+        }
+    }
+    
+    /** Sin historial de deltas en este nivel: si el hijo está en otra versión recibe la foto completa. */
+    private void sincronizarHijo(DistribuidorHijo hijo, String versionHijo) {
+        long version = versionPrecios.get();
+        if (!String.valueOf(version).equals(versionHijo)) {
+            hijo.enviarComando(mensajePrecios(version));
+            System.out.println("[SYNC] Hijo " + hijo.getId() + " en versión " + versionHijo + " → foto completa versión " + version);
+        }
+    }
+    
+    private void recibirReporteHijo(DistribuidorHijo hijo, String mensaje) {
+        int espacio = mensaje.indexOf(' ');
+        long numero;
+        try {
+            numero = Long.parseLong(mensaje.substring("REPORTE:".length(), espacio < 0 ? mensaje.length() : espacio).trim());
+        } catch (NumberFormatException e) {
+            hijo.enviarComando("ERROR: Reporte sin secuencia");
+            return;
+        }
+        try {
+            ReportesVentas.Integracion resultado = espacio < 0
+                ? ReportesVentas.Integracion.EN_CURSO
+                : reportes.integrarHijo(hijo.getId(), numero, mensaje.substring(espacio + 1).trim());
+            if (resultado == ReportesVentas.Integracion.YA_CONFIRMADO) {
+                hijo.enviarComando("ACK " + numero);
+            } else if (resultado == ReportesVentas.Integracion.INTEGRADO) {
+                System.out.println("[REPORTES] Reporte " + numero + " de " + hijo.getId() + " integrado al período en curso");
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Reporte " + numero + " de " + hijo.getId() + " rechazado: " + e.getMessage());
+            hijo.enviarComando("ERROR: Reporte " + numero + " rechazado");
+        }
+    }
+    
+    private int difundirAHijos(String comando) {
+        int encolados = 0;
+        for (DistribuidorHijo hijo : hijos.values()) {
+            if (hijo.enviarComando(comando)) {
+                encolados++;
+            }
+        }
+        return encolados;
+    }
+    
+    private int difundirASurtidores(String comando) {
+        int encolados = 0;
+        for (SurtidorConectado surtidor : surtidores.values()) {
+            if (surtidor.enviarComando(comando)) {
+                encolados++;
+            }
+        }
+        return encolados;
     }
     
     private void menuPrincipal(Scanner sc) {
@@ -463,7 +949,9 @@ public class Distribuidor {
             System.out.println("5. Gestionar estanque (REPONER/CONSULTAR/ESTADO)");
             System.out.println("6. Ver todas las transacciones");
             System.out.println("7. Ver transacciones de un surtidor");
-            System.out.println("8. Salir");
+            System.out.println("8. Consultar estado de todos los surtidores");
+            System.out.println("9. Ver latencia de base de datos");
+            System.out.println("10. Salir");
             System.out.print("\nSeleccione opción: ");
             
             String opcion = sc.nextLine();
@@ -480,6 +968,7 @@ public class Distribuidor {
                     break;
                 case "4":
                     mostrarPrecios();
+                    mostrarProgramas();
                     break;
                 case "5":
                     gestionarEstanque(sc);
@@ -491,6 +980,12 @@ public class Distribuidor {
                     consultarTransaccionesSurtidor(sc);
                     break;
                 case "8":
+                    consultarTodosLosSurtidores();
+                    break;
+                case "9":
+                    mostrarMetricasBaseDatos();
+                    break;
+                case "10":
                     System.out.println("Saliendo...");
                     cerrarBaseDatos();
                     System.exit(0);
@@ -508,13 +1003,8 @@ public class Distribuidor {
     }
     
     private void cerrarBaseDatos() {
-        try {
-            if (dbConnection != null && !dbConnection.isClosed()) {
-                dbConnection.close();
-                System.out.println("[DB] Conexión cerrada");
-            }
-        } catch (SQLException e) {
-            System.err.println("[ERROR] Error al cerrar base de datos: " + e.getMessage());
+        if (almacen != null) {
+            almacen.close();
         }
     }
     
@@ -523,11 +1013,20 @@ public class Distribuidor {
         if (surtidores.isEmpty()) {
             System.out.println("No hay surtidores conectados");
         } else {
-            for (String id : surtidores.keySet()) {
-                System.out.println("  - " + id);
+            for (SurtidorConectado surtidor : surtidores.values()) {
+                String detalle = surtidor.getPendientes() > 0 || surtidor.getDescartados() > 0
+                    ? " (pendientes: " + surtidor.getPendientes() + ", descartados: " + surtidor.getDescartados() + ")"
+                    : "";
+                System.out.println("  - " + surtidor.getId() + detalle);
             }
         }
         System.out.println("Total: " + surtidores.size() + " surtidores");
+        if (!hijos.isEmpty()) {
+            System.out.println("Distribuidores hijos:");
+            for (DistribuidorHijo hijo : hijos.values()) {
+                System.out.println("  - " + hijo.getId() + (hijo.getPendientes() > 0 ? " (pendientes: " + hijo.getPendientes() + ")" : ""));
+            }
+        }
     }
     
     private void actualizarTodosLosPrecios(Scanner sc) {
@@ -545,17 +1044,12 @@ public class Distribuidor {
         try {
             double precio = Double.parseDouble(sc.nextLine());
             
-            preciosCombustibles.put(tipo, precio);
-            guardarPrecio(tipo, precio);
-            
-            int enviados = 0;
-            for (Map.Entry<String, SurtidorConectado> entry : surtidores.entrySet()) {
-                entry.getValue().enviarComando("PRECIO " + tipo + " " + precio);
-                enviados++;
-            }
-            
-            if (enviados > 0) {
-                System.out.println("✓ Precio propagado a " + enviados + " surtidores conectados");
+            if (!precioValido(precio)) {
+                System.out.println("Precio inválido (debe ser mayor que 0)");
+            } else if (!aplicarPrecio(tipo, precio)) {
+                System.out.println("El precio de " + tipo + " ya es $" + precio);
+            } else if (!surtidores.isEmpty()) {
+                System.out.println("✓ Precio actualizado, se propagará a " + surtidores.size() + " surtidores conectados");
             } else {
                 System.out.println("⚠ Sin surtidores conectados (recibirán el precio al conectarse)");
             }
@@ -580,14 +1074,48 @@ public class Distribuidor {
             return;
         }
         
-        surtidor.enviarComando("ESTADO_SURTIDOR");
-        System.out.println("Solicitud enviada al surtidor " + id);
+        try {
+            mostrarSnapshot(consultarEstado(id, TIMEOUT_CONSULTA_MS).join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                System.out.println("El surtidor " + id + " no respondió en " + TIMEOUT_CONSULTA_MS + " ms");
+            } else {
+                System.out.println("Error al consultar surtidor " + id + ": " + e.getCause().getMessage());
+            }
+        }
     }
     
-    private void gestionarEstanque(Scanner sc) {
-        String estanqueHost = System.getenv().getOrDefault("ESTANQUE_HOST", "servidor");
-        int estanquePuerto = 5000;
+    private void consultarTodosLosSurtidores() {
+        if (surtidores.isEmpty()) {
+            System.out.println("No hay surtidores conectados");
+            return;
+        }
+        
+        long inicio = System.nanoTime();
+        Map<String, SurtidorSnapshot> resultados = consultarTodos(TIMEOUT_CONSULTA_MS).join();
+        long duracionMs = (System.nanoTime() - inicio) / 1_000_000;
         
+        int respondieron = 0;
+        for (Map.Entry<String, SurtidorSnapshot> entry : resultados.entrySet()) {
+            if (entry.getValue() != null) {
+                mostrarSnapshot(entry.getValue());
+                respondieron++;
+            } else {
+                System.out.println("\n=== SURTIDOR " + entry.getKey() + " === sin respuesta");
+            }
+        }
+        System.out.println("\n" + respondieron + "/" + resultados.size() + " surtidores respondieron en " + duracionMs + " ms");
+    }
+    
+    private void mostrarSnapshot(SurtidorSnapshot snapshot) {
+        System.out.println("\n=== SURTIDOR " + snapshot.surtidorId() + " ===");
+        for (Map.Entry<String, EstadoCombustible> entry : snapshot.combustibles().entrySet()) {
+            EstadoCombustible c = entry.getValue();
+            System.out.printf("  %-12s: $%8.2f | %10.2f litros | %5d cargas%n", entry.getKey(), c.precio(), c.litros(), c.cargas());
+        }
+    }
+    
+    private void gestionarEstanque(Scanner sc) {
         System.out.println("\n=== GESTIÓN DE ESTANQUE ===");
         System.out.println("1. Reponer combustible");
         System.out.println("2. Consultar nivel de combustible");
@@ -596,73 +1124,160 @@ public class Distribuidor {
         System.out.print("\nSeleccione opción: ");
         
         String opcion = sc.nextLine();
+        String comando;
         
-        try (Socket socket = new Socket(estanqueHost, estanquePuerto);
-             BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter salida = new PrintWriter(socket.getOutputStream(), true)) {
-            
-            String bienvenida;
-            while ((bienvenida = entrada.readLine()) != null) {
-                if (bienvenida.contains("Tipos:") || bienvenida.contains("Kerosene")) break;
-            }
-            
-            switch (opcion) {
-                case "1":
-                    System.out.print("Tipo de combustible (93, 95, 97, Diesel, Kerosene): ");
-                    String tipoReponer = sc.nextLine();
-                    System.out.print("Cantidad de litros a reponer: ");
-                    String litrosReponer = sc.nextLine();
-                    
-                    salida.println("REPONER " + tipoReponer + " " + litrosReponer);
-                    String respuestaReponer = entrada.readLine();
-                    System.out.println("[ESTANQUE] " + respuestaReponer);
-                    break;
-                    
-                case "2":
-                    System.out.print("Tipo de combustible (93, 95, 97, Diesel, Kerosene): ");
-                    String tipoConsultar = sc.nextLine();
-                    
-                    salida.println("CONSULTAR " + tipoConsultar);
-                    String respuestaConsultar = entrada.readLine();
-                    System.out.println("[ESTANQUE] " + respuestaConsultar);
-                    break;
-                    
-                case "3":
-                    salida.println("ESTADO");
-                    System.out.println("\n[ESTANQUE] Estado actual:");
-                    String lineaEstado;
-                    while ((lineaEstado = entrada.readLine()) != null) {
-                        System.out.println(lineaEstado);
-                        if (lineaEstado.contains("====")) break;
-                    }
-                    break;
-                    
-                case "4":
-                    System.out.println("Volviendo al menú principal...");
-                    break;
-                    
-                default:
-                    System.out.println("Opción inválida");
+        switch (opcion) {
+            case "1":
+                System.out.print("Tipo de combustible (93, 95, 97, Diesel, Kerosene): ");
+                String tipoReponer = sc.nextLine();
+                System.out.print("Cantidad de litros a reponer: ");
+                String litrosReponer = sc.nextLine();
+                comando = "REPONER " + tipoReponer + " " + litrosReponer;
+                break;
+                
+            case "2":
+                System.out.print("Tipo de combustible (93, 95, 97, Diesel, Kerosene): ");
+                comando = "CONSULTAR " + sc.nextLine();
+                break;
+                
+            case "3":
+                comando = "ESTADO";
+                System.out.println("\n[ESTANQUE] Estado actual:");
+                break;
+                
+            case "4":
+                System.out.println("Volviendo al menú principal...");
+                return;
+                
+            default:
+                System.out.println("Opción inválida");
+                return;
+        }
+        
+        try {
+            List<String> respuesta = comandoEstanque(comando);
+            if (comando.equals("ESTADO")) {
+                respuesta.forEach(System.out::println);
+            } else {
+                System.out.println("[ESTANQUE] " + (respuesta.isEmpty() ? "" : respuesta.get(0)));
             }
-            
-            salida.println("SALIR");
-            
         } catch (IOException e) {
             System.err.println("[ERROR] No se pudo conectar al estanque: " + e.getMessage());
         }
     }
     
+    /**
+     * Envía un comando al cluster de estanques y devuelve la respuesta: una
+     * línea, o el bloque completo para ESTADO. Como en el surtidor, cada
+     * comando va al nodo que atiende su combustible y sigue los "MOVER";
+     * ESTANQUE_HOST admite la lista de nodos del cluster.
+     */
+    private List<String> comandoEstanque(String comando) throws IOException {
+        List<String> nodos = new ArrayList<>();
+        for (String nodo : ESTANQUE_HOST.split(",")) {
+            if (!nodo.isBlank()) {
+                nodos.add(nodo.trim().contains(":") ? nodo.trim() : nodo.trim() + ":" + ESTANQUE_PORT);
+            }
+        }
+        String[] partes = comando.trim().split("\\s+");
+        try (ClienteEstanque estanque = new ClienteEstanque(new TopologiaEstanque(nodos))) {
+            if (partes[0].equalsIgnoreCase("ESTADO")) {
+                return estanque.estado();
+            }
+            if (partes.length < 2) {
+                throw new IOException("Falta el tipo de combustible en '" + comando.trim() + "'");
+            }
+            return List.of(estanque.enviar(comando.trim(), partes[1]));
+        }
+    }
+    
+    record ConsultaPendiente(String surtidorId, CompletableFuture<SurtidorSnapshot> futuro) {}
+    
+    record EstadoCombustible(double precio, double litros, int cargas) {}
+    
+    record SurtidorSnapshot(String surtidorId, Map<String, EstadoCombustible> combustibles, Long solicitud) {
+        
+        // Formato: ESTADO:<id>|<tipo>:<precio>:<litros>:<cargas>;...[|REQ:<n>]
+        static SurtidorSnapshot parsear(String mensaje) {
+            String[] secciones = mensaje.substring("ESTADO:".length()).split("\\|");
+            Map<String, EstadoCombustible> combustibles = new TreeMap<>();
+            Long solicitud = null;
+            if (secciones.length > 1) {
+                for (String item : secciones[1].split(";")) {
+                    String[] campos = item.split(":");
+                    if (campos.length == 4) {
+                        combustibles.put(campos[0], new EstadoCombustible(
+                            Double.parseDouble(campos[1]), Double.parseDouble(campos[2]), Integer.parseInt(campos[3])));
+                    }
+                }
+            }
+            if (secciones.length > 2 && secciones[2].startsWith("REQ:")) {
+                solicitud = Long.parseLong(secciones[2].substring(4));
+            }
+            return new SurtidorSnapshot(secciones[0], combustibles, solicitud);
+        }
+    }
+    
     static class SurtidorConectado {
         private String id;
-        private PrintWriter salida;
+        private ColaSalida salida;
+        
+        public SurtidorConectado(String id, Socket socket) throws IOException {
+            this.id = id;
+            this.salida = new ColaSalida("surtidor-" + id, socket);
+            this.salida.iniciar();
+        }
+        
+        public boolean enviarComando(String comando) {
+            return salida.encolar(comando);
+        }
+        
+        /** Cada foto de PRECIOS reemplaza a la anterior: es lo único que puede descartarse. */
+        public boolean enviarPrecios(String mensaje) {
+            return salida.encolarDescartable(mensaje);
+        }
+        
+        public void cerrar() {
+            salida.cerrar();
+        }
+        
+        public int getPendientes() {
+            return salida.getPendientes();
+        }
+        
+        public long getDescartados() {
+            return salida.getDescartados();
+        }
+        
+        public String getId() {
+            return id;
+        }
+    }
+    
+    static class DistribuidorHijo {
+        private String id;
+        private ColaSalida salida;
         
-        public SurtidorConectado(String id, PrintWriter salida) {
+        public DistribuidorHijo(String id, Socket socket) throws IOException {
             this.id = id;
-            this.salida = salida;
+            this.salida = new ColaSalida("hijo-" + id, socket);
+            this.salida.iniciar();
+        }
+        
+        public boolean enviarComando(String comando) {
+            return salida.encolar(comando);
         }
         
-        public void enviarComando(String comando) {
-            salida.println(comando);
+        public void cerrar() {
+            salida.cerrar();
+        }
+        
+        public int getPendientes() {
+            return salida.getPendientes();
+        }
+        
+        public long getDescartados() {
+            return salida.getDescartados();
         }
         
         public String getId() {
@@ -681,6 +1296,8 @@ public class Distribuidor {
         
         @Override
         public void run() {
+            String idSurtidor = null;
+            SurtidorConectado surtidor = null;
             try (
                 BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                 PrintWriter salida = new PrintWriter(socket.getOutputStream(), true)
@@ -693,20 +1310,26 @@ public class Distribuidor {
                     return;
                 }
                 
-                String idSurtidor = respuesta.substring(3).trim();
+                idSurtidor = respuesta.substring(3).trim();
+                salida.println("OK: Conectado al distribuidor " + distribuidor.nombreDistribuidor);
 
-                SurtidorConectado surtidor = new SurtidorConectado(idSurtidor, salida);
+                surtidor = new SurtidorConectado(idSurtidor, socket);
                 distribuidor.registrarSurtidor(idSurtidor, surtidor);
-                
-                salida.println("OK: Conectado al distribuidor " + distribuidor.nombreDistribuidor);
 
                 distribuidor.enviarPreciosASurtidor(surtidor);
+                distribuidor.enviarProgramasASurtidor(surtidor);
 
                 String mensaje;
                 while ((mensaje = entrada.readLine()) != null) {
                     if (mensaje.equalsIgnoreCase("SALIR")) {
                         break;
                     }
+                    if (mensaje.startsWith("SYNC ")) {
+                        // Un distribuidor hijo apuntado al puerto equivocado
+                        System.err.println("[ERROR] " + idSurtidor + " habla como distribuidor hijo; debe conectarse al puerto " + PUERTO_HIJOS);
+                        surtidor.enviarComando("ERROR: Los distribuidores hijos se conectan al puerto " + PUERTO_HIJOS);
+                        break;
+                    }
 
                     if (mensaje.startsWith("TRANSACCION ")) {
                         String[] partes = mensaje.split(" ");
@@ -717,15 +1340,17 @@ public class Distribuidor {
                                 double litros = Double.parseDouble(partes[3]);
                                 
                                 distribuidor.registrarTransaccion(surtidorId, tipoCombustible, litros);
-                                salida.println("OK: Transacción registrada");
+                                surtidor.enviarComando("OK: Transacción registrada");
                             } catch (NumberFormatException e) {
-                                salida.println("ERROR: Formato de transacción inválido");
+                                surtidor.enviarComando("ERROR: Formato de transacción inválido");
                             }
                         } else {
-                            salida.println("ERROR: Formato de transacción incorrecto");
+                            surtidor.enviarComando("ERROR: Formato de transacción incorrecto");
                         }
+                    } else if (mensaje.startsWith("ESTADO:")) {
+                        distribuidor.recibirEstado(idSurtidor, mensaje);
                     } else if (mensaje.startsWith("REPORTE:")) {
-                        salida.println("ACK");
+                        surtidor.enviarComando("ACK");
                     } else if (mensaje.startsWith("ID:")) {
                     } else if (mensaje.startsWith("OK:") || mensaje.startsWith("ERROR:") || mensaje.equals("ACK")) {
                         // Ignorar respuestas informativas del surtidor
@@ -734,10 +1359,58 @@ public class Distribuidor {
                     }
                 }
                 
-                distribuidor.desregistrarSurtidor(idSurtidor);
-                
             } catch (IOException e) {
                 System.err.println("[ERROR] Error con surtidor: " + e.getMessage());
+            } finally {
+                if (surtidor != null) {
+                    distribuidor.desregistrarSurtidor(idSurtidor, surtidor);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Conexión en el puerto de hijos: el mismo saludo que usa la empresa
+     * (IDENTIFICAR, ID, SYNC) y luego atenderHijo.
+     */
+    static class ManejadorHijo implements Runnable {
+        private Socket socket;
+        private Distribuidor distribuidor;
+        
+        public ManejadorHijo(Socket socket, Distribuidor distribuidor) {
+            this.socket = socket;
+            this.distribuidor = distribuidor;
+        }
+        
+        @Override
+        public void run() {
+            try (
+                BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                PrintWriter salida = new PrintWriter(socket.getOutputStream(), true)
+            ) {
+                salida.println("IDENTIFICAR");
+                String respuesta = entrada.readLine();
+                
+                if (respuesta == null || !respuesta.startsWith("ID:")) {
+                    System.err.println("[ERROR] Distribuidor hijo no se identificó correctamente");
+                    return;
+                }
+                
+                String idHijo = respuesta.substring(3).trim();
+                salida.println("OK: Conectado al distribuidor " + distribuidor.nombreDistribuidor);
+                
+                String sync = entrada.readLine();
+                if (sync == null) {
+                    return;
+                }
+                if (!sync.startsWith("SYNC ")) {
+                    System.err.println("[ERROR] Distribuidor hijo " + idHijo + " no anunció su versión de catálogo");
+                    salida.println("ERROR: Se esperaba SYNC <versión>");
+                    return;
+                }
+                distribuidor.atenderHijo(idHijo, socket, entrada, sync);
+            } catch (IOException e) {
+                System.err.println("[ERROR] Error con distribuidor hijo: " + e.getMessage());
             }
         }
     }
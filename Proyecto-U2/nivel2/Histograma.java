@@ -0,0 +1,55 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con cubetas en potencias de dos de microsegundos
+ * (1 µs .. ~35 min). Registrar no bloquea ni reserva memoria.
+ */
+class Histograma {
+    private static final int CUBETAS = 32;
+    private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+    private final LongAdder cuenta = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private volatile long maximoNanos;
+
+    void registrar(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int cubeta = Math.min(CUBETAS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        cubetas.incrementAndGet(cubeta);
+        cuenta.increment();
+        totalNanos.add(nanos);
+        if (nanos > maximoNanos) {
+            maximoNanos = nanos;
+        }
+    }
+
+    long getCuenta() {
+        return cuenta.sum();
+    }
+
+    double getPromedioMs() {
+        long n = cuenta.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    double getMaximoMs() {
+        return maximoNanos / 1e6;
+    }
+
+    /** Cota superior del percentil pedido, en milisegundos. */
+    double percentilMs(double percentil) {
+        long n = cuenta.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long objetivo = (long) Math.ceil(n * percentil / 100.0);
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cubetas.get(i);
+            if (acumulado >= objetivo) {
+                return (1L << (i + 1)) / 1000.0;
+            }
+        }
+        return getMaximoMs();
+    }
+}
@@ -0,0 +1,28 @@
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Motor de almacenamiento del distribuidor. Se elige con MOTOR_ALMACEN:
+ * "sqlite" (por defecto, requiere el driver JDBC en el classpath) o "log"
+ * (segmentos de solo-anexado, sin dependencias).
+ */
+interface MotorAlmacen extends AlmacenPrecios, AlmacenTransacciones, AutoCloseable {
+
+    String getNombre();
+
+    Map<String, Histograma> getLatencias();
+
+    @Override
+    void close();
+
+    static MotorAlmacen crear(String motor, File directorio) throws Exception {
+        if ("log".equalsIgnoreCase(motor)) {
+            return new AlmacenLog(new File(directorio, "almacen-log"));
+        }
+        if (!"sqlite".equalsIgnoreCase(motor)) {
+            throw new IllegalArgumentException("Motor de almacenamiento desconocido: " + motor);
+        }
+        Class.forName("org.sqlite.JDBC");
+        return new AlmacenSQLite(new File(directorio, "distribuidor.db"));
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Roll-up de ventas hacia la empresa. Las ventas se acumulan en memoria por
+ * surtidor y combustible; al cerrar un período el delta se empaqueta como
+ * "REPORTE:<seq> <base64(gzip(csv))>" con una línea surtidor,tipo,litros,cargas,monto
+ * por par. Los reportes quedan pendientes (y en disco) hasta el "ACK <seq>"
+ * de la empresa, que deduplica por secuencia, así que reenviarlos es seguro.
+ *
+ * Los reportes de distribuidores hijos se funden en el período en curso con
+ * el surtidor prefijado por el hijo ("hijo/surtidor"). Su secuencia queda en
+ * disco junto con el reporte propio que los contiene, y recién entonces se le
+ * confirman al hijo; un reenvío ya persistido se confirma de inmediato. El
+ * archivo se escribe con ArchivoDurable (fsync del temporal y del directorio):
+ * el hijo borra lo confirmado, así que el ACK no puede adelantarse al disco.
+ */
+class ReportesVentas {
+
+    private static final class Delta {
+        final DoubleAdder litros = new DoubleAdder();
+        final LongAdder cargas = new LongAdder();
+        final DoubleAdder monto = new DoubleAdder();
+    }
+
+    record Fila(String surtidorId, String tipo, double litros, long cargas, double monto) {}
+
+    /** Resultado de integrar un reporte de un hijo. */
+    enum Integracion { INTEGRADO, YA_CONFIRMADO, EN_CURSO }
+
+    private final File archivo;
+    private final ReadWriteLock cambioPeriodo = new ReentrantReadWriteLock();
+    private ConcurrentHashMap<String, Delta> actual = new ConcurrentHashMap<>();
+    private final TreeMap<Long, String> pendientes = new TreeMap<>();
+    private long secuencia;
+    /** Última secuencia de cada hijo incluida en un reporte propio ya persistido. */
+    private final Map<String, Long> hijosPersistidos = new TreeMap<>();
+    /** Última secuencia de cada hijo fundida en el período en curso. */
+    private final Map<String, Long> hijosEnCurso = new HashMap<>();
+    /** Cerradas en un período cuya escritura aún no terminó bien: no se confirman todavía. */
+    private final Map<String, Long> hijosPorPersistir = new TreeMap<>();
+    private final Map<String, Long> hijosPorConfirmar = new TreeMap<>();
+    /** False si la última escritura falló: lo que hay en memoria no está en disco. */
+    private boolean enDisco = true;
+
+    ReportesVentas(File archivo) {
+        this.archivo = archivo;
+        cargar();
+    }
+
+    void registrar(String surtidorId, String tipo, double litros, double monto) {
+        cambioPeriodo.readLock().lock();
+        try {
+            Delta delta = actual.computeIfAbsent(surtidorId + "," + tipo, k -> new Delta());
+            delta.litros.add(litros);
+            delta.cargas.increment();
+            delta.monto.add(monto);
+        } finally {
+            cambioPeriodo.readLock().unlock();
+        }
+    }
+
+    /** Funde un reporte "REPORTE:<seq> <contenido>" de un distribuidor hijo. */
+    synchronized Integracion integrarHijo(String hijo, long numero, String contenido) throws IOException {
+        if (numero <= hijosPersistidos.getOrDefault(hijo, 0L)) {
+            return enDisco ? Integracion.YA_CONFIRMADO : Integracion.EN_CURSO;
+        }
+        if (numero <= hijosEnCurso.getOrDefault(hijo, 0L)) {
+            return Integracion.EN_CURSO;
+        }
+        List<Fila> filas = decodificar(contenido);
+        cambioPeriodo.readLock().lock();
+        try {
+            for (Fila fila : filas) {
+                Delta delta = actual.computeIfAbsent(hijo + "/" + fila.surtidorId() + "," + fila.tipo(), k -> new Delta());
+                delta.litros.add(fila.litros());
+                delta.cargas.add(fila.cargas());
+                delta.monto.add(fila.monto());
+            }
+            hijosEnCurso.put(hijo, numero);
+        } finally {
+            cambioPeriodo.readLock().unlock();
+        }
+        return Integracion.INTEGRADO;
+    }
+
+    private static List<Fila> decodificar(String contenido) throws IOException {
+        List<Fila> filas = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(contenido))), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = br.readLine()) != null) {
+                String[] campos = linea.split(",");
+                if (campos.length != 5) {
+                    throw new IOException("Fila de reporte inválida: " + linea);
+                }
+                filas.add(new Fila(campos[0], campos[1], Double.parseDouble(campos[2]),
+                    Long.parseLong(campos[3]), Double.parseDouble(campos[4])));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Reporte inválido: " + e.getMessage());
+        }
+        return filas;
+    }
+
+    /** Secuencias de hijos que quedaron persistidas desde la última llamada; el llamador las confirma. */
+    synchronized Map<String, Long> tomarConfirmacionesHijos() {
+        Map<String, Long> confirmaciones = new TreeMap<>(hijosPorConfirmar);
+        hijosPorConfirmar.clear();
+        return confirmaciones;
+    }
+
+    /**
+     * Cierra el período en curso y devuelve el mensaje del nuevo reporte, o
+     * null si no hubo ventas. Las ventas solo toman el bloqueo de lectura;
+     * el de escritura se toma únicamente para cambiar de mapa.
+     */
+    synchronized String cerrarPeriodo() throws IOException {
+        ConcurrentHashMap<String, Delta> cerrado;
+        Map<String, Long> hijosCerrados;
+        cambioPeriodo.writeLock().lock();
+        try {
+            cerrado = actual;
+            actual = new ConcurrentHashMap<>();
+            hijosCerrados = new HashMap<>(hijosEnCurso);
+            hijosEnCurso.clear();
+        } finally {
+            cambioPeriodo.writeLock().unlock();
+        }
+        hijosPersistidos.putAll(hijosCerrados);
+        hijosPorPersistir.putAll(hijosCerrados);
+        if (cerrado.isEmpty()) {
+            if (!hijosCerrados.isEmpty()) {
+                guardar();
+            }
+            return null;
+        }
+
+        StringBuilder csv = new StringBuilder();
+        for (Map.Entry<String, Delta> entry : new TreeMap<>(cerrado).entrySet()) {
+            Delta d = entry.getValue();
+            csv.append(entry.getKey()).append(',').append(d.litros.sum()).append(',')
+               .append(d.cargas.sum()).append(',').append(d.monto.sum()).append('\n');
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        long numero = secuencia + 1;
+        String mensaje = "REPORTE:" + numero + " " + Base64.getEncoder().encodeToString(bytes.toByteArray());
+        pendientes.put(numero, mensaje);
+        secuencia = numero;
+        guardar();
+        return mensaje;
+    }
+
+    /** Confirmación acumulativa: el ACK de n libera todos los reportes hasta n. */
+    synchronized void confirmar(long numero) {
+        SortedMap<Long, String> confirmados = pendientes.headMap(numero, true);
+        if (confirmados.isEmpty()) {
+            return;
+        }
+        confirmados.clear();
+        try {
+            guardar();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al guardar reportes pendientes: " + e.getMessage());
+        }
+    }
+
+    synchronized List<String> pendientes() {
+        return new ArrayList<>(pendientes.values());
+    }
+
+    synchronized long getSecuencia() {
+        return secuencia;
+    }
+
+    private void cargar() {
+        if (!archivo.exists()) {
+            return;
+        }
+        try {
+            for (String linea : ArchivoDurable.leer(archivo)) {
+                if (linea.startsWith("secuencia=")) {
+                    secuencia = Long.parseLong(linea.substring("secuencia=".length()).trim());
+                } else if (linea.startsWith("hijo=")) {
+                    int separador = linea.lastIndexOf('|');
+                    hijosPersistidos.put(linea.substring(5, separador), Long.parseLong(linea.substring(separador + 1)));
+                } else if (linea.startsWith("REPORTE:")) {
+                    pendientes.put(Long.parseLong(linea.substring(8, linea.indexOf(' '))), linea);
+                }
+            }
+            System.out.println("[REPORTES] Secuencia " + secuencia + ", " + pendientes.size() + " reporte(s) pendiente(s) de confirmación");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ERROR] Error al leer reportes pendientes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escribe el estado completo y, solo si llegó al disco, libera las
+     * confirmaciones de hijos que ese estado incluye. Si falla, quedan para la
+     * próxima escritura que sí termine (otro cierre o un ACK de la empresa).
+     */
+    private void guardar() throws IOException {
+        List<String> lineas = new ArrayList<>();
+        lineas.add("secuencia=" + secuencia);
+        for (Map.Entry<String, Long> entry : hijosPersistidos.entrySet()) {
+            lineas.add("hijo=" + entry.getKey() + "|" + entry.getValue());
+        }
+        lineas.addAll(pendientes.values());
+        enDisco = false;
+        ArchivoDurable.escribir(archivo, lineas);
+        enDisco = true;
+        hijosPorConfirmar.putAll(hijosPorPersistir);
+        hijosPorPersistir.clear();
+    }
+}
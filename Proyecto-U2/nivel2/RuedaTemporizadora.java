@@ -0,0 +1,102 @@
+import java.util.*;
+
+/**
+ * Rueda de temporización (hashed timing wheel) sobre el reloj de pared:
+ * programar y cancelar cuestan O(1) y un solo hilo dispara todas las
+ * tareas vencidas en cada tick. Los instantes son absolutos (epoch millis)
+ * porque se comparten entre niveles; la precisión es de un tick.
+ */
+class RuedaTemporizadora {
+
+    final class Tarea {
+        private final Runnable accion;
+        private final int ranura;
+        private long rondas;
+        private boolean cancelada;
+
+        private Tarea(Runnable accion, int ranura, long rondas) {
+            this.accion = accion;
+            this.ranura = ranura;
+            this.rondas = rondas;
+        }
+
+        /** Devuelve false si la tarea ya se ejecutó o estaba cancelada. */
+        boolean cancelar() {
+            synchronized (RuedaTemporizadora.this) {
+                if (cancelada) {
+                    return false;
+                }
+                cancelada = true;
+                return ranuras.get(ranura).remove(this);
+            }
+        }
+    }
+
+    private final long tickMs;
+    private final List<ArrayDeque<Tarea>> ranuras;
+    private final long inicio = System.currentTimeMillis();
+    private long tickActual;
+
+    RuedaTemporizadora(String nombre, long tickMs, int cantidadRanuras) {
+        this.tickMs = tickMs;
+        this.ranuras = new ArrayList<>(cantidadRanuras);
+        for (int i = 0; i < cantidadRanuras; i++) {
+            ranuras.add(new ArrayDeque<>());
+        }
+        Thread hilo = new Thread(this::girar, "Rueda-" + nombre);
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /** Programa {@code accion} para {@code instanteMillis}; si ya pasó, corre en el próximo tick. */
+    synchronized Tarea programar(long instanteMillis, Runnable accion) {
+        long tickDestino = Math.max(tickActual, (instanteMillis - inicio + tickMs - 1) / tickMs);
+        long distancia = tickDestino - tickActual;
+        int ranura = (int) (tickDestino % ranuras.size());
+        Tarea tarea = new Tarea(accion, ranura, distancia / ranuras.size());
+        ranuras.get(ranura).add(tarea);
+        return tarea;
+    }
+
+    private void girar() {
+        while (true) {
+            long siguiente;
+            synchronized (this) {
+                siguiente = inicio + tickActual * tickMs;
+            }
+            long espera = siguiente - System.currentTimeMillis();
+            if (espera > 0) {
+                try {
+                    Thread.sleep(espera);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            for (Tarea tarea : avanzar()) {
+                try {
+                    tarea.accion.run();
+                } catch (RuntimeException e) {
+                    System.err.println("[RUEDA] Error en tarea programada: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized List<Tarea> avanzar() {
+        List<Tarea> vencidas = new ArrayList<>();
+        Iterator<Tarea> it = ranuras.get((int) (tickActual % ranuras.size())).iterator();
+        while (it.hasNext()) {
+            Tarea tarea = it.next();
+            if (tarea.rondas > 0) {
+                tarea.rondas--;
+            } else {
+                it.remove();
+                tarea.cancelada = true;
+                vencidas.add(tarea);
+            }
+        }
+        tickActual++;
+        return vencidas;
+    }
+}
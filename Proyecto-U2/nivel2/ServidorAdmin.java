@@ -0,0 +1,430 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.lang.reflect.RecordComponent;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint HTTP/JSON embebido para administrar el nodo sin consola. Cada
+ * operación del menú se registra como una ruta "MÉTODO /ruta"; el manejador
+ * devuelve un valor (Map, List, record, String, número...) que se serializa
+ * a JSON. Los cuerpos se aceptan como JSON y los parámetros por query string.
+ *
+ * Escucha en ADMIN_BIND (127.0.0.1 por defecto). Con ADMIN_TOKEN definido
+ * toda solicitud debe traer "Authorization: Bearer <token>"; sin token solo
+ * se acepta escuchar en loopback, porque la API cambia precios de la red.
+ */
+class ServidorAdmin {
+
+    interface Manejador {
+        Object manejar(Solicitud solicitud) throws Exception;
+    }
+
+    record Solicitud(String metodo, String ruta, Map<String, String> parametros, String cuerpo) {
+
+        String parametro(String nombre, String porDefecto) {
+            return parametros.getOrDefault(nombre, porDefecto);
+        }
+
+        String requerido(String nombre) {
+            String valor = parametros.get(nombre);
+            if (valor == null || valor.isBlank()) {
+                throw new IllegalArgumentException("Falta el parámetro '" + nombre + "'");
+            }
+            return valor;
+        }
+
+        Object json() {
+            if (cuerpo.isBlank()) {
+                throw new IllegalArgumentException("Se esperaba un cuerpo JSON");
+            }
+            return new LectorJson(cuerpo).leerDocumento();
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> jsonObjeto() {
+            Object valor = json();
+            if (!(valor instanceof Map)) {
+                throw new IllegalArgumentException("Se esperaba un objeto JSON");
+            }
+            return (Map<String, Object>) valor;
+        }
+    }
+
+    /** Error con código HTTP propio y campos extra en el cuerpo (p. ej. dónde reintentar). */
+    static class ErrorHttp extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int codigo;
+        final Map<String, Object> datos;
+
+        ErrorHttp(int codigo, String mensaje, Map<String, Object> datos) {
+            super(mensaje);
+            this.codigo = codigo;
+            this.datos = datos;
+        }
+    }
+
+    private static final String BIND = System.getenv().getOrDefault("ADMIN_BIND", "127.0.0.1");
+    private static final String TOKEN = System.getenv().getOrDefault("ADMIN_TOKEN", "");
+
+    private final HttpServer servidor;
+    private final Map<String, Manejador> rutas = new LinkedHashMap<>();
+
+    ServidorAdmin(int puerto) throws IOException {
+        InetAddress direccion = InetAddress.getByName(BIND);
+        if (TOKEN.isEmpty() && !direccion.isLoopbackAddress()) {
+            throw new IOException("ADMIN_BIND=" + BIND + " expone la API fuera del equipo; define ADMIN_TOKEN");
+        }
+        this.servidor = HttpServer.create(new InetSocketAddress(direccion, puerto), 0);
+        this.servidor.createContext("/", this::atender);
+        this.servidor.setExecutor(crearEjecutor());
+    }
+
+    /**
+     * Hilos virtuales si el JDK los trae (21+); si no, un pool en caché. Se
+     * resuelve por reflexión para seguir compilando con JDK 17.
+     */
+    private static ExecutorService crearEjecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "Admin-HTTP");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    void ruta(String metodo, String ruta, Manejador manejador) {
+        rutas.put(metodo + " " + ruta, manejador);
+    }
+
+    void iniciar() {
+        servidor.start();
+        System.out.println("[ADMIN] API HTTP escuchando en " + BIND + ":" + servidor.getAddress().getPort() + " (" + rutas.size() + " rutas"
+            + (TOKEN.isEmpty() ? ", sin token" : ", con token") + ")");
+    }
+
+    private void atender(HttpExchange intercambio) throws IOException {
+        String metodo = intercambio.getRequestMethod().toUpperCase(Locale.ROOT);
+        String crudo = intercambio.getRequestURI().getPath();
+        String ruta = crudo.length() > 1 && crudo.endsWith("/") ? crudo.substring(0, crudo.length() - 1) : crudo;
+
+        int codigo = 200;
+        Object resultado;
+        Manejador manejador = rutas.get(metodo + " " + ruta);
+        if (!autorizado(intercambio)) {
+            codigo = 401;
+            resultado = Map.of("error", "Falta el token de administración o no es válido");
+            intercambio.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+        } else if (manejador == null) {
+            boolean existe = rutas.keySet().stream().anyMatch(r -> r.endsWith(" " + ruta));
+            codigo = existe ? 405 : 404;
+            resultado = Map.of("error", existe ? "Método no permitido" : "Ruta no encontrada");
+        } else {
+            try (InputStream cuerpo = intercambio.getRequestBody()) {
+                Solicitud solicitud = new Solicitud(metodo, ruta, parsearQuery(intercambio.getRequestURI().getRawQuery()),
+                    new String(cuerpo.readAllBytes(), StandardCharsets.UTF_8));
+                resultado = manejador.manejar(solicitud);
+            } catch (ErrorHttp e) {
+                codigo = e.codigo;
+                Map<String, Object> cuerpo = new LinkedHashMap<>();
+                cuerpo.put("error", String.valueOf(e.getMessage()));
+                cuerpo.putAll(e.datos);
+                resultado = cuerpo;
+            } catch (IllegalArgumentException e) {
+                codigo = 400;
+                resultado = Map.of("error", String.valueOf(e.getMessage()));
+            } catch (NoSuchElementException e) {
+                codigo = 404;
+                resultado = Map.of("error", String.valueOf(e.getMessage()));
+            } catch (Exception e) {
+                codigo = 500;
+                resultado = Map.of("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+
+        byte[] respuesta = (json(resultado) + "\n").getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        intercambio.sendResponseHeaders(codigo, respuesta.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(respuesta);
+        }
+    }
+
+    /** Comparación en tiempo constante para no filtrar el token por latencia. */
+    private static boolean autorizado(HttpExchange intercambio) {
+        if (TOKEN.isEmpty()) {
+            return true;
+        }
+        String cabecera = intercambio.getRequestHeaders().getFirst("Authorization");
+        byte[] recibido = (cabecera == null ? "" : cabecera).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(recibido, ("Bearer " + TOKEN).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> parsearQuery(String query) {
+        Map<String, String> parametros = new LinkedHashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parametros;
+        }
+        for (String par : query.split("&")) {
+            String[] kv = par.split("=", 2);
+            parametros.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                kv.length == 2 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+        }
+        return parametros;
+    }
+
+    // ===================== JSON =====================
+
+    static String json(Object valor) {
+        StringBuilder sb = new StringBuilder();
+        escribir(sb, valor);
+        return sb.toString();
+    }
+
+    private static void escribir(StringBuilder sb, Object valor) {
+        if (valor == null) {
+            sb.append("null");
+        } else if (valor instanceof Boolean) {
+            sb.append(valor);
+        } else if (valor instanceof Number numero) {
+            double d = numero.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                sb.append("null");
+            } else if (numero instanceof Double || numero instanceof Float) {
+                sb.append(d == Math.rint(d) && Math.abs(d) < 1e15 ? String.valueOf((long) d) : String.valueOf(d));
+            } else {
+                sb.append(numero);
+            }
+        } else if (valor instanceof Map<?, ?> mapa) {
+            sb.append('{');
+            boolean primero = true;
+            for (Map.Entry<?, ?> entry : mapa.entrySet()) {
+                if (!primero) {
+                    sb.append(',');
+                }
+                primero = false;
+                escribirTexto(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                escribir(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else if (valor instanceof Iterable<?> lista) {
+            sb.append('[');
+            boolean primero = true;
+            for (Object elemento : lista) {
+                if (!primero) {
+                    sb.append(',');
+                }
+                primero = false;
+                escribir(sb, elemento);
+            }
+            sb.append(']');
+        } else if (valor instanceof Record registro) {
+            Map<String, Object> campos = new LinkedHashMap<>();
+            for (RecordComponent componente : registro.getClass().getRecordComponents()) {
+                try {
+                    componente.getAccessor().setAccessible(true);
+                    campos.put(componente.getName(), componente.getAccessor().invoke(registro));
+                } catch (ReflectiveOperationException e) {
+                    campos.put(componente.getName(), null);
+                }
+            }
+            escribir(sb, campos);
+        } else {
+            escribirTexto(sb, valor.toString());
+        }
+    }
+
+    private static void escribirTexto(StringBuilder sb, String texto) {
+        sb.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /** Parser JSON recursivo: objetos, arreglos, textos, números (Double), booleanos y null. */
+    private static final class LectorJson {
+        private final String texto;
+        private int pos;
+
+        LectorJson(String texto) {
+            this.texto = texto;
+        }
+
+        Object leerDocumento() {
+            Object valor = leerValor();
+            saltarEspacios();
+            if (pos != texto.length()) {
+                throw error("contenido sobrante");
+            }
+            return valor;
+        }
+
+        private Object leerValor() {
+            saltarEspacios();
+            if (pos >= texto.length()) {
+                throw error("fin inesperado");
+            }
+            char c = texto.charAt(pos);
+            switch (c) {
+                case '{':
+                    return leerObjeto();
+                case '[':
+                    return leerArreglo();
+                case '"':
+                    return leerTexto();
+                case 't':
+                    return leerLiteral("true", Boolean.TRUE);
+                case 'f':
+                    return leerLiteral("false", Boolean.FALSE);
+                case 'n':
+                    return leerLiteral("null", null);
+                default:
+                    return leerNumero();
+            }
+        }
+
+        private Map<String, Object> leerObjeto() {
+            Map<String, Object> objeto = new LinkedHashMap<>();
+            pos++;
+            saltarEspacios();
+            if (consumir('}')) {
+                return objeto;
+            }
+            do {
+                saltarEspacios();
+                if (pos >= texto.length() || texto.charAt(pos) != '"') {
+                    throw error("se esperaba una clave");
+                }
+                String clave = leerTexto();
+                saltarEspacios();
+                if (!consumir(':')) {
+                    throw error("se esperaba ':'");
+                }
+                objeto.put(clave, leerValor());
+                saltarEspacios();
+            } while (consumir(','));
+            if (!consumir('}')) {
+                throw error("se esperaba '}'");
+            }
+            return objeto;
+        }
+
+        private List<Object> leerArreglo() {
+            List<Object> arreglo = new ArrayList<>();
+            pos++;
+            saltarEspacios();
+            if (consumir(']')) {
+                return arreglo;
+            }
+            do {
+                arreglo.add(leerValor());
+                saltarEspacios();
+            } while (consumir(','));
+            if (!consumir(']')) {
+                throw error("se esperaba ']'");
+            }
+            return arreglo;
+        }
+
+        private String leerTexto() {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < texto.length()) {
+                char c = texto.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= texto.length()) {
+                    break;
+                }
+                char escape = texto.charAt(pos++);
+                switch (escape) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (pos + 4 > texto.length()) {
+                            throw error("escape unicode incompleto");
+                        }
+                        sb.append((char) Integer.parseInt(texto.substring(pos, pos + 4), 16));
+                        pos += 4;
+                    }
+                    default -> sb.append(escape);
+                }
+            }
+            throw error("texto sin cerrar");
+        }
+
+        private Object leerLiteral(String literal, Object valor) {
+            if (!texto.startsWith(literal, pos)) {
+                throw error("literal inválido");
+            }
+            pos += literal.length();
+            return valor;
+        }
+
+        private Double leerNumero() {
+            int inicio = pos;
+            while (pos < texto.length() && "+-0123456789.eE".indexOf(texto.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.parseDouble(texto.substring(inicio, pos));
+            } catch (NumberFormatException e) {
+                throw error("número inválido");
+            }
+        }
+
+        private boolean consumir(char c) {
+            if (pos < texto.length() && texto.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void saltarEspacios() {
+            while (pos < texto.length() && Character.isWhitespace(texto.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String motivo) {
+            return new IllegalArgumentException("JSON inválido en posición " + pos + ": " + motivo);
+        }
+    }
+}
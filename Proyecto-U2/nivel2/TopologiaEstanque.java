@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reparto de combustibles entre los nodos del cluster de estanques. Cada
+ * tipo tiene un primario y un seguidor síncrono (el nodo siguiente en la
+ * lista); servidores y surtidores lo calculan igual a partir de la misma
+ * lista ESTANQUE_NODOS, así que no hace falta un directorio aparte.
+ *
+ * Nodos como "host:puertoClientes[:puertoCluster]" (por defecto el puerto
+ * del cluster es el de clientes + 100). Con un solo nodo no hay seguidor.
+ */
+class TopologiaEstanque {
+    static final List<String> TIPOS = List.of("93", "95", "97", "Diesel", "Kerosene");
+
+    private final List<String> nodos;
+
+    TopologiaEstanque(List<String> nodos) {
+        if (nodos.isEmpty()) {
+            throw new IllegalArgumentException("El cluster de estanques necesita al menos un nodo");
+        }
+        this.nodos = List.copyOf(nodos);
+    }
+
+    static TopologiaEstanque desdeLista(String lista) {
+        List<String> nodos = new ArrayList<>();
+        for (String nodo : lista.split(",")) {
+            if (!nodo.isBlank()) {
+                nodos.add(nodo.trim());
+            }
+        }
+        return new TopologiaEstanque(nodos);
+    }
+
+    List<String> getNodos() {
+        return nodos;
+    }
+
+    String primario(String tipo) {
+        return nodos.get(indice(tipo));
+    }
+
+    /** Nodo que replica el tipo de forma síncrona, o null con un solo nodo. */
+    String seguidor(String tipo) {
+        return nodos.size() < 2 ? null : nodos.get((indice(tipo) + 1) % nodos.size());
+    }
+
+    /** Los tipos conocidos se reparten en ronda para que cada nodo sea primario de algunos. */
+    private int indice(String tipo) {
+        int posicion = TIPOS.indexOf(tipo);
+        return Math.floorMod(posicion >= 0 ? posicion : tipo.hashCode(), nodos.size());
+    }
+
+    static String host(String nodo) {
+        return nodo.split(":")[0];
+    }
+
+    static int puertoClientes(String nodo) {
+        String[] partes = nodo.split(":");
+        return partes.length > 1 ? Integer.parseInt(partes[1]) : 5000;
+    }
+
+    static int puertoCluster(String nodo) {
+        String[] partes = nodo.split(":");
+        return partes.length > 2 ? Integer.parseInt(partes[2]) : puertoClientes(nodo) + 100;
+    }
+
+    /** "host:puertoClientes", lo que se informa a los clientes en un "MOVER". */
+    static String direccionClientes(String nodo) {
+        return host(nodo) + ":" + puertoClientes(nodo);
+    }
+}
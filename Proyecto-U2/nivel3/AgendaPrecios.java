@@ -0,0 +1,150 @@
+import java.io.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Cambios de precio programados para un instante efectivo común. Cada nivel
+ * guarda su agenda en disco y la activa con su propia rueda de temporización,
+ * así un cambio nacional se distribuye con anticipación y entra en vigencia a
+ * la vez en todos los niveles, sin difusión de último segundo.
+ *
+ * Formato de archivo: una línea por programa, id|efectivoMillis|tipo=precio;...
+ * escrita con ArchivoDurable (fsync y CRC), así una caída no deja la agenda
+ * vacía ni a medias.
+ */
+class AgendaPrecios {
+    private static final long TICK_MS = 50;
+    private static final int RANURAS = 512;
+
+    record Programa(String id, long efectivo, Map<String, Double> precios) {
+
+        /** "PROGRAMAR <id> <efectivoMillis> tipo=precio ..." */
+        String mensaje() {
+            StringBuilder sb = new StringBuilder("PROGRAMAR ").append(id).append(' ').append(efectivo);
+            for (Map.Entry<String, Double> entry : precios.entrySet()) {
+                sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            return sb.toString();
+        }
+
+        static Programa parsear(String mensaje) {
+            String[] partes = mensaje.trim().split("\\s+");
+            if (partes.length < 4 || !partes[0].equals("PROGRAMAR")) {
+                throw new IllegalArgumentException("Programa inválido: " + mensaje);
+            }
+            Map<String, Double> precios = new TreeMap<>();
+            for (int i = 3; i < partes.length; i++) {
+                String[] kv = partes[i].split("=", 2);
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("Precio inválido: " + partes[i]);
+                }
+                precios.put(kv[0], Double.parseDouble(kv[1]));
+            }
+            return new Programa(partes[1], Long.parseLong(partes[2]), Collections.unmodifiableMap(precios));
+        }
+    }
+
+    private final File archivo;
+    private final Consumer<Programa> alActivar;
+    private final RuedaTemporizadora rueda;
+    private final Map<String, Programa> programas = new HashMap<>();
+    private final Map<String, RuedaTemporizadora.Tarea> tareas = new HashMap<>();
+
+    AgendaPrecios(String nombre, File archivo, Consumer<Programa> alActivar) {
+        this.archivo = archivo;
+        this.alActivar = alActivar;
+        this.rueda = new RuedaTemporizadora(nombre, TICK_MS, RANURAS);
+        cargar();
+    }
+
+    private synchronized void cargar() {
+        if (!archivo.exists()) {
+            return;
+        }
+        try {
+            for (String linea : ArchivoDurable.leer(archivo)) {
+                String[] partes = linea.split("\\|", 3);
+                if (partes.length != 3) {
+                    continue;
+                }
+                String precios = partes[2].replace(';', ' ');
+                Programa programa = Programa.parsear("PROGRAMAR " + partes[0] + " " + partes[1] + " " + precios);
+                programas.put(programa.id(), programa);
+                tareas.put(programa.id(), rueda.programar(programa.efectivo(), () -> activar(programa)));
+            }
+            System.out.println("[AGENDA] " + programas.size() + " cambio(s) de precio programado(s) cargado(s)");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[ERROR] Error al cargar agenda de precios: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Agrega o reemplaza un programa. Devuelve false si ya existía idéntico,
+     * lo que hace idempotente la redistribución al reconectar.
+     */
+    synchronized boolean programar(Programa programa) throws IOException {
+        if (programa.equals(programas.get(programa.id()))) {
+            return false;
+        }
+        Programa anterior = programas.put(programa.id(), programa);
+        try {
+            guardar();
+        } catch (IOException e) {
+            if (anterior != null) {
+                programas.put(anterior.id(), anterior);
+            } else {
+                programas.remove(programa.id());
+            }
+            throw e;
+        }
+        RuedaTemporizadora.Tarea previa = tareas.put(programa.id(), rueda.programar(programa.efectivo(), () -> activar(programa)));
+        if (previa != null) {
+            previa.cancelar();
+        }
+        return true;
+    }
+
+    synchronized boolean cancelar(String id) throws IOException {
+        if (programas.remove(id) == null) {
+            return false;
+        }
+        tareas.remove(id).cancelar();
+        guardar();
+        return true;
+    }
+
+    /** Programas aún no activados, ordenados por instante efectivo. */
+    synchronized List<Programa> pendientes() {
+        List<Programa> lista = new ArrayList<>(programas.values());
+        lista.sort(Comparator.comparingLong(Programa::efectivo).thenComparing(Programa::id));
+        return lista;
+    }
+
+    private void activar(Programa programa) {
+        synchronized (this) {
+            if (!programas.remove(programa.id(), programa)) {
+                return;
+            }
+            tareas.remove(programa.id());
+            try {
+                guardar();
+            } catch (IOException e) {
+                System.err.println("[ERROR] Error al guardar agenda de precios: " + e.getMessage());
+            }
+        }
+        System.out.println("[AGENDA] Activando programa " + programa.id() + ": " + programa.precios());
+        alActivar.accept(programa);
+    }
+
+    private void guardar() throws IOException {
+        List<String> lineas = new ArrayList<>();
+        for (Programa programa : programas.values()) {
+            StringJoiner precios = new StringJoiner(";");
+            for (Map.Entry<String, Double> entry : programa.precios().entrySet()) {
+                precios.add(entry.getKey() + "=" + entry.getValue());
+            }
+            lineas.add(programa.id() + "|" + programa.efectivo() + "|" + precios);
+        }
+        ArchivoDurable.escribir(archivo, lineas);
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Agregado de ventas de toda la empresa, construido solo con los roll-ups
+ * que envían los distribuidores (REPORTE:<seq> <base64(gzip(csv))>). Cada
+ * reporte se anota en un journal con fsync antes de confirmarse; cada cierto
+ * tiempo el agregado completo se escribe como checkpoint (ArchivoDurable) y
+ * el journal se vacía. Al arrancar: checkpoint + journal, deduplicando por
+ * secuencia; un registro final a medias se descarta, uno dañado en el medio
+ * detiene el arranque.
+ */
+class AgregadoVentas {
+    private static final int REPORTES_POR_CHECKPOINT = 500;
+    private static final long MS_POR_CHECKPOINT = 30_000;
+
+    record Fila(String surtidorId, String tipo, double litros, long cargas, double monto) {}
+
+    static final class Totales {
+        double litros;
+        long cargas;
+        double monto;
+
+        void sumar(double litros, long cargas, double monto) {
+            this.litros += litros;
+            this.cargas += cargas;
+            this.monto += monto;
+        }
+
+        Map<String, Object> comoMapa() {
+            return Map.of("litros", litros, "cargas", cargas, "monto", monto);
+        }
+    }
+
+    private final File archivoCheckpoint;
+    private final File archivoJournal;
+    private final Map<String, Map<String, Totales>> porDistribuidor = new TreeMap<>();
+    private final Map<String, Long> ultimaSecuencia = new TreeMap<>();
+    private FileOutputStream journal;
+    private int reportesDesdeCheckpoint;
+    private long ultimoCheckpoint = System.currentTimeMillis();
+
+    AgregadoVentas(File directorio) {
+        directorio.mkdirs();
+        this.archivoCheckpoint = new File(directorio, "agregado_ventas.txt");
+        this.archivoJournal = new File(directorio, "agregado_ventas.journal");
+        cargarCheckpoint();
+        int reaplicados = reproducirJournal();
+        try {
+            journal = new FileOutputStream(archivoJournal, true);
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo abrir el journal de ventas: " + e.getMessage());
+        }
+        System.out.println("[VENTAS] Agregado cargado: " + porDistribuidor.size() + " distribuidores, "
+            + reaplicados + " reporte(s) recuperados del journal");
+    }
+
+    /**
+     * Integra un reporte y devuelve sus filas, o null si es un duplicado
+     * (secuencia ya vista); en ambos casos el llamador puede confirmarlo.
+     */
+    synchronized List<Fila> aplicar(String distribuidor, long secuencia, String contenido) throws IOException {
+        if (secuencia <= ultimaSecuencia.getOrDefault(distribuidor, 0L)) {
+            return null;
+        }
+        List<Fila> filas = decodificar(contenido);
+        if (journal == null) {
+            throw new IOException("Journal de ventas no disponible");
+        }
+        long largoPrevio = journal.getChannel().size();
+        try {
+            journal.write((distribuidor + "|" + secuencia + "|" + contenido + "\n").getBytes(StandardCharsets.UTF_8));
+            journal.getFD().sync();
+        } catch (IOException e) {
+            // Sin recortar, el próximo registro quedaría pegado a este y el journal dañado a mitad
+            try {
+                journal.getChannel().truncate(largoPrevio);
+            } catch (IOException ignorada) {
+            }
+            throw e;
+        }
+
+        integrar(distribuidor, secuencia, filas);
+        if (++reportesDesdeCheckpoint >= REPORTES_POR_CHECKPOINT
+                || System.currentTimeMillis() - ultimoCheckpoint >= MS_POR_CHECKPOINT) {
+            checkpoint();
+        }
+        return filas;
+    }
+
+    private void integrar(String distribuidor, long secuencia, List<Fila> filas) {
+        Map<String, Totales> totales = porDistribuidor.computeIfAbsent(distribuidor, k -> new TreeMap<>());
+        for (Fila f : filas) {
+            totales.computeIfAbsent(f.surtidorId() + "," + f.tipo(), k -> new Totales()).sumar(f.litros(), f.cargas(), f.monto());
+        }
+        ultimaSecuencia.put(distribuidor, secuencia);
+    }
+
+    static List<Fila> decodificar(String contenido) throws IOException {
+        byte[] comprimido;
+        try {
+            comprimido = Base64.getDecoder().decode(contenido);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Reporte con base64 inválido");
+        }
+        List<Fila> filas = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(comprimido)), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = br.readLine()) != null) {
+                String[] campos = linea.split(",");
+                if (campos.length != 5) {
+                    throw new IOException("Fila de reporte inválida: " + linea);
+                }
+                filas.add(new Fila(campos[0], campos[1], Double.parseDouble(campos[2]),
+                    Long.parseLong(campos[3]), Double.parseDouble(campos[4])));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Valor numérico inválido en reporte: " + e.getMessage());
+        }
+        return filas;
+    }
+
+    /**
+     * Escribe el agregado completo con ArchivoDurable (que sincroniza también
+     * el directorio) y recién entonces vacía el journal: si el renombre no
+     * estuviera en disco, una caída dejaría el checkpoint viejo con el journal
+     * vacío y se perderían los reportes ya confirmados.
+     */
+    synchronized void checkpoint() throws IOException {
+        List<String> lineas = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : ultimaSecuencia.entrySet()) {
+            lineas.add("S|" + entry.getKey() + "|" + entry.getValue());
+        }
+        for (Map.Entry<String, Map<String, Totales>> dist : porDistribuidor.entrySet()) {
+            for (Map.Entry<String, Totales> entry : dist.getValue().entrySet()) {
+                Totales t = entry.getValue();
+                lineas.add("T|" + dist.getKey() + "|" + entry.getKey() + "|" + t.litros + "|" + t.cargas + "|" + t.monto);
+            }
+        }
+        ArchivoDurable.escribir(archivoCheckpoint, lineas);
+
+        if (journal != null) {
+            journal.close();
+        }
+        journal = new FileOutputStream(archivoJournal, false);
+        journal.getFD().sync();
+        reportesDesdeCheckpoint = 0;
+        ultimoCheckpoint = System.currentTimeMillis();
+    }
+
+    /** Un checkpoint dañado no se ignora: arrancar sin él perdería ventas y secuencias. */
+    private void cargarCheckpoint() {
+        if (!archivoCheckpoint.exists()) {
+            return;
+        }
+        try {
+            for (String linea : ArchivoDurable.leer(archivoCheckpoint)) {
+                String[] campos = linea.split("\\|");
+                if (campos[0].equals("S") && campos.length == 3) {
+                    ultimaSecuencia.put(campos[1], Long.parseLong(campos[2]));
+                } else if (campos[0].equals("T") && campos.length == 6) {
+                    porDistribuidor.computeIfAbsent(campos[1], k -> new TreeMap<>())
+                        .computeIfAbsent(campos[2], k -> new Totales())
+                        .sumar(Double.parseDouble(campos[3]), Long.parseLong(campos[4]), Double.parseDouble(campos[5]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Checkpoint de ventas ilegible (" + archivoCheckpoint + "): " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reaplica los reportes del journal posteriores al checkpoint. Solo el
+     * último registro puede estar a medias (la caída interrumpió su escritura):
+     * se descarta y se corta el archivo ahí para que lo próximo no quede pegado
+     * a esos bytes. Un registro dañado antes del último es corrupción de verdad
+     * y detiene el arranque en vez de perder reportes ya confirmados.
+     */
+    private int reproducirJournal() {
+        if (!archivoJournal.exists()) {
+            return 0;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(archivoJournal.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo leer el journal de ventas: " + e.getMessage(), e);
+        }
+        int reaplicados = 0;
+        int numero = 0;
+        int inicio = 0;
+        while (inicio < bytes.length) {
+            int fin = inicio;
+            while (fin < bytes.length && bytes[fin] != '\n') {
+                fin++;
+            }
+            numero++;
+            boolean ultimo = fin >= bytes.length - 1;
+            try {
+                if (fin == bytes.length) {
+                    throw new IOException("registro sin fin de línea");
+                }
+                String linea = new String(bytes, inicio, fin - inicio, StandardCharsets.UTF_8);
+                int finContenido = linea.lastIndexOf('|');
+                int finDistribuidor = finContenido > 0 ? linea.lastIndexOf('|', finContenido - 1) : -1;
+                if (finDistribuidor <= 0) {
+                    throw new IOException("formato inválido");
+                }
+                String distribuidor = linea.substring(0, finDistribuidor);
+                long secuencia = Long.parseLong(linea.substring(finDistribuidor + 1, finContenido));
+                // decodificar() verifica también el CRC del gzip
+                List<Fila> filas = decodificar(linea.substring(finContenido + 1));
+                if (secuencia > ultimaSecuencia.getOrDefault(distribuidor, 0L)) {
+                    integrar(distribuidor, secuencia, filas);
+                    reaplicados++;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!ultimo) {
+                    throw new IllegalStateException("Journal de ventas dañado en el registro " + numero + " (byte " + inicio
+                        + " de " + bytes.length + "): " + e.getMessage(), e);
+                }
+                System.err.println("[WARN] Journal de ventas: se descarta el registro final incompleto ("
+                    + (bytes.length - inicio) + " bytes): " + e.getMessage());
+                truncarJournal(inicio);
+                break;
+            }
+            inicio = fin + 1;
+        }
+        return reaplicados;
+    }
+
+    private void truncarJournal(long largo) {
+        try (FileChannel canal = FileChannel.open(archivoJournal.toPath(), StandardOpenOption.WRITE)) {
+            canal.truncate(largo);
+            canal.force(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo recortar el journal de ventas: " + e.getMessage(), e);
+        }
+    }
+
+    // ===================== Consultas =====================
+
+    synchronized Map<String, Totales> totalesPorDistribuidor() {
+        Map<String, Totales> resultado = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Totales>> dist : porDistribuidor.entrySet()) {
+            Totales suma = new Totales();
+            for (Totales t : dist.getValue().values()) {
+                suma.sumar(t.litros, t.cargas, t.monto);
+            }
+            resultado.put(dist.getKey(), suma);
+        }
+        return resultado;
+    }
+
+    synchronized Map<String, Totales> totalesPorCombustible() {
+        Map<String, Totales> resultado = new TreeMap<>();
+        for (Map<String, Totales> totales : porDistribuidor.values()) {
+            for (Map.Entry<String, Totales> entry : totales.entrySet()) {
+                String tipo = entry.getKey().substring(entry.getKey().indexOf(',') + 1);
+                Totales t = entry.getValue();
+                resultado.computeIfAbsent(tipo, k -> new Totales()).sumar(t.litros, t.cargas, t.monto);
+            }
+        }
+        return resultado;
+    }
+
+    synchronized Map<String, Long> secuencias() {
+        return new TreeMap<>(ultimaSecuencia);
+    }
+}
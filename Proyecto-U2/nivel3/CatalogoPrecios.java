@@ -0,0 +1,252 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Catálogo de precios corporativos con versión monótona. Cada lote de
+ * cambios genera una versión nueva y queda en un log de cambios
+ * (version|tipo=precio;...) que se reproduce al arrancar. Un distribuidor
+ * que reconecta informa su última versión y recibe solo la diferencia, o
+ * una foto completa si quedó fuera del historial retenido.
+ */
+class CatalogoPrecios {
+    private static final int MAX_HISTORIAL = 1000;
+    private static final String PREFIJO_FOTO = "FOTO ";
+
+    record Cambio(long version, Map<String, Double> precios) {}
+
+    private final Map<String, Double> precios;
+    private final File archivoCambios;
+    private final ArrayDeque<Cambio> historial = new ArrayDeque<>();
+    private long version;
+    private int lineasEnArchivo;
+
+    /** Reproduce el log sobre {@code precios}, que pasa a ser administrado por el catálogo. */
+    CatalogoPrecios(Map<String, Double> precios, File archivoCambios) {
+        this.precios = precios;
+        this.archivoCambios = archivoCambios;
+        cargarCambios();
+    }
+
+    private void cargarCambios() {
+        if (!archivoCambios.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(archivoCambios))) {
+            String linea;
+            while ((linea = br.readLine()) != null) {
+                if (linea.startsWith(PREFIJO_FOTO)) {
+                    // Base de una compactación: precios sin entrada en el historial
+                    Cambio foto = parsear(linea.substring(PREFIJO_FOTO.length()));
+                    if (foto != null && foto.version() >= version) {
+                        precios.putAll(foto.precios());
+                        version = foto.version();
+                    }
+                    lineasEnArchivo++;
+                    continue;
+                }
+                Cambio cambio = parsear(linea);
+                if (cambio == null || cambio.version() <= version) {
+                    continue;
+                }
+                precios.putAll(cambio.precios());
+                agregarAlHistorial(cambio);
+                version = cambio.version();
+                lineasEnArchivo++;
+            }
+            System.out.println("[CATÁLOGO] Versión de precios " + version + " (" + historial.size() + " cambios en historial)");
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al leer log de cambios de precios: " + e.getMessage());
+        }
+    }
+
+    private static Cambio parsear(String linea) {
+        String[] partes = linea.split("\\|", 2);
+        if (partes.length != 2) {
+            return null;
+        }
+        try {
+            return new Cambio(Long.parseLong(partes[0].trim()), parsearPares(partes[1].split(";")));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static Map<String, Double> parsearPares(String[] pares) {
+        Map<String, Double> resultado = new LinkedHashMap<>();
+        for (String par : pares) {
+            String[] kv = par.split("=", 2);
+            if (kv.length == 2 && !kv[0].isBlank()) {
+                resultado.put(kv[0].trim(), Double.parseDouble(kv[1].trim()));
+            }
+        }
+        return resultado;
+    }
+
+    /** Todo precio debe ser positivo y finito; si no, IllegalArgumentException. */
+    static void validar(Map<String, Double> precios) {
+        for (Map.Entry<String, Double> entry : precios.entrySet()) {
+            Double precio = entry.getValue();
+            if (precio == null || !(precio > 0) || !Double.isFinite(precio)) {
+                throw new IllegalArgumentException("Precio inválido para " + entry.getKey() + ": " + precio);
+            }
+        }
+    }
+
+    /**
+     * Aplica los cambios que realmente modifican algún precio. Devuelve el
+     * cambio versionado, o null si no había nada nuevo.
+     */
+    synchronized Cambio aplicar(Map<String, Double> cambios) throws IOException {
+        Cambio cambio = proximoCambio(cambios);
+        if (cambio != null) {
+            registrar(cambio);
+        }
+        return cambio;
+    }
+
+    /**
+     * El cambio versionado que produciría {@code cambios}, sin aplicarlo; null
+     * si no hay nada nuevo. Un precio no positivo o no finito se rechaza.
+     */
+    synchronized Cambio proximoCambio(Map<String, Double> cambios) {
+        validar(cambios);
+        Map<String, Double> efectivos = new TreeMap<>();
+        for (Map.Entry<String, Double> entry : cambios.entrySet()) {
+            if (!entry.getValue().equals(precios.get(entry.getKey()))) {
+                efectivos.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return efectivos.isEmpty() ? null : new Cambio(version + 1, Collections.unmodifiableMap(efectivos));
+    }
+
+    /**
+     * Aplica un cambio ya versionado por el líder del cluster. Las versiones
+     * ya presentes se ignoran, así que reaplicar tras un reinicio es inocuo.
+     */
+    synchronized boolean aplicarReplicado(Cambio cambio) throws IOException {
+        if (cambio.version() <= version) {
+            return false;
+        }
+        if (cambio.version() != version + 1) {
+            System.err.println("[CATÁLOGO] Salto de versión " + version + " → " + cambio.version() + " en cambio replicado");
+        }
+        registrar(cambio);
+        return true;
+    }
+
+    private void registrar(Cambio cambio) throws IOException {
+        anexar(cambio);
+        precios.putAll(cambio.precios());
+        version = cambio.version();
+        agregarAlHistorial(cambio);
+    }
+
+    /** "version|tipo=precio;..." tal como queda en el log de cambios. */
+    static String serializar(Cambio cambio) {
+        return cambio.version() + "|" + pares(cambio.precios(), ";");
+    }
+
+    static Cambio deserializar(String linea) {
+        Cambio cambio = parsear(linea);
+        if (cambio == null) {
+            throw new IllegalArgumentException("Cambio de precios inválido: " + linea);
+        }
+        return cambio;
+    }
+
+    private void anexar(Cambio cambio) throws IOException {
+        archivoCambios.getParentFile().mkdirs();
+        try (FileOutputStream fos = new FileOutputStream(archivoCambios, true);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(fos))) {
+            writer.write(serializar(cambio));
+            writer.write(System.lineSeparator());
+            writer.flush();
+            fos.getFD().sync();
+        }
+        if (++lineasEnArchivo > 2 * MAX_HISTORIAL) {
+            compactarArchivo();
+        }
+    }
+
+    /**
+     * Reescribe el log con una foto base ("FOTO version|...") seguida del
+     * historial retenido, para que tras reiniciar los clientes dentro del
+     * historial sigan recibiendo deltas. La foto lleva la versión anterior
+     * al primer cambio retenido y los precios actuales: reproducir los
+     * cambios encima deja exactamente los mismos precios.
+     */
+    private void compactarArchivo() throws IOException {
+        File temporal = new File(archivoCambios.getPath() + ".tmp");
+        Cambio primero = historial.peekFirst();
+        long versionBase = primero == null ? version : primero.version() - 1;
+        try (FileOutputStream fos = new FileOutputStream(temporal);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(fos))) {
+            writer.write(PREFIJO_FOTO + serializar(new Cambio(versionBase, new TreeMap<>(precios))));
+            writer.write(System.lineSeparator());
+            for (Cambio cambio : historial) {
+                writer.write(serializar(cambio));
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temporal.toPath(), archivoCambios.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        lineasEnArchivo = 1 + historial.size();
+    }
+
+    private void agregarAlHistorial(Cambio cambio) {
+        historial.addLast(cambio);
+        while (historial.size() > MAX_HISTORIAL) {
+            historial.removeFirst();
+        }
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /** "PRECIOS <version> tipo=precio ..." con todos los precios. */
+    synchronized String mensajeFoto() {
+        return "PRECIOS " + version + " " + pares(new TreeMap<>(precios), " ");
+    }
+
+    static String mensajeDelta(long desde, long hasta, Map<String, Double> cambios) {
+        String mensaje = "PRECIOS_DELTA " + desde + " " + hasta;
+        return cambios.isEmpty() ? mensaje : mensaje + " " + pares(cambios, " ");
+    }
+
+    /**
+     * Mensaje de sincronización para un cliente en {@code versionCliente}:
+     * delta acumulado si está dentro del historial, foto completa si no
+     * (o si el cliente nunca se sincronizó, versión 0).
+     */
+    synchronized String mensajeSincronizacion(long versionCliente) {
+        if (versionCliente <= 0 || versionCliente > version) {
+            return mensajeFoto();
+        }
+        if (versionCliente == version) {
+            return mensajeDelta(version, version, Map.of());
+        }
+        Cambio primero = historial.peekFirst();
+        if (primero == null || versionCliente < primero.version() - 1) {
+            return mensajeFoto();
+        }
+        Map<String, Double> acumulado = new TreeMap<>();
+        for (Cambio cambio : historial) {
+            if (cambio.version() > versionCliente) {
+                acumulado.putAll(cambio.precios());
+            }
+        }
+        return mensajeDelta(versionCliente, version, acumulado);
+    }
+
+    private static String pares(Map<String, Double> precios, String separador) {
+        StringJoiner joiner = new StringJoiner(separador);
+        for (Map.Entry<String, Double> entry : precios.entrySet()) {
+            joiner.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return joiner.toString();
+    }
+}
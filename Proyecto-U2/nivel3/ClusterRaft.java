@@ -0,0 +1,760 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Log replicado de comandos entre varias instancias de Empresa, al estilo
+ * Raft: un líder elegido por mayoría anexa los comandos, los replica a los
+ * seguidores y los da por confirmados cuando una mayoría los tiene en disco.
+ * Cada réplica aplica los confirmados en orden sobre su propio estado, así
+ * que un cambio confirmado sobrevive a la caída del líder.
+ *
+ * Nodos como "host:puertoCluster:puertoDistribuidores[:puertoAdmin]" (sin
+ * puertoAdmin se asume el ADMIN_PORT propio en todos). Protocolo de líneas
+ * sobre una conexión persistente por par:
+ *   VOTAR <termino> <candidato> <ultimoIndice> <ultimoTermino>  → VOTO <termino> si|no
+ *   ANEXAR <termino> <lider> <prevIndice> <prevTermino> <commit> <n> + n líneas termino|comando
+ *                                                               → ANEXADO <termino> ok|no <ultimoIndice>
+ *
+ * En disco: raft_estado.txt (término, voto y último aplicado, con
+ * ArchivoDurable) y raft_log.txt (C<crc32>|indice|termino|comando, anexado
+ * con fsync). Al cargar, un último registro a medias se corta del archivo;
+ * uno dañado antes del último detiene el arranque, porque saltearlo haría
+ * que el nodo vote y lidere con un log que no es el que confirmó.
+ */
+class ClusterRaft {
+    enum Rol { SEGUIDOR, CANDIDATO, LIDER }
+
+    record Entrada(long termino, String comando) {}
+
+    private static final long LATIDO_MS = 150;
+    private static final int TIMEOUT_RED_MS = 1000;
+    private static final int MAX_LOTE = 256;
+    private static final long REINTENTO_APLICAR_MS = 1000;
+
+    private final String yo;
+    private final List<String> pares;
+    private final File archivoEstado;
+    private final File archivoLog;
+    private final Consumer<String> maquina;
+    private final long eleccionMinMs;
+    private final long eleccionMaxMs;
+    private final ExecutorService votaciones = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Raft-Voto");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Entrada i del log en la posición i - 1. */
+    private final List<Entrada> log = new ArrayList<>();
+    private long termino;
+    private String voto;
+    private long commit;
+    private long aplicado;
+    private Rol rol = Rol.SEGUIDOR;
+    private String lider;
+    private long limiteEleccion;
+    private final Map<String, Long> siguiente = new HashMap<>();
+    private final Map<String, Long> coincidente = new HashMap<>();
+    /** Último instante en que cada par respondió a un ANEXAR de este líder. */
+    private final Map<String, Long> ultimoAcuse = new HashMap<>();
+    private Runnable alLiderar = () -> {};
+    private Runnable alDejarDeLiderar = () -> {};
+
+    ClusterRaft(String yo, List<String> nodos, File directorio, long eleccionMinMs, long eleccionMaxMs, Consumer<String> maquina) {
+        if (!nodos.contains(yo)) {
+            throw new IllegalArgumentException("El nodo " + yo + " no está en la lista del cluster " + nodos);
+        }
+        this.yo = yo;
+        this.pares = new ArrayList<>(nodos);
+        this.pares.remove(yo);
+        this.archivoEstado = new File(directorio, "raft_estado.txt");
+        this.archivoLog = new File(directorio, "raft_log.txt");
+        this.maquina = maquina;
+        this.eleccionMinMs = eleccionMinMs;
+        this.eleccionMaxMs = eleccionMaxMs;
+        cargar();
+    }
+
+    /** Se invocan fuera del bloqueo, desde el hilo que cambió el rol. */
+    void alCambiarLiderazgo(Runnable alLiderar, Runnable alDejarDeLiderar) {
+        this.alLiderar = alLiderar;
+        this.alDejarDeLiderar = alDejarDeLiderar;
+    }
+
+    void iniciar() {
+        synchronized (this) {
+            reiniciarEleccion();
+        }
+        hilo("Raft-Servidor", this::escuchar);
+        hilo("Raft-Temporizador", this::temporizar);
+        hilo("Raft-Aplicador", this::aplicarConfirmados);
+        for (String par : pares) {
+            hilo("Raft-" + par, () -> replicar(par));
+        }
+        System.out.println("[CLUSTER] Nodo " + yo + " con " + pares.size() + " par(es), término " + termino + ", log hasta " + log.size());
+    }
+
+    private static void hilo(String nombre, Runnable cuerpo) {
+        Thread t = new Thread(cuerpo, nombre);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // ===================== Persistencia =====================
+
+    private void cargar() {
+        try {
+            if (archivoEstado.exists()) {
+                for (String linea : ArchivoDurable.leer(archivoEstado)) {
+                    String[] kv = linea.split("=", 2);
+                    if (kv.length != 2) {
+                        continue;
+                    }
+                    switch (kv[0]) {
+                        case "termino" -> termino = Long.parseLong(kv[1]);
+                        case "voto" -> voto = kv[1].isEmpty() ? null : kv[1];
+                        case "aplicado" -> aplicado = Long.parseLong(kv[1]);
+                        default -> {}
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Estado del cluster ilegible (" + archivoEstado + "): " + e.getMessage(), e);
+        }
+        if (archivoLog.exists()) {
+            cargarLog();
+        }
+        if (aplicado > log.size()) {
+            throw new IllegalStateException("El estado del cluster dice aplicado=" + aplicado + " pero el log llega a " + log.size());
+        }
+        commit = aplicado;
+    }
+
+    private void cargarLog() {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(archivoLog.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo leer el log del cluster: " + e.getMessage(), e);
+        }
+        int inicio = 0;
+        int numero = 0;
+        while (inicio < bytes.length) {
+            int fin = inicio;
+            while (fin < bytes.length && bytes[fin] != '\n') {
+                fin++;
+            }
+            numero++;
+            String[] partes = fin == bytes.length ? null
+                : separar(verificar(new String(bytes, inicio, fin - inicio, StandardCharsets.UTF_8).trim()));
+            if (partes == null) {
+                if (fin < bytes.length - 1) {
+                    throw new IllegalStateException("Log del cluster dañado en la línea " + numero + " (byte " + inicio + ")");
+                }
+                System.err.println("[WARN] Log del cluster: se descarta el último registro incompleto ("
+                    + (bytes.length - inicio) + " bytes)");
+                truncarLog(inicio);
+                break;
+            }
+            int indice = Integer.parseInt(partes[0]);
+            // Un índice repetido reemplaza al sufijo que un líder posterior descartó
+            while (log.size() >= indice) {
+                log.remove(log.size() - 1);
+            }
+            if (indice != log.size() + 1) {
+                throw new IllegalStateException("Log del cluster con un hueco en la línea " + numero
+                    + ": índice " + indice + " tras " + log.size());
+            }
+            log.add(new Entrada(Long.parseLong(partes[1]), partes[2]));
+            inicio = fin + 1;
+        }
+    }
+
+    /** El cuerpo "indice|termino|comando" con su CRC verificado, o null si el registro está dañado. */
+    private static String verificar(String registro) {
+        if (!registro.startsWith("C")) {
+            // Log anterior a los CRC
+            return registro;
+        }
+        int barra = registro.indexOf('|');
+        if (barra < 0) {
+            return null;
+        }
+        String cuerpo = registro.substring(barra + 1);
+        try {
+            return Long.parseLong(registro.substring(1, barra), 16) == crc(cuerpo) ? cuerpo : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String[] separar(String cuerpo) {
+        if (cuerpo == null) {
+            return null;
+        }
+        String[] partes = cuerpo.split("\\|", 3);
+        try {
+            if (partes.length == 3 && Integer.parseInt(partes[0]) > 0 && Long.parseLong(partes[1]) >= 0) {
+                return partes;
+            }
+        } catch (NumberFormatException e) {
+            // Se trata como registro dañado
+        }
+        return null;
+    }
+
+    private static long crc(String cuerpo) {
+        CRC32 crc = new CRC32();
+        crc.update(cuerpo.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static String registro(long indice, Entrada entrada) {
+        String cuerpo = indice + "|" + entrada.termino() + "|" + entrada.comando();
+        return "C" + Long.toHexString(crc(cuerpo)) + "|" + cuerpo + "\n";
+    }
+
+    private void truncarLog(long largo) {
+        try (FileChannel canal = FileChannel.open(archivoLog.toPath(), StandardOpenOption.WRITE)) {
+            canal.truncate(largo);
+            canal.force(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo recortar el log del cluster: " + e.getMessage(), e);
+        }
+    }
+
+    private void guardarEstado() {
+        try {
+            ArchivoDurable.escribir(archivoEstado,
+                List.of("termino=" + termino, "voto=" + (voto == null ? "" : voto), "aplicado=" + aplicado));
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo guardar el estado del cluster", e);
+        }
+    }
+
+    /**
+     * Anexa al archivo las entradas desde {@code desde}. Si antes hubo que
+     * truncar un sufijo en conflicto, la línea repetida reemplaza a la vieja
+     * al recargar (cargar() descarta lo posterior a un índice repetido). Si
+     * la escritura falla se recorta lo que haya quedado a medias, para que el
+     * próximo anexo no quede pegado a un registro roto.
+     */
+    private void persistirDesde(int desde) {
+        StringBuilder registros = new StringBuilder();
+        for (int i = desde; i <= log.size(); i++) {
+            registros.append(registro(i, log.get(i - 1)));
+        }
+        archivoLog.getAbsoluteFile().getParentFile().mkdirs();
+        try (FileOutputStream fos = new FileOutputStream(archivoLog, true)) {
+            long largoPrevio = fos.getChannel().size();
+            try {
+                fos.write(registros.toString().getBytes(StandardCharsets.UTF_8));
+                fos.getFD().sync();
+            } catch (IOException e) {
+                try {
+                    fos.getChannel().truncate(largoPrevio);
+                } catch (IOException ignorada) {
+                }
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo anexar al log del cluster", e);
+        }
+    }
+
+    // ===================== Consultas =====================
+
+    synchronized boolean esLider() {
+        return rol == Rol.LIDER;
+    }
+
+    /** Nodo líder conocido ("host:puertoCluster:puertoDistribuidores"), o null. */
+    synchronized String getLider() {
+        return lider;
+    }
+
+    synchronized Map<String, Object> estado() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        estado.put("nodo", yo);
+        estado.put("rol", rol.name().toLowerCase(Locale.ROOT));
+        estado.put("termino", termino);
+        estado.put("lider", lider == null ? "" : lider);
+        estado.put("ultimoIndice", log.size());
+        estado.put("commit", commit);
+        estado.put("aplicado", aplicado);
+        if (rol == Rol.LIDER) {
+            estado.put("replicado", new TreeMap<>(coincidente));
+        }
+        return estado;
+    }
+
+    // ===================== Propuestas =====================
+
+    /** Anexa el comando al log del líder y devuelve su índice. */
+    synchronized long proponer(String comando) throws IOException {
+        if (rol != Rol.LIDER) {
+            throw new IOException("Este nodo no es el líder del cluster (líder: " + (lider == null ? "desconocido" : lider) + ")");
+        }
+        log.add(new Entrada(termino, comando));
+        persistirDesde(log.size());
+        coincidente.put(yo, (long) log.size());
+        notifyAll();
+        return log.size();
+    }
+
+    /**
+     * Espera a que la entrada propuesta quede aplicada localmente. Devuelve
+     * false si venció el plazo o si un líder posterior la reemplazó.
+     */
+    synchronized boolean esperarAplicado(long indice, long terminoPropuesta, long timeoutMs) throws InterruptedException {
+        long limite = System.currentTimeMillis() + timeoutMs;
+        while (aplicado < indice) {
+            if (log.size() < indice || log.get((int) indice - 1).termino() != terminoPropuesta) {
+                return false;
+            }
+            long restante = limite - System.currentTimeMillis();
+            if (restante <= 0) {
+                return false;
+            }
+            wait(restante);
+        }
+        return log.get((int) indice - 1).termino() == terminoPropuesta;
+    }
+
+    /**
+     * Espera a que el líder haya aplicado todo su log, incluida la entrada
+     * vacía de su término; recién entonces su estado refleja lo confirmado.
+     */
+    synchronized long esperarAlDia(long timeoutMs) throws IOException, InterruptedException {
+        long limite = System.currentTimeMillis() + timeoutMs;
+        while (rol == Rol.LIDER && aplicado < log.size()) {
+            long restante = limite - System.currentTimeMillis();
+            if (restante <= 0) {
+                throw new IOException("El cluster no confirmó las entradas pendientes a tiempo");
+            }
+            wait(restante);
+        }
+        if (rol != Rol.LIDER) {
+            throw new IOException("Este nodo no es el líder del cluster (líder: " + (lider == null ? "desconocido" : lider) + ")");
+        }
+        return termino;
+    }
+
+    // ===================== Elección =====================
+
+    private void reiniciarEleccion() {
+        limiteEleccion = System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(eleccionMinMs, eleccionMaxMs + 1);
+    }
+
+    private void temporizar() {
+        while (true) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean iniciar;
+            synchronized (this) {
+                iniciar = rol != Rol.LIDER && System.currentTimeMillis() >= limiteEleccion;
+                if (rol == Rol.LIDER && !conservaMayoria()) {
+                    // Un líder aislado seguiría aceptando distribuidores y escrituras
+                    // que nunca se confirman mientras el resto elige a otro
+                    System.out.println("[CLUSTER] Sin respuesta de la mayoría en " + eleccionMaxMs
+                        + " ms; deja el liderazgo del término " + termino);
+                    lider = null;
+                    pasarASeguidor(termino, null);
+                }
+            }
+            if (iniciar) {
+                iniciarEleccion();
+            }
+        }
+    }
+
+    /** Con el bloqueo tomado: si una mayoría (contando a este nodo) respondió dentro de un plazo de elección. */
+    private boolean conservaMayoria() {
+        long desde = System.currentTimeMillis() - eleccionMaxMs;
+        int vivos = 1;
+        for (String par : pares) {
+            if (ultimoAcuse.getOrDefault(par, 0L) >= desde) {
+                vivos++;
+            }
+        }
+        return vivos > (pares.size() + 1) / 2;
+    }
+
+    private void iniciarEleccion() {
+        long terminoEleccion;
+        String pedido;
+        synchronized (this) {
+            termino++;
+            rol = Rol.CANDIDATO;
+            voto = yo;
+            lider = null;
+            guardarEstado();
+            reiniciarEleccion();
+            terminoEleccion = termino;
+            pedido = "VOTAR " + termino + " " + yo + " " + log.size() + " " + ultimoTermino();
+            System.out.println("[CLUSTER] Elección para término " + termino);
+        }
+        int[] votos = {1};
+        if (pares.isEmpty()) {
+            convertirseEnLider(terminoEleccion);
+            return;
+        }
+        for (String par : pares) {
+            votaciones.execute(() -> {
+                String[] respuesta = solicitar(par, pedido, List.of());
+                if (respuesta == null || respuesta.length != 3 || !respuesta[0].equals("VOTO")) {
+                    return;
+                }
+                boolean ganar = false;
+                synchronized (this) {
+                    long terminoPar = Long.parseLong(respuesta[1]);
+                    if (terminoPar > termino) {
+                        pasarASeguidor(terminoPar, null);
+                    } else if (rol == Rol.CANDIDATO && termino == terminoEleccion && respuesta[2].equals("si")) {
+                        ganar = ++votos[0] > (pares.size() + 1) / 2;
+                    }
+                }
+                if (ganar) {
+                    convertirseEnLider(terminoEleccion);
+                }
+            });
+        }
+    }
+
+    private void convertirseEnLider(long terminoEleccion) {
+        synchronized (this) {
+            if (rol != Rol.CANDIDATO || termino != terminoEleccion) {
+                return;
+            }
+            rol = Rol.LIDER;
+            lider = yo;
+            siguiente.clear();
+            coincidente.clear();
+            ultimoAcuse.clear();
+            long ahora = System.currentTimeMillis();
+            for (String par : pares) {
+                siguiente.put(par, (long) log.size() + 1);
+                coincidente.put(par, 0L);
+                // Los votos recién recibidos cuentan como acuse
+                ultimoAcuse.put(par, ahora);
+            }
+            // Entrada vacía del término: al confirmarse arrastra lo que dejó el líder anterior
+            log.add(new Entrada(termino, "NOOP"));
+            persistirDesde(log.size());
+            coincidente.put(yo, (long) log.size());
+            avanzarCommit();
+            notifyAll();
+            System.out.println("[CLUSTER] Líder del término " + termino);
+        }
+        alLiderar.run();
+    }
+
+    /** Llamar con el bloqueo tomado; el aviso al dejar de ser líder va en otro hilo. */
+    private void pasarASeguidor(long nuevoTermino, String nuevoLider) {
+        boolean eraLider = rol == Rol.LIDER;
+        if (nuevoTermino > termino) {
+            termino = nuevoTermino;
+            voto = null;
+            guardarEstado();
+        }
+        rol = Rol.SEGUIDOR;
+        if (nuevoLider != null) {
+            lider = nuevoLider;
+        }
+        reiniciarEleccion();
+        if (eraLider) {
+            System.out.println("[CLUSTER] Deja de ser líder en término " + termino);
+            hilo("Raft-Relevo", alDejarDeLiderar);
+        }
+        notifyAll();
+    }
+
+    private long ultimoTermino() {
+        return log.isEmpty() ? 0 : log.get(log.size() - 1).termino();
+    }
+
+    // ===================== Replicación (líder) =====================
+
+    private void replicar(String par) {
+        while (true) {
+            String pedido;
+            List<String> lineas = new ArrayList<>();
+            long terminoEnvio;
+            long ultimoEnviado;
+            synchronized (this) {
+                while (rol != Rol.LIDER) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                terminoEnvio = termino;
+                long proximo = siguiente.get(par);
+                long prevIndice = proximo - 1;
+                long prevTermino = prevIndice == 0 ? 0 : log.get((int) prevIndice - 1).termino();
+                for (long i = proximo; i <= log.size() && lineas.size() < MAX_LOTE; i++) {
+                    Entrada entrada = log.get((int) i - 1);
+                    lineas.add(entrada.termino() + "|" + entrada.comando());
+                }
+                ultimoEnviado = prevIndice + lineas.size();
+                pedido = "ANEXAR " + termino + " " + yo + " " + prevIndice + " " + prevTermino + " " + commit + " " + lineas.size();
+            }
+
+            String[] respuesta = solicitar(par, pedido, lineas);
+            boolean pendiente = false;
+            synchronized (this) {
+                if (respuesta != null && respuesta.length == 4 && respuesta[0].equals("ANEXADO")) {
+                    long terminoPar = Long.parseLong(respuesta[1]);
+                    if (terminoPar > termino) {
+                        pasarASeguidor(terminoPar, null);
+                        continue;
+                    }
+                    if (rol == Rol.LIDER && termino == terminoEnvio) {
+                        ultimoAcuse.put(par, System.currentTimeMillis());
+                        if (respuesta[2].equals("ok")) {
+                            coincidente.put(par, ultimoEnviado);
+                            siguiente.put(par, ultimoEnviado + 1);
+                            avanzarCommit();
+                        } else {
+                            // El par indica hasta dónde llega su log para saltar directo ahí
+                            long ultimoPar = Long.parseLong(respuesta[3]);
+                            siguiente.put(par, Math.max(1, Math.min(siguiente.get(par) - 1, ultimoPar + 1)));
+                        }
+                        pendiente = siguiente.get(par) <= log.size();
+                    }
+                }
+                if (!pendiente && rol == Rol.LIDER) {
+                    try {
+                        wait(LATIDO_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            if (respuesta == null) {
+                try {
+                    Thread.sleep(LATIDO_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Solo se confirman por conteo entradas del término actual (regla de Raft). */
+    private void avanzarCommit() {
+        List<Long> indices = new ArrayList<>();
+        indices.add((long) log.size());
+        for (String par : pares) {
+            indices.add(coincidente.getOrDefault(par, 0L));
+        }
+        indices.sort(Collections.reverseOrder());
+        long mayoria = indices.get((pares.size() + 1) / 2);
+        if (mayoria > commit && log.get((int) mayoria - 1).termino() == termino) {
+            commit = mayoria;
+            notifyAll();
+        }
+    }
+
+    // ===================== Aplicación =====================
+
+    private void aplicarConfirmados() {
+        while (true) {
+            String comando;
+            synchronized (this) {
+                while (aplicado >= commit) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                comando = log.get((int) aplicado).comando();
+            }
+            if (!comando.equals("NOOP")) {
+                try {
+                    maquina.accept(comando);
+                } catch (RuntimeException e) {
+                    // Saltear la entrada dejaría a este nodo con un estado distinto al
+                    // del resto; los comandos son idempotentes por versión, así que
+                    // se reintenta la misma hasta que se pueda aplicar.
+                    System.err.println("[ERROR] Error al aplicar comando del cluster '" + comando + "': "
+                        + e.getMessage() + "; se reintenta en " + REINTENTO_APLICAR_MS + " ms");
+                    try {
+                        Thread.sleep(REINTENTO_APLICAR_MS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            synchronized (this) {
+                aplicado++;
+                guardarEstado();
+                notifyAll();
+            }
+        }
+    }
+
+    // ===================== Servidor (seguidor) =====================
+
+    private void escuchar() {
+        int puerto = Integer.parseInt(yo.split(":")[1]);
+        try (ServerSocket servidor = new ServerSocket(puerto)) {
+            System.out.println("[CLUSTER] Escuchando réplicas en puerto " + puerto);
+            while (true) {
+                Socket socket = servidor.accept();
+                hilo("Raft-Entrante", () -> atender(socket));
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error en servidor del cluster: " + e.getMessage());
+        }
+    }
+
+    private void atender(Socket socket) {
+        try (socket;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter salida = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false)) {
+            String linea;
+            while ((linea = entrada.readLine()) != null) {
+                String[] partes = linea.split(" ");
+                if (partes[0].equals("VOTAR") && partes.length == 5) {
+                    salida.println(votar(Long.parseLong(partes[1]), partes[2], Long.parseLong(partes[3]), Long.parseLong(partes[4])));
+                } else if (partes[0].equals("ANEXAR") && partes.length == 7) {
+                    int cantidad = Integer.parseInt(partes[6]);
+                    List<Entrada> entradas = new ArrayList<>(cantidad);
+                    for (int i = 0; i < cantidad; i++) {
+                        String[] e = entrada.readLine().split("\\|", 2);
+                        entradas.add(new Entrada(Long.parseLong(e[0]), e[1]));
+                    }
+                    salida.println(anexar(Long.parseLong(partes[1]), partes[2], Long.parseLong(partes[3]),
+                        Long.parseLong(partes[4]), Long.parseLong(partes[5]), entradas));
+                } else {
+                    salida.println("ERROR: Comando de cluster desconocido");
+                }
+                salida.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // El par reconecta por su cuenta
+        }
+    }
+
+    private synchronized String votar(long terminoCandidato, String candidato, long ultimoIndice, long ultimoTerminoCandidato) {
+        if (terminoCandidato > termino) {
+            pasarASeguidor(terminoCandidato, null);
+            lider = null;
+        }
+        boolean alDia = ultimoTerminoCandidato > ultimoTermino()
+            || (ultimoTerminoCandidato == ultimoTermino() && ultimoIndice >= log.size());
+        boolean conceder = terminoCandidato == termino && (voto == null || voto.equals(candidato)) && alDia;
+        if (conceder) {
+            voto = candidato;
+            guardarEstado();
+            reiniciarEleccion();
+        }
+        return "VOTO " + termino + " " + (conceder ? "si" : "no");
+    }
+
+    private synchronized String anexar(long terminoLider, String nuevoLider, long prevIndice, long prevTermino,
+                                       long commitLider, List<Entrada> entradas) {
+        if (terminoLider < termino) {
+            return "ANEXADO " + termino + " no " + log.size();
+        }
+        pasarASeguidor(terminoLider, nuevoLider);
+        if (prevIndice > log.size() || (prevIndice > 0 && log.get((int) prevIndice - 1).termino() != prevTermino)) {
+            return "ANEXADO " + termino + " no " + Math.min(log.size(), prevIndice - 1);
+        }
+        int primeraNueva = -1;
+        for (int i = 0; i < entradas.size(); i++) {
+            int indice = (int) prevIndice + i + 1;
+            if (indice <= log.size()) {
+                if (log.get(indice - 1).termino() == entradas.get(i).termino()) {
+                    continue;
+                }
+                // Conflicto: se descarta el sufijo no confirmado del líder anterior
+                while (log.size() >= indice) {
+                    log.remove(log.size() - 1);
+                }
+            }
+            log.add(entradas.get(i));
+            if (primeraNueva < 0) {
+                primeraNueva = indice;
+            }
+        }
+        if (primeraNueva > 0) {
+            persistirDesde(primeraNueva);
+        }
+        long ultimoNuevo = prevIndice + entradas.size();
+        if (commitLider > commit) {
+            commit = Math.min(commitLider, ultimoNuevo);
+            notifyAll();
+        }
+        return "ANEXADO " + termino + " ok " + ultimoNuevo;
+    }
+
+    // ===================== Conexiones salientes =====================
+
+    private record Conexion(Socket socket, BufferedReader entrada, PrintWriter salida) {}
+
+    private final Map<String, Conexion> conexiones = new HashMap<>();
+    private final Map<String, Object> candados = new HashMap<>();
+
+    private Object candado(String par) {
+        synchronized (candados) {
+            return candados.computeIfAbsent(par, p -> new Object());
+        }
+    }
+
+    /** Pedido y respuesta sobre la conexión persistente al par; null si no respondió. */
+    private String[] solicitar(String par, String pedido, List<String> lineas) {
+        synchronized (candado(par)) {
+            Conexion conexion = conexiones.get(par);
+            try {
+                if (conexion == null) {
+                    String[] partes = par.split(":");
+                    Socket socket = new Socket();
+                    socket.connect(new InetSocketAddress(partes[0], Integer.parseInt(partes[1])), TIMEOUT_RED_MS);
+                    socket.setSoTimeout(TIMEOUT_RED_MS);
+                    socket.setTcpNoDelay(true);
+                    conexion = new Conexion(socket, new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                        new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false));
+                    conexiones.put(par, conexion);
+                }
+                conexion.salida().println(pedido);
+                for (String linea : lineas) {
+                    conexion.salida().println(linea);
+                }
+                conexion.salida().flush();
+                String respuesta = conexion.entrada().readLine();
+                if (respuesta == null) {
+                    throw new EOFException();
+                }
+                return respuesta.split(" ");
+            } catch (IOException | RuntimeException e) {
+                if (conexion != null) {
+                    try {
+                        conexion.socket().close();
+                    } catch (IOException ignored) {}
+                }
+                conexiones.remove(par);
+                return null;
+            }
+        }
+    }
+}
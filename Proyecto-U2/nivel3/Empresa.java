@@ -1,20 +1,63 @@
 import java.io.*;
 import java.net.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Empresa {
     private String nombreEmpresa;
     private Map<String, Double> preciosCombustibles;
-    private List<DistribuidorConectado> distribuidores;
-    private static final int PUERTO_DISTRIBUIDORES = 7000;
-    private static final String ARCHIVO_PRECIOS = "/app/data/precios_empresa.txt";
+    private Map<String, DistribuidorConectado> distribuidores;
+    private CatalogoPrecios catalogo;
+    private AgendaPrecios agenda;
+    private AgregadoVentas ventas;
+    private SerieVentas historico;
+    private ClusterRaft cluster;
+    private final Object propuestas = new Object();
+    private final Map<String, AgendaPrecios.Programa> activacionesPendientes = new ConcurrentHashMap<>();
+    private final AtomicLong secuenciaProgramas = new AtomicLong();
+    private static final int PUERTO_DISTRIBUIDORES = Integer.parseInt(System.getenv().getOrDefault("PUERTO_DISTRIBUIDORES", "7000"));
+    private static final String DATA_DIR = System.getenv().getOrDefault("DATA_DIR", "/app/data");
+    private static final String ARCHIVO_PRECIOS = DATA_DIR + "/precios_empresa.txt";
+    private static final String ARCHIVO_CAMBIOS = DATA_DIR + "/cambios_precios.log";
+    private static final String ARCHIVO_AGENDA = DATA_DIR + "/programacion_precios.txt";
+    private static final String DIRECTORIO_SERIES = DATA_DIR + "/series";
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm[:ss]");
+    private static final int TIMEOUT_SYNC_MS = 2000;
+    private static final int PUERTO_ADMIN = Integer.parseInt(System.getenv().getOrDefault("ADMIN_PORT", "8070"));
+    private static final long TIMEOUT_CONFIRMACION_MS = Long.parseLong(System.getenv().getOrDefault("TIMEOUT_CONFIRMACION_MS", "5000"));
+    private static final String CLUSTER_NODOS = System.getenv("CLUSTER_NODOS");
+    private static final String CLUSTER_NODO = System.getenv("CLUSTER_NODO");
+    private static final long TIMEOUT_CLUSTER_MS = Long.parseLong(System.getenv().getOrDefault("TIMEOUT_CLUSTER_MS", "5000"));
+    private static final long ELECCION_MIN_MS = Long.parseLong(System.getenv().getOrDefault("ELECCION_MIN_MS", "1000"));
+    private static final long ELECCION_MAX_MS = Long.parseLong(System.getenv().getOrDefault("ELECCION_MAX_MS", "2000"));
     
     public Empresa(String nombre) {
         this.nombreEmpresa = nombre;
-        this.preciosCombustibles = new HashMap<>();
-        this.distribuidores = new ArrayList<>();
+        this.preciosCombustibles = new ConcurrentHashMap<>();
+        this.distribuidores = new ConcurrentHashMap<>();
         inicializarPrecios();
         cargarPrecios();
+        this.catalogo = new CatalogoPrecios(preciosCombustibles, new File(ARCHIVO_CAMBIOS));
+        this.agenda = new AgendaPrecios("empresa", new File(ARCHIVO_AGENDA), this::activarPrograma);
+        this.ventas = new AgregadoVentas(new File(ARCHIVO_PRECIOS).getParentFile());
+        this.historico = new SerieVentas(new File(DIRECTORIO_SERIES));
+        if (CLUSTER_NODOS != null && !CLUSTER_NODOS.isBlank()) {
+            List<String> nodos = new ArrayList<>();
+            for (String nodo : CLUSTER_NODOS.split(",")) {
+                nodos.add(nodo.trim());
+            }
+            this.cluster = new ClusterRaft(CLUSTER_NODO, nodos, new File(DATA_DIR), ELECCION_MIN_MS, ELECCION_MAX_MS, this::aplicarComandoCluster);
+            this.cluster.alCambiarLiderazgo(this::asumirLiderazgo, this::cederLiderazgo);
+        }
     }
     
     private void inicializarPrecios() {
@@ -33,16 +76,16 @@ public class Empresa {
             return;
         }
         
-        try (BufferedReader br = new BufferedReader(new FileReader(archivo))) {
-            String linea;
-            while ((linea = br.readLine()) != null) {
+        try {
+            Map<String, Double> cargados = new HashMap<>();
+            for (String linea : ArchivoDurable.leer(archivo)) {
                 String[] partes = linea.split(",");
                 if (partes.length == 2) {
-                    String tipo = partes[0].trim();
-                    double precio = Double.parseDouble(partes[1].trim());
-                    preciosCombustibles.put(tipo, precio);
+                    cargados.put(partes[0].trim(), Double.parseDouble(partes[1].trim()));
                 }
             }
+            // Solo se aplica si el archivo se leyó entero; si no, quedan los valores por defecto
+            preciosCombustibles.putAll(cargados);
             System.out.println("[INFO] Precios corporativos cargados desde archivo");
             mostrarPrecios();
         } catch (IOException | NumberFormatException e) {
@@ -52,16 +95,13 @@ public class Empresa {
     
     private void guardarPrecios() {
         try {
-            File archivo = new File(ARCHIVO_PRECIOS);
-            archivo.getParentFile().mkdirs();
-            
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(archivo))) {
-                for (Map.Entry<String, Double> entry : preciosCombustibles.entrySet()) {
-                    bw.write(entry.getKey() + "," + entry.getValue());
-                    bw.newLine();
-                }
+            List<String> lineas = new ArrayList<>();
+            for (Map.Entry<String, Double> entry : new TreeMap<>(preciosCombustibles).entrySet()) {
+                lineas.add(entry.getKey() + "," + entry.getValue());
+            }
+            if (ArchivoDurable.escribir(new File(ARCHIVO_PRECIOS), lineas)) {
+                System.out.println("[INFO] Precios corporativos guardados en archivo");
             }
-            System.out.println("[INFO] Precios corporativos guardados en archivo");
         } catch (IOException e) {
             System.err.println("[ERROR] Error al guardar precios: " + e.getMessage());
         }
@@ -75,10 +115,354 @@ public class Empresa {
         System.out.println("============================\n");
     }
     
-    private void enviarPreciosADistribuidor(DistribuidorConectado distribuidor) {
-        System.out.println("[SYNC] Enviando precios corporativos al distribuidor " + distribuidor.getId());
-        for (Map.Entry<String, Double> entry : preciosCombustibles.entrySet()) {
-            distribuidor.enviarComando("PRECIO " + entry.getKey() + " " + entry.getValue());
+    /**
+     * Registra el lote en el catálogo (una versión nueva si algo cambió) y
+     * reescribe el archivo de precios. Devuelve null si no había cambios o
+     * si algún precio no es positivo y finito.
+     */
+    private CatalogoPrecios.Cambio aplicarCambios(Map<String, Double> cambios) {
+        return aplicarCambios(cambios, "-");
+    }
+    
+    private CatalogoPrecios.Cambio aplicarCambios(Map<String, Double> cambios, String origen) {
+        try {
+            CatalogoPrecios.Cambio cambio = cluster == null ? catalogo.aplicar(cambios) : replicarCambios(cambios, origen);
+            if (cambio == null) {
+                System.out.println("[INFO] Los precios ingresados no modifican el catálogo");
+                return null;
+            }
+            if (cluster == null) {
+                guardarPrecios();
+            }
+            System.out.println("[CATÁLOGO] Versión " + cambio.version() + ": " + cambio.precios());
+            return cambio;
+        } catch (IllegalArgumentException e) {
+            System.out.println("[ERROR] Cambio de precios rechazado: " + e.getMessage());
+            return null;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al registrar cambio de precios: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // ===================== Cluster =====================
+    
+    /**
+     * El líder versiona el lote contra su catálogo al día y lo propone como
+     * "PRECIOS <origen> version|tipo=precio;..."; vuelve cuando una mayoría lo
+     * tiene y ya quedó aplicado aquí. Las propuestas van de a una para que
+     * la versión siguiente no dependa de entradas aún sin aplicar.
+     */
+    private CatalogoPrecios.Cambio replicarCambios(Map<String, Double> cambios, String origen) throws IOException {
+        synchronized (propuestas) {
+            long termino = esperarLiderAlDia();
+            CatalogoPrecios.Cambio cambio = catalogo.proximoCambio(cambios);
+            if (cambio != null) {
+                replicar("PRECIOS " + origen + " " + CatalogoPrecios.serializar(cambio), termino);
+            }
+            return cambio;
+        }
+    }
+    
+    private void replicarComando(String comando) throws IOException {
+        synchronized (propuestas) {
+            replicar(comando, esperarLiderAlDia());
+        }
+    }
+    
+    private long esperarLiderAlDia() throws IOException {
+        try {
+            return cluster.esperarAlDia(TIMEOUT_CLUSTER_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando al cluster");
+        }
+    }
+    
+    private void replicar(String comando, long termino) throws IOException {
+        long indice = cluster.proponer(comando);
+        try {
+            if (!cluster.esperarAplicado(indice, termino, TIMEOUT_CLUSTER_MS)) {
+                throw new IOException("El cluster no confirmó el cambio (sin mayoría o cambió el líder)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando confirmación del cluster");
+        }
+    }
+    
+    /** Aplica en orden, en todas las réplicas, las entradas confirmadas del log. */
+    private void aplicarComandoCluster(String comando) {
+        try {
+            if (comando.startsWith("PRECIOS ")) {
+                String[] partes = comando.split(" ", 3);
+                CatalogoPrecios.Cambio cambio = CatalogoPrecios.deserializar(partes[2]);
+                confirmarActivacion(partes[1]);
+                if (catalogo.aplicarReplicado(cambio)) {
+                    guardarPrecios();
+                    System.out.println("[CLUSTER] Versión " + cambio.version() + " aplicada: " + cambio.precios());
+                }
+            } else if (comando.startsWith("ACTIVADO ")) {
+                confirmarActivacion(comando.substring(9).trim());
+            } else if (comando.startsWith("PROGRAMAR ")) {
+                agenda.programar(AgendaPrecios.Programa.parsear(comando));
+            } else if (comando.startsWith("CANCELAR_PROGRAMA ")) {
+                agenda.cancelar(comando.substring(18).trim());
+            } else if (comando.startsWith("VENTAS ")) {
+                String[] partes = comando.split(" ", 5);
+                integrarReporte(partes[1], Long.parseLong(partes[2]), Long.parseLong(partes[3]), partes[4]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Un programa activado por el líder deja de estar pendiente en todas las
+     * réplicas; si alguna aún no llegaba a su instante, se retira de su agenda.
+     */
+    private void confirmarActivacion(String idPrograma) throws IOException {
+        if (!idPrograma.equals("-")) {
+            activacionesPendientes.remove(idPrograma);
+            agenda.cancelar(idPrograma);
+        }
+    }
+    
+    /** Retoma las activaciones que el líder anterior no alcanzó a confirmar. */
+    private void asumirLiderazgo() {
+        System.out.println("[CLUSTER] Este nodo es el líder: atiende distribuidores en puerto " + PUERTO_DISTRIBUIDORES);
+        for (AgendaPrecios.Programa programa : new ArrayList<>(activacionesPendientes.values())) {
+            activarPrograma(programa);
+        }
+    }
+    
+    /** Los distribuidores se desconectan para que busquen al nuevo líder. */
+    private void cederLiderazgo() {
+        for (DistribuidorConectado distribuidor : distribuidores.values()) {
+            desregistrarDistribuidor(distribuidor);
+        }
+    }
+    
+    /**
+     * Las escrituras por HTTP solo las atiende el líder: un seguidor responde
+     * 421 con la API del líder para reintentar ahí, o 503 si no hay líder.
+     */
+    private void exigirLider() {
+        if (cluster == null || cluster.esLider()) {
+            return;
+        }
+        String lider = cluster.getLider();
+        if (lider == null) {
+            throw new ServidorAdmin.ErrorHttp(503, "El cluster no tiene líder en este momento", Map.of());
+        }
+        String[] partes = lider.split(":");
+        String admin = partes[0] + ":" + (partes.length > 3 ? partes[3] : String.valueOf(PUERTO_ADMIN));
+        throw new ServidorAdmin.ErrorHttp(421, "Este nodo no es el líder del cluster",
+            Map.of("lider", direccionLider(), "liderAdmin", admin));
+    }
+    
+    /** "host:puertoDistribuidores" del líder conocido, o "?" si no hay. */
+    private String direccionLider() {
+        String lider = cluster.getLider();
+        if (lider == null) {
+            return "?";
+        }
+        String[] partes = lider.split(":");
+        return partes[0] + ":" + (partes.length > 2 ? partes[2] : String.valueOf(PUERTO_DISTRIBUIDORES));
+    }
+    
+    private void difundirCambio(CatalogoPrecios.Cambio cambio) {
+        if (distribuidores.isEmpty()) {
+            System.out.println("[WARN] No hay distribuidores conectados");
+            return;
+        }
+        difundir(List.of(CatalogoPrecios.mensajeDelta(cambio.version() - 1, cambio.version(), cambio.precios())));
+    }
+    
+    private void sincronizarDistribuidor(DistribuidorConectado distribuidor, long versionDistribuidor) {
+        String mensaje = catalogo.mensajeSincronizacion(versionDistribuidor);
+        System.out.println("[SYNC] " + distribuidor.getId() + " en versión " + versionDistribuidor + " → "
+            + (mensaje.startsWith("PRECIOS_DELTA") ? "delta" : "foto completa") + " hasta versión " + catalogo.getVersion());
+        distribuidor.enviarConConfirmacion(List.of(mensaje), TIMEOUT_CONFIRMACION_MS);
+    }
+    
+    /**
+     * Guarda el programa y lo distribuye de inmediato; cada nivel lo activa
+     * con su propia rueda en el instante efectivo.
+     */
+    private AgendaPrecios.Programa programarCambio(long efectivo, Map<String, Double> precios) throws IOException {
+        CatalogoPrecios.validar(precios);
+        String id = "P" + System.currentTimeMillis() + "-" + secuenciaProgramas.incrementAndGet();
+        AgendaPrecios.Programa programa = new AgendaPrecios.Programa(id, efectivo, Collections.unmodifiableMap(new TreeMap<>(precios)));
+        if (cluster == null) {
+            agenda.programar(programa);
+        } else {
+            replicarComando(programa.mensaje());
+        }
+        if (!distribuidores.isEmpty()) {
+            difundir(List.of(programa.mensaje()));
+        }
+        return programa;
+    }
+    
+    private boolean cancelarPrograma(String id) throws IOException {
+        if (cluster == null) {
+            if (!agenda.cancelar(id)) {
+                return false;
+            }
+        } else {
+            if (agenda.pendientes().stream().noneMatch(p -> p.id().equals(id))) {
+                return false;
+            }
+            replicarComando("CANCELAR_PROGRAMA " + id);
+        }
+        if (!distribuidores.isEmpty()) {
+            difundir(List.of("CANCELAR_PROGRAMA " + id));
+        }
+        return true;
+    }
+    
+    /**
+     * Al vencer, el programa entra al catálogo como una versión más. Los
+     * distribuidores ya aplicaron los mismos precios con su agenda, así que
+     * el delta solo les avanza la versión.
+     *
+     * En cluster cada réplica activa su copia de la agenda, pero solo el
+     * líder la propone; el programa queda pendiente hasta ver su entrada
+     * confirmada, y un líder nuevo retoma los que quedaron sin confirmar.
+     */
+    private void activarPrograma(AgendaPrecios.Programa programa) {
+        if (cluster != null) {
+            activacionesPendientes.put(programa.id(), programa);
+            if (!cluster.esLider()) {
+                return;
+            }
+        }
+        CatalogoPrecios.Cambio cambio = aplicarCambios(programa.precios(), programa.id());
+        if (cambio == null && cluster != null && cluster.esLider()) {
+            try {
+                replicarComando("ACTIVADO " + programa.id());
+            } catch (IOException e) {
+                System.err.println("[ERROR] No se pudo confirmar la activación de " + programa.id() + ": " + e.getMessage());
+            }
+        }
+        if (cambio != null && !distribuidores.isEmpty()) {
+            difundirCambio(cambio);
+        }
+    }
+    
+    private void enviarProgramasPendientes(DistribuidorConectado distribuidor) {
+        List<String> comandos = new ArrayList<>();
+        for (AgendaPrecios.Programa programa : agenda.pendientes()) {
+            comandos.add(programa.mensaje());
+        }
+        if (!comandos.isEmpty()) {
+            System.out.println("[AGENDA] Enviando " + comandos.size() + " programa(s) pendiente(s) a " + distribuidor.getId());
+            distribuidor.enviarConConfirmacion(comandos, TIMEOUT_CONFIRMACION_MS);
+        }
+    }
+    
+    /**
+     * "REPORTE:<seq> <contenido>": se integra al agregado y se confirma con
+     * "ACK <seq>". En cluster el reporte se propone como "VENTAS <dist> <seq>
+     * <instante> <contenido>" y el ACK sale recién cuando una mayoría lo
+     * tiene, así que un líder nuevo ya cuenta con todo lo confirmado; sin
+     * mayoría no hay ACK y el distribuidor lo reenvía.
+     */
+    private void recibirReporte(DistribuidorConectado distribuidor, String mensaje) {
+        int espacio = mensaje.indexOf(' ');
+        long secuencia;
+        try {
+            secuencia = Long.parseLong(mensaje.substring("REPORTE:".length(), espacio < 0 ? mensaje.length() : espacio).trim());
+        } catch (NumberFormatException e) {
+            distribuidor.enviarComando("ERROR: Reporte sin secuencia");
+            return;
+        }
+        if (espacio < 0) {
+            distribuidor.enviarComando("ERROR: Reporte " + secuencia + " sin contenido");
+            return;
+        }
+        String contenido = mensaje.substring(espacio + 1).trim();
+        try {
+            if (cluster == null) {
+                integrarReporte(distribuidor.getId(), secuencia, System.currentTimeMillis(), contenido);
+            } else if (secuencia > ventas.secuencias().getOrDefault(distribuidor.getId(), 0L)) {
+                // Un contenido ilegible se rechaza antes de entrar al log: aplicado
+                // en las réplicas fallaría siempre y trabaría al aplicador
+                AgregadoVentas.decodificar(contenido);
+                replicarComando("VENTAS " + distribuidor.getId() + " " + secuencia + " "
+                    + System.currentTimeMillis() + " " + contenido);
+            }
+            distribuidor.enviarComando("ACK " + secuencia);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Reporte " + secuencia + " de " + distribuidor.getId() + " rechazado: " + e.getMessage());
+            distribuidor.enviarComando("ERROR: Reporte " + secuencia + " rechazado");
+        }
+    }
+    
+    /** Duplicados (secuencia ya vista) se ignoran, así que reaplicar es inocuo. */
+    private void integrarReporte(String distribuidor, long secuencia, long instante, String contenido) throws IOException {
+        List<AgregadoVentas.Fila> filas = ventas.aplicar(distribuidor, secuencia, contenido);
+        if (filas != null) {
+            historico.registrar(distribuidor, filas, instante);
+            System.out.println("[VENTAS] Reporte " + secuencia + " de " + distribuidor + " integrado");
+        }
+    }
+    
+    private void mostrarVentas() {
+        System.out.println("\n=== VENTAS CONSOLIDADAS ===");
+        Map<String, AgregadoVentas.Totales> porDistribuidor = ventas.totalesPorDistribuidor();
+        if (porDistribuidor.isEmpty()) {
+            System.out.println("Aún no se reciben reportes de ventas");
+            return;
+        }
+        AgregadoVentas.Totales total = new AgregadoVentas.Totales();
+        System.out.println("Por distribuidor:");
+        for (Map.Entry<String, AgregadoVentas.Totales> entry : porDistribuidor.entrySet()) {
+            AgregadoVentas.Totales t = entry.getValue();
+            System.out.printf("  %-20s %12.2f L | %6d cargas | $%14.2f%n", entry.getKey(), t.litros, t.cargas, t.monto);
+            total.sumar(t.litros, t.cargas, t.monto);
+        }
+        System.out.println("Por combustible:");
+        for (Map.Entry<String, AgregadoVentas.Totales> entry : ventas.totalesPorCombustible().entrySet()) {
+            AgregadoVentas.Totales t = entry.getValue();
+            System.out.printf("  %-20s %12.2f L | %6d cargas | $%14.2f%n", entry.getKey(), t.litros, t.cargas, t.monto);
+        }
+        System.out.printf("TOTAL EMPRESA          %12.2f L | %6d cargas | $%14.2f%n", total.litros, total.cargas, total.monto);
+        System.out.println("===========================");
+    }
+    
+    private void consultarHistorico(Scanner sc) {
+        System.out.println("\n=== HISTÓRICO DE VENTAS ===");
+        System.out.print("Período (ej. 7d, 24h, 90m): ");
+        String ultimos = sc.nextLine().trim();
+        System.out.print("Combustible (vacío = todos): ");
+        String tipo = sc.nextLine().trim();
+        System.out.print("Agrupar por (distribuidor/surtidor/combustible/dia/hora) [distribuidor]: ");
+        String agrupar = sc.nextLine().trim();
+        try {
+            long[] rango = rangoConsulta(ultimos.isEmpty() ? "7d" : ultimos, null, null);
+            SerieVentas.Agrupacion agrupacion = SerieVentas.Agrupacion.valueOf(
+                (agrupar.isEmpty() ? "distribuidor" : agrupar).toUpperCase(Locale.ROOT));
+            long inicio = System.nanoTime();
+            Map<String, long[]> filas = historico.consultar(rango[0], rango[1],
+                SerieVentas.filtro(tipo.isEmpty() ? null : tipo, null), agrupacion);
+            double ms = (System.nanoTime() - inicio) / 1_000_000.0;
+            if (filas.isEmpty()) {
+                System.out.println("Sin ventas en el período");
+            }
+            for (Map.Entry<String, long[]> entry : filas.entrySet()) {
+                long[] v = entry.getValue();
+                System.out.printf("  %-20s %12.3f L | %6d cargas | $%14.2f%n", entry.getKey(),
+                    v[0] / (double) SerieVentas.ESCALA_LITROS, v[2], v[1] / (double) SerieVentas.ESCALA_MONTO);
+            }
+            System.out.printf("(%d grupo(s) en %.2f ms)%n", filas.size(), ms);
+        } catch (NumberFormatException e) {
+            System.out.println("Período inválido: " + ultimos);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Agrupación no válida: " + agrupar);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al consultar histórico: " + e.getMessage());
         }
     }
     
@@ -89,26 +473,264 @@ public class Empresa {
         }
         
         System.out.println("[SYNC] Enviando precios a " + distribuidores.size() + " distribuidores...");
-        for (DistribuidorConectado dist : distribuidores) {
-            enviarPreciosADistribuidor(dist);
+        difundir(List.of(catalogo.mensajeFoto()));
+    }
+    
+    /**
+     * Encola los comandos para cada distribuidor y vuelve de inmediato.
+     * Las confirmaciones (PING/PONG tras el lote) se reportan cuando llegan.
+     */
+    private Map<String, CompletableFuture<Long>> difundir(List<String> comandos) {
+        Map<String, CompletableFuture<Long>> confirmaciones = new TreeMap<>();
+        for (DistribuidorConectado dist : distribuidores.values()) {
+            confirmaciones.put(dist.getId(), dist.enviarConConfirmacion(comandos, TIMEOUT_CONFIRMACION_MS));
+        }
+        
+        CompletableFuture.allOf(confirmaciones.values().stream()
+                .map(f -> f.exceptionally(error -> null))
+                .toArray(CompletableFuture<?>[]::new))
+            .thenRun(() -> reportarDifusion(confirmaciones));
+        return confirmaciones;
+    }
+    
+    private void reportarDifusion(Map<String, CompletableFuture<Long>> confirmaciones) {
+        StringBuilder reporte = new StringBuilder("\n[SYNC] Confirmaciones de entrega:\n");
+        int confirmados = 0;
+        for (Map.Entry<String, CompletableFuture<Long>> entry : confirmaciones.entrySet()) {
+            Long latenciaNanos = entry.getValue().exceptionally(error -> null).join();
+            if (latenciaNanos != null) {
+                confirmados++;
+                reporte.append(String.format("  ✓ %-20s %8.2f ms%n", entry.getKey(), latenciaNanos / 1e6));
+            } else {
+                reporte.append(String.format("  ✗ %-20s sin confirmación%n", entry.getKey()));
+            }
         }
-        System.out.println("[SYNC] Precios enviados exitosamente");
+        reporte.append("[SYNC] ").append(confirmados).append("/").append(confirmaciones.size()).append(" distribuidores confirmaron");
+        System.out.println(reporte);
     }
     
     public static void main(String[] args) {
-        System.out.print("Ingrese nombre de la empresa (ej: Copec_Central): ");
         Scanner sc = new Scanner(System.in);
-        String nombre = sc.nextLine();
+        String nombre = args.length > 0 ? args[0] : System.getenv("NOMBRE_EMPRESA");
+        boolean interactivo = System.console() != null;
+        if (nombre == null || nombre.isBlank()) {
+            System.out.print("Ingrese nombre de la empresa (ej: Copec_Central): ");
+            nombre = sc.nextLine();
+            interactivo = true;
+        }
         
         Empresa empresa = new Empresa(nombre);
+        if (empresa.cluster != null) {
+            empresa.cluster.iniciar();
+        }
         
         System.out.println("\n╔═════════════════════════════════════════╗");
         System.out.println("║  EMPRESA " + nombre + " - Nivel 3  ║");
         System.out.println("╚═════════════════════════════════════════╝\n");
         
         new Thread(() -> empresa.iniciarServidorDistribuidores()).start();
+        empresa.iniciarAdmin();
+        
+        if (interactivo) {
+            empresa.menuPrincipal(sc);
+        } else {
+            System.out.println("[ADMIN] Sin consola: administración solo por HTTP en puerto " + PUERTO_ADMIN);
+        }
+    }
+    
+    // ===================== API de administración =====================
+    
+    private void iniciarAdmin() {
+        ServidorAdmin admin;
+        try {
+            admin = new ServidorAdmin(PUERTO_ADMIN);
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo iniciar la API de administración: " + e.getMessage());
+            return;
+        }
         
-        empresa.menuPrincipal(sc);
+        admin.ruta("GET", "/estado", s -> Map.of(
+            "nombre", nombreEmpresa,
+            "distribuidores", distribuidores.size(),
+            "versionPrecios", catalogo.getVersion(),
+            "programasPendientes", agenda.pendientes().size(),
+            "rol", cluster == null ? "individual" : cluster.esLider() ? "lider" : "seguidor"));
+        admin.ruta("GET", "/cluster", s -> cluster == null ? Map.of("rol", "individual") : cluster.estado());
+        admin.ruta("GET", "/distribuidores", s -> {
+            List<Map<String, Object>> lista = new ArrayList<>();
+            for (DistribuidorConectado dist : new TreeMap<>(distribuidores).values()) {
+                lista.add(Map.of("id", dist.getId(), "pendientes", dist.getPendientes(), "descartados", dist.getDescartados()));
+            }
+            return lista;
+        });
+        admin.ruta("GET", "/precios", s -> Map.of("version", catalogo.getVersion(), "precios", new TreeMap<>(preciosCombustibles)));
+        admin.ruta("POST", "/precios", this::adminActualizarPrecios);
+        admin.ruta("POST", "/precios/difundir", s -> {
+            exigirLider();
+            return esperarConfirmaciones(difundir(List.of(catalogo.mensajeFoto())));
+        });
+        admin.ruta("GET", "/programas", s -> agenda.pendientes());
+        admin.ruta("GET", "/ventas", s -> {
+            Map<String, Object> porDistribuidor = new TreeMap<>();
+            AgregadoVentas.Totales total = new AgregadoVentas.Totales();
+            for (Map.Entry<String, AgregadoVentas.Totales> entry : ventas.totalesPorDistribuidor().entrySet()) {
+                AgregadoVentas.Totales t = entry.getValue();
+                porDistribuidor.put(entry.getKey(), t.comoMapa());
+                total.sumar(t.litros, t.cargas, t.monto);
+            }
+            Map<String, Object> porCombustible = new TreeMap<>();
+            ventas.totalesPorCombustible().forEach((tipo, t) -> porCombustible.put(tipo, t.comoMapa()));
+            return Map.of("total", total.comoMapa(), "porDistribuidor", porDistribuidor,
+                "porCombustible", porCombustible, "secuencias", ventas.secuencias());
+        });
+        admin.ruta("GET", "/ventas/historico", this::adminHistorico);
+        admin.ruta("POST", "/programas", this::adminProgramar);
+        admin.ruta("DELETE", "/programas", s -> {
+            exigirLider();
+            String id = s.requerido("id");
+            if (!cancelarPrograma(id)) {
+                throw new NoSuchElementException("Programa " + id + " no encontrado");
+            }
+            return Map.of("cancelado", id);
+        });
+        admin.iniciar();
+    }
+    
+    /**
+     * Cuerpo {"93": 1290, "95": 1330}; todo el lote es una sola versión.
+     * Con ?difundir=false solo se registra en el catálogo.
+     */
+    private Object adminActualizarPrecios(ServidorAdmin.Solicitud solicitud) {
+        exigirLider();
+        Map<String, Double> cambios = preciosDesdeJson(solicitud.jsonObjeto());
+        CatalogoPrecios.Cambio cambio = aplicarCambios(cambios);
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("version", catalogo.getVersion());
+        respuesta.put("modificados", cambio == null ? Map.of() : cambio.precios());
+        if (cambio != null && Boolean.parseBoolean(solicitud.parametro("difundir", "true"))) {
+            difundirCambio(cambio);
+            respuesta.put("distribuidores", distribuidores.size());
+        }
+        return respuesta;
+    }
+    
+    /** Un programa {"efectivo": ..., "precios": {...}} o un arreglo de ellos (carga masiva). */
+    @SuppressWarnings("unchecked")
+    private Object adminProgramar(ServidorAdmin.Solicitud solicitud) throws IOException {
+        exigirLider();
+        Object cuerpo = solicitud.json();
+        List<Object> elementos = cuerpo instanceof List ? (List<Object>) cuerpo : List.of(cuerpo);
+        List<AgendaPrecios.Programa> creados = new ArrayList<>();
+        long ahora = System.currentTimeMillis();
+        for (Object elemento : elementos) {
+            if (!(elemento instanceof Map)) {
+                throw new IllegalArgumentException("Cada programa debe ser un objeto JSON");
+            }
+            Map<String, Object> datos = (Map<String, Object>) elemento;
+            Object efectivoJson = datos.get("efectivo");
+            Object preciosJson = datos.get("precios");
+            if (efectivoJson == null || !(preciosJson instanceof Map)) {
+                throw new IllegalArgumentException("Se requieren 'efectivo' y 'precios'");
+            }
+            long efectivo;
+            try {
+                efectivo = efectivoJson instanceof Number n ? n.longValue() : parsearInstante(efectivoJson.toString());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Fecha inválida: " + efectivoJson);
+            }
+            if (efectivo <= ahora) {
+                throw new IllegalArgumentException("El instante efectivo debe ser futuro: " + efectivoJson);
+            }
+            Map<String, Double> precios = preciosDesdeJson((Map<String, Object>) preciosJson);
+            creados.add(programarCambio(efectivo, precios));
+        }
+        return creados;
+    }
+    
+    /**
+     * ?ultimos=7d|24h|90m o ?desde=&hasta= (fecha o epoch ms), con filtros
+     * opcionales tipo y distribuidor, y agrupar=distribuidor|surtidor|combustible|dia|hora|total.
+     */
+    private Object adminHistorico(ServidorAdmin.Solicitud solicitud) throws IOException {
+        long[] rango;
+        try {
+            rango = rangoConsulta(solicitud.parametro("ultimos", null), solicitud.parametro("desde", null), solicitud.parametro("hasta", null));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Rango inválido: " + e.getMessage());
+        }
+        SerieVentas.Agrupacion agrupacion;
+        try {
+            agrupacion = SerieVentas.Agrupacion.valueOf(solicitud.parametro("agrupar", "distribuidor").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Agrupación no válida: " + solicitud.parametro("agrupar", ""));
+        }
+        long inicio = System.nanoTime();
+        Map<String, long[]> filas = historico.consultar(rango[0], rango[1],
+            SerieVentas.filtro(solicitud.parametro("tipo", null), solicitud.parametro("distribuidor", null)), agrupacion);
+        Map<String, Object> grupos = new LinkedHashMap<>();
+        filas.forEach((clave, v) -> grupos.put(clave, Map.of(
+            "litros", v[0] / (double) SerieVentas.ESCALA_LITROS,
+            "monto", v[1] / (double) SerieVentas.ESCALA_MONTO,
+            "cargas", v[2])));
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("desde", formatearInstante(rango[0]));
+        respuesta.put("hasta", formatearInstante(rango[1]));
+        respuesta.put("agrupacion", agrupacion.name().toLowerCase(Locale.ROOT));
+        respuesta.put("grupos", grupos);
+        respuesta.put("ms", (System.nanoTime() - inicio) / 1_000_000.0);
+        return respuesta;
+    }
+    
+    /** {desde, hasta} en epoch ms; "ultimos" tiene prioridad y acepta sufijos d, h y m. */
+    private static long[] rangoConsulta(String ultimos, String desde, String hasta) {
+        long ahora = System.currentTimeMillis();
+        if (ultimos != null) {
+            ultimos = ultimos.trim().toLowerCase(Locale.ROOT);
+            if (ultimos.length() < 2) {
+                throw new NumberFormatException("período vacío");
+            }
+            long cantidad = Long.parseLong(ultimos.substring(0, ultimos.length() - 1));
+            long unidad = switch (ultimos.charAt(ultimos.length() - 1)) {
+                case 'd' -> 86_400_000L;
+                case 'h' -> 3_600_000L;
+                case 'm' -> 60_000L;
+                default -> throw new NumberFormatException("unidad desconocida en '" + ultimos + "'");
+            };
+            return new long[]{ahora - cantidad * unidad, ahora};
+        }
+        if (desde == null) {
+            throw new NumberFormatException("se requiere 'ultimos' o 'desde'");
+        }
+        return new long[]{parsearInstante(desde), hasta == null ? ahora : parsearInstante(hasta)};
+    }
+    
+    private Map<String, Double> preciosDesdeJson(Map<String, Object> json) {
+        Map<String, Double> precios = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : json.entrySet()) {
+            if (!preciosCombustibles.containsKey(entry.getKey())) {
+                throw new IllegalArgumentException("Tipo de combustible no válido: " + entry.getKey());
+            }
+            if (!(entry.getValue() instanceof Number n) || n.doubleValue() <= 0) {
+                throw new IllegalArgumentException("Precio inválido para " + entry.getKey());
+            }
+            precios.put(entry.getKey(), n.doubleValue());
+        }
+        if (precios.isEmpty()) {
+            throw new IllegalArgumentException("No se indicaron precios");
+        }
+        return precios;
+    }
+    
+    private static Map<String, Object> esperarConfirmaciones(Map<String, CompletableFuture<Long>> confirmaciones) throws InterruptedException {
+        Map<String, Object> resultado = new TreeMap<>();
+        for (Map.Entry<String, CompletableFuture<Long>> entry : confirmaciones.entrySet()) {
+            try {
+                resultado.put(entry.getKey(), entry.getValue().get() / 1e6);
+            } catch (ExecutionException e) {
+                resultado.put(entry.getKey(), null);
+            }
+        }
+        return Map.of("confirmacionesMs", resultado);
     }
     
     private void iniciarServidorDistribuidores() {
@@ -126,14 +748,19 @@ public class Empresa {
         }
     }
     
-    public synchronized void registrarDistribuidor(String id, DistribuidorConectado distribuidor) {
-        distribuidores.add(distribuidor);
+    public void registrarDistribuidor(String id, DistribuidorConectado distribuidor) {
+        DistribuidorConectado anterior = distribuidores.put(id, distribuidor);
+        if (anterior != null && anterior != distribuidor) {
+            anterior.cerrar();
+        }
         System.out.println("[REGISTRO] Distribuidor " + id + " registrado. Total distribuidores: " + distribuidores.size());
     }
     
-    public synchronized void desregistrarDistribuidor(DistribuidorConectado distribuidor) {
-        distribuidores.remove(distribuidor);
-        System.out.println("[DESCONEXIÓN] Distribuidor " + distribuidor.getId() + " desconectado. Total distribuidores: " + distribuidores.size());
+    public void desregistrarDistribuidor(DistribuidorConectado distribuidor) {
+        if (distribuidores.remove(distribuidor.getId(), distribuidor)) {
+            distribuidor.cerrar();
+            System.out.println("[DESCONEXIÓN] Distribuidor " + distribuidor.getId() + " desconectado. Total distribuidores: " + distribuidores.size());
+        }
     }
     
     private void menuPrincipal(Scanner sc) {
@@ -144,7 +771,12 @@ public class Empresa {
             System.out.println("3. Actualizar precio de un combustible");
             System.out.println("4. Actualizar todos los precios");
             System.out.println("5. Enviar precios a todos los distribuidores");
-            System.out.println("6. Salir");
+            System.out.println("6. Programar cambio de precios");
+            System.out.println("7. Cargar programación desde archivo");
+            System.out.println("8. Ver/cancelar cambios programados");
+            System.out.println("9. Ver ventas consolidadas");
+            System.out.println("10. Consultar histórico de ventas");
+            System.out.println("11. Salir");
             System.out.print("\nSeleccione opción: ");
             
             String opcion = sc.nextLine();
@@ -166,6 +798,21 @@ public class Empresa {
                     enviarPreciosATodos();
                     break;
                 case "6":
+                    programarPrecios(sc);
+                    break;
+                case "7":
+                    cargarProgramacion(sc);
+                    break;
+                case "8":
+                    administrarProgramas(sc);
+                    break;
+                case "9":
+                    mostrarVentas();
+                    break;
+                case "10":
+                    consultarHistorico(sc);
+                    break;
+                case "11":
                     System.out.println("Saliendo...");
                     System.exit(0);
                     break;
@@ -180,8 +827,11 @@ public class Empresa {
         if (distribuidores.isEmpty()) {
             System.out.println("No hay distribuidores conectados");
         } else {
-            for (DistribuidorConectado dist : distribuidores) {
-                System.out.println("  - " + dist.getId());
+            for (DistribuidorConectado dist : distribuidores.values()) {
+                String detalle = dist.getPendientes() > 0 || dist.getDescartados() > 0
+                    ? " (pendientes: " + dist.getPendientes() + ", descartados: " + dist.getDescartados() + ")"
+                    : "";
+                System.out.println("  - " + dist.getId() + detalle);
             }
         }
         System.out.println("Total: " + distribuidores.size() + " distribuidores");
@@ -202,19 +852,18 @@ public class Empresa {
         try {
             double precio = Double.parseDouble(sc.nextLine());
             
-            preciosCombustibles.put(tipo, precio);
-            
-            guardarPrecios();
+            CatalogoPrecios.Cambio cambio = aplicarCambios(Map.of(tipo, precio));
+            if (cambio == null) {
+                return;
+            }
             
             System.out.println("✓ Precio corporativo actualizado y guardado");
             System.out.print("¿Enviar cambio a todos los distribuidores? (s/n): ");
             String respuesta = sc.nextLine();
             
             if (respuesta.equalsIgnoreCase("s")) {
-                for (DistribuidorConectado dist : distribuidores) {
-                    dist.enviarComando("PRECIO " + tipo + " " + precio);
-                }
-                System.out.println("✓ Comando enviado a " + distribuidores.size() + " distribuidores");
+                difundirCambio(cambio);
+                System.out.println("✓ Cambio encolado para " + distribuidores.size() + " distribuidores");
             }
         } catch (NumberFormatException e) {
             System.out.println("Precio inválido");
@@ -223,42 +872,212 @@ public class Empresa {
     
     private void actualizarTodosLosPrecios(Scanner sc) {
         System.out.println("\n=== ACTUALIZACIÓN MASIVA DE PRECIOS ===");
+        Map<String, Double> cambios = new LinkedHashMap<>();
         
         for (String tipo : new String[]{"93", "95", "97", "Diesel", "Kerosene"}) {
             System.out.print(tipo + " (actual: $" + preciosCombustibles.get(tipo) + "): ");
             String input = sc.nextLine();
             if (!input.trim().isEmpty()) {
                 try {
-                    double precio = Double.parseDouble(input);
-                    preciosCombustibles.put(tipo, precio);
+                    cambios.put(tipo, Double.parseDouble(input));
                 } catch (NumberFormatException e) {
                     System.out.println("Precio inválido, manteniendo el anterior");
                 }
             }
         }
         
-        guardarPrecios();
+        CatalogoPrecios.Cambio cambio = aplicarCambios(cambios);
+        if (cambio == null) {
+            return;
+        }
         
         System.out.println("\n✓ Precios corporativos actualizados");
         System.out.print("¿Enviar cambios a todos los distribuidores? (s/n): ");
         String respuesta = sc.nextLine();
         
         if (respuesta.equalsIgnoreCase("s")) {
-            enviarPreciosATodos();
+            difundirCambio(cambio);
+        }
+    }
+    
+    private static long parsearInstante(String texto) {
+        texto = texto.trim();
+        if (texto.matches("\\d{10,}")) {
+            return Long.parseLong(texto);
+        }
+        return LocalDateTime.parse(texto, FORMATO_FECHA).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    private static String formatearInstante(long millis) {
+        return FORMATO_FECHA.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+    }
+    
+    private void programarPrecios(Scanner sc) {
+        System.out.println("\n=== PROGRAMAR CAMBIO DE PRECIOS ===");
+        System.out.print("Instante efectivo (yyyy-MM-dd HH:mm[:ss]): ");
+        long efectivo;
+        try {
+            efectivo = parsearInstante(sc.nextLine());
+        } catch (DateTimeParseException | NumberFormatException e) {
+            System.out.println("Fecha inválida");
+            return;
+        }
+        if (efectivo <= System.currentTimeMillis()) {
+            System.out.println("El instante efectivo debe ser futuro");
+            return;
+        }
+        
+        Map<String, Double> precios = new TreeMap<>();
+        for (String tipo : new String[]{"93", "95", "97", "Diesel", "Kerosene"}) {
+            System.out.print(tipo + " (actual: $" + preciosCombustibles.get(tipo) + ", vacío = sin cambio): ");
+            String input = sc.nextLine();
+            if (!input.trim().isEmpty()) {
+                try {
+                    precios.put(tipo, Double.parseDouble(input));
+                } catch (NumberFormatException e) {
+                    System.out.println("Precio inválido, se omite");
+                }
+            }
+        }
+        if (precios.isEmpty()) {
+            System.out.println("No se ingresaron precios");
+            return;
+        }
+        
+        try {
+            AgendaPrecios.Programa programa = programarCambio(efectivo, precios);
+            System.out.println("✓ Programa " + programa.id() + " para " + formatearInstante(efectivo) + " distribuido a " + distribuidores.size() + " distribuidores");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Programa rechazado: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo guardar el programa: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Carga un lote de programas desde archivo, una línea por cambio:
+     * fecha|tipo=precio;tipo=precio  (fecha yyyy-MM-dd HH:mm[:ss] o epoch millis, # comenta)
+     */
+    private void cargarProgramacion(Scanner sc) {
+        System.out.print("Ruta del archivo de programación: ");
+        File archivo = new File(sc.nextLine().trim());
+        if (!archivo.exists()) {
+            System.out.println("El archivo no existe");
+            return;
+        }
+        
+        int cargados = 0;
+        int rechazados = 0;
+        long ahora = System.currentTimeMillis();
+        try (BufferedReader br = new BufferedReader(new FileReader(archivo))) {
+            String linea;
+            while ((linea = br.readLine()) != null) {
+                linea = linea.trim();
+                if (linea.isEmpty() || linea.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    String[] partes = linea.split("\\|", 2);
+                    long efectivo = parsearInstante(partes[0]);
+                    Map<String, Double> precios = CatalogoPrecios.parsearPares(partes[1].split(";"));
+                    if (efectivo <= ahora || precios.isEmpty()) {
+                        throw new IllegalArgumentException("instante pasado o sin precios");
+                    }
+                    programarCambio(efectivo, precios);
+                    cargados++;
+                } catch (RuntimeException e) {
+                    System.out.println("  Línea rechazada: " + linea + " (" + e.getMessage() + ")");
+                    rechazados++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al cargar programación: " + e.getMessage());
+        }
+        System.out.println("✓ " + cargados + " programa(s) cargado(s), " + rechazados + " rechazado(s)");
+    }
+    
+    private void administrarProgramas(Scanner sc) {
+        List<AgendaPrecios.Programa> pendientes = agenda.pendientes();
+        System.out.println("\n=== CAMBIOS PROGRAMADOS ===");
+        if (pendientes.isEmpty()) {
+            System.out.println("No hay cambios programados");
+            return;
+        }
+        for (AgendaPrecios.Programa programa : pendientes) {
+            System.out.println("  " + programa.id() + "  " + formatearInstante(programa.efectivo()) + "  " + programa.precios());
+        }
+        System.out.print("ID a cancelar (vacío para volver): ");
+        String id = sc.nextLine().trim();
+        if (id.isEmpty()) {
+            return;
+        }
+        try {
+            System.out.println(cancelarPrograma(id) ? "✓ Programa " + id + " cancelado" : "Programa no encontrado");
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo cancelar el programa: " + e.getMessage());
         }
     }
     
     static class DistribuidorConectado {
         private String id;
-        private PrintWriter salida;
+        private ColaSalida salida;
+        private final AtomicLong secuencia = new AtomicLong();
+        private final Map<Long, CompletableFuture<Long>> confirmaciones = new ConcurrentHashMap<>();
         
-        public DistribuidorConectado(String id, PrintWriter salida) {
+        public DistribuidorConectado(String id, Socket socket) throws IOException {
             this.id = id;
-            this.salida = salida;
+            this.salida = new ColaSalida("distribuidor-" + id, socket);
+            this.salida.iniciar();
+        }
+        
+        public boolean enviarComando(String comando) {
+            return salida.encolar(comando);
+        }
+        
+        /**
+         * Encola el lote seguido de "PING n". El distribuidor procesa en orden,
+         * así que su "PONG n" confirma todo el lote; el futuro entrega la
+         * latencia de entrega en nanosegundos.
+         */
+        public CompletableFuture<Long> enviarConConfirmacion(List<String> comandos, long timeoutMs) {
+            long numero = secuencia.incrementAndGet();
+            long inicio = System.nanoTime();
+            CompletableFuture<Long> confirmacion = new CompletableFuture<>();
+            confirmaciones.put(numero, confirmacion);
+            confirmacion.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                        .whenComplete((latencia, error) -> confirmaciones.remove(numero));
+            
+            boolean encolado = true;
+            for (String comando : comandos) {
+                encolado &= salida.encolar(comando);
+            }
+            encolado &= salida.encolar("PING " + numero);
+            if (!encolado) {
+                confirmacion.completeExceptionally(new IOException("Cola de salida cerrada o saturada"));
+            }
+            return confirmacion.thenApply(fin -> fin - inicio);
+        }
+        
+        void confirmar(long numero) {
+            CompletableFuture<Long> confirmacion = confirmaciones.remove(numero);
+            if (confirmacion != null) {
+                confirmacion.complete(System.nanoTime());
+            }
+        }
+        
+        public void cerrar() {
+            salida.cerrar();
+            for (CompletableFuture<Long> confirmacion : confirmaciones.values()) {
+                confirmacion.completeExceptionally(new IOException("Distribuidor " + id + " desconectado"));
+            }
+        }
+        
+        public int getPendientes() {
+            return salida.getPendientes();
         }
         
-        public void enviarComando(String comando) {
-            salida.println(comando);
+        public long getDescartados() {
+            return salida.getDescartados();
         }
         
         public String getId() {
@@ -277,10 +1096,17 @@ public class Empresa {
         
         @Override
         public void run() {
+            DistribuidorConectado distribuidor = null;
             try (
                 BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                 PrintWriter salida = new PrintWriter(socket.getOutputStream(), true)
             ) {
+                // Un seguidor del cluster no atiende distribuidores: los deriva al líder
+                if (empresa.cluster != null && !empresa.cluster.esLider()) {
+                    salida.println("LIDER " + empresa.direccionLider());
+                    return;
+                }
+                
                 salida.println("IDENTIFICAR");
                 String respuesta = entrada.readLine();
                 
@@ -291,28 +1117,64 @@ public class Empresa {
                 
                 String idDistribuidor = respuesta.substring(3).trim();
                 
-                DistribuidorConectado distribuidor = new DistribuidorConectado(idDistribuidor, salida);
+                distribuidor = new DistribuidorConectado(idDistribuidor, socket);
                 empresa.registrarDistribuidor(idDistribuidor, distribuidor);
-                salida.println("OK: Conectado a empresa " + empresa.nombreEmpresa);
-                empresa.enviarPreciosADistribuidor(distribuidor);
+                distribuidor.enviarComando("OK: Conectado a empresa " + empresa.nombreEmpresa);
+                
+                // El distribuidor anuncia su versión de catálogo justo después del ID;
+                // sin ese anuncio (versión antigua) recibe la foto completa.
+                String mensaje = null;
+                socket.setSoTimeout(TIMEOUT_SYNC_MS);
+                try {
+                    mensaje = entrada.readLine();
+                    if (mensaje == null) {
+                        return;
+                    }
+                } catch (SocketTimeoutException ignored) {}
+                socket.setSoTimeout(0);
+                if (mensaje == null || !mensaje.startsWith("SYNC ")) {
+                    empresa.sincronizarDistribuidor(distribuidor, -1);
+                }
+                empresa.enviarProgramasPendientes(distribuidor);
+                if (mensaje == null) {
+                    mensaje = entrada.readLine();
+                }
                 
-                String mensaje;
-                while ((mensaje = entrada.readLine()) != null) {
+                for (; mensaje != null; mensaje = entrada.readLine()) {
                     if (mensaje.equalsIgnoreCase("SALIR")) {
                         break;
                     }
                     
-                    System.out.println("[" + idDistribuidor + "] " + mensaje);
+                    if (mensaje.startsWith("SYNC ")) {
+                        try {
+                            empresa.sincronizarDistribuidor(distribuidor, Long.parseLong(mensaje.substring(5).trim()));
+                        } catch (NumberFormatException e) {
+                            empresa.sincronizarDistribuidor(distribuidor, -1);
+                        }
+                        continue;
+                    }
+                    
+                    if (mensaje.startsWith("PONG ")) {
+                        try {
+                            distribuidor.confirmar(Long.parseLong(mensaje.substring(5).trim()));
+                        } catch (NumberFormatException ignored) {}
+                        continue;
+                    }
                     
                     if (mensaje.startsWith("REPORTE:")) {
-                        salida.println("ACK");
+                        empresa.recibirReporte(distribuidor, mensaje);
+                        continue;
                     }
+                    
+                    System.out.println("[" + idDistribuidor + "] " + mensaje);
                 }
                 
-                empresa.desregistrarDistribuidor(distribuidor);
-                
             } catch (IOException e) {
                 System.err.println("[ERROR] Error con distribuidor: " + e.getMessage());
+            } finally {
+                if (distribuidor != null) {
+                    empresa.desregistrarDistribuidor(distribuidor);
+                }
             }
         }
     }
@@ -0,0 +1,535 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Serie de tiempo de ventas de la empresa: litros (ml) y monto (centavos) en
+ * punto fijo, más cargas, por (distribuidor, surtidor, combustible, minuto).
+ *
+ * El día en curso vive en memoria y en un journal binario. Los días cerrados
+ * se sellan en un segmento columnar por día (dia-AAAAMMDD.seg, UTC), que se
+ * lee con mmap. Cada segmento trae un directorio ordenado por serie con los
+ * totales del día y de sus 24 horas precalculados, y luego las columnas por
+ * serie (minuto en delta, litros, monto, cargas) en varint. Una consulta por
+ * días solo toca los directorios; solo las horas parciales de los extremos
+ * decodifican columnas.
+ */
+class SerieVentas {
+
+    enum Agrupacion { TOTAL, DISTRIBUIDOR, SURTIDOR, COMBUSTIBLE, DIA, HORA }
+
+    record Serie(int id, String distribuidor, String surtidorId, String tipo) {}
+
+    static final long ESCALA_LITROS = 1000;
+    static final long ESCALA_MONTO = 100;
+
+    private static final int MAGIA = 0x53565431;
+    private static final int MINUTOS_DIA = 1440;
+    private static final int CABECERA = 12;
+    private static final int ENTRADA = 12 + 24 + 24 * 24;
+    private static final int REGISTRO_JOURNAL = 4 + 2 + 4 + 8 + 8 + 8;
+    private static final int SEGMENTOS_MAPEADOS = 64;
+    private static final DateTimeFormatter FORMATO_DIA = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+
+    private final File directorio;
+    private final File archivoDiccionario;
+    private final File archivoJournal;
+    private final List<Serie> series = new ArrayList<>();
+    private final Map<String, Serie> seriePorClave = new HashMap<>();
+    /** día → serie → minuto del día → {litros, monto, cargas} */
+    private final TreeMap<Integer, Map<Integer, TreeMap<Integer, long[]>>> activos = new TreeMap<>();
+    private final Map<Integer, MappedByteBuffer> mapeados = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+            return size() > SEGMENTOS_MAPEADOS;
+        }
+    };
+    private FileOutputStream journal;
+
+    SerieVentas(File directorio) {
+        this.directorio = directorio;
+        this.archivoDiccionario = new File(directorio, "series.dic");
+        this.archivoJournal = new File(directorio, "activo.journal");
+        directorio.mkdirs();
+        cargarDiccionario();
+        try {
+            reproducirJournal();
+            journal = new FileOutputStream(archivoJournal, true);
+            sellarAnterioresA(diaDe(System.currentTimeMillis()));
+        } catch (IOException e) {
+            System.err.println("[ERROR] No se pudo abrir la serie de ventas: " + e.getMessage());
+        }
+        System.out.println("[HISTÓRICO] " + series.size() + " series, " + contarSegmentos() + " días sellados, "
+            + activos.size() + " día(s) en curso");
+    }
+
+    private static int diaDe(long instanteMillis) {
+        return (int) Math.floorDiv(instanteMillis, 60_000L * MINUTOS_DIA);
+    }
+
+    // ===================== Escritura =====================
+
+    synchronized void registrar(String distribuidor, List<AgregadoVentas.Fila> filas, long instanteMillis) throws IOException {
+        if (journal == null) {
+            throw new IOException("Serie de ventas no disponible");
+        }
+        long minutoEpoch = Math.floorDiv(instanteMillis, 60_000L);
+        int dia = (int) Math.floorDiv(minutoEpoch, MINUTOS_DIA);
+        int minuto = Math.floorMod(minutoEpoch, MINUTOS_DIA);
+
+        ByteBuffer registros = ByteBuffer.allocate(filas.size() * REGISTRO_JOURNAL);
+        List<long[]> puntos = new ArrayList<>(filas.size());
+        for (AgregadoVentas.Fila fila : filas) {
+            Serie serie = obtenerSerie(distribuidor, fila.surtidorId(), fila.tipo());
+            long litros = Math.round(fila.litros() * ESCALA_LITROS);
+            long monto = Math.round(fila.monto() * ESCALA_MONTO);
+            registros.putInt(dia).putShort((short) minuto).putInt(serie.id()).putLong(litros).putLong(monto).putLong(fila.cargas());
+            puntos.add(new long[]{serie.id(), litros, monto, fila.cargas()});
+        }
+        long largoPrevio = journal.getChannel().size();
+        try {
+            journal.write(registros.array());
+            journal.getFD().sync();
+        } catch (IOException e) {
+            try {
+                journal.getChannel().truncate(largoPrevio);
+            } catch (IOException ignorada) {
+            }
+            throw e;
+        }
+
+        for (long[] p : puntos) {
+            acumular(dia, (int) p[0], minuto, p[1], p[2], p[3]);
+        }
+        sellarAnterioresA(dia);
+    }
+
+    private void acumular(int dia, int serie, int minuto, long litros, long monto, long cargas) {
+        long[] v = activos.computeIfAbsent(dia, k -> new HashMap<>())
+                          .computeIfAbsent(serie, k -> new TreeMap<>())
+                          .computeIfAbsent(minuto, k -> new long[3]);
+        v[0] += litros;
+        v[1] += monto;
+        v[2] += cargas;
+    }
+
+    private Serie obtenerSerie(String distribuidor, String surtidorId, String tipo) throws IOException {
+        String clave = distribuidor + "|" + surtidorId + "|" + tipo;
+        Serie serie = seriePorClave.get(clave);
+        if (serie != null) {
+            return serie;
+        }
+        serie = new Serie(series.size(), distribuidor, surtidorId, tipo);
+        try (FileOutputStream fos = new FileOutputStream(archivoDiccionario, true)) {
+            fos.write((serie.id() + "|" + clave + "\n").getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        series.add(serie);
+        seriePorClave.put(clave, serie);
+        return serie;
+    }
+
+    /** Sella en segmentos todos los días en memoria anteriores a {@code dia}. */
+    private void sellarAnterioresA(int dia) throws IOException {
+        List<Integer> cerrados = new ArrayList<>(activos.headMap(dia, false).keySet());
+        if (cerrados.isEmpty()) {
+            return;
+        }
+        for (int cerrado : cerrados) {
+            sellar(cerrado);
+        }
+        reescribirJournal();
+    }
+
+    private void sellar(int dia) throws IOException {
+        Map<Integer, TreeMap<Integer, long[]>> datos = activos.remove(dia);
+        File archivo = archivoSegmento(dia);
+        if (archivo.exists()) {
+            // Datos tardíos de un día ya sellado: se funden con el segmento existente
+            leerSegmentoCompleto(dia, datos);
+            mapeados.remove(dia);
+        }
+
+        int[] ids = datos.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        ByteArrayOutputStream columnas = new ByteArrayOutputStream();
+        ByteBuffer directorioSeg = ByteBuffer.allocate(CABECERA + ids.length * ENTRADA);
+        directorioSeg.putInt(MAGIA).putInt(dia).putInt(ids.length);
+        int base = CABECERA + ids.length * ENTRADA;
+
+        for (int id : ids) {
+            TreeMap<Integer, long[]> puntos = datos.get(id);
+            long[] totalDia = new long[3];
+            long[][] horas = new long[24][3];
+            ByteArrayOutputStream minutos = new ByteArrayOutputStream();
+            ByteArrayOutputStream litros = new ByteArrayOutputStream();
+            ByteArrayOutputStream montos = new ByteArrayOutputStream();
+            ByteArrayOutputStream cargas = new ByteArrayOutputStream();
+            int anterior = 0;
+            for (Map.Entry<Integer, long[]> entry : puntos.entrySet()) {
+                int minuto = entry.getKey();
+                long[] v = entry.getValue();
+                escribirVarint(minutos, minuto - anterior);
+                escribirVarint(litros, v[0]);
+                escribirVarint(montos, v[1]);
+                escribirVarint(cargas, v[2]);
+                anterior = minuto;
+                for (int i = 0; i < 3; i++) {
+                    totalDia[i] += v[i];
+                    horas[minuto / 60][i] += v[i];
+                }
+            }
+
+            directorioSeg.putInt(id).putInt(base + columnas.size()).putInt(puntos.size());
+            directorioSeg.putLong(totalDia[0]).putLong(totalDia[1]).putLong(totalDia[2]);
+            for (long[] hora : horas) {
+                directorioSeg.putLong(hora[0]).putLong(hora[1]).putLong(hora[2]);
+            }
+            DataOutputStream dos = new DataOutputStream(columnas);
+            dos.writeInt(minutos.size());
+            dos.writeInt(litros.size());
+            dos.writeInt(montos.size());
+            dos.writeInt(cargas.size());
+            minutos.writeTo(columnas);
+            litros.writeTo(columnas);
+            montos.writeTo(columnas);
+            cargas.writeTo(columnas);
+        }
+
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporal)) {
+            fos.write(directorioSeg.array());
+            columnas.writeTo(fos);
+            fos.getFD().sync();
+        }
+        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("[HISTÓRICO] Día " + FORMATO_FECHA.format(Instant.ofEpochSecond(dia * 86_400L)) + " sellado: "
+            + ids.length + " series, " + archivo.length() + " bytes");
+    }
+
+    private void reescribirJournal() throws IOException {
+        File temporal = new File(archivoJournal.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporal);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            for (Map.Entry<Integer, Map<Integer, TreeMap<Integer, long[]>>> dia : activos.entrySet()) {
+                for (Map.Entry<Integer, TreeMap<Integer, long[]>> serie : dia.getValue().entrySet()) {
+                    for (Map.Entry<Integer, long[]> punto : serie.getValue().entrySet()) {
+                        long[] v = punto.getValue();
+                        dos.writeInt(dia.getKey());
+                        dos.writeShort(punto.getKey());
+                        dos.writeInt(serie.getKey());
+                        dos.writeLong(v[0]);
+                        dos.writeLong(v[1]);
+                        dos.writeLong(v[2]);
+                    }
+                }
+            }
+            dos.flush();
+            fos.getFD().sync();
+        }
+        journal.close();
+        Files.move(temporal.toPath(), archivoJournal.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        journal = new FileOutputStream(archivoJournal, true);
+    }
+
+    // ===================== Consultas =====================
+
+    /**
+     * Suma {litros ml, monto centavos, cargas} en [desde, hasta) con minuto de
+     * resolución, para las series que cumplen el filtro, agrupadas por la clave
+     * pedida.
+     */
+    synchronized Map<String, long[]> consultar(long desdeMillis, long hastaMillis, Predicate<Serie> filtro, Agrupacion agrupacion) throws IOException {
+        Map<String, long[]> resultado = new TreeMap<>();
+        long mDesde = Math.floorDiv(desdeMillis, 60_000L);
+        long mHasta = Math.floorDiv(hastaMillis + 59_999L, 60_000L);
+        if (mHasta <= mDesde) {
+            return resultado;
+        }
+        int[] seleccion = series.stream().filter(filtro).mapToInt(Serie::id).toArray();
+        if (seleccion.length == 0) {
+            return resultado;
+        }
+
+        int primerDia = (int) Math.floorDiv(mDesde, MINUTOS_DIA);
+        int ultimoDia = (int) Math.floorDiv(mHasta - 1, MINUTOS_DIA);
+        for (int dia = primerDia; dia <= ultimoDia; dia++) {
+            long inicioDia = (long) dia * MINUTOS_DIA;
+            int a = (int) Math.max(0, mDesde - inicioDia);
+            int b = (int) Math.min(MINUTOS_DIA, mHasta - inicioDia);
+
+            ByteBuffer segmento = segmento(dia);
+            if (segmento != null) {
+                consultarSegmento(segmento, dia, a, b, seleccion, agrupacion, resultado);
+            }
+            Map<Integer, TreeMap<Integer, long[]>> activo = activos.get(dia);
+            if (activo != null) {
+                for (int id : seleccion) {
+                    TreeMap<Integer, long[]> puntos = activo.get(id);
+                    if (puntos == null) {
+                        continue;
+                    }
+                    for (Map.Entry<Integer, long[]> punto : puntos.subMap(a, b).entrySet()) {
+                        sumar(resultado, clave(series.get(id), inicioDia + punto.getKey(), agrupacion), punto.getValue());
+                    }
+                }
+            }
+        }
+        return resultado;
+    }
+
+    private void consultarSegmento(ByteBuffer seg, int dia, int a, int b, int[] seleccion, Agrupacion agrupacion, Map<String, long[]> resultado) {
+        long inicioDia = (long) dia * MINUTOS_DIA;
+        int cantidad = seg.getInt(8);
+        boolean diaCompleto = a == 0 && b == MINUTOS_DIA && agrupacion != Agrupacion.HORA;
+        long[] v = new long[3];
+
+        for (int id : seleccion) {
+            int entrada = buscarEntrada(seg, cantidad, id);
+            if (entrada < 0) {
+                continue;
+            }
+            Serie serie = series.get(id);
+            if (diaCompleto) {
+                leerTriple(seg, entrada + 12, v);
+                sumar(resultado, clave(serie, inicioDia, agrupacion), v);
+                continue;
+            }
+            boolean parcial = false;
+            for (int hora = a / 60; hora * 60 < b; hora++) {
+                if (hora * 60 >= a && hora * 60 + 60 <= b) {
+                    leerTriple(seg, entrada + 36 + hora * 24, v);
+                    if (v[0] != 0 || v[1] != 0 || v[2] != 0) {
+                        sumar(resultado, clave(serie, inicioDia + hora * 60, agrupacion), v);
+                    }
+                } else {
+                    parcial = true;
+                }
+            }
+            if (parcial) {
+                sumarMinutosParciales(seg, entrada, serie, inicioDia, a, b, agrupacion, resultado);
+            }
+        }
+    }
+
+    /** Decodifica las columnas de la serie y suma solo los minutos de horas no cubiertas por el roll-up. */
+    private void sumarMinutosParciales(ByteBuffer seg, int entrada, Serie serie, long inicioDia, int a, int b,
+                                       Agrupacion agrupacion, Map<String, long[]> resultado) {
+        ByteBuffer[] columnas = columnas(seg, entrada);
+        int horaCompletaDesde = (a + 59) / 60 * 60;
+        int horaCompletaHasta = b / 60 * 60;
+        int minuto = 0;
+        long[] v = new long[3];
+        for (int p = seg.getInt(entrada + 8); p > 0; p--) {
+            minuto += (int) leerVarint(columnas[0]);
+            v[0] = leerVarint(columnas[1]);
+            v[1] = leerVarint(columnas[2]);
+            v[2] = leerVarint(columnas[3]);
+            if (minuto >= b) {
+                break;
+            }
+            boolean cubierto = minuto >= horaCompletaDesde && minuto < horaCompletaHasta;
+            if (minuto >= a && !cubierto) {
+                sumar(resultado, clave(serie, inicioDia + minuto, agrupacion), v);
+            }
+        }
+    }
+
+    /** Cursores sobre las cuatro columnas de una serie: minutos, litros, montos, cargas. */
+    private static ByteBuffer[] columnas(ByteBuffer seg, int entrada) {
+        int posicion = seg.getInt(entrada + 4) + 16;
+        ByteBuffer[] columnas = new ByteBuffer[4];
+        for (int i = 0; i < 4; i++) {
+            columnas[i] = seg.duplicate().position(posicion);
+            posicion += seg.getInt(seg.getInt(entrada + 4) + i * 4);
+        }
+        return columnas;
+    }
+
+    private static int buscarEntrada(ByteBuffer seg, int cantidad, int id) {
+        int bajo = 0;
+        int alto = cantidad - 1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            int posicion = CABECERA + medio * ENTRADA;
+            int actual = seg.getInt(posicion);
+            if (actual < id) {
+                bajo = medio + 1;
+            } else if (actual > id) {
+                alto = medio - 1;
+            } else {
+                return posicion;
+            }
+        }
+        return -1;
+    }
+
+    private static void leerTriple(ByteBuffer seg, int posicion, long[] v) {
+        v[0] = seg.getLong(posicion);
+        v[1] = seg.getLong(posicion + 8);
+        v[2] = seg.getLong(posicion + 16);
+    }
+
+    private static String clave(Serie serie, long minutoEpoch, Agrupacion agrupacion) {
+        return switch (agrupacion) {
+            case TOTAL -> "total";
+            case DISTRIBUIDOR -> serie.distribuidor();
+            case SURTIDOR -> serie.distribuidor() + "/" + serie.surtidorId();
+            case COMBUSTIBLE -> serie.tipo();
+            case DIA -> FORMATO_FECHA.format(Instant.ofEpochSecond(minutoEpoch * 60));
+            case HORA -> FORMATO_HORA.format(Instant.ofEpochSecond(minutoEpoch * 60));
+        };
+    }
+
+    private static void sumar(Map<String, long[]> resultado, String clave, long[] v) {
+        long[] acumulado = resultado.computeIfAbsent(clave, k -> new long[3]);
+        acumulado[0] += v[0];
+        acumulado[1] += v[1];
+        acumulado[2] += v[2];
+    }
+
+    private ByteBuffer segmento(int dia) throws IOException {
+        MappedByteBuffer mapeado = mapeados.get(dia);
+        if (mapeado != null) {
+            return mapeado;
+        }
+        File archivo = archivoSegmento(dia);
+        if (!archivo.exists()) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ)) {
+            mapeado = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        if (mapeado.getInt(0) != MAGIA) {
+            throw new IOException("Segmento inválido: " + archivo.getName());
+        }
+        mapeados.put(dia, mapeado);
+        return mapeado;
+    }
+
+    private File archivoSegmento(int dia) {
+        return new File(directorio, "dia-" + FORMATO_DIA.format(Instant.ofEpochSecond(dia * 86_400L)) + ".seg");
+    }
+
+    private int contarSegmentos() {
+        String[] nombres = directorio.list((d, n) -> n.startsWith("dia-") && n.endsWith(".seg"));
+        return nombres == null ? 0 : nombres.length;
+    }
+
+    /** Filtro por tipo y/o distribuidor (null = todos). */
+    static Predicate<Serie> filtro(String tipo, String distribuidor) {
+        return s -> (tipo == null || s.tipo().equalsIgnoreCase(tipo))
+                 && (distribuidor == null || s.distribuidor().equals(distribuidor));
+    }
+
+    // ===================== Recuperación =====================
+
+    private void cargarDiccionario() {
+        if (!archivoDiccionario.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(archivoDiccionario), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = br.readLine()) != null) {
+                String[] campos = linea.split("\\|");
+                if (campos.length != 4 || Integer.parseInt(campos[0]) != series.size()) {
+                    continue;
+                }
+                Serie serie = new Serie(series.size(), campos[1], campos[2], campos[3]);
+                series.add(serie);
+                seriePorClave.put(campos[1] + "|" + campos[2] + "|" + campos[3], serie);
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[ERROR] Error al leer diccionario de series: " + e.getMessage());
+        }
+    }
+
+    private void reproducirJournal() throws IOException {
+        if (!archivoJournal.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(archivoJournal)))) {
+            long registros = archivoJournal.length() / REGISTRO_JOURNAL;
+            for (long i = 0; i < registros; i++) {
+                int dia = dis.readInt();
+                int minuto = dis.readShort();
+                int serie = dis.readInt();
+                long litros = dis.readLong();
+                long monto = dis.readLong();
+                long cargas = dis.readLong();
+                if (serie < series.size() && minuto >= 0 && minuto < MINUTOS_DIA) {
+                    acumular(dia, serie, minuto, litros, monto, cargas);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error al leer journal de la serie: " + e.getMessage());
+            return;
+        }
+        // Una escritura interrumpida deja un registro a medias al final: se corta
+        // ahí, o los registros que se agreguen después quedarían desalineados
+        long largoValido = archivoJournal.length() / REGISTRO_JOURNAL * REGISTRO_JOURNAL;
+        if (largoValido != archivoJournal.length()) {
+            System.err.println("[WARN] Journal de la serie: se descarta un registro final incompleto ("
+                + (archivoJournal.length() - largoValido) + " bytes)");
+            truncarJournal(largoValido);
+        }
+    }
+
+    private void truncarJournal(long largo) throws IOException {
+        try (FileChannel canal = FileChannel.open(archivoJournal.toPath(), StandardOpenOption.WRITE)) {
+            canal.truncate(largo);
+            canal.force(true);
+        }
+    }
+
+    private void leerSegmentoCompleto(int dia, Map<Integer, TreeMap<Integer, long[]>> destino) throws IOException {
+        ByteBuffer seg = segmento(dia);
+        int cantidad = seg.getInt(8);
+        for (int i = 0; i < cantidad; i++) {
+            int entrada = CABECERA + i * ENTRADA;
+            TreeMap<Integer, long[]> serie = destino.computeIfAbsent(seg.getInt(entrada), k -> new TreeMap<>());
+            ByteBuffer[] columnas = columnas(seg, entrada);
+            int minuto = 0;
+            for (int p = seg.getInt(entrada + 8); p > 0; p--) {
+                minuto += (int) leerVarint(columnas[0]);
+                long[] v = serie.computeIfAbsent(minuto, k -> new long[3]);
+                v[0] += leerVarint(columnas[1]);
+                v[1] += leerVarint(columnas[2]);
+                v[2] += leerVarint(columnas[3]);
+            }
+        }
+    }
+
+    // ===================== Varint =====================
+
+    private static void escribirVarint(ByteArrayOutputStream salida, long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            salida.write((int) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        salida.write((int) valor);
+    }
+
+    private static long leerVarint(ByteBuffer entrada) {
+        long valor = 0;
+        int desplazamiento = 0;
+        byte b;
+        do {
+            b = entrada.get();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            desplazamiento += 7;
+        } while ((b & 0x80) != 0);
+        return valor;
+    }
+}
@@ -0,0 +1,122 @@
+#!/bin/sh
+# probar-failover.sh
+# Levanta un cluster de tres Empresas en esta máquina (procesos locales, sin
+# Docker), espera al líder, lo mata y comprueba que:
+#   1. los otros dos eligen un líder nuevo,
+#   2. el líder nuevo acepta un cambio de precio y un seguidor lo deriva (421),
+#   3. el nodo caído vuelve como seguidor y alcanza la versión del catálogo.
+#
+# El catálogo de precios, la agenda y los reportes de ventas se replican por
+# Raft: un reporte se confirma al distribuidor recién cuando una mayoría lo
+# tiene, así que el agregado y la serie histórica del líder nuevo incluyen
+# todo lo confirmado por el viejo.
+#
+# Uso: ./probar-failover.sh   (requiere javac, java y curl; usa los puertos
+# 7001-7003, 7101-7103 y 8071-8073 de 127.0.0.1)
+
+set -u
+# API de administración en loopback y sin token, solo para esta prueba
+unset ADMIN_TOKEN ADMIN_BIND
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+TRABAJO=$(mktemp -d "${TMPDIR:-/tmp}/empresa-cluster.XXXXXX")
+NODOS=127.0.0.1:7101:7001:8071,127.0.0.1:7102:7002:8072,127.0.0.1:7103:7003:8073
+ESPERA_S=${ESPERA_S:-20}
+PIDS=""
+
+terminar() {
+    for pid in $PIDS; do kill "$pid" 2>/dev/null; done
+    wait 2>/dev/null
+    echo "[INFO] Registros y datos en $TRABAJO"
+}
+trap terminar EXIT
+trap 'exit 130' INT TERM
+
+fallar() {
+    echo "[ERROR] $1"
+    exit 1
+}
+
+iniciar() {
+    i=$1
+    mkdir -p "$TRABAJO/e$i"
+    DATA_DIR="$TRABAJO/e$i" PUERTO_DISTRIBUIDORES=700$i ADMIN_PORT=807$i \
+        CLUSTER_NODOS=$NODOS CLUSTER_NODO=127.0.0.1:710$i:700$i:807$i \
+        java -cp "$TRABAJO/clases" Empresa "E$i" < /dev/null >> "$TRABAJO/e$i.log" 2>&1 &
+    eval "PID_$i=$!"
+    PIDS="$PIDS $!"
+}
+
+# Rol de un nodo según GET /estado: lider, seguidor o vacío si no responde
+rol() {
+    curl -s --max-time 1 "http://127.0.0.1:807$1/estado" | sed -n 's/.*"rol" *: *"\([a-z]*\)".*/\1/p'
+}
+
+version() {
+    curl -s --max-time 1 "http://127.0.0.1:807$1/estado" | sed -n 's/.*"versionPrecios" *: *\([0-9]*\).*/\1/p'
+}
+
+# Espera hasta ESPERA_S segundos a que exactamente uno de los nodos dados sea líder
+esperar_lider() {
+    limite=$(( $(date +%s) + ESPERA_S ))
+    while [ "$(date +%s)" -lt "$limite" ]; do
+        lideres=""
+        for i in "$@"; do
+            [ "$(rol "$i")" = "lider" ] && lideres="$lideres $i"
+        done
+        if [ "$(echo $lideres | wc -w)" -eq 1 ]; then
+            echo $lideres
+            return 0
+        fi
+        sleep 0.5
+    done
+    return 1
+}
+
+mkdir -p "$TRABAJO/clases"
+javac -encoding UTF-8 -d "$TRABAJO/clases" "$DIR"/*.java || fallar "No compila nivel3"
+
+for i in 1 2 3; do iniciar "$i"; done
+echo "[INFO] Cluster iniciado en $TRABAJO"
+
+LIDER=$(esperar_lider 1 2 3) || fallar "No hubo líder en ${ESPERA_S} s"
+echo "[INFO] Líder inicial: E$LIDER"
+
+curl -s --max-time 5 -o /dev/null -w '%{http_code}' -X POST -H 'Content-Type: application/json' \
+    -d '{"93":1111}' "http://127.0.0.1:807$LIDER/precios" | grep -q '^200$' \
+    || fallar "El líder E$LIDER no aceptó el primer cambio de precio"
+
+eval "kill \$PID_$LIDER"
+echo "[INFO] E$LIDER detenido"
+
+RESTO=""
+for i in 1 2 3; do [ "$i" != "$LIDER" ] && RESTO="$RESTO $i"; done
+# shellcheck disable=SC2086
+NUEVO=$(esperar_lider $RESTO) || fallar "Los nodos$RESTO no eligieron un líder nuevo en ${ESPERA_S} s"
+echo "[INFO] Líder nuevo: E$NUEVO"
+
+codigo=$(curl -s --max-time 5 -o /dev/null -w '%{http_code}' -X POST -H 'Content-Type: application/json' \
+    -d '{"93":2222}' "http://127.0.0.1:807$NUEVO/precios")
+[ "$codigo" = "200" ] || fallar "El líder nuevo respondió $codigo a un cambio de precio"
+
+for i in $RESTO; do
+    if [ "$i" != "$NUEVO" ]; then
+        codigo=$(curl -s --max-time 5 -o /dev/null -w '%{http_code}' -X POST -H 'Content-Type: application/json' \
+            -d '{"93":3333}' "http://127.0.0.1:807$i/precios")
+        [ "$codigo" = "421" ] || fallar "El seguidor E$i respondió $codigo en vez de 421"
+    fi
+done
+echo "[INFO] El líder nuevo acepta escrituras y el seguidor las deriva"
+
+iniciar "$LIDER"
+limite=$(( $(date +%s) + ESPERA_S ))
+while :; do
+    if [ "$(rol "$LIDER")" = "seguidor" ] && [ -n "$(version "$NUEVO")" ] \
+            && [ "$(version "$LIDER")" = "$(version "$NUEVO")" ]; then
+        break
+    fi
+    [ "$(date +%s)" -lt "$limite" ] || fallar "E$LIDER no volvió como seguidor al día"
+    sleep 0.5
+done
+echo "[INFO] E$LIDER volvió como seguidor en la versión $(version "$NUEVO")"
+echo "[INFO] Conmutación correcta"
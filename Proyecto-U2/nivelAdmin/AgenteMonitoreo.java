@@ -0,0 +1,337 @@
+// AgenteMonitoreo.java
+// Núcleo de monitoreo sin interfaz gráfica: detección, conexiones a nodos,
+// agregación de métricas, captura y comandos. El panel Swing lo usa en el
+// mismo proceso o, con AGENTE=host:puerto, se suscribe a uno remoto; en un
+// servidor sin X11 corre solo y publica su estado con ServidorAgente.
+//
+// Compilar: javac AgenteMonitoreo.java   (no arrastra ninguna clase Swing)
+// Ejecutar:  java AgenteMonitoreo
+//   AGENTE_PUERTO (9100) / AGENTE_BIND (127.0.0.1): dónde atiende suscriptores
+//   ADMIN_TOKEN: exigido a los suscriptores y enviado a las API de administración;
+//                obligatorio si AGENTE_BIND no es loopback (COMANDO cambia precios)
+//   ESCANEO_REDES / ESCANEO_PUERTOS: qué detectar al arrancar
+//   AGENTE_REDESCUBRIR_S (60, 0 = solo al arrancar): cada cuánto repetir la detección
+//   AGENTE_CONECTAR (true): conectar cada nodo apenas se detecta
+//   CAPTURA_AUTO (false): capturar desde el arranque
+//   ALERTAS_REGLAS (reglas-alertas.conf): reglas de MotorAlertas; sin archivo no hay motor
+//   ESTANQUE_SONDEO_S (0 = nunca): cada cuánto pedir ESTADO a los estanques conectados
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class AgenteMonitoreo implements Monitoreo {
+
+    private static final int SONDAS_EN_VUELO = Integer.parseInt(System.getenv().getOrDefault("ESCANEO_EN_VUELO", "512"));
+    private static final int TIMEOUT_SONDA_MS = Integer.parseInt(System.getenv().getOrDefault("ESCANEO_TIMEOUT_MS", "300"));
+    private static final Set<Integer> PUERTOS_EMPRESA =
+            new HashSet<>(EscanerRed.expandirPuertos(System.getenv().getOrDefault("ESCANEO_PUERTOS_EMPRESA", "7000-7099")));
+
+    static final String CAPTURA_DIR = System.getenv().getOrDefault("CAPTURA_DIR", "capturas");
+    private static final long CAPTURA_SEGMENTO_MB = Long.parseLong(System.getenv().getOrDefault("CAPTURA_SEGMENTO_MB", "64"));
+    private static final int CAPTURA_SEGMENTOS = Integer.parseInt(System.getenv().getOrDefault("CAPTURA_SEGMENTOS", "16"));
+    private static final int CAPTURA_COLA = Integer.parseInt(System.getenv().getOrDefault("BUFFER_MENSAJES", "65536"));
+    static final String ALERTAS_REGLAS = System.getenv().getOrDefault("ALERTAS_REGLAS", "reglas-alertas.conf");
+    private static final long ESTANQUE_SONDEO_S = Long.parseLong(System.getenv().getOrDefault("ESTANQUE_SONDEO_S", "0"));
+
+    private final MultiplexorConexiones multiplexor;
+    private final Map<String, Nodo> nodos = new ConcurrentHashMap<>();
+    private final Map<String, String> idPorDireccion = new ConcurrentHashMap<>();
+    private final Map<String, ConexionCliente> conexiones = new ConcurrentHashMap<>();
+    private final List<Oyente> oyentes = new CopyOnWriteArrayList<>();
+    private final ConsolaComandos comandos = new ConsolaComandos();
+    private final AtomicBoolean escaneando = new AtomicBoolean();
+    /** Null cuando quien usa el agente ya agrega por su cuenta (el panel en el mismo proceso). */
+    private final MetricasNodos metricas;
+    private volatile CapturaMensajes.Grabador captura;
+    /** Null sin archivo de reglas: entonces no cuesta nada por mensaje. */
+    private final MotorAlertas alertas;
+
+    AgenteMonitoreo(MultiplexorConexiones multiplexor, boolean agregarMetricas) {
+        this.multiplexor = multiplexor;
+        this.metricas = agregarMetricas ? new MetricasNodos() : null;
+        this.alertas = cargarAlertas();
+    }
+
+    private MotorAlertas cargarAlertas() {
+        File archivo = new File(ALERTAS_REGLAS);
+        if (!archivo.isFile()) return null;
+        MotorAlertas motor;
+        try {
+            motor = MotorAlertas.cargar(archivo, (regla, id, activa, detalle) -> {
+                for (Oyente o : oyentes) o.alerta(regla, id, activa, detalle);
+            });
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudieron leer las reglas de " + archivo + ": " + e.getMessage());
+            return null;
+        }
+        System.out.println("[INFO] " + motor.cantidadReglas() + " reglas de alerta cargadas de " + archivo.getAbsolutePath());
+        // Las ventanas y las caídas avanzan aunque no lleguen mensajes
+        ScheduledExecutorService reloj = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Alertas");
+            t.setDaemon(true);
+            return t;
+        });
+        reloj.scheduleAtFixedRate(motor::cerrarSegundo, 1, 1, TimeUnit.SECONDS);
+        if (ESTANQUE_SONDEO_S > 0) {
+            reloj.scheduleWithFixedDelay(this::sondearEstanques, ESTANQUE_SONDEO_S, ESTANQUE_SONDEO_S, TimeUnit.SECONDS);
+        }
+        return motor;
+    }
+
+    /**
+     * El estanque solo informa su nivel cuando se le pregunta. Va por
+     * solicitar() para que el correlador no le asigne la respuesta a un
+     * comando de la consola; las líneas del bloque llegan igual a recibido().
+     */
+    private void sondearEstanques() {
+        for (Nodo n : nodos.values()) {
+            ConexionCliente c = conexiones.get(n.id());
+            if (n.nivel().equals("Estanque") && c != null && c.isConnected()) c.solicitar("ESTADO");
+        }
+    }
+
+    Map<String, String> getAlertasActivas() { return alertas == null ? Map.of() : alertas.getActivas(); }
+
+    // ======== Consultas ========
+
+    @Override public void suscribir(Oyente oyente) { oyentes.add(oyente); }
+    void desuscribir(Oyente oyente) { oyentes.remove(oyente); }
+
+    Collection<Nodo> getNodos() { return nodos.values(); }
+    MetricasNodos getMetricas() { return metricas; }
+
+    boolean estaConectado(String id) {
+        ConexionCliente c = conexiones.get(id);
+        return c != null && c.isConnected();
+    }
+
+    // ======== Detección ========
+
+    /** Escanea en segundo plano; los nodos nuevos y el avance llegan como eventos. */
+    @Override public void detectar(String redes, String puertos) {
+        List<String> hosts;
+        List<Integer> lista;
+        try {
+            hosts = EscanerRed.expandirRedes(redes);
+            lista = EscanerRed.expandirPuertos(puertos);
+        } catch (IOException | IllegalArgumentException ex) {
+            aviso("[WARN] [SCAN] " + ex.getMessage());
+            emitirEscaneo(0, 0);
+            return;
+        }
+        int total = hosts.size() * lista.size();
+        if (total == 0) { aviso("[WARN] [SCAN] No hay redes o puertos que escanear."); emitirEscaneo(0, 0); return; }
+        if (!escaneando.compareAndSet(false, true)) { aviso("[WARN] [SCAN] Ya hay un escaneo en curso."); return; }
+
+        aviso(String.format("[INFO] [SCAN] Iniciando escaneo: %d hosts × %d puertos (%s | %s)", hosts.size(), lista.size(), redes, puertos));
+        Thread hilo = new Thread(() -> {
+            long inicio = System.currentTimeMillis();
+            int paso = Math.max(1, total / 100);
+            try {
+                EscanerRed escaner = new EscanerRed(SONDAS_EN_VUELO, TIMEOUT_SONDA_MS, TIMEOUT_SONDA_MS, PUERTOS_EMPRESA);
+                escaner.escanear(hosts, lista, new EscanerRed.Oyente() {
+                    @Override public void encontrado(EscanerRed.Hallazgo h) {
+                        if (agregar(h.nivel(), generarIdPorTipo(h.nivel(), h.ip(), h.puerto()), h.ip(), h.puerto())) {
+                            aviso(String.format("[INFO] [SCAN] Detectado %s en %s:%d", h.nivel(), h.ip(), h.puerto()));
+                        }
+                    }
+                    // Un evento por punto porcentual, no uno por sonda
+                    @Override public void progreso(int terminadas, int totalSondas) {
+                        if (terminadas % paso == 0 && terminadas < totalSondas) emitirEscaneo(terminadas, totalSondas);
+                    }
+                }, () -> false);
+                aviso("[INFO] [SCAN] Escaneo completado en " + (System.currentTimeMillis() - inicio) + " ms.");
+            } catch (IOException ex) {
+                aviso("[WARN] [SCAN] Escaneo interrumpido: " + ex.getMessage());
+            } finally {
+                escaneando.set(false);
+                emitirEscaneo(total, total);
+            }
+        }, "Escaneo");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /** IDs cortos para localhost; con IP cuando el escaneo cubre otros hosts. */
+    static String generarIdPorTipo(String tipo, String ip, int port) {
+        String sufijo = ip.equals("127.0.0.1") ? String.valueOf(port) : ip + ":" + port;
+        return switch (tipo) {
+            case "Empresa" -> "EMPRESA-" + sufijo;
+            case "Distribuidor" -> "DIST-" + sufijo;
+            case "Estanque" -> "EST-" + sufijo;
+            case "Surtidor" -> "SURT-" + sufijo;
+            default -> "NODO-" + sufijo;
+        };
+    }
+
+    /** Registra un nodo si no se conocía ni su ID ni su dirección; devuelve si era nuevo. */
+    synchronized boolean agregar(String nivel, String id, String ip, int puerto) {
+        if (nodos.containsKey(id) || idPorDireccion.containsKey(ip + ":" + puerto)) return false;
+        Nodo nodo = new Nodo(nivel, id, ip, puerto);
+        nodos.put(id, nodo);
+        idPorDireccion.put(ip + ":" + puerto, id);
+        if (metricas != null) metricas.conocer(id);
+        for (Oyente o : oyentes) o.nodo(nodo, false);
+        return true;
+    }
+
+    // ======== Conexiones ========
+
+    @Override public void conectarTodos() {
+        if (nodos.isEmpty()) { aviso("[WARN] No hay nodos detectados."); return; }
+        for (String id : new TreeSet<>(nodos.keySet())) conectar(id);
+    }
+
+    @Override public void conectar(String id) {
+        Nodo n = nodos.get(id);
+        if (n == null) { aviso("[WARN] Nodo desconocido: " + id); return; }
+        ConexionCliente prev = conexiones.get(id);
+        if (prev != null) {
+            if (prev.isConnected() && prev.matches(n.ip(), n.puerto())) {
+                aviso("[INFO] Nodo " + id + " ya está conectado.");
+                return;
+            }
+            prev.close();
+        }
+        ConexionCliente c = new ConexionCliente(n.nivel(), id, n.ip(), n.puerto(), this::recibido, this::cambioEstado, multiplexor);
+        conexiones.put(id, c);
+        aviso("[INFO] Conectando a " + id + " (" + n.nivel() + ") " + n.ip() + ":" + n.puerto() + " ...");
+        c.start();
+    }
+
+    @Override public synchronized void mover(String id, String ip) {
+        Nodo n = nodos.get(id);
+        if (n == null) { aviso("[WARN] Nodo desconocido: " + id); return; }
+        Nodo movido = new Nodo(n.nivel(), id, ip, n.puerto());
+        idPorDireccion.remove(n.ip() + ":" + n.puerto(), id);
+        idPorDireccion.put(ip + ":" + n.puerto(), id);
+        nodos.put(id, movido);
+
+        aviso("[INFO] IP editada para " + id + ": ahora " + ip + ":" + n.puerto() + ". Reintentando si estaba conectado.");
+        ConexionCliente existente = conexiones.get(id);
+        boolean estaba = existente != null && existente.isConnected();
+        if (existente != null) existente.close();
+        if (estaba) conectar(id);
+    }
+
+    // Desde el hilo del multiplexor
+    private void cambioEstado(String id) {
+        boolean ok = estaConectado(id);
+        if (alertas != null) alertas.estado(id, ok);
+        for (Oyente o : oyentes) o.estado(id, ok);
+    }
+
+    private void recibido(String id, String linea) {
+        CapturaMensajes.Grabador g = captura;
+        if (g != null) g.registrar(id, linea);
+        if (metricas != null) metricas.registrar(id, linea);
+        if (alertas != null) alertas.mensaje(id, linea);
+        for (Oyente o : oyentes) o.mensaje(id, linea);
+    }
+
+    // ======== Captura ========
+
+    @Override public synchronized void capturar(boolean activa) {
+        if (activa == (captura != null)) return;
+        if (activa) {
+            try {
+                captura = new CapturaMensajes.Grabador(new File(CAPTURA_DIR), CAPTURA_SEGMENTO_MB << 20, CAPTURA_SEGMENTOS, CAPTURA_COLA);
+                aviso("[INFO] Capturando en " + new File(CAPTURA_DIR).getAbsolutePath()
+                        + " (segmentos de " + CAPTURA_SEGMENTO_MB + " MB, se conservan " + CAPTURA_SEGMENTOS + ")");
+            } catch (IOException ex) {
+                aviso("[WARN] No se pudo iniciar la captura: " + ex.getMessage());
+            }
+            return;
+        }
+        CapturaMensajes.Grabador g = captura;
+        captura = null;
+        // close() espera al hilo de escritura: no se bloquea a quien lo pidió
+        Thread hilo = new Thread(() -> {
+            g.close();
+            aviso("[INFO] Captura detenida: " + g.getEscritos() + " registros"
+                    + (g.getDescartados() > 0 ? ", " + g.getDescartados() + " descartados (disco lento)" : ""));
+        }, "CierreCaptura");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    // ======== Comandos ========
+
+    @Override public CompletableFuture<Map<String, ConsolaComandos.Respuesta>> comando(List<String> ids, String comando, long timeoutMs) {
+        List<ConsolaComandos.Destino> destinos = new ArrayList<>();
+        for (String id : ids) {
+            Nodo n = nodos.get(id);
+            if (n != null) destinos.add(new ConsolaComandos.Destino(n.nivel(), id, n.ip(), n.puerto(), conexiones.get(id)));
+        }
+        return comandos.difundir(destinos, comando, timeoutMs);
+    }
+
+    // ======== Eventos ========
+
+    private void aviso(String texto) {
+        for (Oyente o : oyentes) o.aviso(texto);
+    }
+
+    private void emitirEscaneo(int terminadas, int total) {
+        for (Oyente o : oyentes) o.escaneo(terminadas, total);
+    }
+
+    // =============================== MAIN ===============================
+
+    public static void main(String[] args) throws IOException {
+        String redes = System.getenv().getOrDefault("ESCANEO_REDES", "127.0.0.1");
+        String puertos = System.getenv().getOrDefault("ESCANEO_PUERTOS", "5000-5099,6000-6099,7000-7099");
+        long redescubrirS = Long.parseLong(System.getenv().getOrDefault("AGENTE_REDESCUBRIR_S", "60"));
+        boolean autoConectar = Boolean.parseBoolean(System.getenv().getOrDefault("AGENTE_CONECTAR", "true"));
+        int puerto = Integer.parseInt(System.getenv().getOrDefault("AGENTE_PUERTO", "9100"));
+        String bind = System.getenv().getOrDefault("AGENTE_BIND", "127.0.0.1");
+        if (ConsolaComandos.ADMIN_TOKEN.isEmpty() && !InetAddress.getByName(bind).isLoopbackAddress()) {
+            System.err.println("[ERROR] AGENTE_BIND=" + bind + " expone el agente fuera del equipo; define ADMIN_TOKEN");
+            System.exit(1);
+        }
+
+        AgenteMonitoreo agente = new AgenteMonitoreo(new MultiplexorConexiones(), true);
+        agente.suscribir(new Oyente() {
+            @Override public void nodo(Nodo nodo, boolean conectado) {
+                if (autoConectar) agente.conectar(nodo.id());
+            }
+            @Override public void estado(String id, boolean conectado) {
+                System.out.println((conectado ? "[INFO] Conectado: " : "[WARN] Desconectado: ") + id);
+            }
+            @Override public void aviso(String texto) { System.out.println(texto); }
+            @Override public void alerta(String regla, String id, boolean activa, String detalle) {
+                System.out.println((activa ? "[ALERTA] " : "[INFO] Resuelta: ") + regla + " en " + id + ": " + detalle);
+            }
+        });
+
+        new ServidorAgente(agente, bind, puerto).iniciar();
+
+        // Muestreo de métricas una vez por segundo y detección periódica
+        ScheduledExecutorService tareas = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Agente");
+            t.setDaemon(true);
+            return t;
+        });
+        tareas.scheduleAtFixedRate(() -> agente.metricas.cerrarSegundo(agente::estaConectado), 1, 1, TimeUnit.SECONDS);
+        if (redescubrirS > 0) {
+            tareas.scheduleWithFixedDelay(() -> agente.detectar(redes, puertos), 0, redescubrirS, TimeUnit.SECONDS);
+        } else {
+            agente.detectar(redes, puertos);
+        }
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("CAPTURA_AUTO", "false"))) agente.capturar(true);
+
+        // Hilos demonio: el principal se queda esperando
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException ignored) {}
+    }
+}
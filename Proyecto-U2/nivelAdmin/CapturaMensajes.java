@@ -0,0 +1,343 @@
+// CapturaMensajes.java
+// Captura y reproducción de lo que recibe el panel.
+//
+// Captura: cada línea recibida se guarda con su instante (nanosegundos desde
+// epoch) y el ID del nodo en segmentos binarios rotativos "captura-NNNNN.bin",
+// cada uno con su índice ".idx" (instante → offset cada INDICE_CADA registros)
+// para empezar a reproducir desde cualquier momento sin leer todo.
+//   segmento: "CAPT" | versión (byte=1) | registros...
+//   registro: instante (long) | nodo (UTF) | largo (int) | bytes UTF-8
+//   índice:   pares instante (long) | offset (long)
+// El hilo de red solo encola; escribir en disco lo hace un hilo propio.
+//
+// Reproducción: lee los segmentos en orden y entrega cada línea respetando
+// los intervalos originales a 1×, N× o sin pausas (velocidad 0), al panel o
+// a un Distribuidor/Estanque como carga sintética: una conexión por nodo
+// original, que contesta IDENTIFICAR con "ID:<nodo>" igual que un surtidor.
+//
+// Uso sin GUI (pruebas de rendimiento):
+//   java CapturaMensajes <captura(dir|.bin)> <host:puerto> [velocidad] [prefijos,...] [desdeSegundos]
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+class CapturaMensajes {
+
+    private static final String MAGIA = "CAPT";
+    private static final int INDICE_CADA = 1024;
+
+    private CapturaMensajes() {}
+
+    record Registro(long instanteNanos, String nodo, String linea) {}
+
+    /** Instante en nanosegundos desde epoch, con la resolución de nanoTime. */
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long BASE_NANO = System.nanoTime();
+
+    static long ahoraNanos() {
+        return BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO);
+    }
+
+    // ===================== Grabación =====================
+
+    static class Grabador implements Closeable {
+        private final File directorio;
+        private final long maxBytesSegmento;
+        private final int maxSegmentos;
+        private final BlockingQueue<Registro> cola;
+        private final AtomicLong descartados = new AtomicLong();
+        private final AtomicLong escritos = new AtomicLong();
+        private final Thread hilo;
+        private volatile boolean activo = true;
+
+        private DataOutputStream segmento;
+        private DataOutputStream indice;
+        private long bytesSegmento;
+        private long registrosSegmento;
+        private int numero;
+
+        Grabador(File directorio, long maxBytesSegmento, int maxSegmentos, int capacidadCola) throws IOException {
+            this.directorio = directorio;
+            this.maxBytesSegmento = maxBytesSegmento;
+            this.maxSegmentos = maxSegmentos;
+            this.cola = new ArrayBlockingQueue<>(capacidadCola);
+            directorio.mkdirs();
+            for (File f : segmentos(directorio)) {
+                numero = Math.max(numero, numeroDe(f));
+            }
+            abrirSegmento();
+            hilo = new Thread(this::escribir, "Captura");
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+
+        /** Desde el hilo de red: nunca bloquea; si el disco no da abasto se descarta y se cuenta. */
+        void registrar(String nodo, String linea) {
+            if (activo && !cola.offer(new Registro(ahoraNanos(), nodo, linea))) descartados.incrementAndGet();
+        }
+
+        long getEscritos() { return escritos.get(); }
+        long getDescartados() { return descartados.get(); }
+        File getDirectorio() { return directorio; }
+
+        private void escribir() {
+            List<Registro> lote = new ArrayList<>();
+            try {
+                while (activo || !cola.isEmpty()) {
+                    Registro primero = cola.poll(200, TimeUnit.MILLISECONDS);
+                    if (primero == null) {
+                        segmento.flush();
+                        indice.flush();
+                        continue;
+                    }
+                    lote.add(primero);
+                    cola.drainTo(lote);
+                    for (Registro r : lote) escribirRegistro(r);
+                    lote.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                System.err.println("[CAPTURA] Grabación detenida: " + e.getMessage());
+            } finally {
+                try { segmento.close(); indice.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private void escribirRegistro(Registro r) throws IOException {
+            if (bytesSegmento >= maxBytesSegmento) {
+                segmento.close();
+                indice.close();
+                abrirSegmento();
+            }
+            if (registrosSegmento++ % INDICE_CADA == 0) {
+                indice.writeLong(r.instanteNanos());
+                indice.writeLong(segmento.size());
+            }
+            byte[] datos = r.linea().getBytes(StandardCharsets.UTF_8);
+            int antes = segmento.size();
+            segmento.writeLong(r.instanteNanos());
+            segmento.writeUTF(r.nodo());
+            segmento.writeInt(datos.length);
+            segmento.write(datos);
+            bytesSegmento += segmento.size() - antes;
+            escritos.incrementAndGet();
+        }
+
+        private void abrirSegmento() throws IOException {
+            numero++;
+            File bin = new File(directorio, String.format("captura-%05d.bin", numero));
+            segmento = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bin), 1 << 16));
+            indice = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archivoIndice(bin))));
+            segmento.writeBytes(MAGIA);
+            segmento.writeByte(1);
+            bytesSegmento = segmento.size();
+            // Índice nuevo con el segmento: la primera entrada apunta a su primer registro
+            registrosSegmento = 0;
+            List<File> todos = segmentos(directorio);
+            for (int i = 0; i < todos.size() - maxSegmentos; i++) {
+                archivoIndice(todos.get(i)).delete();
+                todos.get(i).delete();
+            }
+        }
+
+        @Override public void close() {
+            activo = false;
+            try { hilo.join(5000); } catch (InterruptedException ignored) {}
+        }
+    }
+
+    // ===================== Lectura =====================
+
+    static List<File> segmentos(File origen) {
+        if (origen.isFile()) return List.of(origen);
+        File[] archivos = origen.listFiles((d, n) -> n.startsWith("captura-") && n.endsWith(".bin"));
+        List<File> lista = new ArrayList<>(archivos == null ? List.of() : Arrays.asList(archivos));
+        lista.sort(Comparator.comparing(File::getName));
+        return lista;
+    }
+
+    private static int numeroDe(File segmento) {
+        String n = segmento.getName();
+        try {
+            return Integer.parseInt(n.substring("captura-".length(), n.length() - ".bin".length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static File archivoIndice(File segmento) {
+        String n = segmento.getName();
+        return new File(segmento.getParentFile(), n.substring(0, n.length() - ".bin".length()) + ".idx");
+    }
+
+    /** Offset del último punto del índice anterior o igual a {@code desdeNanos} (o del primer registro). */
+    private static long offsetDesde(File segmento, long desdeNanos) {
+        long offset = MAGIA.length() + 1;
+        File idx = archivoIndice(segmento);
+        if (desdeNanos <= 0 || !idx.exists()) return offset;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+            while (true) {
+                long instante = in.readLong();
+                long posicion = in.readLong();
+                if (instante > desdeNanos) break;
+                offset = posicion;
+            }
+        } catch (IOException finDelIndice) {
+            // EOF: se usa el último punto leído
+        }
+        return offset;
+    }
+
+    interface Destino {
+        void entregar(Registro r) throws IOException;
+    }
+
+    /**
+     * Reproduce la captura en {@code destino}. Con {@code velocidad} 1 respeta
+     * los intervalos originales, con N los divide por N y con 0 no espera.
+     * {@code desdeSegundos} salta esa cantidad de segundos desde el inicio usando
+     * los índices. Devuelve cuántos registros entregó.
+     */
+    static long reproducir(File origen, double velocidad, double desdeSegundos, Destino destino,
+                           BooleanSupplier cancelado) throws IOException, InterruptedException {
+        List<File> lista = segmentos(origen);
+        long primero = -1, entregados = 0;
+        long inicioReal = System.nanoTime();
+        for (File segmento : lista) {
+            if (primero < 0) primero = primerInstante(segmento);
+            long desde = desdeSegundos > 0 ? primero + (long) (desdeSegundos * 1e9) : 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmento), 1 << 16))) {
+                byte[] magia = new byte[MAGIA.length()];
+                in.readFully(magia);
+                if (!MAGIA.equals(new String(magia, StandardCharsets.US_ASCII)) || in.readByte() != 1) {
+                    throw new IOException("No es un segmento de captura: " + segmento);
+                }
+                in.skipNBytes(offsetDesde(segmento, desde) - MAGIA.length() - 1);
+                while (!cancelado.getAsBoolean()) {
+                    Registro r;
+                    try {
+                        long instante = in.readLong();
+                        String nodo = in.readUTF();
+                        byte[] datos = new byte[in.readInt()];
+                        in.readFully(datos);
+                        r = new Registro(instante, nodo, new String(datos, StandardCharsets.UTF_8));
+                    } catch (EOFException fin) {
+                        break;   // fin del segmento (o registro cortado por una caída: se ignora)
+                    }
+                    if (r.instanteNanos() < desde) continue;
+                    if (velocidad > 0) {
+                        long objetivo = inicioReal + (long) ((r.instanteNanos() - Math.max(primero, desde)) / velocidad);
+                        long espera = objetivo - System.nanoTime();
+                        if (espera > 1_000_000) TimeUnit.NANOSECONDS.sleep(espera);
+                    }
+                    destino.entregar(r);
+                    entregados++;
+                }
+            }
+            if (cancelado.getAsBoolean()) break;
+        }
+        return entregados;
+    }
+
+    private static long primerInstante(File segmento) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmento)))) {
+            in.skipNBytes(MAGIA.length() + 1);
+            return in.readLong();
+        } catch (EOFException vacio) {
+            return 0;
+        }
+    }
+
+    // ===================== Destino TCP =====================
+
+    /**
+     * Una conexión por nodo original hacia host:puerto. Contesta IDENTIFICAR
+     * como lo haría un surtidor, ignora el banner del estanque y descarta las
+     * respuestas (solo las cuenta). Solo se envían las líneas que empiezan con
+     * alguno de los prefijos (todas si no hay).
+     */
+    static class DestinoRed implements Destino, Closeable {
+        private final MultiplexorConexiones multiplexor;
+        private final String host;
+        private final int puerto;
+        private final List<String> prefijos;
+        private final Map<String, MultiplexorConexiones.Enlace> enlaces = new HashMap<>();
+        private final AtomicLong respuestas = new AtomicLong();
+        private long enviados, omitidos;
+
+        DestinoRed(MultiplexorConexiones multiplexor, String host, int puerto, List<String> prefijos) {
+            this.multiplexor = multiplexor;
+            this.host = host;
+            this.puerto = puerto;
+            this.prefijos = prefijos;
+        }
+
+        @Override public void entregar(Registro r) throws IOException {
+            if (!prefijos.isEmpty() && prefijos.stream().noneMatch(r.linea()::startsWith)) {
+                omitidos++;
+                return;
+            }
+            MultiplexorConexiones.Enlace enlace = enlaces.computeIfAbsent(r.nodo(), this::abrir);
+            long limite = System.currentTimeMillis() + 5000;
+            while (!multiplexor.enviar(enlace, r.linea())) {
+                if (System.currentTimeMillis() > limite) throw new IOException("Sin conexión con " + host + ":" + puerto);
+                try { Thread.sleep(5); } catch (InterruptedException e) { throw new InterruptedIOException(); }
+            }
+            enviados++;
+        }
+
+        private MultiplexorConexiones.Enlace abrir(String nodo) {
+            MultiplexorConexiones.Enlace[] propio = new MultiplexorConexiones.Enlace[1];
+            propio[0] = multiplexor.abrir(host, puerto, new MultiplexorConexiones.Oyente() {
+                @Override public void conectado() {}
+                @Override public void linea(String linea) {
+                    if (linea.equals("IDENTIFICAR")) multiplexor.enviar(propio[0], "ID:" + nodo);
+                    else respuestas.incrementAndGet();
+                }
+                @Override public void desconectado() {}
+            });
+            return propio[0];
+        }
+
+        String resumen() {
+            return String.format("%d enviados a %s:%d por %d conexiones, %d omitidos, %d respuestas",
+                    enviados, host, puerto, enlaces.size(), omitidos, respuestas.get());
+        }
+
+        @Override public void close() {
+            for (MultiplexorConexiones.Enlace e : enlaces.values()) {
+                multiplexor.enviar(e, "SALIR");
+            }
+            try { Thread.sleep(200); } catch (InterruptedException ignored) {}
+            for (MultiplexorConexiones.Enlace e : enlaces.values()) multiplexor.cerrar(e);
+        }
+    }
+
+    // ===================== MAIN (reproducción sin GUI) =====================
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Uso: java CapturaMensajes <captura(dir|.bin)> <host:puerto> [velocidad(0=máx)] [prefijos,...] [desdeSegundos]");
+            System.exit(2);
+        }
+        File origen = new File(args[0]);
+        int dosPuntos = args[1].lastIndexOf(':');
+        double velocidad = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        List<String> prefijos = args.length > 3 && !args[3].isBlank() ? List.of(args[3].split(",")) : List.of();
+        double desde = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+        MultiplexorConexiones multiplexor = new MultiplexorConexiones();
+        try (DestinoRed destino = new DestinoRed(multiplexor, args[1].substring(0, dosPuntos),
+                Integer.parseInt(args[1].substring(dosPuntos + 1)), prefijos)) {
+            long inicio = System.nanoTime();
+            long n = reproducir(origen, velocidad, desde, destino, () -> false);
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+            System.out.printf("[REPLAY] %d registros en %.2f s (%.0f/s) — %s%n", n, segundos, n / Math.max(segundos, 1e-9), destino.resumen());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// ClienteAgente.java
+// Monitoreo remoto: el panel se suscribe a un AgenteMonitoreo por su protocolo
+// de líneas (ServidorAgente). La suscripción va por el multiplexor, con sus
+// reintentos; al reconectar el agente reenvía la foto de nodos. Los COMANDO
+// usan una conexión corta aparte para no mezclar sus respuestas con el flujo
+// de eventos. Con ADMIN_TOKEN definido, ambas conexiones empiezan con TOKEN.
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+class ClienteAgente implements Monitoreo, MultiplexorConexiones.Oyente {
+
+    private final String host;
+    private final int puerto;
+    private final MultiplexorConexiones multiplexor;
+    private final List<Oyente> oyentes = new CopyOnWriteArrayList<>();
+    private volatile MultiplexorConexiones.Enlace enlace;
+    /** Cada COMANDO bloquea un hilo en su socket hasta el FIN: no se usa el pool común. */
+    private final Executor comandos = r -> {
+        Thread t = new Thread(r, "ClienteAgente-Comando");
+        t.setDaemon(true);
+        t.start();
+    };
+
+    ClienteAgente(String host, int puerto, MultiplexorConexiones multiplexor) {
+        this.host = host;
+        this.puerto = puerto;
+        this.multiplexor = multiplexor;
+    }
+
+    void iniciar() { enlace = multiplexor.abrir(host, puerto, this); }
+
+    @Override public void suscribir(Oyente oyente) { oyentes.add(oyente); }
+
+    @Override public void detectar(String redes, String puertos) {
+        // Los espacios separan argumentos en el protocolo
+        if (!pedir("DETECTAR " + redes.replace(" ", "") + " " + puertos.replace(" ", ""))) {
+            for (Oyente o : oyentes) o.escaneo(0, 0);
+        }
+    }
+
+    @Override public void conectar(String id) { pedir("CONECTAR " + id); }
+    @Override public void conectarTodos() { pedir("CONECTAR *"); }
+    @Override public void mover(String id, String ip) { pedir("MOVER " + id + " " + ip); }
+    @Override public void capturar(boolean activa) { pedir("CAPTURA " + (activa ? "ON" : "OFF")); }
+
+    /** Órdenes sin respuesta propia: su efecto vuelve como eventos. */
+    private boolean pedir(String orden) {
+        MultiplexorConexiones.Enlace e = enlace;
+        if (e != null && multiplexor.enviar(e, orden)) return true;
+        for (Oyente o : oyentes) o.aviso("[WARN] Sin conexión con el agente " + host + ":" + puerto);
+        return false;
+    }
+
+    @Override public CompletableFuture<Map<String, ConsolaComandos.Respuesta>> comando(List<String> ids, String comando, long timeoutMs) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, ConsolaComandos.Respuesta> respuestas = new TreeMap<>();
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, puerto), 2000);
+                s.setSoTimeout((int) timeoutMs + 5000);
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                if (!ConsolaComandos.ADMIN_TOKEN.isEmpty()) out.println("TOKEN " + ConsolaComandos.ADMIN_TOKEN);
+                out.println("COMANDO " + timeoutMs + " " + String.join(",", ids) + " " + comando);
+                String linea;
+                while ((linea = in.readLine()) != null && !linea.equals("FIN")) {
+                    // RESP <id> <0|1> <micros> <texto>
+                    String[] p = linea.split(" ", 5);
+                    if (p.length == 5 && p[0].equals("RESP")) {
+                        respuestas.put(p[1], new ConsolaComandos.Respuesta(p[1], p[2].equals("1"), p[4], Long.parseLong(p[3])));
+                    } else if (linea.startsWith("ERROR")) {
+                        throw new IOException(linea);
+                    }
+                }
+                out.println("SALIR");
+            } catch (IOException | RuntimeException e) {
+                for (String id : ids) {
+                    respuestas.putIfAbsent(id, new ConsolaComandos.Respuesta(id, false, "ERROR: agente: " + e.getMessage(), 0));
+                }
+            }
+            return respuestas;
+        }, comandos);
+    }
+
+    // ======== Desde el hilo del multiplexor ========
+
+    @Override public void conectado() {
+        if (!ConsolaComandos.ADMIN_TOKEN.isEmpty()) multiplexor.enviar(enlace, "TOKEN " + ConsolaComandos.ADMIN_TOKEN);
+        multiplexor.enviar(enlace, "SUSCRIBIR");
+        for (Oyente o : oyentes) o.aviso("[INFO] Suscrito al agente " + host + ":" + puerto);
+    }
+
+    @Override public void desconectado() {
+        for (Oyente o : oyentes) o.aviso("[WARN] Se perdió el agente " + host + ":" + puerto + "; reintentando");
+    }
+
+    @Override public void linea(String linea) {
+        int espacio = linea.indexOf(' ');
+        String tipo = espacio < 0 ? linea : linea.substring(0, espacio);
+        try {
+            switch (tipo) {
+                case "MSG" -> {
+                    int segundo = linea.indexOf(' ', 4);
+                    if (segundo < 0) return;
+                    String id = linea.substring(4, segundo), contenido = linea.substring(segundo + 1);
+                    for (Oyente o : oyentes) o.mensaje(id, contenido);
+                }
+                case "ESTADO" -> {
+                    String[] p = linea.split(" ");
+                    for (Oyente o : oyentes) o.estado(p[1], p[2].equals("1"));
+                }
+                case "NODO" -> {
+                    // NODO <nivel> <id> <ip> <puerto> <0|1>
+                    String[] p = linea.split(" ");
+                    Nodo n = new Nodo(p[1], p[2], p[3], Integer.parseInt(p[4]));
+                    for (Oyente o : oyentes) o.nodo(n, p[5].equals("1"));
+                }
+                case "ESCANEO" -> {
+                    String[] p = linea.split(" ");
+                    int terminadas = Integer.parseInt(p[1]), total = Integer.parseInt(p[2]);
+                    for (Oyente o : oyentes) o.escaneo(terminadas, total);
+                }
+                case "ALERTA" -> {
+                    // ALERTA <0|1> <regla> <id> <detalle>
+                    String[] p = linea.split(" ", 5);
+                    for (Oyente o : oyentes) o.alerta(p[2], p[3], p[1].equals("1"), p.length > 4 ? p[4] : "");
+                }
+                case "AVISO" -> {
+                    for (Oyente o : oyentes) o.aviso(linea.substring(6));
+                }
+                default -> {
+                    // OK de las órdenes; los ERROR se muestran
+                    if (linea.startsWith("ERROR")) for (Oyente o : oyentes) o.aviso("[WARN] Agente: " + linea);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (Oyente o : oyentes) o.aviso("[WARN] Línea del agente con formato inesperado: " + linea);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de salida acotada con un hilo escritor propio por conexión.
+ * Encolar nunca bloquea: si el consumidor es lento se aplica la política
+ * configurada (descartar el mensaje más antiguo o desconectar al par).
+ *
+ * Solo se descarta lo encolado con {@link #encolarDescartable}: difusiones
+ * que una posterior reemplaza (fotos de PRECIOS, eventos). Respuestas y ACK
+ * van con {@link #encolar} y nunca se pierden: si la cola está llena y no
+ * queda nada descartable que sacar, se desconecta al par.
+ */
+class ColaSalida {
+    enum Politica { DESCARTAR_ANTIGUO, DESCONECTAR }
+
+    private static final int CAPACIDAD_DEFECTO = 256;
+
+    private final String nombre;
+    private final Socket socket;
+    private final PrintWriter salida;
+    private final BlockingQueue<Linea> cola;
+    private final Politica politica;
+    private final AtomicLong descartados = new AtomicLong();
+    private volatile boolean activa = true;
+    private Thread escritor;
+
+    ColaSalida(String nombre, Socket socket) throws IOException {
+        this(nombre, socket, capacidadConfigurada(), politicaConfigurada());
+    }
+
+    ColaSalida(String nombre, Socket socket, int capacidad, Politica politica) throws IOException {
+        this.nombre = nombre;
+        this.socket = socket;
+        this.salida = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+        this.cola = new ArrayBlockingQueue<>(capacidad);
+        this.politica = politica;
+    }
+
+    void iniciar() {
+        escritor = new Thread(this::escribir, "Salida-" + nombre);
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    private record Linea(String texto, boolean descartable) {}
+
+    /** Mensaje que debe llegar (respuesta, ACK, orden). */
+    boolean encolar(String mensaje) {
+        return encolar(new Linea(mensaje, false));
+    }
+
+    /** Mensaje que uno posterior deja obsoleto; puede descartarse si el par no consume. */
+    boolean encolarDescartable(String mensaje) {
+        return encolar(new Linea(mensaje, true));
+    }
+
+    private boolean encolar(Linea linea) {
+        if (!activa) {
+            return false;
+        }
+        if (cola.offer(linea)) {
+            return true;
+        }
+        if (politica == Politica.DESCARTAR_ANTIGUO) {
+            synchronized (cola) {
+                do {
+                    if (cola.offer(linea)) {
+                        return true;
+                    }
+                } while (descartarAntiguo());
+            }
+            if (linea.descartable()) {
+                descartados.incrementAndGet();
+                return false;
+            }
+        }
+        System.err.println("[SALIDA] " + nombre + " no consume sus mensajes, desconectando");
+        cerrar();
+        return false;
+    }
+
+    /** Saca el mensaje descartable más antiguo; false si todo lo pendiente debe llegar. */
+    private boolean descartarAntiguo() {
+        Iterator<Linea> it = cola.iterator();
+        while (it.hasNext()) {
+            if (it.next().descartable()) {
+                it.remove();
+                descartados.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void escribir() {
+        List<Linea> lote = new ArrayList<>();
+        try {
+            while (activa) {
+                Linea mensaje = cola.poll(1, TimeUnit.SECONDS);
+                if (mensaje == null) {
+                    continue;
+                }
+                lote.add(mensaje);
+                cola.drainTo(lote);
+                for (Linea linea : lote) {
+                    salida.println(linea.texto());
+                }
+                lote.clear();
+                salida.flush();
+                if (salida.checkError()) {
+                    System.err.println("[SALIDA] Error de escritura hacia " + nombre);
+                    cerrar();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    void cerrar() {
+        activa = false;
+        cola.clear();
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    boolean isActiva() {
+        return activa;
+    }
+
+    int getPendientes() {
+        return cola.size();
+    }
+
+    long getDescartados() {
+        return descartados.get();
+    }
+
+    private static int capacidadConfigurada() {
+        try {
+            return Integer.parseInt(System.getenv().getOrDefault("CAPACIDAD_COLA_SALIDA", String.valueOf(CAPACIDAD_DEFECTO)));
+        } catch (NumberFormatException e) {
+            return CAPACIDAD_DEFECTO;
+        }
+    }
+
+    private static Politica politicaConfigurada() {
+        String valor = System.getenv().getOrDefault("POLITICA_CONSUMIDOR_LENTO", "DESCARTAR_ANTIGUO");
+        try {
+            return Politica.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Politica.DESCARTAR_ANTIGUO;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+// ConexionCliente.java
+// Conexión monitoreada a un nodo. No tiene hilo propio: el socket, la
+// lectura por líneas y los reintentos los lleva el multiplexor compartido.
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+class ConexionCliente implements MultiplexorConexiones.Oyente {
+    private final String nivel, id;
+    private final String ip;
+    private final int port;
+
+    private final BiConsumer<String, String> onMessage;
+    private final Consumer<String> onState;
+    private final MultiplexorConexiones multiplexor;
+    private volatile MultiplexorConexiones.Enlace enlace;
+    private final ConsolaComandos.Correlador correlador = new ConsolaComandos.Correlador();
+
+    public ConexionCliente(String nivel, String id, String ip, int port,
+                           BiConsumer<String, String> onMessage,
+                           Consumer<String> onState,
+                           MultiplexorConexiones multiplexor) {
+        this.nivel = nivel; this.id = id; this.ip = ip; this.port = port;
+        this.onMessage = onMessage; this.onState = onState;
+        this.multiplexor = multiplexor;
+    }
+
+    public void start() { enlace = multiplexor.abrir(ip, port, this); }
+
+    public boolean matches(String ip, int port) { return Objects.equals(this.ip, ip) && this.port == port; }
+    public boolean isConnected() { return enlace != null && enlace.isConectado(); }
+
+    public boolean send(String msg) {
+        return enlace != null && multiplexor.enviar(enlace, msg);
+    }
+
+    /** Envía un comando y devuelve su respuesta (ver ConsolaComandos.Correlador). */
+    public CompletableFuture<String> solicitar(String comando) {
+        // Registrar y encolar juntos: el orden de la cola de respuestas es el de envío
+        synchronized (correlador) {
+            CompletableFuture<String> f = correlador.registrar();
+            if (!send(comando)) {
+                correlador.retirar(f);
+                f.completeExceptionally(new IllegalStateException("no conectado"));
+            }
+            return f;
+        }
+    }
+
+    public void close() {
+        if (enlace != null) multiplexor.cerrar(enlace);
+        if (onState != null) onState.accept(id);
+    }
+
+    // Desde el hilo del multiplexor
+    @Override public void conectado() { if (onState != null) onState.accept(id); }
+    @Override public void linea(String linea) {
+        correlador.linea(linea);
+        if (onMessage != null) onMessage.accept(id, linea);
+    }
+    @Override public void desconectado() {
+        correlador.desconectado();
+        if (onState != null) onState.accept(id);
+    }
+}
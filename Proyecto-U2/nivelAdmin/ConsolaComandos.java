@@ -0,0 +1,186 @@
+// ConsolaComandos.java
+// Comandos del panel hacia los nodos, con la respuesta de cada nodo
+// correlacionada y consultas "a todos" en paralelo con timeout (el barrido
+// completo tarda lo que el nodo más lento, no la suma).
+//
+// Cada nivel se alcanza por donde de verdad atiende comandos:
+// - Estanque: la misma conexión TCP monitoreada (ConexionCliente.send). El
+//   estanque responde en orden, así que cada respuesta cierra la solicitud
+//   más antigua pendiente; "ESTADO" trae varias líneas y se junta en una.
+// - Distribuidor / Empresa: su puerto TCP solo habla el protocolo de
+//   surtidores/distribuidores, así que se usa su API HTTP de administración
+//   (ADMIN_PUERTO_DISTRIBUIDOR / ADMIN_PUERTO_EMPRESA):
+//     ESTADO                 → GET  /estado
+//     ESTADO_SURTIDOR [id]   → GET  /surtidores/estado[?id=]  (el distribuidor consulta a sus surtidores)
+//     PRECIO <tipo> <precio> → POST /precios {"tipo": precio}
+//     CONSULTAR <tipo>       → POST /estanque?comando=CONSULTAR <tipo>  (solo distribuidor)
+//   Con ADMIN_TOKEN definido se envía como "Authorization: Bearer <token>".
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class ConsolaComandos {
+
+    static final int ADMIN_PUERTO_DISTRIBUIDOR = Integer.parseInt(System.getenv().getOrDefault("ADMIN_PUERTO_DISTRIBUIDOR", "8060"));
+    static final int ADMIN_PUERTO_EMPRESA = Integer.parseInt(System.getenv().getOrDefault("ADMIN_PUERTO_EMPRESA", "8070"));
+    static final String ADMIN_TOKEN = System.getenv().getOrDefault("ADMIN_TOKEN", "");
+
+    /** Un nodo de la tabla; {@code conexion} es null si no está conectado. */
+    record Destino(String nivel, String id, String ip, int puerto, ConexionCliente conexion) {}
+
+    record Respuesta(String nodo, boolean ok, String texto, long micros) {}
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(2))
+            .executor(r -> {
+                Thread t = new Thread(r, "Consola-HTTP");
+                t.setDaemon(true);
+                t.start();
+            })
+            .build();
+
+    /** Envía {@code comando} a un nodo; el futuro nunca falla, los errores vienen en la respuesta. */
+    CompletableFuture<Respuesta> enviar(Destino destino, String comando, long timeoutMs) {
+        long inicio = System.nanoTime();
+        CompletableFuture<String> futuro;
+        try {
+            futuro = switch (destino.nivel()) {
+                case "Estanque" -> destino.conexion() == null
+                        ? CompletableFuture.failedFuture(new IllegalStateException("no conectado"))
+                        : destino.conexion().solicitar(comando);
+                case "Distribuidor", "Empresa" -> porHttp(destino, comando, timeoutMs);
+                default -> CompletableFuture.failedFuture(
+                        new IllegalArgumentException("el nivel " + destino.nivel() + " no acepta comandos"));
+            };
+        } catch (IllegalArgumentException e) {
+            futuro = CompletableFuture.failedFuture(e);
+        }
+        return futuro.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).handle((texto, error) -> {
+            long micros = (System.nanoTime() - inicio) / 1000;
+            if (error == null) return new Respuesta(destino.id(), !texto.startsWith("ERROR"), texto, micros);
+            Throwable causa = error.getCause() != null ? error.getCause() : error;
+            String motivo = causa instanceof TimeoutException ? "sin respuesta en " + timeoutMs + " ms"
+                    : causa.getMessage() != null ? causa.getMessage() : causa.getClass().getSimpleName();
+            return new Respuesta(destino.id(), false, "ERROR: " + motivo, micros);
+        });
+    }
+
+    /** Scatter-gather: el mismo comando a todos los destinos a la vez; respuestas por ID. */
+    CompletableFuture<Map<String, Respuesta>> difundir(List<Destino> destinos, String comando, long timeoutMs) {
+        Map<String, CompletableFuture<Respuesta>> consultas = new TreeMap<>();
+        for (Destino d : destinos) consultas.put(d.id(), enviar(d, comando, timeoutMs));
+        return CompletableFuture.allOf(consultas.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignorado -> {
+                    Map<String, Respuesta> resultados = new TreeMap<>();
+                    consultas.forEach((id, f) -> resultados.put(id, f.join()));
+                    return resultados;
+                });
+    }
+
+    // ======== HTTP (Distribuidor / Empresa) ========
+
+    private CompletableFuture<String> porHttp(Destino destino, String comando, long timeoutMs) {
+        String[] p = comando.trim().split("\\s+");
+        String base = "http://" + destino.ip() + ":"
+                + (destino.nivel().equals("Empresa") ? ADMIN_PUERTO_EMPRESA : ADMIN_PUERTO_DISTRIBUIDOR);
+        HttpRequest.Builder b = switch (p[0].toUpperCase()) {
+            case "ESTADO" -> HttpRequest.newBuilder(URI.create(base + "/estado")).GET();
+            case "ESTADO_SURTIDOR" -> {
+                if (destino.nivel().equals("Empresa")) throw new IllegalArgumentException("ESTADO_SURTIDOR se pide a un distribuidor");
+                yield HttpRequest.newBuilder(URI.create(base + "/surtidores/estado"
+                        + (p.length > 1 ? "?id=" + URLEncoder.encode(p[1], StandardCharsets.UTF_8) : ""))).GET();
+            }
+            case "PRECIO" -> {
+                if (p.length != 3) throw new IllegalArgumentException("Uso: PRECIO <tipo> <precio>");
+                double precio = Double.parseDouble(p[2]);
+                yield HttpRequest.newBuilder(URI.create(base + "/precios"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"" + p[1].replace("\"", "") + "\":" + precio + "}"));
+            }
+            case "CONSULTAR" -> {
+                if (destino.nivel().equals("Empresa")) throw new IllegalArgumentException("CONSULTAR se pide a un distribuidor o estanque");
+                yield HttpRequest.newBuilder(URI.create(base + "/estanque?comando="
+                        + URLEncoder.encode(comando.trim(), StandardCharsets.UTF_8))).POST(HttpRequest.BodyPublishers.noBody());
+            }
+            default -> throw new IllegalArgumentException("Comando no soportado por " + destino.nivel() + ": " + p[0]);
+        };
+        if (!ADMIN_TOKEN.isEmpty()) b.header("Authorization", "Bearer " + ADMIN_TOKEN);
+        return http.sendAsync(b.timeout(Duration.ofMillis(timeoutMs)).build(), HttpResponse.BodyHandlers.ofString())
+                .thenApply(r -> (r.statusCode() == 200 ? "" : "ERROR: HTTP " + r.statusCode() + " ") + r.body().trim());
+    }
+
+    // ======== TCP (Estanque) ========
+
+    /**
+     * Solicitudes en vuelo sobre una conexión de línea. El estanque atiende
+     * una conexión en orden, así que basta una cola: cada respuesta es de la
+     * solicitud más antigua. Las líneas que no son respuesta (el banner al
+     * conectar) no consumen solicitudes.
+     */
+    static class Correlador {
+        private final ArrayDeque<CompletableFuture<String>> pendientes = new ArrayDeque<>();
+        private StringBuilder bloque;   // "ESTADO" del estanque: varias líneas hasta la de "="
+
+        synchronized CompletableFuture<String> registrar() {
+            CompletableFuture<String> f = new CompletableFuture<>();
+            pendientes.add(f);
+            return f;
+        }
+
+        /** Solicitud que no llegó a enviarse (sin conexión): se saca para no descuadrar la cola. */
+        synchronized void retirar(CompletableFuture<String> f) {
+            pendientes.remove(f);
+        }
+
+        /** Desde el hilo del multiplexor, por cada línea recibida. */
+        void linea(String linea) {
+            CompletableFuture<String> completar;
+            String texto;
+            synchronized (this) {
+                if (pendientes.isEmpty()) return;
+                if (bloque != null) {
+                    if (!linea.startsWith("====")) {
+                        bloque.append(bloque.length() == 0 ? "" : " | ").append(linea.trim().replaceAll("\\s+", " "));
+                        return;
+                    }
+                    texto = bloque.toString();
+                    bloque = null;
+                } else if (linea.startsWith("=== ESTADO")) {
+                    bloque = new StringBuilder();
+                    return;
+                } else if (esRespuesta(linea)) {
+                    texto = linea;
+                } else {
+                    return;
+                }
+                completar = pendientes.poll();
+            }
+            // Las que ya vencieron igual ocupan su lugar en la cola; completar una vencida no hace nada
+            completar.complete(texto);
+        }
+
+        void desconectado() {
+            List<CompletableFuture<String>> caidas;
+            synchronized (this) {
+                caidas = new ArrayList<>(pendientes);
+                pendientes.clear();
+                bloque = null;
+            }
+            for (CompletableFuture<String> f : caidas) f.completeExceptionally(new IllegalStateException("conexión perdida"));
+        }
+
+        private static boolean esRespuesta(String linea) {
+            return linea.startsWith("OK:") || linea.startsWith("ERROR:") || linea.startsWith("MOVER ")
+                    || linea.startsWith("Nivel de ") || linea.startsWith("Tipo de combustible");
+        }
+    }
+}
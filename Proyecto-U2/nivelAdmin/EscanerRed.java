@@ -0,0 +1,214 @@
+// EscanerRed.java
+// Escaneo de nodos con conexiones no bloqueantes (NIO): cientos de sondas en
+// vuelo sobre un único Selector, y cada puerto abierto se clasifica por lo
+// primero que dice el servidor, no por el número de puerto.
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+class EscanerRed {
+
+    /** Nodo reconocido: nivel deducido de la huella y primera línea recibida. */
+    record Hallazgo(String nivel, String ip, int puerto, String huella) {}
+
+    interface Oyente {
+        void encontrado(Hallazgo h);
+        default void progreso(int terminadas, int total) {}
+    }
+
+    private static final int MAX_HOSTS = 65_536;
+
+    private final int maxEnVuelo;
+    private final int timeoutConexionMs;
+    private final int timeoutBannerMs;
+    private final Set<Integer> puertosEmpresa;
+
+    /**
+     * @param puertosEmpresa puertos donde un "IDENTIFICAR" es de la empresa y
+     *                       no de un distribuidor (ambos saludan igual)
+     */
+    EscanerRed(int maxEnVuelo, int timeoutConexionMs, int timeoutBannerMs, Set<Integer> puertosEmpresa) {
+        this.maxEnVuelo = maxEnVuelo;
+        this.timeoutConexionMs = timeoutConexionMs;
+        this.timeoutBannerMs = timeoutBannerMs;
+        this.puertosEmpresa = puertosEmpresa;
+    }
+
+    // ======== Sondas ========
+
+    private static final class Sonda {
+        final String ip;
+        final int puerto;
+        long vence;
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        Sonda(String ip, int puerto, long vence) {
+            this.ip = ip; this.puerto = puerto; this.vence = vence;
+        }
+    }
+
+    /**
+     * Prueba cada combinación host × puerto y avisa de cada nodo reconocido en
+     * cuanto responde. Bloquea hasta terminar o hasta que {@code cancelado}
+     * devuelva true.
+     */
+    void escanear(List<String> hosts, List<Integer> puertos, Oyente oyente, BooleanSupplier cancelado) throws IOException {
+        int total = hosts.size() * puertos.size();
+        int lanzadas = 0, terminadas = 0, enVuelo = 0;
+        try (Selector selector = Selector.open()) {
+            while (terminadas < total && !cancelado.getAsBoolean()) {
+                // Mantener la ventana de sondas llena
+                while (enVuelo < maxEnVuelo && lanzadas < total) {
+                    String ip = hosts.get(lanzadas / puertos.size());
+                    int puerto = puertos.get(lanzadas % puertos.size());
+                    lanzadas++;
+                    if (lanzar(selector, ip, puerto)) enVuelo++;
+                    else terminadas++;
+                }
+
+                selector.select(20);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (atender(key, oyente)) {
+                        cerrar(key);
+                        enVuelo--;
+                        terminadas++;
+                    }
+                }
+
+                long ahora = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid() && ((Sonda) key.attachment()).vence <= ahora) {
+                        cerrar(key);
+                        enVuelo--;
+                        terminadas++;
+                    }
+                }
+                oyente.progreso(terminadas, total);
+            }
+            for (SelectionKey key : selector.keys()) cerrar(key);
+        }
+    }
+
+    private boolean lanzar(Selector selector, String ip, int puerto) {
+        SocketChannel canal = null;
+        try {
+            canal = SocketChannel.open();
+            canal.configureBlocking(false);
+            long ahora = System.currentTimeMillis();
+            if (canal.connect(new InetSocketAddress(ip, puerto))) {
+                canal.register(selector, SelectionKey.OP_READ, new Sonda(ip, puerto, ahora + timeoutBannerMs));
+            } else {
+                canal.register(selector, SelectionKey.OP_CONNECT, new Sonda(ip, puerto, ahora + timeoutConexionMs));
+            }
+            return true;
+        } catch (IOException | UnresolvedAddressException e) {
+            // puerto cerrado o host inalcanzable
+            if (canal != null) try { canal.close(); } catch (IOException ignored) {}
+            return false;
+        }
+    }
+
+    /** Avanza la sonda; devuelve true cuando ya no hay nada más que esperar de ella. */
+    private boolean atender(SelectionKey key, Oyente oyente) {
+        SocketChannel canal = (SocketChannel) key.channel();
+        Sonda sonda = (Sonda) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                canal.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                sonda.vence = System.currentTimeMillis() + timeoutBannerMs;
+                return false;
+            }
+            if (key.isReadable()) {
+                int leidos = canal.read(sonda.buffer);
+                String recibido = new String(sonda.buffer.array(), 0, sonda.buffer.position(), StandardCharsets.UTF_8);
+                int fin = recibido.indexOf('\n');
+                if (fin < 0 && leidos >= 0 && sonda.buffer.hasRemaining()) return false;
+                String primera = (fin < 0 ? recibido : recibido.substring(0, fin)).trim();
+                String nivel = clasificar(primera, sonda.puerto);
+                if (nivel != null) oyente.encontrado(new Hallazgo(nivel, sonda.ip, sonda.puerto, primera));
+                return true;
+            }
+        } catch (IOException e) {
+            return true;
+        }
+        return false;
+    }
+
+    /** Nivel según el saludo del servidor, o null si no es un nodo del sistema. */
+    String clasificar(String primeraLinea, int puerto) {
+        if (primeraLinea.contains("ESTANQUE")) return "Estanque";
+        if (primeraLinea.startsWith("LIDER ")) return "Empresa";
+        if (primeraLinea.equals("IDENTIFICAR")) return puertosEmpresa.contains(puerto) ? "Empresa" : "Distribuidor";
+        return null;
+    }
+
+    private static void cerrar(SelectionKey key) {
+        key.cancel();
+        try { key.channel().close(); } catch (IOException ignored) {}
+    }
+
+    // ======== Rangos ========
+
+    /**
+     * "127.0.0.1, 192.168.1.0/24, servidor" → lista de IPs. En un CIDR se
+     * omiten la dirección de red y la de broadcast (salvo /31 y /32).
+     */
+    static List<String> expandirRedes(String spec) throws UnknownHostException {
+        List<String> hosts = new ArrayList<>();
+        for (String parte : spec.split(",")) {
+            parte = parte.trim();
+            if (parte.isEmpty()) continue;
+            int barra = parte.indexOf('/');
+            if (barra < 0) {
+                hosts.add(InetAddress.getByName(parte).getHostAddress());
+                continue;
+            }
+            byte[] base = InetAddress.getByName(parte.substring(0, barra)).getAddress();
+            int prefijo = Integer.parseInt(parte.substring(barra + 1));
+            if (base.length != 4 || prefijo < 0 || prefijo > 32) {
+                throw new IllegalArgumentException("Red inválida (solo IPv4): " + parte);
+            }
+            long tamano = 1L << (32 - prefijo);
+            if (tamano > MAX_HOSTS) {
+                throw new IllegalArgumentException("Red demasiado grande (máximo /16): " + parte);
+            }
+            int mascara = prefijo == 0 ? 0 : -1 << (32 - prefijo);
+            int red = ((base[0] & 0xFF) << 24 | (base[1] & 0xFF) << 16 | (base[2] & 0xFF) << 8 | (base[3] & 0xFF)) & mascara;
+            long desde = tamano > 2 ? 1 : 0, hasta = tamano > 2 ? tamano - 1 : tamano;
+            for (long i = desde; i < hasta; i++) {
+                int ip = red + (int) i;
+                hosts.add(((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF));
+            }
+        }
+        return hosts;
+    }
+
+    /** "5000-5099,6000-6099,7000" → lista de puertos sin repetir, en orden. */
+    static List<Integer> expandirPuertos(String spec) {
+        Set<Integer> puertos = new LinkedHashSet<>();
+        for (String parte : spec.split(",")) {
+            parte = parte.trim();
+            if (parte.isEmpty()) continue;
+            int guion = parte.indexOf('-');
+            int desde = Integer.parseInt(guion < 0 ? parte : parte.substring(0, guion).trim());
+            int hasta = guion < 0 ? desde : Integer.parseInt(parte.substring(guion + 1).trim());
+            if (desde < 1 || hasta > 65535 || desde > hasta) {
+                throw new IllegalArgumentException("Rango de puertos inválido: " + parte);
+            }
+            for (int p = desde; p <= hasta; p++) puertos.add(p);
+        }
+        return new ArrayList<>(puertos);
+    }
+}
@@ -0,0 +1,151 @@
+// ExportadorReportes.java
+// Exportación de reportes fuera del EDT desde una instantánea del almacén
+// (no desde la JTable): CSV con comillas según RFC 4180 o un formato
+// columnar binario, ambos opcionalmente comprimidos con gzip (".gz").
+//
+// Formato columnar (.rcol), todo big-endian vía DataOutputStream:
+//   "RCOL" | versión (byte=1) | filas (int)
+//   columna nodo:      tamaño diccionario (varint) | cada entrada (UTF) | índice por fila (varint)
+//   columna contenido: largo en bytes UTF-8 por fila (varint) | bytes concatenados
+// El diccionario aprovecha que hay pocos nodos y muchas filas; los largos
+// van juntos antes que los textos para poder leer una columna sin la otra.
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+class ExportadorReportes {
+
+    enum Formato { CSV, COLUMNAR }
+
+    /** Filas de reportes en orden, copiadas del almacén en el EDT. */
+    record Instantanea(String[] nodos, String[] contenidos) {
+        int filas() { return nodos.length; }
+    }
+
+    interface Progreso {
+        void avance(int filasEscritas, int total);
+        boolean cancelado();
+    }
+
+    static final String[] COLUMNAS = {"Nodo (ID)", "Contenido"};
+    private static final int CADA_FILAS = 4096;
+
+    private ExportadorReportes() {}
+
+    static Formato formatoDe(File archivo) {
+        String nombre = archivo.getName().toLowerCase();
+        if (nombre.endsWith(".gz")) nombre = nombre.substring(0, nombre.length() - 3);
+        return nombre.endsWith(".rcol") ? Formato.COLUMNAR : Formato.CSV;
+    }
+
+    /**
+     * Escribe la instantánea en {@code destino} (gzip si termina en ".gz").
+     * Se escribe a un temporal y se renombra al final, así que un error o
+     * una cancelación no dejan un archivo a medias. Devuelve false si se canceló.
+     */
+    static boolean exportar(Instantanea datos, File destino, Progreso progreso) throws IOException {
+        File temporal = new File(destino.getAbsoluteFile().getParentFile(), destino.getName() + ".parcial");
+        boolean completo = false;
+        try {
+            try (OutputStream base = new BufferedOutputStream(new FileOutputStream(temporal), 1 << 16);
+                 OutputStream salida = destino.getName().toLowerCase().endsWith(".gz") ? new GZIPOutputStream(base, 1 << 16) : base) {
+                completo = formatoDe(destino) == Formato.COLUMNAR
+                        ? escribirColumnar(datos, salida, progreso)
+                        : escribirCsv(datos, salida, progreso);
+            }
+            if (completo) {
+                Files.move(temporal.toPath(), destino.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return completo;
+        } finally {
+            if (!completo) temporal.delete();
+        }
+    }
+
+    // ======== CSV ========
+
+    private static boolean escribirCsv(Instantanea datos, OutputStream salida, Progreso progreso) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), 1 << 16);
+        w.write(campoCsv(COLUMNAS[0]) + "," + campoCsv(COLUMNAS[1]) + "\r\n");
+        int total = datos.filas();
+        for (int i = 0; i < total; i++) {
+            w.write(campoCsv(datos.nodos()[i]));
+            w.write(',');
+            w.write(campoCsv(datos.contenidos()[i]));
+            w.write("\r\n");
+            if (i % CADA_FILAS == 0) {
+                if (progreso.cancelado()) return false;
+                progreso.avance(i, total);
+            }
+        }
+        w.flush();
+        progreso.avance(total, total);
+        return true;
+    }
+
+    /** RFC 4180: entre comillas si trae coma, comillas o salto de línea; las comillas se duplican. */
+    static String campoCsv(String valor) {
+        if (valor == null) return "";
+        boolean citar = false;
+        for (int i = 0; i < valor.length() && !citar; i++) {
+            char c = valor.charAt(i);
+            citar = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        return citar ? '"' + valor.replace("\"", "\"\"") + '"' : valor;
+    }
+
+    // ======== Columnar ========
+
+    private static boolean escribirColumnar(Instantanea datos, OutputStream salida, Progreso progreso) throws IOException {
+        DataOutputStream out = new DataOutputStream(salida);
+        int total = datos.filas();
+        out.writeBytes("RCOL");
+        out.writeByte(1);
+        out.writeInt(total);
+
+        // Columna nodo: diccionario + índices
+        Map<String, Integer> indices = new HashMap<>();
+        String[] diccionario = new String[Math.max(1, total)];
+        for (String nodo : datos.nodos()) {
+            String clave = nodo == null ? "" : nodo;
+            if (!indices.containsKey(clave)) {
+                diccionario[indices.size()] = clave;
+                indices.put(clave, indices.size());
+            }
+        }
+        escribirVarint(out, indices.size());
+        for (int i = 0; i < indices.size(); i++) out.writeUTF(diccionario[i]);
+        for (String nodo : datos.nodos()) escribirVarint(out, indices.get(nodo == null ? "" : nodo));
+
+        // Columna contenido: largos y después los bytes
+        for (int i = 0; i < total; i++) {
+            String c = datos.contenidos()[i];
+            escribirVarint(out, c == null ? 0 : c.getBytes(StandardCharsets.UTF_8).length);
+            if (i % CADA_FILAS == 0 && progreso.cancelado()) return false;
+        }
+        for (int i = 0; i < total; i++) {
+            String c = datos.contenidos()[i];
+            if (c != null) out.write(c.getBytes(StandardCharsets.UTF_8));
+            if (i % CADA_FILAS == 0) {
+                if (progreso.cancelado()) return false;
+                progreso.avance(i, total);
+            }
+        }
+        out.flush();
+        progreso.avance(total, total);
+        return true;
+    }
+
+    private static void escribirVarint(DataOutputStream out, int valor) throws IOException {
+        while ((valor & ~0x7F) != 0) {
+            out.writeByte((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        out.writeByte(valor);
+    }
+}
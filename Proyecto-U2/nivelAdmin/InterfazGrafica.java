@@ -1,24 +1,37 @@
 // InterfazGrafica.java
-// Panel de monitoreo minimal con 2 pestañas (Configuración de Red + Reportes)
-// - Detección localhost: Surtidores(5000–5099), Distribuidores(6000–6099), Empresa(7000)
+// Panel de monitoreo con 3 pestañas (Configuración de Red + Reportes + Métricas)
+// - Detección por redes/puertos configurables (ESCANEO_REDES / ESCANEO_PUERTOS), con
+//   sondas NIO en paralelo y nivel reconocido por el saludo de cada servidor
 // - IP editable con reconexión automática
 // - SIN botón "Desconectar todos"
 // - Consola: muestra EXACTAMENTE lo recibido de cada nodo (sin etiquetas ni timestamps)
-// - Reportes: Tabla (Nodo | Contenido) + exportar CSV
-// Compilar: javac InterfazGrafica.java
+// - Reportes: Tabla (Nodo | Contenido) + exportar en segundo plano (CSV / columnar, gzip)
+// - Métricas: mensajes/s, litros/s por combustible y conexión por nodo (ESTADO:,
+//   TRANSACCION, PRECIO, OK:) en anillos de double, repintadas una vez por segundo
+// - Los hilos de red solo escriben en un anillo de capacidad fija; el EDT lo vacía por
+//   lotes a GUI_FPS cuadros/s, y consola y reportes tienen tope (memoria estable)
+// - Detección, conexiones y captura viven en el núcleo sin Swing (AgenteMonitoreo): en el
+//   mismo proceso o, con AGENTE=host:puerto, uno remoto al que el panel se suscribe
+// - Todas las conexiones a nodos comparten un hilo con Selector (MultiplexorConexiones);
+//   los reintentos usan backoff exponencial sobre una rueda de temporización
+// - Comandos: a los nodos seleccionados, a un nivel o a todos, en paralelo con timeout y la
+//   respuesta correlacionada por nodo (ConsolaComandos)
+// - Captura: lo recibido va a segmentos binarios rotativos con instante en ns (CAPTURA_DIR);
+//   una captura se puede reproducir en el panel o contra un nodo como carga, a 1×, N× o máx.
+// Compilar: javac InterfazGrafica.java   (compila también el agente y sus clases)
 // Ejecutar:  java InterfazGrafica
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.*;
-import java.net.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class InterfazGrafica extends JFrame {
@@ -26,19 +39,49 @@ public class InterfazGrafica extends JFrame {
     // ======== Estado / Modelos ========
     // nodos: Nivel | ID | IP(editable) | Puerto | Estado
     private final DefaultTableModel nodosModel;
-    private final Map<String, ConexionCliente> conexiones = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> conectados = new ConcurrentHashMap<>();
+    private final RegistroNodos registro = new RegistroNodos();
+    private final MultiplexorConexiones multiplexor;
+    private final Monitoreo monitoreo;
 
     private final DefaultListModel<String> estadoModel = new DefaultListModel<>();
     private final JTextArea consola = new JTextArea(12, 80);
 
     // Detección
-    private final JButton detectBtn = new JButton("🔍 Detectar nodos activos (localhost)");
+    private final JButton detectBtn = new JButton("🔍 Detectar nodos activos");
     private final JProgressBar progressScan = new JProgressBar(0, 1);
+    private final JTextField redesField = new JTextField(System.getenv().getOrDefault("ESCANEO_REDES", "127.0.0.1"), 18);
+    private final JTextField puertosField = new JTextField(System.getenv().getOrDefault("ESCANEO_PUERTOS", "5000-5099,6000-6099,7000-7099"), 20);
 
-    // Reportes (todo lo recibido)
-    private final DefaultTableModel reportesModel;
+    // Reportes (lo recibido, hasta REPORTES_MAX filas)
+    private final ModeloReportes reportesModel;
 
-    private static final String EMPRESA_ID = "EMPRESA-7000";
+    // Comandos a nodos
+    private final JTable tablaNodos;
+    private final JComboBox<String> comandoBox = new JComboBox<>(new String[]{
+            "ESTADO", "CONSULTAR 93", "ESTADO_SURTIDOR", "PRECIO 93 1250", "EXTRAER 93 10", "REPONER 93 100"});
+    private final JComboBox<String> alcanceBox = new JComboBox<>(new String[]{
+            "Seleccionados", "Todos los conectados", "Estanques", "Distribuidores", "Empresas"});
+
+    // Métricas por nodo (pestaña "Métricas")
+    private final MetricasNodos metricas = new MetricasNodos();
+
+    // Captura (en el agente) y reproducción en curso
+    private volatile boolean reproduccionCancelada;
+    private final JToggleButton capturarBtn = new JToggleButton("⏺ Capturar");
+    private final JButton reproducirBtn = new JButton("▶ Reproducir…");
+
+    // Mensajes pendientes de pintar: los hilos de red escriben, el EDT drena por cuadro
+    private final BufferMensajes pendientes = new BufferMensajes(BUFFER_MENSAJES);
+
+    private static final int GUI_FPS = Integer.parseInt(System.getenv().getOrDefault("GUI_FPS", "30"));
+    private static final int BUFFER_MENSAJES = Integer.parseInt(System.getenv().getOrDefault("BUFFER_MENSAJES", "65536"));
+    private static final int REPORTES_MAX = Integer.parseInt(System.getenv().getOrDefault("REPORTES_MAX", "100000"));
+    private static final int CONSOLA_MAX_LINEAS = Integer.parseInt(System.getenv().getOrDefault("CONSOLA_MAX_LINEAS", "2000"));
+
+    private static final long COMANDO_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("COMANDO_TIMEOUT_MS", "2000"));
+    /** host:puerto de un AgenteMonitoreo remoto; vacío = agente en este mismo proceso. */
+    private static final String AGENTE = System.getenv().getOrDefault("AGENTE", "");
 
     public InterfazGrafica() {
         super("Panel de Monitoreo – Empresa / Distribuidores / Surtidores (TCP)");
@@ -50,9 +93,24 @@ public class InterfazGrafica extends JFrame {
             }
         };
 
-        reportesModel = new DefaultTableModel(new Object[]{"Nodo (ID)", "Contenido"}, 0) {
-            @Override public boolean isCellEditable(int r, int c) { return false; }
-        };
+        reportesModel = new ModeloReportes(REPORTES_MAX);
+        tablaNodos = new JTable(nodosModel);
+        try {
+            multiplexor = new MultiplexorConexiones();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir el selector de conexiones", e);
+        }
+        // El panel ya agrega sus propias métricas de lo que recibe: el agente local no duplica
+        ClienteAgente remoto = null;
+        if (AGENTE.isBlank()) {
+            monitoreo = new AgenteMonitoreo(multiplexor, false);
+        } else {
+            int dosPuntos = AGENTE.lastIndexOf(':');
+            remoto = new ClienteAgente(AGENTE.substring(0, dosPuntos), Integer.parseInt(AGENTE.substring(dosPuntos + 1)), multiplexor);
+            monitoreo = remoto;
+        }
+        monitoreo.suscribir(new OyentePanel());
+        if (remoto != null) remoto.iniciar();
 
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setMinimumSize(new Dimension(1150, 760));
@@ -61,10 +119,12 @@ public class InterfazGrafica extends JFrame {
         JTabbedPane tabs = new JTabbedPane();
         tabs.addTab("Configuración de Red", buildConfigPanel());
         tabs.addTab("Reportes", buildReportesPanel());
+        tabs.addTab("Métricas", new PanelMetricas(metricas, id -> conectados.getOrDefault(id, false)));
         setContentPane(tabs);
 
-        // Refresco visual de estados
-        new javax.swing.Timer(1000, e -> actualizarEstados()).start();
+        // Los estados se repintan por evento de cada conexión (OyentePanel.estado), sin sondeo
+        // Un solo lote por cuadro, por muchos mensajes que lleguen
+        new javax.swing.Timer(Math.max(1, 1000 / GUI_FPS), e -> drenarMensajes()).start();
 
         // Reconexión automática al editar IP
         nodosModel.addTableModelListener(new TableModelListener() {
@@ -76,7 +136,7 @@ public class InterfazGrafica extends JFrame {
             }
         });
 
-        logInfo("GUI lista. Presiona “Detectar nodos activos (localhost)” para poblarla automáticamente.");
+        logInfo("GUI lista. Presiona “Detectar nodos activos” para poblarla automáticamente.");
     }
 
     // ========================= Paneles =========================
@@ -89,9 +149,13 @@ public class InterfazGrafica extends JFrame {
         JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
         progressScan.setStringPainted(true);
         progressScan.setPreferredSize(new Dimension(260, 20));
+        top.add(new JLabel("Redes:"));
+        top.add(redesField);
+        top.add(new JLabel("Puertos:"));
+        top.add(puertosField);
         top.add(detectBtn);
         top.add(progressScan);
-        detectBtn.addActionListener(e -> detectarNodosLocalhost());
+        detectBtn.addActionListener(e -> detectarNodos());
 
         JButton conectarTodos = new JButton("🔌 Conectar todos");
         conectarTodos.addActionListener(e -> conectarTodos());
@@ -99,12 +163,24 @@ public class InterfazGrafica extends JFrame {
         // (sin botón "Desconectar todos")
         root.add(top, BorderLayout.NORTH);
 
-        // Tabla de nodos
-        JTable tabla = new JTable(nodosModel);
-        tabla.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        JScrollPane sp = new JScrollPane(tabla);
+        // Tabla de nodos + barra de comandos
+        tablaNodos.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        JScrollPane sp = new JScrollPane(tablaNodos);
         sp.setBorder(BorderFactory.createTitledBorder("Nodos detectados (IP editable)"));
-        root.add(sp, BorderLayout.CENTER);
+        JPanel centro = new JPanel(new BorderLayout());
+        centro.add(sp, BorderLayout.CENTER);
+        JPanel barra = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        comandoBox.setEditable(true);
+        comandoBox.setPreferredSize(new Dimension(220, comandoBox.getPreferredSize().height));
+        JButton enviar = new JButton("▶ Enviar");
+        enviar.addActionListener(e -> enviarComando());
+        barra.add(new JLabel("Comando:"));
+        barra.add(comandoBox);
+        barra.add(new JLabel("a:"));
+        barra.add(alcanceBox);
+        barra.add(enviar);
+        centro.add(barra, BorderLayout.SOUTH);
+        root.add(centro, BorderLayout.CENTER);
 
         // Lateral inferior: estado + consola
         JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
@@ -133,287 +209,432 @@ public class InterfazGrafica extends JFrame {
         root.add(sp, BorderLayout.CENTER);
 
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-        JButton exportar = new JButton("💾 Exportar CSV");
-        exportar.addActionListener(e -> exportarTablaCSV(reportesModel, "reportes_export.csv"));
+        capturarBtn.setToolTipText("Guarda todo lo recibido en segmentos rotativos en CAPTURA_DIR del agente");
+        capturarBtn.addActionListener(e -> alternarCaptura());
+        reproducirBtn.addActionListener(e -> reproducirCaptura());
+        bottom.add(capturarBtn);
+        bottom.add(reproducirBtn);
+        JButton exportar = new JButton("💾 Exportar…");
+        exportar.setToolTipText(".csv, .csv.gz, .rcol o .rcol.gz (columnar binario, para capturas grandes)");
+        exportar.addActionListener(e -> exportarReportes("reportes_export.csv.gz"));
         bottom.add(exportar);
         root.add(bottom, BorderLayout.SOUTH);
 
         return root;
     }
 
-    // ===================== Detección (localhost) =====================
+    // ===================== Detección =====================
 
-    private void detectarNodosLocalhost() {
+    private void detectarNodos() {
         detectBtn.setEnabled(false);
-        progressScan.setIndeterminate(true);
-        logInfo("[SCAN] Iniciando escaneo: Surtidores(5000–5099), Distribuidores(6000–6099), Empresa(7000)");
-
-        SwingWorker<Void, String> worker = new SwingWorker<>() {
-            @Override protected Void doInBackground() {
-                escanearRango("127.0.0.1", 5000, 5099, "Surtidor");
-                escanearRango("127.0.0.1", 6000, 6099, "Distribuidor");
-                escanearRango("127.0.0.1", 7000, 7000, "Empresa");
-                return null;
-            }
-
-            private void escanearRango(String ip, int start, int end, String tipo) {
-                final String ipLocal = ip;
-                final String tipoLocal = tipo;
-                for (int port = start; port <= end; port++) {
-                    final int portLocal = port; // final para lambda
-                    if (isCancelled()) return;
-                    if (existeNodoPorIpPuerto(ipLocal, portLocal)) continue;
-                    try (Socket s = new Socket()) {
-                        s.connect(new InetSocketAddress(ipLocal, portLocal), 200);
-                        final String idLocal = generarIdPorTipo(tipoLocal, portLocal);
-                        SwingUtilities.invokeLater(() -> agregarNodoDetectado(tipoLocal, idLocal, ipLocal, portLocal));
-                        publish(String.format("[SCAN] Detectado %s en %s:%d", tipoLocal, ipLocal, portLocal));
-                    } catch (IOException ignored) {
-                        // puerto no abierto
-                    }
-                }
-            }
-
-            @Override protected void process(List<String> chunks) {
-                for (String msg : chunks) logInfo(msg);
-            }
-
-            @Override protected void done() {
-                progressScan.setIndeterminate(false);
-                detectBtn.setEnabled(true);
-                actualizarEstados();
-                logInfo("[SCAN] Escaneo completado.");
-            }
-        };
-        worker.execute();
-    }
-
-    private String generarIdPorTipo(String tipo, int port) {
-        return switch (tipo) {
-            case "Empresa" -> EMPRESA_ID;
-            case "Distribuidor" -> "DIST-" + port;
-            case "Surtidor" -> "SURT-" + port;
-            default -> "NODO-" + port;
-        };
+        progressScan.setValue(0);
+        // Los nodos, el avance y el fin llegan como eventos (OyentePanel)
+        monitoreo.detectar(redesField.getText(), puertosField.getText());
     }
 
     private void agregarNodoDetectado(String nivel, String id, String ip, int port) {
-        if (existeNodo(id) || existeNodoPorIpPuerto(ip, port)) return;
+        if (registro.fila(id) >= 0 || registro.fila(ip, port) >= 0) return;
+        registro.agregar(id, ip, port, nodosModel.getRowCount());
         nodosModel.addRow(new Object[]{nivel, id, ip, port, "Desconectado"});
+        estadoModel.addElement(textoEstado(nivel, id, ip, port, false));
     }
 
     // ====================== Conexiones ======================
 
     private void conectarTodos() {
         if (nodosModel.getRowCount() == 0) { logWarn("No hay nodos detectados."); return; }
-        for (int i = 0; i < nodosModel.getRowCount(); i++) {
-            String nivel = (String) nodosModel.getValueAt(i, 0);
-            String id = (String) nodosModel.getValueAt(i, 1);
-            String ip = String.valueOf(nodosModel.getValueAt(i, 2));
-            int port = (int) nodosModel.getValueAt(i, 3);
-            conectarNodo(nivel, id, ip, port);
-        }
-        actualizarEstados();
-    }
-
-    private void conectarNodo(String nivel, String id, String ip, int port) {
-        ConexionCliente prev = conexiones.get(id);
-        if (prev != null) {
-            if (prev.isConnected() && prev.matches(ip, port)) {
-                logInfo("Nodo " + id + " ya está conectado.");
-                return;
-            } else {
-                prev.close();
-            }
-        }
-        ConexionCliente c = new ConexionCliente(nivel, id, ip, port, this::onMensajeRecibido, this::onEstadoCambio);
-        conexiones.put(id, c);
-        c.start();
-        logInfo("Conectando a " + id + " (" + nivel + ") " + ip + ":" + port + " ...");
+        monitoreo.conectarTodos();
     }
 
     private void onIpEdited(int row) {
-        String nivel = (String) nodosModel.getValueAt(row, 0);
         String id = (String) nodosModel.getValueAt(row, 1);
         String ip = String.valueOf(nodosModel.getValueAt(row, 2));
         int port = (int) nodosModel.getValueAt(row, 3);
+        registro.moverDireccion(row, ip, port);
+        refrescarFila(row);
+        monitoreo.mover(id, ip);
+    }
 
-        logInfo("IP editada para " + id + ": ahora " + ip + ":" + port + ". Reintentando si estaba conectado.");
-        ConexionCliente existing = conexiones.get(id);
-        boolean wasConnected = existing != null && existing.isConnected();
-        if (existing != null) existing.close();
-        if (wasConnected) {
-            conectarNodo(nivel, id, ip, port);
-        }
+    /** Repinta solo la fila de ese nodo, y solo si su estado cambió. */
+    private void refrescarFila(int i) {
+        String nivel = (String) nodosModel.getValueAt(i, 0);
+        String id = (String) nodosModel.getValueAt(i, 1);
+        String ip = String.valueOf(nodosModel.getValueAt(i, 2));
+        int port = (int) nodosModel.getValueAt(i, 3);
+        boolean ok = conectados.getOrDefault(id, false);
+        String estado = ok ? "Conectado" : "Desconectado";
+        if (!estado.equals(nodosModel.getValueAt(i, 4))) nodosModel.setValueAt(estado, i, 4);
+        String texto = textoEstado(nivel, id, ip, port, ok);
+        if (!texto.equals(estadoModel.get(i))) estadoModel.set(i, texto);
     }
 
-    private void actualizarEstados() {
-        estadoModel.clear();
-        for (int i = 0; i < nodosModel.getRowCount(); i++) {
-            String nivel = (String) nodosModel.getValueAt(i, 0);
-            String id = (String) nodosModel.getValueAt(i, 1);
-            String ip = String.valueOf(nodosModel.getValueAt(i, 2));
-            int port = (int) nodosModel.getValueAt(i, 3);
-            boolean ok = conexiones.containsKey(id) && conexiones.get(id).isConnected();
-            estadoModel.addElement(String.format("%s [%s] %s (%s:%d)",
-                    ok ? "🟢" : "🔴", nivel, id, ip, port));
-            nodosModel.setValueAt(ok ? "Conectado" : "Desconectado", i, 4);
-        }
+    private static String textoEstado(String nivel, String id, String ip, int port, boolean ok) {
+        return String.format("%s [%s] %s (%s:%d)", ok ? "🟢" : "🔴", nivel, id, ip, port);
     }
 
-    private void onEstadoCambio(String id) {
-        SwingUtilities.invokeLater(this::actualizarEstados);
+    /** Eventos del agente (hilos de red): la tabla se toca solo en el EDT. */
+    private class OyentePanel implements Monitoreo.Oyente {
+        @Override public void nodo(Monitoreo.Nodo n, boolean conectado) {
+            conectados.put(n.id(), conectado);
+            metricas.conocer(n.id());
+            SwingUtilities.invokeLater(() -> {
+                agregarNodoDetectado(n.nivel(), n.id(), n.ip(), n.puerto());
+                int fila = registro.fila(n.id());
+                if (fila >= 0) refrescarFila(fila);
+            });
+        }
+
+        @Override public void estado(String id, boolean conectado) {
+            conectados.put(id, conectado);
+            SwingUtilities.invokeLater(() -> {
+                int fila = registro.fila(id);
+                if (fila >= 0) refrescarFila(fila);
+            });
+        }
+
+        @Override public void mensaje(String id, String linea) { procesarMensaje(id, linea); }
+
+        @Override public void escaneo(int terminadas, int total) {
+            SwingUtilities.invokeLater(() -> {
+                progressScan.setMaximum(Math.max(1, total));
+                progressScan.setValue(terminadas);
+                if (terminadas >= total) detectBtn.setEnabled(true);
+            });
+        }
+
+        @Override public void aviso(String texto) { logRaw(texto); }
+
+        @Override public void alerta(String regla, String id, boolean activa, String detalle) {
+            logRaw((activa ? "[ALERTA] " : "[INFO] Resuelta: ") + regla + " en " + id + ": " + detalle);
+        }
     }
 
     // ====================== Recepción / Consola / Reportes ======================
 
-    private void onMensajeRecibido(String fromId, String payload) {
-        // Consola: mostrar exactamente como llega (sin etiquetas, sin timestamps)
-        logRaw(payload);
-        // Tabla de reportes: guardar literal
-        reportesModel.addRow(new Object[]{fromId, payload});
+    /** Lo recibido (o reproducido) hacia consola, reportes y métricas. */
+    private void procesarMensaje(String fromId, String payload) {
+        // Consola (literal) y tabla de reportes; se pintan en el próximo cuadro
+        pendientes.ofrecer(new Mensaje(fromId, payload));
+        metricas.registrar(fromId, payload);
+    }
+
+    /** En el EDT: un solo append a la consola y una sola inserción en la tabla por cuadro. */
+    private void drenarMensajes() {
+        List<Mensaje> lote = new ArrayList<>();
+        long descartados = pendientes.drenar(lote);
+        if (lote.isEmpty() && descartados == 0) return;
+
+        StringBuilder texto = new StringBuilder();
+        if (descartados > 0) texto.append("[WARN] ").append(descartados).append(" mensajes descartados (GUI saturada)\n");
+        for (Mensaje m : lote) texto.append(m.contenido()).append('\n');
+        consola.append(texto.toString());
+        int sobrantes = consola.getLineCount() - 1 - CONSOLA_MAX_LINEAS;
+        if (sobrantes > 0) {
+            try {
+                consola.replaceRange("", 0, consola.getLineStartOffset(sobrantes));
+            } catch (javax.swing.text.BadLocationException ignored) {}
+        }
+        consola.setCaretPosition(consola.getDocument().getLength());
+
+        reportesModel.agregar(lote);
     }
 
     // ========================= Logging (sin timestamps/etiquetas) =========================
 
     private void logRaw(String s) {
-        SwingUtilities.invokeLater(() -> {
-            consola.append(s + "\n");
-            consola.setCaretPosition(consola.getDocument().getLength());
-        });
+        pendientes.ofrecer(new Mensaje(null, s));
     }
     private void logInfo(String s) { logRaw("[INFO] " + s); }
     private void logWarn(String s) { logRaw("[WARN] " + s); }
 
+    // ========================= Comandos =========================
+
+    /**
+     * Envía el comando a todos los nodos del alcance a la vez y escribe la
+     * respuesta de cada uno (consola y reportes) cuando llegan todas o vence
+     * el timeout; el barrido tarda lo que el nodo más lento.
+     */
+    private void enviarComando() {
+        String comando = String.valueOf(comandoBox.getEditor().getItem()).trim();
+        if (comando.isEmpty()) return;
+        String alcance = (String) alcanceBox.getSelectedItem();
+
+        List<String> destinos = new ArrayList<>();
+        Set<Integer> seleccion = new HashSet<>();
+        for (int v : tablaNodos.getSelectedRows()) seleccion.add(tablaNodos.convertRowIndexToModel(v));
+        for (int i = 0; i < nodosModel.getRowCount(); i++) {
+            String nivel = (String) nodosModel.getValueAt(i, 0);
+            String id = (String) nodosModel.getValueAt(i, 1);
+            boolean entra = switch (alcance) {
+                case "Seleccionados" -> seleccion.contains(i);
+                case "Todos los conectados" -> conectados.getOrDefault(id, false);
+                case "Estanques" -> nivel.equals("Estanque");
+                case "Distribuidores" -> nivel.equals("Distribuidor");
+                default -> nivel.equals("Empresa");
+            };
+            if (entra) destinos.add(id);
+        }
+        if (destinos.isEmpty()) { logWarn("Ningún nodo en el alcance “" + alcance + "”."); return; }
+
+        long inicio = System.nanoTime();
+        logInfo("→ " + comando + " a " + destinos.size() + " nodo(s)");
+        monitoreo.comando(destinos, comando, COMANDO_TIMEOUT_MS).thenAccept(respuestas -> {
+            long ok = 0, maxMicros = 0;
+            for (ConsolaComandos.Respuesta r : respuestas.values()) {
+                if (r.ok()) ok++;
+                maxMicros = Math.max(maxMicros, r.micros());
+                pendientes.ofrecer(new Mensaje(r.nodo(), "← " + comando + " ⇒ " + r.texto()
+                        + String.format(" (%.1f ms)", r.micros() / 1000.0)));
+            }
+            logInfo(String.format("%s: %d/%d respondieron OK en %.1f ms (más lento %.1f ms)", comando, ok,
+                    respuestas.size(), (System.nanoTime() - inicio) / 1e6, maxMicros / 1000.0));
+        });
+    }
+
+    // ========================= Captura / Reproducción =========================
+
+    private void alternarCaptura() {
+        boolean activa = capturarBtn.isSelected();
+        capturarBtn.setText(activa ? "⏹ Detener captura" : "⏺ Capturar");
+        monitoreo.capturar(activa);
+    }
+
+    /**
+     * Reproduce una captura (carpeta o segmento .bin) en este panel o contra
+     * host:puerto como carga sintética. Mientras corre, el botón la detiene.
+     */
+    private void reproducirCaptura() {
+        if (reproducirBtn.getText().startsWith("⏹")) { reproduccionCancelada = true; return; }
+
+        JFileChooser fc = new JFileChooser(new File(AgenteMonitoreo.CAPTURA_DIR));
+        fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File origen = fc.getSelectedFile();
+
+        JComboBox<String> velocidad = new JComboBox<>(new String[]{"1", "2", "10", "100", "0 (máx)"});
+        velocidad.setEditable(true);
+        JTextField destino = new JTextField("GUI", 16);
+        JTextField prefijos = new JTextField("", 16);
+        JTextField desde = new JTextField("0", 6);
+        JPanel p = new JPanel(new GridLayout(0, 2, 6, 6));
+        p.add(new JLabel("Velocidad (×):")); p.add(velocidad);
+        p.add(new JLabel("Destino (GUI o host:puerto):")); p.add(destino);
+        p.add(new JLabel("Solo prefijos (coma):")); p.add(prefijos);
+        p.add(new JLabel("Desde segundo:")); p.add(desde);
+        if (JOptionPane.showConfirmDialog(this, p, "Reproducir " + origen.getName(), JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) return;
+
+        double factor, inicio;
+        try {
+            factor = Double.parseDouble(String.valueOf(velocidad.getSelectedItem()).split(" ")[0]);
+            inicio = Double.parseDouble(desde.getText().trim());
+        } catch (NumberFormatException ex) {
+            logWarn("Velocidad o segundo inválido.");
+            return;
+        }
+        String dest = destino.getText().trim();
+        int dosPuntos = dest.lastIndexOf(':');
+        if (!dest.equalsIgnoreCase("GUI") && dosPuntos <= 0) { logWarn("Destino inválido: " + dest); return; }
+        List<String> filtro = prefijos.getText().isBlank() ? List.of() : List.of(prefijos.getText().trim().split("\\s*,\\s*"));
+
+        reproduccionCancelada = false;
+        reproducirBtn.setText("⏹ Detener reproducción");
+        logInfo("Reproduciendo " + origen.getName() + " → " + dest + " a " + (factor > 0 ? factor + "×" : "máxima velocidad"));
+        new Thread(() -> {
+            String resumen;
+            long t0 = System.nanoTime();
+            try {
+                long n;
+                if (dest.equalsIgnoreCase("GUI")) {
+                    n = CapturaMensajes.reproducir(origen, factor, inicio, r -> {
+                        if (filtro.isEmpty() || filtro.stream().anyMatch(r.linea()::startsWith)) procesarMensaje(r.nodo(), r.linea());
+                    }, () -> reproduccionCancelada);
+                    resumen = n + " registros";
+                } else {
+                    try (CapturaMensajes.DestinoRed red = new CapturaMensajes.DestinoRed(multiplexor,
+                            dest.substring(0, dosPuntos), Integer.parseInt(dest.substring(dosPuntos + 1)), filtro)) {
+                        CapturaMensajes.reproducir(origen, factor, inicio, red, () -> reproduccionCancelada);
+                        resumen = red.resumen();
+                    }
+                }
+                logInfo(String.format("Reproducción %s en %.2f s: %s",
+                        reproduccionCancelada ? "detenida" : "terminada", (System.nanoTime() - t0) / 1e9, resumen));
+            } catch (Exception ex) {
+                logWarn("Error reproduciendo: " + ex.getMessage());
+            } finally {
+                SwingUtilities.invokeLater(() -> reproducirBtn.setText("▶ Reproducir…"));
+            }
+        }, "Reproduccion").start();
+    }
+
     // ========================= Utilidades =========================
 
-    private void exportarTablaCSV(DefaultTableModel model, String defaultName) {
-        if (model.getRowCount() == 0) { logWarn("No hay datos para exportar."); return; }
+    /**
+     * Copia las filas del almacén (solo referencias, en el EDT) y las escribe
+     * en segundo plano con barra de progreso cancelable. El formato sale de la
+     * extensión elegida.
+     */
+    private void exportarReportes(String defaultName) {
+        if (reportesModel.getRowCount() == 0) { logWarn("No hay datos para exportar."); return; }
         JFileChooser fc = new JFileChooser(".");
         fc.setSelectedFile(new File(defaultName));
-        if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File out = fc.getSelectedFile();
-            try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
-                // encabezado
-                int cols = model.getColumnCount();
-                for (int c = 0; c < cols; c++) {
-                    pw.print(model.getColumnName(c));
-                    if (c < cols - 1) pw.print(",");
-                }
-                pw.println();
-                // filas
-                for (int r = 0; r < model.getRowCount(); r++) {
-                    for (int c = 0; c < cols; c++) {
-                        Object val = model.getValueAt(r, c);
-                        String s = (val == null) ? "" : String.valueOf(val);
-                        s = s.replace("\n", " ").replace("\r", " ").replace(",", " ");
-                        pw.print(s);
-                        if (c < cols - 1) pw.print(",");
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File out = fc.getSelectedFile();
+        ExportadorReportes.Instantanea datos = reportesModel.instantanea();
+
+        ProgressMonitor monitor = new ProgressMonitor(this, "Exportando " + datos.filas() + " filas a " + out.getName(), "", 0, datos.filas());
+        monitor.setMillisToDecideToPopup(200);
+        SwingWorker<Boolean, Void> worker = new SwingWorker<>() {
+            @Override protected Boolean doInBackground() throws IOException {
+                return ExportadorReportes.exportar(datos, out, new ExportadorReportes.Progreso() {
+                    @Override public void avance(int filas, int total) {
+                        SwingUtilities.invokeLater(() -> monitor.setProgress(filas));
                     }
-                    pw.println();
+                    @Override public boolean cancelado() { return monitor.isCanceled(); }
+                });
+            }
+
+            @Override protected void done() {
+                monitor.close();
+                try {
+                    if (get()) logInfo("Exportado a: " + out.getAbsolutePath() + " (" + datos.filas() + " filas)");
+                    else logWarn("Exportación cancelada.");
+                } catch (Exception ex) {
+                    logWarn("Error exportando: " + ex.getMessage());
                 }
-                logInfo("Exportado a: " + out.getAbsolutePath());
-            } catch (Exception ex) {
-                logWarn("Error exportando: " + ex.getMessage());
             }
-        }
+        };
+        worker.execute();
     }
 
-    private boolean existeNodo(String id) {
-        for (int i = 0; i < nodosModel.getRowCount(); i++) {
-            if (id.equals(nodosModel.getValueAt(i, 1))) return true;
+    /**
+     * Índices de la tabla de nodos por ID y por ip:puerto, para no recorrerla
+     * en cada búsqueda. Solo se usa en el EDT; las filas nunca se borran, así
+     * que el número de fila de un nodo no cambia.
+     */
+    static class RegistroNodos {
+        private final Map<String, Integer> filaPorId = new HashMap<>();
+        private final Map<String, Integer> filaPorDireccion = new HashMap<>();
+        private final List<String> direccionPorFila = new ArrayList<>();
+
+        int fila(String id) { return filaPorId.getOrDefault(id, -1); }
+        int fila(String ip, int port) { return filaPorDireccion.getOrDefault(ip + ":" + port, -1); }
+
+        void agregar(String id, String ip, int port, int fila) {
+            filaPorId.put(id, fila);
+            filaPorDireccion.put(ip + ":" + port, fila);
+            direccionPorFila.add(ip + ":" + port);
         }
-        return false;
-    }
-    private boolean existeNodoPorIpPuerto(String ip, int port) {
-        for (int i = 0; i < nodosModel.getRowCount(); i++) {
-            String ipRow = String.valueOf(nodosModel.getValueAt(i, 2));
-            int pRow = (int) nodosModel.getValueAt(i, 3);
-            if (ip.equals(ipRow) && port == pRow) return true;
+
+        /** La IP de una fila se editó a mano. */
+        void moverDireccion(int fila, String ip, int port) {
+            filaPorDireccion.remove(direccionPorFila.get(fila), fila);
+            direccionPorFila.set(fila, ip + ":" + port);
+            filaPorDireccion.put(ip + ":" + port, fila);
         }
-        return false;
     }
 
-    // ===================== Conexión TCP =====================
+    // ===================== Mensajes / Reportes acotados =====================
 
-    static class ConexionCliente {
-        private final String nivel, id;
-        private volatile String ip;
-        private volatile int port;
+    /** Línea para la consola; si tiene nodo también va a la tabla de reportes. */
+    record Mensaje(String nodo, String contenido) {}
 
-        private final Consumer2<String, String> onMessage;
-        private final Consumer1<String> onState;
+    /**
+     * Anillo de capacidad fija entre los hilos de red y el EDT. Si el EDT no
+     * alcanza a drenar, se pisan los más antiguos y se cuentan como descartados.
+     */
+    static class BufferMensajes {
+        private final Mensaje[] anillo;
+        private int inicio, tamano;
+        private long descartados;
 
-        private volatile boolean running = true;
-        private volatile boolean connected = false;
-        private Socket socket;
-        private BufferedReader in;
-        private PrintWriter out;
+        BufferMensajes(int capacidad) { this.anillo = new Mensaje[capacidad]; }
 
-        public ConexionCliente(String nivel, String id, String ip, int port,
-                               Consumer2<String, String> onMessage,
-                               Consumer1<String> onState) {
-            this.nivel = nivel; this.id = id; this.ip = ip; this.port = port;
-            this.onMessage = onMessage; this.onState = onState;
+        synchronized void ofrecer(Mensaje m) {
+            anillo[(inicio + tamano) % anillo.length] = m;
+            if (tamano == anillo.length) { inicio = (inicio + 1) % anillo.length; descartados++; }
+            else tamano++;
         }
 
-        public void start() { new Thread(this::loop, "Conn-" + id).start(); }
-
-        private void loop() {
-            while (running) {
-                try {
-                    socket = new Socket();
-                    socket.connect(new InetSocketAddress(ip, port), 4000);
-                    socket.setTcpNoDelay(true);
-                    in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-                    out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-                    connected = true;
-                    if (onState != null) onState.accept(id);
-
-                    String line;
-                    while (running && (line = in.readLine()) != null) {
-                        if (onMessage != null) onMessage.accept(id, line);
-                    }
-                } catch (IOException ex) {
-                    connected = false;
-                    if (onState != null) onState.accept(id);
-                    try { Thread.sleep(1200); } catch (InterruptedException ignored) {}
-                } finally {
-                    closeQuiet();
-                }
+        /** Pasa lo pendiente a {@code destino}; devuelve los descartados desde el drenado anterior. */
+        synchronized long drenar(List<Mensaje> destino) {
+            for (int i = 0; i < tamano; i++) {
+                int j = (inicio + i) % anillo.length;
+                destino.add(anillo[j]);
+                anillo[j] = null;
             }
+            inicio = 0;
+            tamano = 0;
+            long d = descartados;
+            descartados = 0;
+            return d;
         }
+    }
 
-        public boolean matches(String ip, int port) { return Objects.equals(this.ip, ip) && this.port == port; }
-        public boolean isConnected() { return connected; }
+    /**
+     * Tabla de reportes sobre dos arreglos circulares: guarda como mucho
+     * {@code retencion} filas (se van las más antiguas) y JTable solo pide
+     * las visibles, así que ni la memoria ni el pintado crecen con las horas.
+     */
+    static class ModeloReportes extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+        private static final String[] COLUMNAS = {"Nodo (ID)", "Contenido"};
+        private final String[] nodos, contenidos;
+        private int inicio, tamano;
+
+        ModeloReportes(int retencion) {
+            this.nodos = new String[retencion];
+            this.contenidos = new String[retencion];
+        }
 
-        // Esta GUI no envía mensajes; solo escucha.
-        public boolean send(String msg) {
-            try { if (out != null) { out.println(msg); return true; } }
-            catch (Exception ignored) {}
-            return false;
+        /** Solo en el EDT. Los mensajes sin nodo (logs locales) no son reportes. */
+        void agregar(List<Mensaje> lote) {
+            List<Mensaje> filas = new ArrayList<>();
+            for (Mensaje m : lote) if (m.nodo() != null) filas.add(m);
+            if (filas.isEmpty()) return;
+            int capacidad = nodos.length;
+            if (filas.size() > capacidad) filas = filas.subList(filas.size() - capacidad, filas.size());
+
+            int sobran = tamano + filas.size() - capacidad;
+            if (sobran > 0) {
+                for (int i = 0; i < sobran; i++) {
+                    int j = (inicio + i) % capacidad;
+                    nodos[j] = null;
+                    contenidos[j] = null;
+                }
+                inicio = (inicio + sobran) % capacidad;
+                tamano -= sobran;
+                fireTableRowsDeleted(0, sobran - 1);
+            }
+            int primera = tamano;
+            for (Mensaje m : filas) {
+                int j = (inicio + tamano) % capacidad;
+                nodos[j] = m.nodo();
+                contenidos[j] = m.contenido();
+                tamano++;
+            }
+            fireTableRowsInserted(primera, tamano - 1);
         }
 
-        public void close() {
-            running = false;
-            connected = false;
-            closeQuiet();
-            if (onState != null) onState.accept(id);
+        /** Solo en el EDT: copia de las filas en orden, para exportar sin bloquear la tabla. */
+        ExportadorReportes.Instantanea instantanea() {
+            String[] n = new String[tamano], c = new String[tamano];
+            int primeraParte = Math.min(tamano, nodos.length - inicio);
+            System.arraycopy(nodos, inicio, n, 0, primeraParte);
+            System.arraycopy(contenidos, inicio, c, 0, primeraParte);
+            System.arraycopy(nodos, 0, n, primeraParte, tamano - primeraParte);
+            System.arraycopy(contenidos, 0, c, primeraParte, tamano - primeraParte);
+            return new ExportadorReportes.Instantanea(n, c);
         }
 
-        private void closeQuiet() {
-            try { if (out != null) out.flush(); } catch (Exception ignored) {}
-            try { if (in != null) in.close(); } catch (Exception ignored) {}
-            try { if (out != null) out.close(); } catch (Exception ignored) {}
-            try { if (socket != null) socket.close(); } catch (Exception ignored) {}
+        @Override public int getRowCount() { return tamano; }
+        @Override public int getColumnCount() { return COLUMNAS.length; }
+        @Override public String getColumnName(int c) { return COLUMNAS[c]; }
+        @Override public Object getValueAt(int r, int c) {
+            int j = (inicio + r) % nodos.length;
+            return c == 0 ? nodos[j] : contenidos[j];
         }
     }
 
-    // ===================== Functional mini-interfaces =====================
-
-    interface Consumer1<A> { void accept(A a); }
-    interface Consumer2<A, B> { void accept(A a, B b); }
-
     // =============================== MAIN ===============================
 
     public static void main(String[] args) {
@@ -0,0 +1,149 @@
+// MetricasNodos.java
+// Series de tiempo por nodo a partir de los mensajes conocidos (ESTADO:,
+// TRANSACCION, PRECIO, OK:). Cada serie es un arreglo de double reservado al
+// crear el nodo y usado como anillo de una muestra por segundo: registrar un
+// mensaje solo suma en acumuladores y cerrar el segundo copia a la ranura.
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+class MetricasNodos {
+
+    static final int MUESTRAS = 120;
+    static final List<String> TIPOS = List.of("93", "95", "97", "Diesel", "Kerosene");
+
+    static final class Nodo {
+        final String id;
+        final double[] mensajes = new double[MUESTRAS];
+        final double[][] litros = new double[TIPOS.size()][MUESTRAS];
+        final double[] litrosTotal = new double[MUESTRAS];
+        final double[] conectado = new double[MUESTRAS];
+        /** Último precio visto por tipo (NaN si ninguno). */
+        final double[] precios = new double[TIPOS.size()];
+
+        // Segundo en curso; los escribe el hilo de red bajo el lock del nodo
+        private int mensajesActual;
+        private final double[] litrosActual = new double[TIPOS.size()];
+        // Litros acumulados del último ESTADO de cada surtidor, para sacar la diferencia
+        private final Map<String, double[]> acumuladoPorSurtidor = new HashMap<>();
+
+        Nodo(String id) {
+            this.id = id;
+            Arrays.fill(precios, Double.NaN);
+        }
+    }
+
+    private final Map<String, Nodo> nodos = new ConcurrentHashMap<>();
+    private final Nodo total = new Nodo("TOTAL");
+    /** Ranura de la próxima muestra y cuántas hay; solo los toca el EDT. */
+    private int cursor;
+    private int muestras;
+
+    // ======== Hilo de red ========
+
+    void registrar(String id, String linea) {
+        Nodo nodo = nodos.computeIfAbsent(id, Nodo::new);
+        synchronized (nodo) {
+            nodo.mensajesActual++;
+            try {
+                if (linea.startsWith("TRANSACCION ")) {
+                    // TRANSACCION <surtidor> <tipo> <litros>
+                    String[] p = linea.split(" ");
+                    if (p.length >= 4) sumarLitros(nodo, p[2], Double.parseDouble(p[3]));
+                } else if (linea.startsWith("ESTADO:")) {
+                    registrarEstado(nodo, linea);
+                } else if (linea.startsWith("PRECIO ")) {
+                    // PRECIO <tipo> <precio>
+                    String[] p = linea.split(" ");
+                    int t = p.length >= 3 ? TIPOS.indexOf(p[1]) : -1;
+                    if (t >= 0) nodo.precios[t] = Double.parseDouble(p[2]);
+                } else if (linea.startsWith("OK: Extraídos ") || linea.startsWith("OK: Registrada venta de ")) {
+                    // "OK: Extraídos <litros> litros de <tipo>..." / "OK: Registrada venta de <litros> L de <tipo>"
+                    String[] p = linea.split(" ");
+                    int i = linea.startsWith("OK: Extraídos ") ? 2 : 4;
+                    if (p.length > i + 3) sumarLitros(nodo, p[i + 3].replace(".", ""), Double.parseDouble(p[i]));
+                }
+            } catch (NumberFormatException ignored) {
+                // Mensaje con formato inesperado: cuenta como mensaje y nada más
+            }
+        }
+    }
+
+    /** ESTADO:<id>|<tipo>:<precio>:<litros>:<cargas>;...  (litros acumulados desde siempre) */
+    private void registrarEstado(Nodo nodo, String linea) {
+        String[] secciones = linea.substring("ESTADO:".length()).split("\\|");
+        if (secciones.length < 2) return;
+        double[] previo = nodo.acumuladoPorSurtidor.computeIfAbsent(secciones[0], k -> {
+            double[] a = new double[TIPOS.size()];
+            Arrays.fill(a, Double.NaN);
+            return a;
+        });
+        for (String item : secciones[1].split(";")) {
+            String[] c = item.split(":");
+            int t = c.length == 4 ? TIPOS.indexOf(c[0]) : -1;
+            if (t < 0) continue;
+            double precio = Double.parseDouble(c[1]);
+            double acumulado = Double.parseDouble(c[2]);
+            nodo.precios[t] = precio;
+            if (!Double.isNaN(previo[t]) && acumulado > previo[t]) nodo.litrosActual[t] += acumulado - previo[t];
+            previo[t] = acumulado;
+        }
+    }
+
+    private static void sumarLitros(Nodo nodo, String tipo, double litros) {
+        int t = TIPOS.indexOf(tipo);
+        if (t >= 0) nodo.litrosActual[t] += litros;
+    }
+
+    // ======== EDT ========
+
+    /** Cierra el segundo: vuelca los acumuladores en la ranura actual de cada serie y avanza. */
+    void cerrarSegundo(Predicate<String> estaConectado) {
+        int r = cursor;
+        total.mensajes[r] = 0;
+        total.litrosTotal[r] = 0;
+        total.conectado[r] = 0;
+        for (int t = 0; t < TIPOS.size(); t++) total.litros[t][r] = 0;
+
+        for (Nodo nodo : nodos.values()) {
+            synchronized (nodo) {
+                nodo.mensajes[r] = nodo.mensajesActual;
+                nodo.mensajesActual = 0;
+                double suma = 0;
+                for (int t = 0; t < TIPOS.size(); t++) {
+                    nodo.litros[t][r] = nodo.litrosActual[t];
+                    suma += nodo.litrosActual[t];
+                    total.litros[t][r] += nodo.litrosActual[t];
+                    nodo.litrosActual[t] = 0;
+                }
+                nodo.litrosTotal[r] = suma;
+            }
+            nodo.conectado[r] = estaConectado.test(nodo.id) ? 1 : 0;
+            total.mensajes[r] += nodo.mensajes[r];
+            total.litrosTotal[r] += nodo.litrosTotal[r];
+            total.conectado[r] += nodo.conectado[r];
+        }
+        cursor = (cursor + 1) % MUESTRAS;
+        if (muestras < MUESTRAS) muestras++;
+    }
+
+    /** Valor de la serie {@code haceN} segundos atrás (0 = último segundo cerrado). */
+    double valor(double[] serie, int haceN) {
+        return serie[Math.floorMod(cursor - 1 - haceN, MUESTRAS)];
+    }
+
+    /** Suma de los últimos {@code n} segundos, para ordenar por carga. */
+    double reciente(double[] serie, int n) {
+        double suma = 0;
+        for (int i = 0; i < Math.min(n, muestras); i++) suma += valor(serie, i);
+        return suma;
+    }
+
+    int getMuestras() { return muestras; }
+    Nodo getTotal() { return total; }
+    Collection<Nodo> getNodos() { return nodos.values(); }
+
+    /** Un nodo conocido aunque todavía no haya enviado nada (para ver su estado de conexión). */
+    void conocer(String id) { nodos.computeIfAbsent(id, Nodo::new); }
+}
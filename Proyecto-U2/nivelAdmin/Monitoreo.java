@@ -0,0 +1,42 @@
+// Monitoreo.java
+// Lo que el panel necesita del núcleo de monitoreo, esté en el mismo proceso
+// (AgenteMonitoreo) o en otra máquina detrás de ServidorAgente (ClienteAgente).
+// Los eventos llegan a los oyentes desde hilos de red: quien pinte debe
+// pasarlos a su propio hilo.
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+interface Monitoreo {
+
+    record Nodo(String nivel, String id, String ip, int puerto) {}
+
+    interface Oyente {
+        /** Nodo nuevo (o ya conocido, al suscribirse) con su estado actual. */
+        default void nodo(Nodo nodo, boolean conectado) {}
+        default void estado(String id, boolean conectado) {}
+        default void mensaje(String id, String linea) {}
+        /** Avance del escaneo; {@code terminadas >= total} indica que terminó. */
+        default void escaneo(int terminadas, int total) {}
+        /** Línea para la consola, ya con su prefijo ([INFO], [WARN], [SCAN]...). */
+        default void aviso(String texto) {}
+        /** Una regla de MotorAlertas empezó ({@code activa}) o dejó de cumplirse en un nodo. */
+        default void alerta(String regla, String id, boolean activa, String detalle) {}
+    }
+
+    void suscribir(Oyente oyente);
+
+    void detectar(String redes, String puertos);
+
+    void conectar(String id);
+
+    void conectarTodos();
+
+    /** La IP de un nodo se editó: se reconecta ahí si estaba conectado. */
+    void mover(String id, String ip);
+
+    void capturar(boolean activa);
+
+    CompletableFuture<Map<String, ConsolaComandos.Respuesta>> comando(List<String> ids, String comando, long timeoutMs);
+}
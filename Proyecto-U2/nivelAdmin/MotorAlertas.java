@@ -0,0 +1,402 @@
+// MotorAlertas.java
+// Reglas de alerta evaluadas sobre el flujo de mensajes del agente. Las
+// reglas se compilan una vez desde un archivo (una por línea, "nombre|expresión",
+// '#' para comentarios) y se agrupan por señal: cada mensaje solo evalúa las
+// reglas de lo que trae. Leer la señal de la línea recorta algunas subcadenas
+// (split/substring); evaluar las reglas no crea objetos: es una comparación
+// sobre arreglos de double indexados por el número interno del nodo.
+//
+//   nivel [tipo] < X                nivel del estanque (ESTADO, CONSULTAR, OK: Extraídos/Repuestos)
+//   desconectado > Ns               el nodo estuvo conectado y lleva más de N s caído
+//   litros [tipo] en Ns > X         litros vendidos en los últimos N s (TRANSACCION, ESTADO:, OK:)
+//   litros [tipo] en Ns > Kx en Ms  pico: el ritmo de los últimos N s supera K veces el de los M anteriores
+//   mensajes en Ns > X              (también con "Kx en Ms")
+//
+// Las ventanas usan un anillo por nodo con el total acumulado al cierre de
+// cada segundo: la suma de una ventana es una resta, no un recorrido. "Los
+// últimos N s" son N segundos: el que está en curso y los N-1 cerrados
+// anteriores, o los N cerrados al evaluar justo en el cierre.
+// Una alerta avisa al activarse y al resolverse, no en cada mensaje.
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+class MotorAlertas {
+
+    static final List<String> TIPOS = MetricasNodos.TIPOS;
+    private static final int NT = TIPOS.size();
+    static final int VENTANA_MAX_S = 3600;
+
+    enum Senal { NIVEL, LITROS, MENSAJES, DESCONECTADO }
+
+    interface Oyente {
+        void alerta(String regla, String nodo, boolean activa, String detalle);
+    }
+
+    /** Regla compilada. {@code activa} tiene una ranura por nodo y tipo. */
+    static final class Regla {
+        final String nombre, texto;
+        final Senal senal;
+        final int tipo;              // -1: cualquier tipo (nivel) o todos sumados (litros)
+        final boolean mayor;
+        final double umbral;         // absoluto, o factor si base > 0
+        final int ventana, base;     // segundos; base > 0 = regla relativa
+        Serie serie;
+        boolean[] activa = new boolean[0];
+
+        Regla(String nombre, String texto, Senal senal, int tipo, boolean mayor, double umbral, int ventana, int base) {
+            this.nombre = nombre; this.texto = texto; this.senal = senal; this.tipo = tipo;
+            this.mayor = mayor; this.umbral = umbral; this.ventana = ventana; this.base = base;
+        }
+    }
+
+    /** Totales acumulados de una señal (y tipo) por nodo, con historia de {@code largo} segundos. */
+    static final class Serie {
+        final Senal senal;
+        final int tipo;
+        int largo;
+        double[] total = new double[0];     // por nodo, incluye el segundo en curso
+        double[] historia = new double[0];  // nodo * largo: total al cierre de cada segundo
+        Regla[] reglas = new Regla[0];
+
+        Serie(Senal senal, int tipo) { this.senal = senal; this.tipo = tipo; }
+    }
+
+    private final Oyente oyente;
+    private final Regla[] reglasNivel, reglasDesconexion;
+    private final Serie[] series;
+    private final Serie mensajes;
+    private final Serie[] litrosPorTipo = new Serie[NT];
+    private final Serie litrosTotal;
+    private final boolean usaNivel, usaLitros;
+
+    // Estado por nodo (índice denso)
+    private final Map<String, Integer> indice = new HashMap<>();
+    private String[] ids = new String[0];
+    private double[] nivel = new double[0];          // nodo * NT
+    private long[] caidoDesde = new long[0];         // nanoTime de la caída, CONECTADO o NUNCA
+    private final Map<String, double[]> acumuladoPorSurtidor = new HashMap<>();
+    private long segundo;                            // segundo en curso (cuenta de cierres)
+    private static final long CONECTADO = Long.MAX_VALUE, NUNCA = Long.MIN_VALUE;
+
+    /** Alertas activas "regla nodo [tipo]" → detalle, para quien se suscribe tarde. */
+    private final Map<String, String> activas = new ConcurrentHashMap<>();
+
+    private MotorAlertas(List<Regla> reglas, Oyente oyente) {
+        this.oyente = oyente;
+        Map<String, Serie> porClave = new LinkedHashMap<>();
+        List<Regla> nivel = new ArrayList<>(), caida = new ArrayList<>();
+        for (Regla r : reglas) {
+            switch (r.senal) {
+                case NIVEL -> nivel.add(r);
+                case DESCONECTADO -> caida.add(r);
+                default -> {
+                    Serie s = porClave.computeIfAbsent(r.senal + ":" + r.tipo, k -> new Serie(r.senal, r.tipo));
+                    s.largo = Math.max(s.largo, Math.max(r.ventana, r.base) + 1);
+                    s.reglas = Arrays.copyOf(s.reglas, s.reglas.length + 1);
+                    s.reglas[s.reglas.length - 1] = r;
+                    r.serie = s;
+                }
+            }
+        }
+        this.reglasNivel = nivel.toArray(new Regla[0]);
+        this.reglasDesconexion = caida.toArray(new Regla[0]);
+        this.series = porClave.values().toArray(new Serie[0]);
+        this.mensajes = porClave.get(Senal.MENSAJES + ":-1");
+        this.litrosTotal = porClave.get(Senal.LITROS + ":-1");
+        for (int t = 0; t < NT; t++) litrosPorTipo[t] = porClave.get(Senal.LITROS + ":" + t);
+        this.usaNivel = reglasNivel.length > 0;
+        this.usaLitros = litrosTotal != null || porClave.keySet().stream().anyMatch(k -> k.startsWith(Senal.LITROS + ":"));
+    }
+
+    // ======== Compilación ========
+
+    /** Lee y compila el archivo de reglas; las líneas inválidas se informan y se saltan. */
+    static MotorAlertas cargar(File archivo, Oyente oyente) throws IOException {
+        List<Regla> reglas = new ArrayList<>();
+        int numero = 0;
+        for (String linea : Files.readAllLines(archivo.toPath(), StandardCharsets.UTF_8)) {
+            numero++;
+            linea = linea.trim();
+            if (linea.isEmpty() || linea.startsWith("#")) continue;
+            try {
+                reglas.add(compilar(linea));
+            } catch (RuntimeException e) {
+                System.err.println("[WARN] Regla rechazada (" + archivo.getName() + ":" + numero + "): " + linea + " (" + e.getMessage() + ")");
+            }
+        }
+        return new MotorAlertas(reglas, oyente);
+    }
+
+    static Regla compilar(String linea) {
+        String[] partes = linea.split("\\|", 2);
+        if (partes.length != 2 || partes[0].isBlank()) throw new IllegalArgumentException("se esperaba nombre|expresión");
+        String nombre = partes[0].trim();
+        if (nombre.contains(" ")) throw new IllegalArgumentException("el nombre no puede tener espacios");
+        String[] t = partes[1].trim().split("\\s+");
+        int i = 0;
+        Senal senal = switch (t[i++].toLowerCase()) {
+            case "nivel" -> Senal.NIVEL;
+            case "litros" -> Senal.LITROS;
+            case "mensajes" -> Senal.MENSAJES;
+            case "desconectado" -> Senal.DESCONECTADO;
+            default -> throw new IllegalArgumentException("señal desconocida: " + t[0]);
+        };
+        int tipo = -1;
+        if (i < t.length && TIPOS.contains(t[i])) {
+            if (senal == Senal.MENSAJES || senal == Senal.DESCONECTADO) throw new IllegalArgumentException(t[0] + " no lleva tipo");
+            tipo = TIPOS.indexOf(t[i++]);
+        }
+        int ventana = 0;
+        if (i + 1 < t.length && t[i].equals("en")) {
+            ventana = segundos(t[i + 1]);
+            i += 2;
+        }
+        if (i + 1 >= t.length || !(t[i].equals("<") || t[i].equals(">"))) throw new IllegalArgumentException("falta '<' o '>' y el umbral");
+        boolean mayor = t[i++].equals(">");
+        String valor = t[i++];
+        double umbral;
+        int base = 0;
+        if (valor.endsWith("x")) {
+            umbral = Double.parseDouble(valor.substring(0, valor.length() - 1));
+            if (i + 1 >= t.length || !t[i].equals("en")) throw new IllegalArgumentException("un factor necesita 'en <ventana base>'");
+            base = segundos(t[i + 1]);
+            i += 2;
+        } else {
+            umbral = senal == Senal.DESCONECTADO ? segundos(valor) : Double.parseDouble(valor);
+        }
+        if (i != t.length) throw new IllegalArgumentException("sobra: " + t[i]);
+
+        switch (senal) {
+            case NIVEL, DESCONECTADO -> {
+                if (ventana > 0 || base > 0) throw new IllegalArgumentException(t[0] + " no usa ventanas");
+                if (senal == Senal.DESCONECTADO && !mayor) throw new IllegalArgumentException("desconectado solo admite '>'");
+            }
+            default -> {
+                if (ventana == 0) ventana = 1;
+                if (base > 0 && base <= ventana) throw new IllegalArgumentException("la ventana base debe ser mayor que " + ventana + "s");
+            }
+        }
+        if (ventana > VENTANA_MAX_S || base > VENTANA_MAX_S) throw new IllegalArgumentException("ventana máxima " + VENTANA_MAX_S + "s");
+        return new Regla(nombre, partes[1].trim(), senal, tipo, mayor, umbral, ventana, base);
+    }
+
+    /** "30s", "5m", "1h" o segundos sueltos. */
+    private static int segundos(String texto) {
+        char u = texto.charAt(texto.length() - 1);
+        int factor = u == 'm' ? 60 : u == 'h' ? 3600 : 1;
+        String n = Character.isDigit(u) ? texto : texto.substring(0, texto.length() - 1);
+        int s = Integer.parseInt(n) * factor;
+        if (s <= 0) throw new IllegalArgumentException("duración inválida: " + texto);
+        return s;
+    }
+
+    int cantidadReglas() {
+        int n = reglasNivel.length + reglasDesconexion.length;
+        for (Serie s : series) n += s.reglas.length;
+        return n;
+    }
+
+    Map<String, String> getActivas() { return activas; }
+
+    // ======== Flujo (hilo del multiplexor) ========
+
+    /** Un mensaje recibido de {@code id}: actualiza las series que toca y evalúa solo sus reglas. */
+    synchronized void mensaje(String id, String linea) {
+        int n = nodo(id);
+        if (mensajes != null) {
+            mensajes.total[n]++;
+            evaluarSerie(mensajes, n);
+        }
+        try {
+            if (usaLitros) litros(n, linea);
+            if (usaNivel) nivel(n, linea);
+        } catch (NumberFormatException ignored) {
+            // Formato inesperado: no aporta a las señales
+        }
+    }
+
+    synchronized void estado(String id, boolean conectado) {
+        if (reglasDesconexion.length == 0) return;
+        int n = nodo(id);
+        if (conectado) {
+            caidoDesde[n] = CONECTADO;
+            for (Regla r : reglasDesconexion) cambiar(r, n, 0, false, 0);
+        } else if (caidoDesde[n] == CONECTADO) {
+            caidoDesde[n] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Cierra el segundo: guarda los totales en la historia y reevalúa lo que
+     * depende del tiempo (las ventanas se vacían y las caídas se alargan sin
+     * que llegue ningún mensaje). Se evalúa antes de avanzar: el segundo
+     * recién cerrado sigue siendo el más nuevo de la ventana, en vez de un
+     * segundo en curso todavía vacío que la dejaría con N-1 segundos.
+     */
+    synchronized void cerrarSegundo() {
+        for (Serie s : series) {
+            int r = (int) (segundo % s.largo);
+            for (int n = 0; n < ids.length; n++) {
+                s.historia[n * s.largo + r] = s.total[n];
+            }
+        }
+        for (Serie s : series) {
+            for (int n = 0; n < ids.length; n++) evaluarSerie(s, n);
+        }
+        segundo++;
+        long ahora = System.nanoTime();
+        for (int n = 0; n < ids.length; n++) {
+            if (caidoDesde[n] == CONECTADO || caidoDesde[n] == NUNCA) continue;
+            double caido = (ahora - caidoDesde[n]) / 1e9;
+            for (Regla r : reglasDesconexion) cambiar(r, n, 0, caido > r.umbral, caido);
+        }
+    }
+
+    // ======== Extracción de señales ========
+
+    private void litros(int n, String linea) {
+        if (linea.startsWith("TRANSACCION ")) {
+            // TRANSACCION <surtidor> <tipo> <litros>
+            String[] p = linea.split(" ");
+            if (p.length >= 4) sumarLitros(n, TIPOS.indexOf(p[2]), Double.parseDouble(p[3]));
+        } else if (linea.startsWith("OK: Extraídos ") || linea.startsWith("OK: Registrada venta de ")) {
+            String[] p = linea.split(" ");
+            int i = linea.startsWith("OK: Extraídos ") ? 2 : 4;
+            if (p.length > i + 3) sumarLitros(n, TIPOS.indexOf(p[i + 3].replace(".", "")), Double.parseDouble(p[i]));
+        } else if (linea.startsWith("ESTADO:")) {
+            // ESTADO:<surtidor>|<tipo>:<precio>:<litros acumulados>:<cargas>;...
+            String[] secciones = linea.substring(7).split("\\|");
+            if (secciones.length < 2) return;
+            double[] previo = acumuladoPorSurtidor.computeIfAbsent(ids[n] + "|" + secciones[0], k -> {
+                double[] a = new double[NT];
+                Arrays.fill(a, Double.NaN);
+                return a;
+            });
+            for (String item : secciones[1].split(";")) {
+                String[] c = item.split(":");
+                int t = c.length == 4 ? TIPOS.indexOf(c[0]) : -1;
+                if (t < 0) continue;
+                double acumulado = Double.parseDouble(c[2]);
+                if (!Double.isNaN(previo[t]) && acumulado > previo[t]) sumarLitros(n, t, acumulado - previo[t]);
+                previo[t] = acumulado;
+            }
+        }
+    }
+
+    private void sumarLitros(int n, int t, double litros) {
+        if (t < 0 || litros <= 0) return;
+        if (litrosPorTipo[t] != null) {
+            litrosPorTipo[t].total[n] += litros;
+            evaluarSerie(litrosPorTipo[t], n);
+        }
+        if (litrosTotal != null) {
+            litrosTotal.total[n] += litros;
+            evaluarSerie(litrosTotal, n);
+        }
+    }
+
+    /**
+     * Líneas del estanque con nivel: "Nivel de T: X litros", "OK: Extraídos/Repuestos
+     * ... de T. Nivel actual: X litros" y las del bloque ESTADO ("T:   X litros").
+     */
+    private void nivel(int n, String linea) {
+        if (!linea.endsWith(" litros")) return;
+        int t;
+        String numero;
+        if (linea.startsWith("Nivel de ")) {
+            int dosPuntos = linea.indexOf(':');
+            if (dosPuntos < 0) return;
+            t = TIPOS.indexOf(linea.substring(9, dosPuntos));
+            numero = linea.substring(dosPuntos + 1, linea.length() - 7);
+        } else if (linea.startsWith("OK: Extraídos ") || linea.startsWith("OK: Repuestos ")) {
+            int de = linea.indexOf(" de "), punto = linea.indexOf(". Nivel actual: ");
+            if (de < 0 || punto < de) return;
+            t = TIPOS.indexOf(linea.substring(de + 4, punto));
+            numero = linea.substring(punto + 16, linea.length() - 7);
+        } else {
+            int dosPuntos = linea.indexOf(':');
+            if (dosPuntos < 0) return;
+            t = TIPOS.indexOf(linea.substring(0, dosPuntos));
+            numero = linea.substring(dosPuntos + 1, linea.length() - 7);
+        }
+        if (t < 0) return;
+        double valor = Double.parseDouble(numero.trim().replace(',', '.'));
+        nivel[n * NT + t] = valor;
+        for (Regla r : reglasNivel) {
+            if (r.tipo >= 0 && r.tipo != t) continue;
+            cambiar(r, n, t, r.mayor ? valor > r.umbral : valor < r.umbral, valor);
+        }
+    }
+
+    // ======== Evaluación ========
+
+    private void evaluarSerie(Serie s, int n) {
+        int l = s.largo;
+        double total = s.total[n];
+        for (Regla r : s.reglas) {
+            double enVentana = total - s.historia[n * l + (int) Math.floorMod(segundo - r.ventana, (long) l)];
+            boolean cumple;
+            double medido;
+            if (r.base > 0) {
+                if (segundo < r.base) continue;   // sin historia suficiente no hay con qué comparar
+                double enBase = s.historia[n * l + (int) Math.floorMod(segundo - r.ventana, (long) l)]
+                        - s.historia[n * l + (int) Math.floorMod(segundo - r.base, (long) l)];
+                double ritmoBase = enBase / (r.base - r.ventana);
+                medido = ritmoBase > 0 ? (enVentana / r.ventana) / ritmoBase : 0;
+                cumple = ritmoBase > 0 && (r.mayor ? medido > r.umbral : medido < r.umbral);
+            } else {
+                medido = enVentana;
+                cumple = r.mayor ? enVentana > r.umbral : enVentana < r.umbral;
+            }
+            cambiar(r, n, 0, cumple, medido);
+        }
+    }
+
+    /** Solo los cambios de estado salen del motor (y solo entonces se arma texto). */
+    private void cambiar(Regla r, int n, int t, boolean cumple, double medido) {
+        int ranura = n * NT + t;
+        if (r.activa[ranura] == cumple) return;
+        r.activa[ranura] = cumple;
+        boolean porTipo = r.senal == Senal.NIVEL && r.tipo < 0;
+        String clave = r.nombre + " " + ids[n] + (porTipo ? " " + TIPOS.get(t) : "");
+        String detalle = String.format(Locale.ROOT, "%s%s (medido %.2f)", porTipo ? TIPOS.get(t) + ": " : "", r.texto, medido);
+        if (cumple) activas.put(clave, detalle); else activas.remove(clave);
+        oyente.alerta(r.nombre, ids[n], cumple, detalle);
+    }
+
+    /** Número interno del nodo; los arreglos crecen al doble cuando hace falta. */
+    private int nodo(String id) {
+        Integer n = indice.get(id);
+        if (n != null) return n;
+        int nuevo = indice.size();
+        if (nuevo == ids.length) crecer(Math.max(16, ids.length * 2));
+        indice.put(id, nuevo);
+        ids[nuevo] = id;
+        return nuevo;
+    }
+
+    private void crecer(int capacidad) {
+        int anterior = ids.length;
+        ids = Arrays.copyOf(ids, capacidad);
+        nivel = Arrays.copyOf(nivel, capacidad * NT);
+        Arrays.fill(nivel, anterior * NT, capacidad * NT, Double.NaN);
+        caidoDesde = Arrays.copyOf(caidoDesde, capacidad);
+        Arrays.fill(caidoDesde, anterior, capacidad, NUNCA);
+        for (Serie s : series) {
+            s.total = Arrays.copyOf(s.total, capacidad);
+            s.historia = Arrays.copyOf(s.historia, capacidad * s.largo);
+        }
+        for (Regla r : todas()) r.activa = Arrays.copyOf(r.activa, capacidad * NT);
+    }
+
+    private List<Regla> todas() {
+        List<Regla> lista = new ArrayList<>(Arrays.asList(reglasNivel));
+        lista.addAll(Arrays.asList(reglasDesconexion));
+        for (Serie s : series) lista.addAll(Arrays.asList(s.reglas));
+        return lista;
+    }
+}
@@ -0,0 +1,211 @@
+// MultiplexorConexiones.java
+// Todas las conexiones monitoreadas sobre un único hilo con Selector: cada
+// enlace tiene su buffer de lectura y se parte por líneas; las reconexiones
+// se programan con backoff exponencial en una rueda de temporización en vez
+// de un hilo dormido por nodo.
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+class MultiplexorConexiones {
+
+    /** Avisos de un enlace; se llaman desde el hilo del selector y deben ser breves. */
+    interface Oyente {
+        void conectado();
+        void linea(String linea);
+        void desconectado();
+    }
+
+    private static final int TAMANO_BUFFER = 4096;
+    private static final long TIMEOUT_CONEXION_MS = 4000;
+    private static final long REINTENTO_BASE_MS = 500;
+    private static final long REINTENTO_MAX_MS = 30_000;
+
+    /** Conexión lógica a ip:puerto; sobrevive a las reconexiones. */
+    final class Enlace {
+        private final InetSocketAddress destino;
+        private final Oyente oyente;
+        private final ByteBuffer lectura = ByteBuffer.allocate(TAMANO_BUFFER);
+        private final ArrayDeque<ByteBuffer> escritura = new ArrayDeque<>();
+        private SocketChannel canal;
+        private SelectionKey clave;
+        private RuedaTemporizadora.Tarea temporizador;
+        private int fallos;
+        private boolean cerrado;
+        private volatile boolean conectado;
+
+        private Enlace(InetSocketAddress destino, Oyente oyente) {
+            this.destino = destino;
+            this.oyente = oyente;
+        }
+
+        boolean isConectado() { return conectado; }
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+    private final RuedaTemporizadora rueda = new RuedaTemporizadora("Reconexion", 100, 512);
+
+    MultiplexorConexiones() throws IOException {
+        this.selector = Selector.open();
+        Thread hilo = new Thread(this::bucle, "Multiplexor");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    // ======== API (cualquier hilo) ========
+
+    Enlace abrir(String ip, int puerto, Oyente oyente) {
+        Enlace enlace = new Enlace(InetSocketAddress.createUnresolved(ip, puerto), oyente);
+        ejecutar(() -> conectar(enlace));
+        return enlace;
+    }
+
+    /** Encola la línea si el enlace está conectado; devuelve false si no. */
+    boolean enviar(Enlace enlace, String linea) {
+        if (!enlace.conectado) return false;
+        byte[] datos = (linea + "\n").getBytes(StandardCharsets.UTF_8);
+        ejecutar(() -> {
+            if (!enlace.conectado || enlace.clave == null) return;
+            enlace.escritura.add(ByteBuffer.wrap(datos));
+            enlace.clave.interestOps(enlace.clave.interestOps() | SelectionKey.OP_WRITE);
+        });
+        return true;
+    }
+
+    /** Cierra el enlace para siempre (sin reconexión). */
+    void cerrar(Enlace enlace) {
+        ejecutar(() -> {
+            enlace.cerrado = true;
+            soltarCanal(enlace);
+        });
+    }
+
+    private void ejecutar(Runnable tarea) {
+        tareas.add(tarea);
+        selector.wakeup();
+    }
+
+    // ======== Hilo del selector ========
+
+    private void bucle() {
+        while (true) {
+            try {
+                selector.select();
+                Runnable tarea;
+                while ((tarea = tareas.poll()) != null) tarea.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    Enlace enlace = (Enlace) clave.attachment();
+                    try {
+                        if (clave.isValid() && clave.isConnectable()) terminarConexion(enlace);
+                        if (clave.isValid() && clave.isReadable()) leer(enlace);
+                        if (clave.isValid() && clave.isWritable()) escribir(enlace);
+                    } catch (IOException e) {
+                        caida(enlace);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[MULTIPLEXOR] " + e.getMessage());
+            }
+        }
+    }
+
+    private void conectar(Enlace enlace) {
+        if (enlace.cerrado || enlace.canal != null) return;
+        try {
+            // Se resuelve aquí y no en abrir() para que un DNS caído cuente como fallo reintentable
+            InetSocketAddress destino = new InetSocketAddress(enlace.destino.getHostString(), enlace.destino.getPort());
+            enlace.canal = SocketChannel.open();
+            enlace.canal.configureBlocking(false);
+            enlace.canal.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            boolean inmediata = enlace.canal.connect(destino);
+            enlace.clave = enlace.canal.register(selector, SelectionKey.OP_CONNECT, enlace);
+            if (inmediata) {
+                terminarConexion(enlace);
+            } else {
+                SocketChannel intento = enlace.canal;
+                enlace.temporizador = rueda.programar(System.currentTimeMillis() + TIMEOUT_CONEXION_MS,
+                        () -> ejecutar(() -> { if (enlace.canal == intento && !enlace.conectado) caida(enlace); }));
+            }
+        } catch (IOException | UnresolvedAddressException e) {
+            caida(enlace);
+        }
+    }
+
+    private void terminarConexion(Enlace enlace) throws IOException {
+        enlace.canal.finishConnect();
+        if (enlace.temporizador != null) enlace.temporizador.cancelar();
+        enlace.clave.interestOps(SelectionKey.OP_READ);
+        enlace.fallos = 0;
+        enlace.conectado = true;
+        enlace.oyente.conectado();
+    }
+
+    /** Lee lo disponible y entrega cada línea completa; una línea más larga que el buffer se entrega en trozos. */
+    private void leer(Enlace enlace) throws IOException {
+        ByteBuffer buffer = enlace.lectura;
+        int leidos = enlace.canal.read(buffer);
+        buffer.flip();
+        int inicio = 0;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                int fin = i > inicio && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                enlace.oyente.linea(new String(buffer.array(), inicio, fin - inicio, StandardCharsets.UTF_8));
+                inicio = i + 1;
+            }
+        }
+        if (inicio == 0 && buffer.limit() == buffer.capacity()) {
+            enlace.oyente.linea(new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8));
+            inicio = buffer.limit();
+        }
+        buffer.position(inicio);
+        buffer.compact();
+        if (leidos < 0) throw new IOException("Conexión cerrada por el nodo");
+    }
+
+    private void escribir(Enlace enlace) throws IOException {
+        while (!enlace.escritura.isEmpty()) {
+            ByteBuffer pendiente = enlace.escritura.peek();
+            enlace.canal.write(pendiente);
+            if (pendiente.hasRemaining()) return;
+            enlace.escritura.poll();
+        }
+        enlace.clave.interestOps(SelectionKey.OP_READ);
+    }
+
+    /** Fallo de conexión o caída: se avisa y se reprograma con backoff exponencial y algo de azar. */
+    private void caida(Enlace enlace) {
+        boolean estaba = enlace.conectado;
+        soltarCanal(enlace);
+        if (estaba) enlace.oyente.desconectado();
+        if (enlace.cerrado) return;
+        long espera = Math.min(REINTENTO_MAX_MS, REINTENTO_BASE_MS << Math.min(enlace.fallos, 10));
+        espera += ThreadLocalRandom.current().nextLong(espera / 5 + 1);
+        enlace.fallos++;
+        enlace.temporizador = rueda.programar(System.currentTimeMillis() + espera, () -> ejecutar(() -> conectar(enlace)));
+    }
+
+    private void soltarCanal(Enlace enlace) {
+        if (enlace.temporizador != null) enlace.temporizador.cancelar();
+        enlace.conectado = false;
+        enlace.escritura.clear();
+        enlace.lectura.clear();
+        if (enlace.clave != null) enlace.clave.cancel();
+        if (enlace.canal != null) {
+            try { enlace.canal.close(); } catch (IOException ignored) {}
+        }
+        enlace.clave = null;
+        enlace.canal = null;
+    }
+}
@@ -0,0 +1,174 @@
+// PanelMetricas.java
+// Pestaña de métricas: tres gráficos globales (mensajes/s, litros/s por
+// combustible, nodos conectados) y una fila por nodo con sus sparklines,
+// ordenadas por carga reciente para que los puntos calientes queden arriba.
+// Se repinta a ritmo fijo desde un Timer; las coordenadas de las polilíneas
+// usan arreglos reservados una sola vez.
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+class PanelMetricas extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Color[] COLORES_TIPO = {
+            new Color(0x1f77b4), new Color(0x2ca02c), new Color(0xd62728), new Color(0x9467bd), new Color(0xff7f0e)};
+    private static final Color VERDE = new Color(0x2e7d32), ROJO = new Color(0xc62828);
+    private static final Color VERDE_CLARO = new Color(0xa5d6a7), ROJO_CLARO = new Color(0xef9a9a), SEPARADOR = new Color(0xeeeeee);
+    private static final int ALTO_FILA = 26;
+    private static final int VENTANA_CARGA_S = 10;
+
+    private final MetricasNodos metricas;
+    private final FilasNodos filas = new FilasNodos();
+    private final int[] xs = new int[MetricasNodos.MUESTRAS];
+    private final int[] ys = new int[MetricasNodos.MUESTRAS];
+    private List<MetricasNodos.Nodo> orden = new ArrayList<>();
+
+    PanelMetricas(MetricasNodos metricas, Predicate<String> estaConectado) {
+        super(new BorderLayout(8, 8));
+        this.metricas = metricas;
+        setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+
+        JPanel resumen = new JPanel(new GridLayout(1, 3, 8, 8));
+        resumen.add(new Grafico("Mensajes/s (total)", g -> serie(g, metricas.getTotal().mensajes, Color.DARK_GRAY)));
+        resumen.add(new Grafico("Litros/s por combustible", g -> {
+            for (int t = 0; t < MetricasNodos.TIPOS.size(); t++) serie(g, metricas.getTotal().litros[t], COLORES_TIPO[t]);
+        }));
+        resumen.add(new Grafico("Nodos conectados", g -> serie(g, metricas.getTotal().conectado, VERDE)));
+        resumen.setPreferredSize(new Dimension(100, 170));
+        add(resumen, BorderLayout.NORTH);
+
+        JScrollPane sp = new JScrollPane(filas);
+        sp.setBorder(BorderFactory.createTitledBorder("Por nodo (ordenado por carga de los últimos " + VENTANA_CARGA_S + " s)"));
+        sp.getVerticalScrollBar().setUnitIncrement(ALTO_FILA);
+        add(sp, BorderLayout.CENTER);
+
+        JPanel leyenda = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        for (int t = 0; t < MetricasNodos.TIPOS.size(); t++) {
+            JLabel l = new JLabel("■ " + MetricasNodos.TIPOS.get(t));
+            l.setForeground(COLORES_TIPO[t]);
+            leyenda.add(l);
+        }
+        add(leyenda, BorderLayout.SOUTH);
+
+        // Una muestra por segundo y un repintado por muestra
+        new javax.swing.Timer(1000, e -> {
+            metricas.cerrarSegundo(estaConectado);
+            reordenar();
+            repaint();
+        }).start();
+    }
+
+    private void reordenar() {
+        List<MetricasNodos.Nodo> nuevo = new ArrayList<>(metricas.getNodos());
+        nuevo.sort((a, b) -> Double.compare(
+                metricas.reciente(b.mensajes, VENTANA_CARGA_S), metricas.reciente(a.mensajes, VENTANA_CARGA_S)));
+        orden = nuevo;
+        filas.revalidate();
+    }
+
+    /** Dibuja la serie en el rectángulo actual del Graphics (clip), escalada a su máximo. */
+    private void serie(Graphics2D g, double[] datos, Color color) {
+        Rectangle r = g.getClipBounds();
+        int n = metricas.getMuestras();
+        if (n < 2) return;
+        double max = 0;
+        for (int i = 0; i < n; i++) max = Math.max(max, metricas.valor(datos, i));
+        if (max <= 0) max = 1;
+        for (int i = 0; i < n; i++) {
+            // i = 0 es el segundo más reciente y va a la derecha
+            xs[n - 1 - i] = r.x + r.width - 1 - (int) ((long) i * (r.width - 1) / (MetricasNodos.MUESTRAS - 1));
+            ys[n - 1 - i] = r.y + r.height - 1 - (int) (metricas.valor(datos, i) / max * (r.height - 2));
+        }
+        g.setColor(color);
+        g.drawPolyline(xs, ys, n);
+    }
+
+    // ======== Componentes ========
+
+    interface Pintor { void pintar(Graphics2D g); }
+
+    private static class Grafico extends JComponent {
+        private static final long serialVersionUID = 1L;
+        private final String titulo;
+        private final Pintor pintor;
+
+        Grafico(String titulo, Pintor pintor) {
+            this.titulo = titulo;
+            this.pintor = pintor;
+            setBorder(BorderFactory.createTitledBorder(titulo));
+        }
+
+        @Override protected void paintComponent(Graphics g0) {
+            Graphics2D g = (Graphics2D) g0.create();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            Insets in = getInsets();
+            g.clipRect(in.left + 4, in.top + 4, getWidth() - in.left - in.right - 8, getHeight() - in.top - in.bottom - 8);
+            pintor.pintar(g);
+            g.dispose();
+        }
+    }
+
+    /** Una fila por nodo; solo se pintan las visibles, así que miles de nodos no cuestan más. */
+    private class FilasNodos extends JComponent implements Scrollable {
+        private static final long serialVersionUID = 1L;
+        @Override public Dimension getPreferredSize() {
+            return new Dimension(600, Math.max(1, orden.size()) * ALTO_FILA);
+        }
+
+        @Override protected void paintComponent(Graphics g0) {
+            Graphics2D g = (Graphics2D) g0.create();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            Shape original = g.getClip();
+            Rectangle visible = g.getClipBounds();
+            List<MetricasNodos.Nodo> lista = orden;
+            int desde = Math.max(0, visible.y / ALTO_FILA);
+            int hasta = Math.min(lista.size(), (visible.y + visible.height) / ALTO_FILA + 1);
+            int ancho = getWidth();
+            int col = Math.max(120, (ancho - 460) / 2);
+            FontMetrics fm = g.getFontMetrics();
+            for (int i = desde; i < hasta; i++) {
+                MetricasNodos.Nodo nodo = lista.get(i);
+                int y = i * ALTO_FILA;
+                boolean ok = metricas.getMuestras() > 0 && metricas.valor(nodo.conectado, 0) > 0;
+                g.setClip(original);
+                g.setColor(ok ? VERDE : ROJO);
+                g.fillOval(6, y + 8, 10, 10);
+                g.setColor(Color.BLACK);
+                g.drawString(nodo.id, 22, y + 17);
+                g.drawString(String.format("%.0f msg/s", metricas.getMuestras() > 0 ? metricas.valor(nodo.mensajes, 0) : 0),
+                        200 + 2 * col + 20, y + 17);
+
+                g.setClip(200, y + 3, col - 10, ALTO_FILA - 6);
+                serie(g, nodo.mensajes, Color.DARK_GRAY);
+                g.setClip(200 + col, y + 3, col - 10, ALTO_FILA - 6);
+                for (int t = 0; t < MetricasNodos.TIPOS.size(); t++) serie(g, nodo.litros[t], COLORES_TIPO[t]);
+                // Tira de conexión: un píxel por muestra, rojo donde estuvo caído
+                g.setClip(original);
+                int n = metricas.getMuestras();
+                int x0 = 200 + 2 * col + 100;
+                for (int s = 0; s < n && x0 + s < ancho - 4; s++) {
+                    g.setColor(metricas.valor(nodo.conectado, n - 1 - s) > 0 ? VERDE_CLARO : ROJO_CLARO);
+                    g.drawLine(x0 + s, y + 8, x0 + s, y + 18);
+                }
+                g.setColor(SEPARADOR);
+                g.drawLine(0, y + ALTO_FILA - 1, ancho, y + ALTO_FILA - 1);
+            }
+            if (lista.isEmpty()) {
+                g.setColor(Color.GRAY);
+                g.drawString("Sin nodos: conecta alguno en “Configuración de Red”.", 10, fm.getAscent() + 6);
+            }
+            g.dispose();
+        }
+
+        @Override public Dimension getPreferredScrollableViewportSize() { return new Dimension(600, 10 * ALTO_FILA); }
+        @Override public int getScrollableUnitIncrement(Rectangle r, int o, int d) { return ALTO_FILA; }
+        @Override public int getScrollableBlockIncrement(Rectangle r, int o, int d) { return r.height; }
+        @Override public boolean getScrollableTracksViewportWidth() { return true; }
+        @Override public boolean getScrollableTracksViewportHeight() { return false; }
+    }
+}
@@ -0,0 +1,215 @@
+// ServidorAgente.java
+// Protocolo de líneas del agente de monitoreo, para el panel Swing remoto
+// (ClienteAgente) o para scripts (nc, telnet). Un hilo por cliente para leer;
+// lo que se le envía pasa por su ColaSalida, así que un suscriptor lento no
+// frena al multiplexor: pierde primero los MSG, ESCANEO y AVISO más antiguos.
+// Las respuestas (OK, RESP, FIN, ...) y los cambios de estado (NODO, ESTADO,
+// ALERTA) nunca se descartan; si no caben, el suscriptor se desconecta y al
+// volver recibe la foto de nodos de nuevo.
+//
+//   NODOS                        → NODO <nivel> <id> <ip> <puerto> <0|1> ... FIN
+//   METRICAS                     → METRICA <id> <msg/s> <litros/s> <0|1> ... FIN   (último segundo cerrado)
+//   SUSCRIBIR                    → los NODO actuales y después, a medida que ocurren:
+//                                  NODO ... | ESTADO <id> <0|1> | MSG <id> <línea> |
+//                                  ESCANEO <terminadas> <total> | AVISO <texto> |
+//                                  ALERTA <0|1> <regla> <id> <detalle>
+//   ALERTAS                      → ALERTA 1 <regla> <id> <detalle> ... FIN   (las activas)
+//   DETECTAR <redes> <puertos>   → OK (el resultado llega como eventos)
+//   AGREGAR <nivel> <id> <ip> <puerto>
+//   CONECTAR <id>|*              → OK
+//   MOVER <id> <ip>              → OK
+//   CAPTURA ON|OFF               → OK
+//   COMANDO <timeoutMs> <id,id,...> <comando...>
+//                                → RESP <id> <0|1> <micros> <texto> ... FIN
+//   SALIR
+//
+// Con ADMIN_TOKEN definido la primera orden debe ser "TOKEN <token>": el
+// agente reenvía COMANDO a las API de administración con ese mismo token.
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+class ServidorAgente {
+
+    private static final int CAPACIDAD_SUSCRIPTOR = Integer.parseInt(System.getenv().getOrDefault("AGENTE_COLA", "16384"));
+
+    private final AgenteMonitoreo agente;
+    private final ServerSocket servidor;
+
+    ServidorAgente(AgenteMonitoreo agente, String bind, int puerto) throws IOException {
+        this.agente = agente;
+        this.servidor = new ServerSocket();
+        this.servidor.bind(new InetSocketAddress(InetAddress.getByName(bind), puerto));
+    }
+
+    void iniciar() {
+        Thread hilo = new Thread(() -> {
+            while (!servidor.isClosed()) {
+                try {
+                    Socket socket = servidor.accept();
+                    Thread cliente = new Thread(() -> atender(socket), "Agente-" + socket.getRemoteSocketAddress());
+                    cliente.setDaemon(true);
+                    cliente.start();
+                } catch (IOException e) {
+                    if (!servidor.isClosed()) System.err.println("[ERROR] Aceptando suscriptor: " + e.getMessage());
+                }
+            }
+        }, "ServidorAgente");
+        hilo.setDaemon(true);
+        hilo.start();
+        System.out.println("[INFO] Agente escuchando en " + servidor.getLocalSocketAddress());
+    }
+
+    private void atender(Socket socket) {
+        String nombre = String.valueOf(socket.getRemoteSocketAddress());
+        Monitoreo.Oyente suscripcion = null;
+        ColaSalida salida = null;
+        boolean autenticado = ConsolaComandos.ADMIN_TOKEN.isEmpty();
+        try (BufferedReader entrada = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            salida = new ColaSalida(nombre, socket, CAPACIDAD_SUSCRIPTOR, ColaSalida.Politica.DESCARTAR_ANTIGUO);
+            salida.iniciar();
+            String linea;
+            while ((linea = entrada.readLine()) != null && salida.isActiva()) {
+                linea = linea.trim();
+                if (linea.isEmpty()) continue;
+                if (linea.equalsIgnoreCase("SALIR")) break;
+                String[] p = linea.split("\\s+");
+                if (!autenticado) {
+                    if (p[0].equalsIgnoreCase("TOKEN") && p.length == 2 && tokenValido(p[1])) {
+                        autenticado = true;
+                        salida.encolar("OK");
+                    } else {
+                        salida.encolar("ERROR: Se requiere TOKEN <token>");
+                        System.out.println("[WARN] Suscriptor " + nombre + " sin token válido, desconectando");
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    switch (p[0].toUpperCase()) {
+                        case "NODOS" -> {
+                            enviarNodos(salida);
+                            salida.encolar("FIN");
+                        }
+                        case "METRICAS" -> enviarMetricas(salida);
+                        case "ALERTAS" -> {
+                            // Clave "regla id [tipo]"; el tipo ya viene en el detalle
+                            for (Map.Entry<String, String> a : new TreeMap<>(agente.getAlertasActivas()).entrySet()) {
+                                String[] k = a.getKey().split(" ", 3);
+                                salida.encolar("ALERTA 1 " + k[0] + " " + k[1] + " " + a.getValue());
+                            }
+                            salida.encolar("FIN");
+                        }
+                        case "SUSCRIBIR" -> {
+                            if (suscripcion == null) {
+                                suscripcion = suscriptor(salida);
+                                // Primero la foto y después los cambios: un evento puede repetir un NODO ya enviado
+                                agente.suscribir(suscripcion);
+                                enviarNodos(salida);
+                            }
+                        }
+                        case "DETECTAR" -> {
+                            requerir(p, 3, "DETECTAR <redes> <puertos>");
+                            agente.detectar(p[1], p[2]);
+                            salida.encolar("OK");
+                        }
+                        case "AGREGAR" -> {
+                            requerir(p, 5, "AGREGAR <nivel> <id> <ip> <puerto>");
+                            salida.encolar(agente.agregar(p[1], p[2], p[3], Integer.parseInt(p[4])) ? "OK" : "ERROR: ya existe");
+                        }
+                        case "CONECTAR" -> {
+                            requerir(p, 2, "CONECTAR <id>|*");
+                            if (p[1].equals("*")) agente.conectarTodos(); else agente.conectar(p[1]);
+                            salida.encolar("OK");
+                        }
+                        case "MOVER" -> {
+                            requerir(p, 3, "MOVER <id> <ip>");
+                            agente.mover(p[1], p[2]);
+                            salida.encolar("OK");
+                        }
+                        case "CAPTURA" -> {
+                            requerir(p, 2, "CAPTURA ON|OFF");
+                            agente.capturar(p[1].equalsIgnoreCase("ON"));
+                            salida.encolar("OK");
+                        }
+                        case "COMANDO" -> {
+                            String[] c = linea.split("\\s+", 4);
+                            requerir(c, 4, "COMANDO <timeoutMs> <id,id,...> <comando>");
+                            ColaSalida destino = salida;
+                            agente.comando(List.of(c[2].split(",")), c[3], Long.parseLong(c[1])).thenAccept(respuestas -> {
+                                for (ConsolaComandos.Respuesta r : respuestas.values()) {
+                                    destino.encolar("RESP " + r.nodo() + " " + (r.ok() ? 1 : 0) + " " + r.micros() + " " + r.texto());
+                                }
+                                destino.encolar("FIN");
+                            });
+                        }
+                        default -> salida.encolar("ERROR: Comando no reconocido. Usa: NODOS, METRICAS, ALERTAS, SUSCRIBIR, DETECTAR, AGREGAR, CONECTAR, MOVER, CAPTURA, COMANDO, SALIR");
+                    }
+                } catch (IllegalArgumentException e) {
+                    salida.encolar("ERROR: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Suscriptor " + nombre + ": " + e.getMessage());
+        } finally {
+            if (suscripcion != null) agente.desuscribir(suscripcion);
+            if (salida != null) {
+                if (salida.getDescartados() > 0) {
+                    System.out.println("[WARN] Suscriptor " + nombre + " perdió " + salida.getDescartados() + " eventos (consumía lento)");
+                }
+                salida.cerrar();
+            }
+        }
+    }
+
+    private static boolean tokenValido(String token) {
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), ConsolaComandos.ADMIN_TOKEN.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void requerir(String[] partes, int n, String uso) {
+        if (partes.length < n) throw new IllegalArgumentException("Uso: " + uso);
+    }
+
+    private void enviarNodos(ColaSalida salida) {
+        List<Monitoreo.Nodo> lista = new ArrayList<>(agente.getNodos());
+        lista.sort(Comparator.comparing(Monitoreo.Nodo::id));
+        for (Monitoreo.Nodo n : lista) salida.encolar(lineaNodo(n, agente.estaConectado(n.id())));
+    }
+
+    private void enviarMetricas(ColaSalida salida) {
+        MetricasNodos m = agente.getMetricas();
+        if (m != null && m.getMuestras() > 0) {
+            List<MetricasNodos.Nodo> lista = new ArrayList<>(m.getNodos());
+            lista.sort(Comparator.comparing(n -> n.id));
+            for (MetricasNodos.Nodo n : lista) {
+                salida.encolar(String.format(Locale.ROOT, "METRICA %s %.0f %.2f %d", n.id,
+                        m.valor(n.mensajes, 0), m.valor(n.litrosTotal, 0), agente.estaConectado(n.id) ? 1 : 0));
+            }
+        }
+        salida.encolar("FIN");
+    }
+
+    static String lineaNodo(Monitoreo.Nodo n, boolean conectado) {
+        return "NODO " + n.nivel() + " " + n.id() + " " + n.ip() + " " + n.puerto() + " " + (conectado ? 1 : 0);
+    }
+
+    /** Reenvía los eventos del agente a un suscriptor; nunca bloquea al hilo que los produce. */
+    private static Monitoreo.Oyente suscriptor(ColaSalida salida) {
+        return new Monitoreo.Oyente() {
+            @Override public void nodo(Monitoreo.Nodo nodo, boolean conectado) { salida.encolar(lineaNodo(nodo, conectado)); }
+            @Override public void estado(String id, boolean conectado) { salida.encolar("ESTADO " + id + " " + (conectado ? 1 : 0)); }
+            @Override public void mensaje(String id, String linea) { salida.encolarDescartable("MSG " + id + " " + linea); }
+            @Override public void escaneo(int terminadas, int total) { salida.encolarDescartable("ESCANEO " + terminadas + " " + total); }
+            @Override public void aviso(String texto) { salida.encolarDescartable("AVISO " + texto); }
+            @Override public void alerta(String regla, String id, boolean activa, String detalle) {
+                salida.encolar("ALERTA " + (activa ? 1 : 0) + " " + regla + " " + id + " " + detalle);
+            }
+        };
+    }
+}